@@ -0,0 +1,420 @@
+package com.jpm.stockmarket.admission;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.model.Trade;
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.model.TradeView;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * admission control in front of trade ingestion. Every symbol has a token bucket of its own and all of them
+ * share a global one, a trade is admitted once both have a token. The symbol bucket is asked first, so a
+ * runaway symbol never takes more of the global rate than its own limit, and it only ever waits on its own
+ * queue: trades of other symbols go past it as long as the global rate allows. The overload policy decides
+ * what happens to a trade without a token, see {@link OverloadPolicy}. Blocked trades wait in a fair queue per
+ * symbol, bounded by admission.queue.capacity, and are rejected when the queue is full or the wait exceeds
+ * admission.block.timeout.millis. Once the global rate is exhausted its tokens go to the symbols waiting for
+ * one in the order they started waiting, so a hot symbol polling more often cannot starve the others.
+ * Figures per symbol are kept from the start and published over JMX. Symbols beyond admission.max.symbols
+ * share one gate, so unknown symbols cannot grow the gates without bound.
+ * Enabled with admission.enabled=true
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "admission.enabled", havingValue = "true")
+@ManagedResource(objectName = "com.jpm.stockmarket:type=AdmissionControl",
+        description = "per symbol and global rate limits of trade ingestion")
+public class AdmissionControl {
+
+    public static final long ADMITTED = 0;
+    // id of a trade written to the spill file instead of being recorded
+    public static final long SPILLED = -1;
+    // gate of the symbols beyond admission.max.symbols
+    public static final String OTHER_SYMBOLS = "*";
+
+    @Getter
+    private final OverloadPolicy policy;
+    private final double symbolRate;
+    private final double symbolBurst;
+    private final int queueCapacity;
+    private final long blockTimeoutNanos;
+    private final int maxSymbols;
+    private final TradeSpill spill;
+    private final LongSupplier nanoClock;
+
+    // guarded by itself, always taken after the bucket of a symbol
+    private final TokenBucket global;
+    // gates waiting for a global token under the BLOCK policy in the order they started waiting, guarded by global
+    private final Deque<SymbolGate> globalWaiters = new ArrayDeque<>();
+    private final Map<String, SymbolGate> gates = new ConcurrentHashMap<>();
+    private final SymbolGate otherSymbols;
+
+    @Autowired
+    public AdmissionControl(@Value("${admission.policy:BLOCK}") OverloadPolicy policy,
+                            @Value("${admission.symbol.rate:10000}") double symbolRate,
+                            @Value("${admission.symbol.burst:1000}") double symbolBurst,
+                            @Value("${admission.global.rate:100000}") double globalRate,
+                            @Value("${admission.global.burst:10000}") double globalBurst,
+                            @Value("${admission.queue.capacity:64}") int queueCapacity,
+                            @Value("${admission.block.timeout.millis:1000}") long blockTimeoutMillis,
+                            @Value("${admission.max.symbols:10000}") int maxSymbols,
+                            @Value("${admission.spill.file:spill/trades.csv}") String spillFile) {
+        this(policy, symbolRate, symbolBurst, globalRate, globalBurst, queueCapacity, blockTimeoutMillis, maxSymbols,
+                spillFile, System::nanoTime);
+    }
+
+    /**
+     * @param nanoClock time source of the token buckets and the waits, {@link System#nanoTime()} outside tests
+     */
+    AdmissionControl(OverloadPolicy policy, double symbolRate, double symbolBurst, double globalRate,
+                     double globalBurst, int queueCapacity, long blockTimeoutMillis, int maxSymbols, String spillFile,
+                     LongSupplier nanoClock) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("admission queue capacity must be positive");
+        }
+        if (maxSymbols <= 0) {
+            throw new IllegalArgumentException("admission max symbols must be positive");
+        }
+        if (symbolRate > 0 && symbolBurst < 1) {
+            throw new IllegalArgumentException("symbol burst must be at least one trade");
+        }
+        this.policy = policy;
+        this.symbolRate = symbolRate;
+        this.symbolBurst = symbolBurst;
+        this.queueCapacity = queueCapacity;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        this.maxSymbols = maxSymbols;
+        this.spill = new TradeSpill(Paths.get(spillFile));
+        this.nanoClock = nanoClock;
+        this.global = new TokenBucket(globalRate, globalBurst, nanoClock.getAsLong());
+        this.otherSymbols = new SymbolGate(OTHER_SYMBOLS);
+        gates.put(OTHER_SYMBOLS, otherSymbols);
+        log.info("admission control policy={} symbolRate={} globalRate={} queueCapacity={} maxSymbols={}", policy,
+                symbolRate, globalRate, queueCapacity, maxSymbols);
+    }
+
+    /**
+     * admit a trade for callers that can wait, e.g. the calculation service
+     *
+     * @param trade
+     * @return true to record the trade, false when it went to the spill file
+     * @throws GBCEServiceException when the trade is rejected, by the REJECT policy or a full queue
+     */
+    public boolean admit(Trade trade) throws GBCEServiceException {
+        SymbolGate gate = gate(trade.getStockSymbol());
+        if (gate == null) {
+            // the repository refuses it
+            return true;
+        }
+        // blocked trades of the symbol go first
+        if (gate.queued.get() == 0 && acquire(gate, nanoClock.getAsLong(), false) == 0) {
+            gate.admitted.incrementAndGet();
+            return true;
+        }
+        gate.throttled.incrementAndGet();
+        switch (policy) {
+            case REJECT:
+                throw reject(gate, "rate limit exceeded");
+            case SPILL:
+                Long timestampMillis = trade.getTimeStamp() == null ? null
+                        : trade.getTimeStamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                spill(gate, trade.getStockSymbol(), timestampMillis, trade.getShareQuantity(), trade.getIndicator(),
+                        trade.getTradePrice());
+                return false;
+            default:
+                block(gate);
+                return true;
+        }
+    }
+
+    /**
+     * admit a trade without waiting, for the selector thread of the trade gateway. Under the BLOCK policy the
+     * caller gets the time to wait and asks again for the same trade afterwards
+     *
+     * @param trade
+     * @param retry true when the trade was throttled before, it is only counted once
+     * @return {@link #ADMITTED}, {@link #SPILLED} or the nanoseconds to wait before asking again
+     * @throws GBCEServiceException when the trade is rejected
+     */
+    public long tryAdmit(TradeView trade, boolean retry) throws GBCEServiceException {
+        SymbolGate gate = gate(trade.getSymbol());
+        if (gate == null) {
+            return ADMITTED;
+        }
+        long wait = acquire(gate, nanoClock.getAsLong(), policy == OverloadPolicy.BLOCK);
+        if (wait == 0) {
+            gate.admitted.incrementAndGet();
+            return ADMITTED;
+        }
+        if (!retry) {
+            gate.throttled.incrementAndGet();
+        }
+        switch (policy) {
+            case REJECT:
+                throw reject(gate, "rate limit exceeded");
+            case SPILL:
+                spill(gate, trade.getSymbol(), trade.hasTimestamp() ? trade.getTimestampMillis() : null,
+                        trade.getQuantity(), trade.getIndicator(),
+                        trade.isPriced() ? BigDecimal.valueOf(trade.getPriceUnscaled(), trade.getPriceScale()) : null);
+                return SPILLED;
+            default:
+                return wait;
+        }
+    }
+
+    private SymbolGate gate(String symbol) {
+        if (symbol == null) {
+            return null;
+        }
+        SymbolGate gate = gates.get(symbol);
+        if (gate != null) {
+            return gate;
+        }
+        // a few more may be added by trades of new symbols arriving together
+        return gates.size() > maxSymbols ? otherSymbols : gates.computeIfAbsent(symbol, SymbolGate::new);
+    }
+
+    /**
+     * take a token of the symbol and a global one together, or none
+     *
+     * @param wait true when the caller asks again until it gets the tokens, it then waits its turn for a global one
+     * @return 0 when taken, the nanoseconds until both may have one otherwise
+     */
+    private long acquire(SymbolGate gate, long nowNanos, boolean wait) {
+        synchronized (gate.bucket) {
+            long symbolWait = gate.bucket.nanosUntilToken(nowNanos);
+            if (symbolWait > 0) {
+                return symbolWait;
+            }
+            synchronized (global) {
+                long globalWait = globalTurn(gate, nowNanos, wait);
+                if (globalWait > 0) {
+                    return globalWait;
+                }
+                global.take();
+            }
+            gate.bucket.take();
+            return 0;
+        }
+    }
+
+    /**
+     * global tokens go to the waiting gates first, in the order they started waiting. Others only get one that
+     * is left over. Gates waiting longer than the block timeout are dropped, e.g. of a closed gateway connection
+     *
+     * @return 0 when the gate may take a global token, the nanoseconds until its turn may come otherwise
+     */
+    private long globalTurn(SymbolGate gate, long nowNanos, boolean wait) {
+        while (!globalWaiters.isEmpty()
+                && nowNanos - globalWaiters.peekFirst().globalWaitingSinceNanos > blockTimeoutNanos) {
+            globalWaiters.pollFirst().globalWaiting = false;
+        }
+        int ahead = 0;
+        if (gate.globalWaiting) {
+            for (SymbolGate waiter : globalWaiters) {
+                if (waiter == gate) {
+                    break;
+                }
+                ahead++;
+            }
+        } else {
+            ahead = globalWaiters.size();
+        }
+        long globalWait = global.nanosUntilTokens(ahead + 1, nowNanos);
+        if (globalWait == 0) {
+            leaveGlobalWaiters(gate);
+        } else if (wait && !gate.globalWaiting) {
+            gate.globalWaiting = true;
+            gate.globalWaitingSinceNanos = nowNanos;
+            globalWaiters.addLast(gate);
+        }
+        return globalWait;
+    }
+
+    private void leaveGlobalWaiters(SymbolGate gate) {
+        if (gate.globalWaiting) {
+            globalWaiters.remove(gate);
+            gate.globalWaiting = false;
+        }
+    }
+
+    private void block(SymbolGate gate) throws GBCEServiceException {
+        if (gate.queued.incrementAndGet() > queueCapacity) {
+            gate.queued.decrementAndGet();
+            throw reject(gate, "ingest queue full");
+        }
+        long start = nanoClock.getAsLong();
+        try {
+            gate.turn.lockInterruptibly();
+            try {
+                long wait;
+                while ((wait = acquire(gate, nanoClock.getAsLong(), true)) > 0) {
+                    long remaining = blockTimeoutNanos - (nanoClock.getAsLong() - start);
+                    if (remaining <= 0) {
+                        throw reject(gate, "rate limit wait timed out");
+                    }
+                    LockSupport.parkNanos(Math.min(wait, remaining));
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+                gate.admitted.incrementAndGet();
+            } finally {
+                gate.turn.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GBCEServiceException(e);
+        } finally {
+            if (gate.queued.decrementAndGet() == 0) {
+                // nobody of the symbol waits for a global token anymore
+                synchronized (global) {
+                    leaveGlobalWaiters(gate);
+                }
+            }
+            gate.blockedNanos.addAndGet(nanoClock.getAsLong() - start);
+        }
+    }
+
+    private GBCEServiceException reject(SymbolGate gate, String reason) {
+        gate.rejected.incrementAndGet();
+        return new GBCEServiceException(reason + " for symbol=" + gate.symbol + ", trade rejected");
+    }
+
+    /**
+     * the symbol is the trade's own, the gate may be the one shared by the symbols beyond the maximum
+     */
+    private void spill(SymbolGate gate, String symbol, Long timestampMillis, long quantity, TradeIndicator indicator,
+                       BigDecimal price) throws GBCEServiceException {
+        try {
+            spill.write(symbol, timestampMillis, quantity, indicator, price);
+            gate.spilled.incrementAndGet();
+        } catch (IOException e) {
+            gate.rejected.incrementAndGet();
+            throw new GBCEServiceException(e);
+        }
+    }
+
+    /**
+     * @return figures of every symbol seen so far
+     */
+    public List<AdmissionStatistics> getStatistics() {
+        List<AdmissionStatistics> statistics = new ArrayList<>(gates.size());
+        for (SymbolGate gate : gates.values()) {
+            statistics.add(gate.statistics());
+        }
+        return statistics;
+    }
+
+    /**
+     * @param symbol
+     * @return null when no trade of the symbol arrived yet
+     */
+    public AdmissionStatistics getStatistics(String symbol) {
+        SymbolGate gate = gates.get(symbol);
+        return gate == null ? null : gate.statistics();
+    }
+
+    @ManagedAttribute(description = "trades admitted")
+    public long getAdmittedTrades() {
+        return sum(gate -> gate.admitted.get());
+    }
+
+    @ManagedAttribute(description = "trades that arrived without a token")
+    public long getThrottledTrades() {
+        return sum(gate -> gate.throttled.get());
+    }
+
+    @ManagedAttribute(description = "trades rejected by the policy, a full queue or a timed out wait")
+    public long getRejectedTrades() {
+        return sum(gate -> gate.rejected.get());
+    }
+
+    @ManagedAttribute(description = "trades written to the spill file")
+    public long getSpilledTrades() {
+        return sum(gate -> gate.spilled.get());
+    }
+
+    @ManagedAttribute(description = "overload policy, BLOCK, REJECT or SPILL")
+    public String getOverloadPolicy() {
+        return policy.name();
+    }
+
+    @ManagedOperation(description = "admission figures of one symbol")
+    @ManagedOperationParameters({@ManagedOperationParameter(name = "symbol", description = "stock symbol")})
+    public String symbolStatistics(String symbol) {
+        return String.valueOf(getStatistics(symbol));
+    }
+
+    private long sum(ToLongFunction<SymbolGate> figure) {
+        long sum = 0;
+        for (SymbolGate gate : gates.values()) {
+            sum += figure.applyAsLong(gate);
+        }
+        return sum;
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        spill.close();
+    }
+
+    private final class SymbolGate {
+
+        private final String symbol;
+        private final TokenBucket bucket;
+        // blocked trades take their turn in arrival order
+        private final ReentrantLock turn = new ReentrantLock(true);
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicLong admitted = new AtomicLong();
+        private final AtomicLong throttled = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong spilled = new AtomicLong();
+        private final AtomicLong blockedNanos = new AtomicLong();
+        // waiting in line for a global token, guarded by global
+        private boolean globalWaiting;
+        private long globalWaitingSinceNanos;
+
+        private SymbolGate(String symbol) {
+            this.symbol = symbol;
+            this.bucket = new TokenBucket(symbolRate, symbolBurst, nanoClock.getAsLong());
+        }
+
+        private AdmissionStatistics statistics() {
+            return new AdmissionStatistics(symbol, admitted.get(), throttled.get(), rejected.get(), spilled.get(),
+                    queued.get(), TimeUnit.NANOSECONDS.toMillis(blockedNanos.get()));
+        }
+    }
+}
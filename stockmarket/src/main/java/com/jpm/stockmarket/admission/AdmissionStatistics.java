@@ -0,0 +1,33 @@
+package com.jpm.stockmarket.admission;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * admission figures of one symbol since startup. A throttled trade found no token when it arrived, whatever
+ * the overload policy did with it afterwards
+ */
+@Getter
+@ToString
+public class AdmissionStatistics {
+
+    private final String symbol;
+    private final long admitted;
+    private final long throttled;
+    private final long rejected;
+    private final long spilled;
+    // trades waiting in the queue of the symbol right now
+    private final int queued;
+    private final long blockedMillis;
+
+    public AdmissionStatistics(String symbol, long admitted, long throttled, long rejected, long spilled,
+                               int queued, long blockedMillis) {
+        this.symbol = symbol;
+        this.admitted = admitted;
+        this.throttled = throttled;
+        this.rejected = rejected;
+        this.spilled = spilled;
+        this.queued = queued;
+        this.blockedMillis = blockedMillis;
+    }
+}
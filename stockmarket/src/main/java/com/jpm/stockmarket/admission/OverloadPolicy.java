@@ -0,0 +1,14 @@
+package com.jpm.stockmarket.admission;
+
+/**
+ * what happens to a trade arriving while its symbol or the whole market is over its rate limit
+ */
+public enum OverloadPolicy {
+
+    // wait in the bounded queue of the symbol until the rate allows the trade
+    BLOCK,
+    // refuse the trade with a GBCEServiceException
+    REJECT,
+    // append the trade to the spill file instead of recording it, to be loaded later
+    SPILL
+}
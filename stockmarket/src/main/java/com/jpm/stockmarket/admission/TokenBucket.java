@@ -0,0 +1,70 @@
+package com.jpm.stockmarket.admission;
+
+/**
+ * rate limit refilled continuously at a fixed rate up to its burst size, one token per trade. A rate of 0 or
+ * less does not limit. Not thread safe, guarded by the owner
+ */
+final class TokenBucket {
+
+    private final boolean unlimited;
+    private final double tokensPerNano;
+    private final double burst;
+    private double tokens;
+    private long refilledAtNanos;
+
+    /**
+     * @param ratePerSecond tokens added per second
+     * @param burst         most tokens held, at least 1
+     * @param nowNanos      {@link System#nanoTime()} the bucket starts full at
+     */
+    TokenBucket(double ratePerSecond, double burst, long nowNanos) {
+        if (!unlimited(ratePerSecond) && burst < 1) {
+            throw new IllegalArgumentException("burst must be at least one trade");
+        }
+        this.unlimited = unlimited(ratePerSecond);
+        this.tokensPerNano = ratePerSecond / 1e9;
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilledAtNanos = nowNanos;
+    }
+
+    private static boolean unlimited(double ratePerSecond) {
+        return ratePerSecond <= 0;
+    }
+
+    /**
+     * @return 0 when a token is available now, the nanoseconds until the next one otherwise
+     */
+    long nanosUntilToken(long nowNanos) {
+        return nanosUntilTokens(1, nowNanos);
+    }
+
+    /**
+     * @param count tokens needed
+     * @return 0 when the tokens are available now, the nanoseconds until the next whole token otherwise, the
+     * others ahead take theirs meanwhile
+     */
+    long nanosUntilTokens(double count, long nowNanos) {
+        if (unlimited) {
+            return 0;
+        }
+        if (nowNanos > refilledAtNanos) {
+            tokens = Math.min(burst, tokens + (nowNanos - refilledAtNanos) * tokensPerNano);
+            refilledAtNanos = nowNanos;
+        }
+        if (tokens >= count) {
+            return 0;
+        }
+        double next = Math.min(count, Math.floor(tokens) + 1);
+        return Math.max(1, (long) Math.ceil((next - tokens) / tokensPerNano));
+    }
+
+    /**
+     * take a token, only after {@link #nanosUntilToken(long)} returned 0
+     */
+    void take() {
+        if (!unlimited) {
+            tokens -= 1;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.jpm.stockmarket.admission;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.jpm.stockmarket.model.TradeIndicator;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * file the trades shed under the SPILL policy are appended to, in the CSV format of the bulk loader, so they
+ * can be recorded later with {@link com.jpm.stockmarket.loader.BulkTradeLoader}. Timestamps are written as epoch
+ * milliseconds, missing fields stay empty. The file is opened on the first spilled trade and every trade is
+ * flushed right away
+ */
+@Slf4j
+final class TradeSpill implements Closeable {
+
+    @Getter
+    private final Path file;
+    // guarded by this
+    private BufferedWriter writer;
+
+    TradeSpill(Path file) {
+        this.file = file;
+    }
+
+    synchronized void write(String symbol, Long timestampMillis, long quantity, TradeIndicator indicator,
+                            BigDecimal price) throws IOException {
+        if (writer == null) {
+            open();
+        }
+        writer.write(symbol);
+        writer.write(',');
+        if (timestampMillis != null) {
+            writer.write(Long.toString(timestampMillis));
+        }
+        writer.write(',');
+        writer.write(Long.toString(quantity));
+        writer.write(',');
+        if (indicator != null) {
+            writer.write(indicator.name());
+        }
+        writer.write(',');
+        if (price != null) {
+            writer.write(price.toPlainString());
+        }
+        writer.newLine();
+        writer.flush();
+    }
+
+    private void open() throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        boolean empty = !Files.exists(file) || Files.size(file) == 0;
+        writer = Files.newBufferedWriter(file, StandardCharsets.US_ASCII, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+        if (empty) {
+            writer.write("symbol,timestamp,quantity,indicator,price");
+            writer.newLine();
+        }
+        log.warn("spilling trades over the rate limit to file={}", file);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.jpm.stockmarket.analytics;
+
+import lombok.Getter;
+
+/**
+ * count-min sketch of weights per key in depth x width counters.
+ * <p>
+ * Error bound: an estimate is never below the true weight and, with probability at least 1 - delta, exceeds it
+ * by at most epsilon * total weight, where epsilon = e / width and delta = e^-depth. For example width 2048 and
+ * depth 5 give 0.13% of the total volume with 99.3% confidence.
+ * <p>
+ * The bound needs the rows to be independent. Each key is hashed once to 64 bits over its characters and row i
+ * takes column h1 + i * h2 of the two halves, so keys that collide in {@link String#hashCode()} do not collide in
+ * every row.
+ * <p>
+ * Memory is fixed at depth * width counters. Sketches of the same dimensions merge by adding the counters.
+ * Not thread safe
+ */
+public class CountMinSketch {
+
+    @Getter
+    private final int width;
+    @Getter
+    private final int depth;
+    private final long[][] counters;
+    @Getter
+    private long totalWeight;
+
+    public CountMinSketch(int width, int depth) {
+        if (width < 1 || depth < 1) {
+            throw new IllegalArgumentException("invalid dimensions width=" + width + ", depth=" + depth);
+        }
+        this.width = width;
+        this.depth = depth;
+        this.counters = new long[depth][width];
+    }
+
+    /**
+     * add the weight and return the new estimate of the key
+     *
+     * @param key
+     * @param weight
+     * @return
+     */
+    public long add(String key, long weight) {
+        long hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            long[] counter = counters[row];
+            int column = column(hash, row);
+            counter[column] += weight;
+            estimate = Math.min(estimate, counter[column]);
+        }
+        totalWeight += weight;
+        return estimate;
+    }
+
+    public long estimate(String key) {
+        long hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[row][column(hash, row)]);
+        }
+        return estimate;
+    }
+
+    public void merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("cannot merge sketches of different dimensions");
+        }
+        for (int row = 0; row < depth; row++) {
+            for (int column = 0; column < width; column++) {
+                counters[row][column] += other.counters[row][column];
+            }
+        }
+        totalWeight += other.totalWeight;
+    }
+
+    public void clear() {
+        for (long[] counter : counters) {
+            java.util.Arrays.fill(counter, 0);
+        }
+        totalWeight = 0;
+    }
+
+    private int column(long hash, int row) {
+        long h1 = hash & 0xFFFFFFFFL;
+        // odd, so the rows step through all the columns of a power of two width
+        long h2 = (hash >>> 32) | 1;
+        return (int) ((h1 + row * h2) % width);
+    }
+
+    /**
+     * FNV-1a over the characters of the key, finished with the murmur3 64 bit mix
+     */
+    private static long hash(String key) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+}
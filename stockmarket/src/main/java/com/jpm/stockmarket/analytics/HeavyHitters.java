@@ -0,0 +1,102 @@
+package com.jpm.stockmarket.analytics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * top symbols by traded volume, a {@link CountMinSketch} for the volumes plus at most capacity candidate
+ * symbols with the highest estimates. As long as fewer than capacity symbols are traded the candidates are
+ * exact, otherwise a symbol is only missed if its volume is close to the smallest candidate's. The reported
+ * volumes carry the error bound of the count-min sketch. Estimates of known candidates are updated in place, so
+ * adding volume for them does not allocate. Not thread safe
+ */
+public class HeavyHitters {
+
+    private final int capacity;
+    private final CountMinSketch sketch;
+    private final Map<String, Candidate> candidates;
+
+    public HeavyHitters(int capacity, int width, int depth) {
+        this.capacity = capacity;
+        this.sketch = new CountMinSketch(width, depth);
+        this.candidates = new HashMap<>(capacity * 2);
+    }
+
+    public void add(String symbol, long volume) {
+        long estimate = sketch.add(symbol, volume);
+        Candidate candidate = candidates.get(symbol);
+        if (candidate != null) {
+            candidate.estimate = estimate;
+            return;
+        }
+        if (candidates.size() < capacity) {
+            candidates.put(symbol, new Candidate(symbol, estimate));
+            return;
+        }
+        Candidate smallest = smallest();
+        if (estimate > smallest.estimate) {
+            candidates.remove(smallest.symbol);
+            candidates.put(symbol, new Candidate(symbol, estimate));
+        }
+    }
+
+    public void merge(HeavyHitters other) {
+        sketch.merge(other.sketch);
+        List<String> symbols = new ArrayList<>(candidates.keySet());
+        symbols.addAll(other.candidates.keySet());
+        candidates.clear();
+        // re-estimate every known candidate against the merged sketch and keep the best
+        symbols.stream().distinct()
+                .map(s -> new VolumeEstimate(s, sketch.estimate(s)))
+                .sorted(Comparator.comparingLong(VolumeEstimate::getVolume).reversed())
+                .limit(capacity)
+                .forEach(e -> candidates.put(e.getSymbol(), new Candidate(e.getSymbol(), e.getVolume())));
+    }
+
+    /**
+     * @param n
+     * @return up to n symbols with the highest estimated volume, highest first
+     */
+    public List<VolumeEstimate> top(int n) {
+        return candidates.values().stream()
+                .map(c -> new VolumeEstimate(c.symbol, c.estimate))
+                .sorted(Comparator.comparingLong(VolumeEstimate::getVolume).reversed()
+                        .thenComparing(VolumeEstimate::getSymbol))
+                .limit(n)
+                .collect(Collectors.toList());
+    }
+
+    public long getTotalVolume() {
+        return sketch.getTotalWeight();
+    }
+
+    public void clear() {
+        sketch.clear();
+        candidates.clear();
+    }
+
+    private Candidate smallest() {
+        Candidate smallest = null;
+        for (Candidate candidate : candidates.values()) {
+            if (smallest == null || candidate.estimate < smallest.estimate) {
+                smallest = candidate;
+            }
+        }
+        return smallest;
+    }
+
+    private static final class Candidate {
+
+        private final String symbol;
+        private long estimate;
+
+        private Candidate(String symbol, long estimate) {
+            this.symbol = symbol;
+            this.estimate = estimate;
+        }
+    }
+}
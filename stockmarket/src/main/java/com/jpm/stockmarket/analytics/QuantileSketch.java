@@ -0,0 +1,180 @@
+package com.jpm.stockmarket.analytics;
+
+import java.util.Arrays;
+
+import lombok.Getter;
+
+/**
+ * quantile sketch over positive values with logarithmic buckets (the DDSketch scheme).
+ * A value x is counted in bucket i = ceil(log(x) / log(gamma)) with gamma = (1 + a) / (1 - a), so every bucket
+ * spans values within a relative distance a of its representative value.
+ * <p>
+ * Error bound: any quantile returned is within a relative error a of the exact quantile of the recorded
+ * values, as long as at most maxBuckets buckets are needed, i.e. the values span less than gamma^maxBuckets
+ * (with a = 1% and 2048 buckets that is a ratio of about 10^17). Beyond that the lowest buckets are folded
+ * together and only the low quantiles lose accuracy.
+ * <p>
+ * Memory is bounded by maxBuckets counters. Sketches with the same accuracy can be merged and the result is
+ * the same as if all the values were recorded in one sketch. Not thread safe
+ */
+public class QuantileSketch {
+
+    @Getter
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+    private final int maxBuckets;
+
+    // counts[i] holds bucket offset + i
+    private long[] counts = new long[0];
+    private int offset;
+    // values that are zero or negative, kept apart as they have no logarithm and reported as 0
+    private long zeroCount;
+    @Getter
+    private long count;
+    @Getter
+    private double min = Double.NaN;
+    @Getter
+    private double max = Double.NaN;
+
+    public QuantileSketch(double relativeAccuracy, int maxBuckets) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("relative accuracy must be between 0 and 1=" + relativeAccuracy);
+        }
+        if (maxBuckets < 1) {
+            throw new IllegalArgumentException("max buckets must be positive=" + maxBuckets);
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+        this.maxBuckets = maxBuckets;
+    }
+
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    public void add(double value, long weight) {
+        if (weight <= 0 || Double.isNaN(value)) {
+            return;
+        }
+        if (value <= 0) {
+            zeroCount += weight;
+        } else {
+            // slot() may replace the array, so it has to run before counts is read
+            int slot = slot((int) Math.ceil(Math.log(value) / logGamma));
+            counts[slot] += weight;
+        }
+        count += weight;
+        min = count == weight ? value : Math.min(min, value);
+        max = count == weight ? value : Math.max(max, value);
+    }
+
+    /**
+     * add all the values of the other sketch to this one
+     *
+     * @param other must have the same relative accuracy
+     */
+    public void merge(QuantileSketch other) {
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("cannot merge sketches of different accuracy");
+        }
+        if (other.count == 0) {
+            return;
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            if (other.counts[i] != 0) {
+                int slot = slot(other.offset + i);
+                counts[slot] += other.counts[i];
+            }
+        }
+        zeroCount += other.zeroCount;
+        min = count == 0 ? other.min : Math.min(min, other.min);
+        max = count == 0 ? other.max : Math.max(max, other.max);
+        count += other.count;
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return estimated value, NaN if nothing was recorded
+     */
+    public double quantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("quantile must be between 0 and 1=" + quantile);
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        // rank of the value, 0 based
+        long rank = (long) (quantile * (count - 1));
+        if (rank < zeroCount) {
+            return 0;
+        }
+        long seen = zeroCount;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                double estimate = 2 * Math.pow(gamma, offset + i) / (gamma + 1);
+                // the exact extremes are known, never report beyond them
+                return Math.min(Math.max(estimate, min), max);
+            }
+        }
+        return max;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public QuantileSketch copy() {
+        QuantileSketch copy = new QuantileSketch(relativeAccuracy, maxBuckets);
+        copy.merge(this);
+        return copy;
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        zeroCount = 0;
+        count = 0;
+        min = Double.NaN;
+        max = Double.NaN;
+    }
+
+    /**
+     * position of the bucket in counts, growing the array up to maxBuckets and folding the lowest buckets
+     * once the range would not fit anymore
+     */
+    private int slot(int bucket) {
+        if (counts.length == 0) {
+            counts = new long[Math.min(8, maxBuckets)];
+            offset = bucket;
+            return 0;
+        }
+        int low = offset;
+        int high = offset + counts.length - 1;
+        if (bucket >= low && bucket <= high) {
+            return bucket - offset;
+        }
+        if (bucket < low && counts.length == maxBuckets) {
+            // already at full size, lower values are folded into the lowest bucket
+            return 0;
+        }
+        int span = Math.max(high, bucket) - Math.min(low, bucket) + 1;
+        int length = Math.min(maxBuckets, Math.max(span, counts.length * 2));
+        int newLow;
+        if (bucket > high) {
+            // keep the current buckets if possible, otherwise fold the lowest ones
+            newLow = span <= length ? low : bucket - length + 1;
+        } else {
+            // leave room below for further low values, folding the new bucket itself when out of range
+            newLow = high - length + 1;
+        }
+        long[] resized = new long[length];
+        for (int i = 0; i < counts.length; i++) {
+            resized[Math.max(low + i, newLow) - newLow] += counts[i];
+        }
+        counts = resized;
+        offset = newLow;
+        return Math.max(bucket, newLow) - newLow;
+    }
+}
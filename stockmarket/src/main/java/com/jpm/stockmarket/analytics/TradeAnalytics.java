@@ -0,0 +1,219 @@
+package com.jpm.stockmarket.analytics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * approximate trade analytics over a sliding window with bounded memory.
+ * The window is split into bucketCount time buckets of bucketMillis each; every bucket holds a
+ * {@link QuantileSketch} of trade prices per symbol and one {@link HeavyHitters} of traded volume per symbol.
+ * Queries merge the buckets that are still inside the window, so the error bounds of the sketches hold for the
+ * whole window. A bucket is reset when the ring comes round to it again.
+ * The window can be reshaped while trades are recorded: trades go to a new ring of buckets from then on and the
+ * old ring is retired, queries keep merging its buckets until they left the new window, so no trade is lost.
+ * Buckets lock themselves, so recording and queries can run on different threads
+ */
+public class TradeAnalytics {
+
+    private final double relativeAccuracy;
+    private final int maxSketchBuckets;
+    private final int heavyHitterCapacity;
+    private final int sketchWidth;
+    private final int sketchDepth;
+
+    // ring trades are recorded into
+    private volatile Ring ring;
+    // rings replaced by a reshape, queried until all their buckets left the window
+    private volatile Ring[] retired = new Ring[0];
+
+    public TradeAnalytics(long bucketMillis, int bucketCount, double relativeAccuracy, int maxSketchBuckets,
+                          int heavyHitterCapacity, int sketchWidth, int sketchDepth) {
+        this.relativeAccuracy = relativeAccuracy;
+        this.maxSketchBuckets = maxSketchBuckets;
+        this.heavyHitterCapacity = heavyHitterCapacity;
+        this.sketchWidth = sketchWidth;
+        this.sketchDepth = sketchDepth;
+        this.ring = new Ring(bucketMillis, bucketCount);
+    }
+
+    public long getBucketMillis() {
+        return ring.bucketMillis;
+    }
+
+    public int getBucketCount() {
+        return ring.bucketCount;
+    }
+
+    /**
+     * change the buckets, and with them the window, for the trades recorded from now on. The trades recorded so
+     * far stay in their buckets and are part of every query as long as their bucket overlaps the new window
+     *
+     * @param bucketMillis
+     * @param bucketCount
+     * @param nowMillis
+     */
+    public synchronized void reshape(long bucketMillis, int bucketCount, long nowMillis) {
+        if (bucketMillis <= 0 || bucketCount <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "analytics buckets must be positive, bucketMillis=%d bucketCount=%d", bucketMillis, bucketCount));
+        }
+        Ring previous = ring;
+        previous.retiredAtMillis = nowMillis;
+        Ring next = new Ring(bucketMillis, bucketCount);
+        List<Ring> rings = new ArrayList<>(Arrays.asList(retired));
+        rings.add(previous);
+        rings.removeIf(r -> !r.overlaps(next.oldestLiveStart(nowMillis)));
+        retired = rings.toArray(new Ring[0]);
+        ring = next;
+    }
+
+    /**
+     * add a trade to the bucket of the given time
+     *
+     * @param symbol
+     * @param price
+     * @param quantity
+     * @param timeMillis
+     */
+    public void record(String symbol, double price, long quantity, long timeMillis) {
+        Ring current = ring;
+        long start = current.bucketStart(timeMillis);
+        TimeBucket bucket = current.buckets[(int) Math.floorMod(start / current.bucketMillis,
+                (long) current.bucketCount)];
+        synchronized (bucket) {
+            if (bucket.start != start) {
+                if (bucket.start > start) {
+                    // already reused for a later period, the trade is outside the window
+                    return;
+                }
+                bucket.reset(start);
+            }
+            // no capturing lambda, recording a known symbol must not allocate
+            QuantileSketch sketch = bucket.prices.get(symbol);
+            if (sketch == null) {
+                sketch = new QuantileSketch(relativeAccuracy, maxSketchBuckets);
+                bucket.prices.put(symbol, sketch);
+            }
+            sketch.add(price);
+            bucket.volumes.add(symbol, quantity);
+        }
+    }
+
+    /**
+     * merged price sketch of the symbol over the window ending at the given time
+     *
+     * @param symbol
+     * @param nowMillis
+     * @return empty sketch when the symbol did not trade within the window
+     */
+    public QuantileSketch getPriceSketch(String symbol, long nowMillis) {
+        QuantileSketch merged = new QuantileSketch(relativeAccuracy, maxSketchBuckets);
+        Ring current = ring;
+        long oldest = current.oldestLiveStart(nowMillis);
+        for (TimeBucket bucket : current.buckets) {
+            synchronized (bucket) {
+                QuantileSketch sketch = bucket.prices.get(symbol);
+                if (bucket.start >= oldest && sketch != null) {
+                    merged.merge(sketch);
+                }
+            }
+        }
+        for (Ring old : retired) {
+            for (TimeBucket bucket : old.buckets) {
+                synchronized (bucket) {
+                    QuantileSketch sketch = bucket.prices.get(symbol);
+                    if (old.overlaps(bucket, oldest) && sketch != null) {
+                        merged.merge(sketch);
+                    }
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * merged traded volumes over the window ending at the given time
+     *
+     * @param nowMillis
+     * @return
+     */
+    public HeavyHitters getVolumes(long nowMillis) {
+        HeavyHitters merged = new HeavyHitters(heavyHitterCapacity, sketchWidth, sketchDepth);
+        Ring current = ring;
+        long oldest = current.oldestLiveStart(nowMillis);
+        for (TimeBucket bucket : current.buckets) {
+            synchronized (bucket) {
+                if (bucket.start >= oldest) {
+                    merged.merge(bucket.volumes);
+                }
+            }
+        }
+        for (Ring old : retired) {
+            for (TimeBucket bucket : old.buckets) {
+                synchronized (bucket) {
+                    if (old.overlaps(bucket, oldest)) {
+                        merged.merge(bucket.volumes);
+                    }
+                }
+            }
+        }
+        return merged;
+    }
+
+    public List<VolumeEstimate> getTopSymbolsByVolume(int n, long nowMillis) {
+        return getVolumes(nowMillis).top(n);
+    }
+
+    private final class Ring {
+
+        private final long bucketMillis;
+        private final int bucketCount;
+        private final TimeBucket[] buckets;
+        // no trades are recorded into a retired ring after this, apart from the ones racing the reshape
+        private volatile long retiredAtMillis = Long.MAX_VALUE;
+
+        private Ring(long bucketMillis, int bucketCount) {
+            this.bucketMillis = bucketMillis;
+            this.bucketCount = bucketCount;
+            this.buckets = new TimeBucket[bucketCount];
+            for (int i = 0; i < bucketCount; i++) {
+                buckets[i] = new TimeBucket();
+            }
+        }
+
+        private long bucketStart(long timeMillis) {
+            return Math.floorDiv(timeMillis, bucketMillis) * bucketMillis;
+        }
+
+        private long oldestLiveStart(long nowMillis) {
+            return bucketStart(nowMillis) - (bucketCount - 1) * bucketMillis;
+        }
+
+        private boolean overlaps(TimeBucket bucket, long windowStart) {
+            return bucket.start != Long.MIN_VALUE && bucket.start + bucketMillis > windowStart;
+        }
+
+        // whether the newest bucket of the retired ring still overlaps a window starting at the given time
+        private boolean overlaps(long windowStart) {
+            return bucketStart(retiredAtMillis) + bucketMillis > windowStart;
+        }
+    }
+
+    private final class TimeBucket {
+
+        private long start = Long.MIN_VALUE;
+        private final Map<String, QuantileSketch> prices = new HashMap<>();
+        private final HeavyHitters volumes = new HeavyHitters(heavyHitterCapacity, sketchWidth, sketchDepth);
+
+        private void reset(long newStart) {
+            start = newStart;
+            // the price sketches of symbols that keep trading are reused
+            prices.values().removeIf(QuantileSketch::isEmpty);
+            prices.values().forEach(QuantileSketch::clear);
+            volumes.clear();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.jpm.stockmarket.analytics;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * estimated traded volume of a symbol, at most epsilon * total volume above the true one
+ */
+@ToString
+public class VolumeEstimate {
+
+    @Getter
+    private final String symbol;
+    @Getter
+    private final long volume;
+
+    public VolumeEstimate(String symbol, long volume) {
+        this.symbol = symbol;
+        this.volume = volume;
+    }
+}
@@ -0,0 +1,75 @@
+package com.jpm.stockmarket.compaction;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.jpm.stockmarket.repository.TradeRepository;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * periodically folds the trades older than the compaction age into per symbol, per interval buckets.
+ * Queries over older data only need VWAP, volume and price extremes, which the buckets keep exactly
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "compaction.enabled", havingValue = "true")
+public class TradeCompactor {
+
+    private final TradeRepository tradeRepo;
+    @Getter
+    private final long ageMillis;
+    private final long intervalMillis;
+
+    private ScheduledExecutorService executor;
+
+    @Autowired
+    public TradeCompactor(TradeRepository tradeRepo,
+                          @Value("${compaction.age.millis:86400000}") long ageMillis,
+                          @Value("${compaction.interval.millis:60000}") long intervalMillis) {
+        this.tradeRepo = tradeRepo;
+        this.ageMillis = ageMillis;
+        this.intervalMillis = intervalMillis;
+    }
+
+    @PostConstruct
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "trade-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::compact, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        log.info("trade compactor started for trades older than {}ms every {}ms", ageMillis, intervalMillis);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * compact every trade older than the compaction age now
+     *
+     * @return number of trades compacted
+     */
+    public int compact() {
+        try {
+            return tradeRepo.compactTrades(System.currentTimeMillis() - ageMillis);
+        } catch (RuntimeException e) {
+            // keep the schedule going, the raw trades are still there
+            log.error("trade compaction failed={}", e.getMessage(), e);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.jpm.stockmarket.controller;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.jpm.stockmarket.stream.ConflatingSubscription;
+import com.jpm.stockmarket.stream.MarketDataPublisher;
+import com.jpm.stockmarket.stream.MarketDataSink;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * server-sent events endpoint for the market data stream, e.g.
+ * GET /stream/market-data?symbols=TEA,POP,GBCE
+ */
+@Slf4j
+@RestController
+public class MarketDataStreamController {
+
+    private final MarketDataPublisher publisher;
+
+    @Autowired
+    public MarketDataStreamController(MarketDataPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    @GetMapping(path = "/stream/market-data", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe(@RequestParam("symbols") String symbols) {
+        Set<String> keys = Arrays.stream(symbols.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+
+        // no timeout, the connection lives until the client goes away
+        SseEmitter emitter = new SseEmitter(0L);
+        ConflatingSubscription subscription = publisher.subscribe(keys, new SseSink(emitter));
+        emitter.onCompletion(() -> publisher.unsubscribe(subscription));
+        emitter.onTimeout(() -> publisher.unsubscribe(subscription));
+        emitter.onError(e -> {
+            log.debug("stream client id={} failed={}", subscription.getId(), e.getMessage());
+            publisher.unsubscribe(subscription);
+        });
+        return emitter;
+    }
+
+    private static final class SseSink implements MarketDataSink {
+
+        private final SseEmitter emitter;
+
+        private SseSink(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void send(String payload) throws IOException {
+            emitter.send(SseEmitter.event().data(payload, MediaType.APPLICATION_JSON));
+        }
+
+        @Override
+        public void close() {
+            emitter.complete();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.jpm.stockmarket.controller;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.replication.ReplicationNode;
+import com.jpm.stockmarket.replication.ReplicationStatus;
+import com.jpm.stockmarket.service.CalculationService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * calculation service reads served by the primary or any replica. Every reply carries the log position it was
+ * computed at and the replication lag in headers. For read-your-writes pass the id a write on the primary
+ * returned as minPosition, the read waits until the trade is applied here, e.g.
+ * GET /read/vwap?symbol=TEA&minPosition=42
+ * A replica that is not connected to its primary refuses reads, its state may be arbitrarily old
+ */
+@Slf4j
+@RestController
+@ConditionalOnProperty(name = "replication.role")
+public class ReplicatedReadController {
+
+    public static final String POSITION_HEADER = "X-Log-Position";
+    public static final String PRIMARY_POSITION_HEADER = "X-Primary-Log-Position";
+    public static final String LAG_TRADES_HEADER = "X-Replication-Lag-Trades";
+    public static final String LAG_MILLIS_HEADER = "X-Replication-Lag-Millis";
+    public static final String CONNECTED_HEADER = "X-Replication-Connected";
+
+    private final CalculationService calculationService;
+    private final ReplicationNode node;
+    private final long readWaitMillis;
+
+    @Autowired
+    public ReplicatedReadController(CalculationService calculationService, ReplicationNode node,
+                                    @Value("${replication.read.wait.millis:1000}") long readWaitMillis) {
+        this.calculationService = calculationService;
+        this.node = node;
+        this.readWaitMillis = readWaitMillis;
+    }
+
+    @GetMapping(path = "/replication/status")
+    public ReplicationStatus status() {
+        return node.getStatus();
+    }
+
+    @GetMapping(path = "/read/vwap")
+    public ResponseEntity<BigDecimal> vwap(@RequestParam("symbol") String symbol,
+                                           @RequestParam(value = "minPosition", defaultValue = "0") long minPosition)
+            throws InterruptedException {
+        return read(minPosition, () -> calculationService.calculateVolWeightedStockPrice(symbol));
+    }
+
+    @GetMapping(path = "/read/gbce")
+    public ResponseEntity<BigDecimal> gbce(@RequestParam(value = "minPosition", defaultValue = "0") long minPosition)
+            throws InterruptedException {
+        return read(minPosition, calculationService::calculateGBCEAllShareIndex);
+    }
+
+    @GetMapping(path = "/read/index")
+    public ResponseEntity<BigDecimal> index(@RequestParam("name") String name,
+                                            @RequestParam(value = "minPosition", defaultValue = "0") long minPosition)
+            throws InterruptedException {
+        return read(minPosition, () -> calculationService.calculateIndex(name));
+    }
+
+    /**
+     * 503 when not connected to the primary or the position is not reached within replication.read.wait.millis,
+     * 400 when the calculation fails
+     */
+    private ResponseEntity<BigDecimal> read(long minPosition, Read read) throws InterruptedException {
+        if (minPosition > 0 && !node.awaitPosition(minPosition, readWaitMillis, TimeUnit.MILLISECONDS)
+                || !node.getStatus().isConnected()) {
+            return withStatus(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)).build();
+        }
+        try {
+            BigDecimal value = read.calculate();
+            return withStatus(ResponseEntity.ok()).body(value);
+        } catch (GBCEServiceException e) {
+            log.debug("replicated read failed", e);
+            return withStatus(ResponseEntity.badRequest()).build();
+        }
+    }
+
+    private ResponseEntity.BodyBuilder withStatus(ResponseEntity.BodyBuilder builder) {
+        ReplicationStatus status = node.getStatus();
+        return builder.header(POSITION_HEADER, String.valueOf(status.getPosition()))
+                .header(PRIMARY_POSITION_HEADER, String.valueOf(status.getPrimaryPosition()))
+                .header(LAG_TRADES_HEADER, String.valueOf(status.getLagTrades()))
+                .header(LAG_MILLIS_HEADER, String.valueOf(status.getLagMillis()))
+                .header(CONNECTED_HEADER, String.valueOf(status.isConnected()));
+    }
+
+    private interface Read {
+        BigDecimal calculate() throws GBCEServiceException;
+    }
+}
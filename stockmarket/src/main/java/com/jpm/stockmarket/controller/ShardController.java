@@ -0,0 +1,30 @@
+package com.jpm.stockmarket.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.jpm.stockmarket.shard.IndexPartial;
+import com.jpm.stockmarket.shard.ShardCoordinator;
+
+/**
+ * scatter-gather endpoint the other shards call, returns the index partial of this shard only, e.g.
+ * GET /shard/index-partial
+ */
+@RestController
+@ConditionalOnProperty(name = "shard.enabled", havingValue = "true")
+public class ShardController {
+
+    private final ShardCoordinator coordinator;
+
+    @Autowired
+    public ShardController(ShardCoordinator coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    @GetMapping(path = "/shard/index-partial")
+    public IndexPartial indexPartial() {
+        return coordinator.localIndexPartial();
+    }
+}
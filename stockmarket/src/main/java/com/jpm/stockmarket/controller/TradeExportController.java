@@ -0,0 +1,62 @@
+package com.jpm.stockmarket.controller;
+
+import java.nio.channels.Channels;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.export.ColumnarTradeExporter;
+import com.jpm.stockmarket.export.TradeColumn;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * columnar export of the raw trades of one stock, e.g.
+ * GET /export/trades?symbol=TEA&from=1561939200000&to=1562025600000&columns=TIMESTAMP,PRICE
+ * Trades already compacted into buckets are not exported. An export that cannot be written, like one with prices
+ * that do not fit the format, is answered with 400 before any byte of it is sent
+ */
+@Slf4j
+@RestController
+public class TradeExportController {
+
+    private final ColumnarTradeExporter exporter;
+
+    @Autowired
+    public TradeExportController(ColumnarTradeExporter exporter) {
+        this.exporter = exporter;
+    }
+
+    @GetMapping(path = "/export/trades", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam("symbol") String symbol,
+                                                        @RequestParam(value = "from", defaultValue = "0") long from,
+                                                        @RequestParam(value = "to", defaultValue = "" + Long.MAX_VALUE) long to,
+                                                        @RequestParam(value = "columns", required = false) Set<TradeColumn> columns) {
+        Set<TradeColumn> projection = columns == null || columns.isEmpty()
+                ? EnumSet.allOf(TradeColumn.class) : EnumSet.copyOf(columns);
+        ColumnarTradeExporter.Export export;
+        try {
+            export = exporter.prepare(symbol, from, to, projection);
+        } catch (GBCEServiceException e) {
+            log.info("export of symbol={} refused: {}", symbol, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+        StreamingResponseBody body = out -> {
+            try (ColumnarTradeExporter.Export checked = export) {
+                checked.writeTo(Channels.newChannel(out));
+            }
+        };
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + symbol + "-trades.gbct")
+                .body(body);
+    }
+}
@@ -0,0 +1,390 @@
+package com.jpm.stockmarket.export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.model.Decimals;
+import com.jpm.stockmarket.model.TradeView;
+import com.jpm.stockmarket.repository.TradeCursor;
+import com.jpm.stockmarket.repository.TradeRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * writes the trade history of one symbol and time range in the {@link ColumnarTradeFormat}.
+ * It walks the trades of the symbol in the repository's trade log in place and encodes each field once into a
+ * reusable direct buffer per column, then hands all the buffers of a chunk to the channel in one gathering write.
+ * Memory use is bounded by the chunk size and one int per trade of the symbol, whatever the number exported.
+ * Only raw trades are exported: trades already folded into compacted buckets have no row of their own left and
+ * are not part of an export, their buckets are read through TradeRepository.getTradeBuckets
+ */
+@Slf4j
+@Component
+public class ColumnarTradeExporter {
+
+    private final TradeRepository tradeRepo;
+    private final int chunkRows;
+
+    @Autowired
+    public ColumnarTradeExporter(TradeRepository tradeRepo, @Value("${export.chunk.rows:65536}") int chunkRows) {
+        this.tradeRepo = tradeRepo;
+        this.chunkRows = chunkRows;
+    }
+
+    /**
+     * export the raw trades of the symbol with a timestamp in [from, to), trades without timestamp are never part
+     * of a range. The prices are checked before anything is written, so a failing export leaves the channel
+     * untouched
+     *
+     * @param symbol
+     * @param fromMillis
+     * @param toMillis
+     * @param columns    projection, only these columns are written
+     * @param out
+     * @return number of trades written
+     * @throws GBCEServiceException when no column is asked for or a price does not fit into a long at the scale of
+     *                              its chunk
+     * @throws IOException
+     */
+    public long export(String symbol, long fromMillis, long toMillis, Set<TradeColumn> columns,
+                       WritableByteChannel out) throws GBCEServiceException, IOException {
+        try (Export export = prepare(symbol, fromMillis, toMillis, columns)) {
+            return export.writeTo(out);
+        }
+    }
+
+    /**
+     * check an export of the raw trades the symbol has now, see
+     * {@link #export(String, long, long, Set, WritableByteChannel)}, without writing anything yet. Callers that
+     * have to answer before the first byte, like a web request, find out about a failing export here
+     *
+     * @param symbol
+     * @param fromMillis
+     * @param toMillis
+     * @param columns    projection, only these columns are written
+     * @return the checked export, to be closed once written or given up
+     * @throws GBCEServiceException when no column is asked for or a price does not fit into a long at the scale of
+     *                              its chunk
+     */
+    public Export prepare(String symbol, long fromMillis, long toMillis, Set<TradeColumn> columns)
+            throws GBCEServiceException {
+        if (columns.isEmpty()) {
+            throw new GBCEServiceException("at least one column has to be exported");
+        }
+        TradeCursor trades = tradeRepo.openTrades(symbol);
+        try {
+            if (columns.contains(TradeColumn.PRICE)) {
+                checkPrices(trades, new TradeView(), fromMillis, toMillis);
+                trades.rewind();
+            }
+            return new Export(symbol, fromMillis, toMillis, columns, trades);
+        } catch (GBCEServiceException | RuntimeException e) {
+            trades.close();
+            throw e;
+        }
+    }
+
+    /**
+     * an export with its prices checked, it holds on to the trades it writes until closed
+     */
+    public final class Export implements AutoCloseable {
+
+        private final String symbol;
+        private final long fromMillis;
+        private final long toMillis;
+        private final Set<TradeColumn> columns;
+        private final TradeCursor trades;
+
+        private Export(String symbol, long fromMillis, long toMillis, Set<TradeColumn> columns,
+                       TradeCursor trades) {
+            this.symbol = symbol;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+            this.columns = columns;
+            this.trades = trades;
+        }
+
+        /**
+         * @param out
+         * @return number of trades written
+         * @throws IOException
+         */
+        public long writeTo(WritableByteChannel out) throws IOException {
+            long start = System.nanoTime();
+            long total = 0;
+            TradeView view = new TradeView();
+            Buffers buffers = new Buffers(columns);
+            writeHeader(symbol, fromMillis, toMillis, columns, out);
+
+            while (trades.next(view)) {
+                if (matches(view, fromMillis, toMillis)) {
+                    buffers.add(view);
+                    if (buffers.count == chunkRows) {
+                        total += writeChunk(buffers, out);
+                    }
+                }
+            }
+            if (buffers.count > 0) {
+                total += writeChunk(buffers, out);
+            }
+            // end marker
+            write(out, (ByteBuffer) littleEndian(4).putInt(0).flip());
+
+            log.info("exported trades={} for symbol={} with columns={} in {}ms", total, symbol, columns,
+                    (System.nanoTime() - start) / 1000000);
+            return total;
+        }
+
+        @Override
+        public void close() {
+            trades.close();
+        }
+    }
+
+    private static boolean matches(TradeView trade, long fromMillis, long toMillis) {
+        if (!trade.hasTimestamp()) {
+            return false;
+        }
+        long timestamp = trade.getTimestampMillis();
+        return timestamp >= fromMillis && timestamp < toMillis;
+    }
+
+    /**
+     * every price has to fit at the largest scale of the export, the scale of any chunk is at most that one.
+     * Long.MIN_VALUE is taken by trades without price
+     */
+    private static void checkPrices(TradeCursor trades, TradeView view, long fromMillis, long toMillis)
+            throws GBCEServiceException {
+        int scale = 0;
+        while (trades.next(view)) {
+            if (view.isPriced() && matches(view, fromMillis, toMillis)) {
+                scale = Math.max(scale, view.getPriceScale());
+            }
+        }
+        trades.rewind();
+        while (trades.next(view)) {
+            if (view.isPriced() && matches(view, fromMillis, toMillis)
+                    && !fits(view.getPriceUnscaled(), scale - view.getPriceScale())) {
+                throw new GBCEServiceException("price of trade id=" + view.getId() + " does not fit at scale="
+                        + scale);
+            }
+        }
+    }
+
+    private static boolean fits(long unscaled, int digits) {
+        try {
+            return Decimals.rescale(unscaled, digits) != Long.MIN_VALUE;
+        } catch (ArithmeticException e) {
+            return false;
+        }
+    }
+
+    private static void writeHeader(String symbol, long fromMillis, long toMillis, Set<TradeColumn> columns,
+                                    WritableByteChannel out) throws IOException {
+        byte[] symbolBytes = symbol.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer header = littleEndian(4 + 2 + 4 + 2 + symbolBytes.length + 8 + 8)
+                .putInt(ColumnarTradeFormat.MAGIC)
+                .putShort(ColumnarTradeFormat.VERSION)
+                .putInt(ColumnarTradeFormat.mask(columns))
+                .putShort((short) symbolBytes.length)
+                .put(symbolBytes)
+                .putLong(fromMillis)
+                .putLong(toMillis);
+        header.flip();
+        write(out, header);
+    }
+
+    private static int writeChunk(Buffers buffers, WritableByteChannel out) throws IOException {
+        int count = buffers.count;
+        buffers.rowCount.putInt(count);
+        if (buffers.idData != null) {
+            // one length for the offsets and the bytes together
+            buffers.idLength.putInt(buffers.idOffsets.position() + buffers.idData.position());
+        }
+        if (buffers.timestamps != null) {
+            buffers.timestamps.putInt(0, count * 8);
+        }
+        if (buffers.quantities != null) {
+            buffers.quantities.putInt(0, count * 8);
+        }
+        if (buffers.indicators != null) {
+            buffers.indicators.putInt(0, count);
+        }
+        if (buffers.prices != null) {
+            // decimal column with one scale per chunk, the largest one of its rows
+            int scale = 0;
+            for (int r = 0; r < count; r++) {
+                scale = buffers.priced[r] ? Math.max(scale, buffers.priceScales[r]) : scale;
+            }
+            buffers.prices.putInt(1 + count * 8).put((byte) scale);
+            for (int r = 0; r < count; r++) {
+                buffers.prices.putLong(buffers.priced[r]
+                        ? Decimals.rescale(buffers.unscaledPrices[r], scale - buffers.priceScales[r])
+                        : Long.MIN_VALUE);
+            }
+        }
+        write(out, buffers.flip());
+        buffers.clear();
+        return count;
+    }
+
+    private static void write(WritableByteChannel out, ByteBuffer... buffers) throws IOException {
+        if (out instanceof GatheringByteChannel) {
+            GatheringByteChannel gathering = (GatheringByteChannel) out;
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= gathering.write(buffers);
+            }
+        } else {
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer littleEndian(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer direct(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * column buffers of one export, allocated once and reused for every chunk
+     */
+    private final class Buffers {
+
+        private final ByteBuffer rowCount = direct(4);
+        private final ByteBuffer idLength;
+        private final ByteBuffer idOffsets;
+        private ByteBuffer idData;
+        private final ByteBuffer timestamps;
+        private final ByteBuffer quantities;
+        private final ByteBuffer indicators;
+        private final ByteBuffer prices;
+        // prices are kept as they are until the scale of the chunk is known
+        private final boolean[] priced;
+        private final long[] unscaledPrices;
+        private final int[] priceScales;
+        // digits of the id being written, ids are decimal longs
+        private final byte[] digits = new byte[20];
+        private int count;
+
+        private Buffers(Set<TradeColumn> columns) {
+            boolean withIds = columns.contains(TradeColumn.ID);
+            idLength = withIds ? direct(4) : null;
+            idOffsets = withIds ? direct((chunkRows + 1) * 4) : null;
+            // room for UUID sized ids, grown when longer ids show up
+            idData = withIds ? direct(chunkRows * 36) : null;
+            timestamps = columns.contains(TradeColumn.TIMESTAMP) ? direct(4 + chunkRows * 8) : null;
+            quantities = columns.contains(TradeColumn.QUANTITY) ? direct(4 + chunkRows * 8) : null;
+            indicators = columns.contains(TradeColumn.INDICATOR) ? direct(4 + chunkRows) : null;
+            prices = columns.contains(TradeColumn.PRICE) ? direct(4 + 1 + chunkRows * 8) : null;
+            priced = prices != null ? new boolean[chunkRows] : null;
+            unscaledPrices = prices != null ? new long[chunkRows] : null;
+            priceScales = prices != null ? new int[chunkRows] : null;
+            clear();
+        }
+
+        /**
+         * encode one more row into every column of the chunk
+         */
+        private void add(TradeView trade) {
+            if (idData != null) {
+                putId(trade.getId());
+                idOffsets.putInt(idData.position());
+            }
+            if (timestamps != null) {
+                timestamps.putLong(trade.getTimestampMillis());
+            }
+            if (quantities != null) {
+                quantities.putLong(trade.getQuantity());
+            }
+            if (indicators != null) {
+                indicators.put((byte) (trade.getIndicator() == null ? -1 : trade.getIndicator().ordinal()));
+            }
+            if (prices != null) {
+                priced[count] = trade.isPriced();
+                unscaledPrices[count] = trade.getPriceUnscaled();
+                priceScales[count] = trade.getPriceScale();
+            }
+            count++;
+        }
+
+        private void putId(long id) {
+            int length = 0;
+            for (long rest = id; rest != 0 || length == 0; rest /= 10) {
+                digits[length++] = (byte) ('0' + Math.abs(rest % 10));
+            }
+            if (idData.remaining() < length + 1) {
+                ByteBuffer grown = direct(Math.max(idData.capacity() * 2, idData.position() + length + 1));
+                idData.flip();
+                grown.put(idData);
+                idData = grown;
+            }
+            if (id < 0) {
+                idData.put((byte) '-');
+            }
+            while (length > 0) {
+                idData.put(digits[--length]);
+            }
+        }
+
+        private ByteBuffer[] all() {
+            ByteBuffer[] all = {rowCount, idLength, idOffsets, idData, timestamps, quantities, indicators, prices};
+            int present = 0;
+            for (ByteBuffer buffer : all) {
+                if (buffer != null) {
+                    all[present++] = buffer;
+                }
+            }
+            ByteBuffer[] result = new ByteBuffer[present];
+            System.arraycopy(all, 0, result, 0, present);
+            return result;
+        }
+
+        private void clear() {
+            for (ByteBuffer buffer : all()) {
+                buffer.clear();
+            }
+            // every column but the prices is encoded as the rows are added, after room for its length
+            if (idData != null) {
+                idOffsets.putInt(0);
+            }
+            if (timestamps != null) {
+                timestamps.putInt(0);
+            }
+            if (quantities != null) {
+                quantities.putInt(0);
+            }
+            if (indicators != null) {
+                indicators.putInt(0);
+            }
+            count = 0;
+        }
+
+        private ByteBuffer[] flip() {
+            ByteBuffer[] all = all();
+            for (ByteBuffer buffer : all) {
+                buffer.flip();
+            }
+            return all;
+        }
+    }
+}
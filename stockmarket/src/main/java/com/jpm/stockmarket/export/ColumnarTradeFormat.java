@@ -0,0 +1,49 @@
+package com.jpm.stockmarket.export;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * layout of the columnar trade export, all numbers little-endian like Arrow IPC buffers.
+ * <pre>
+ * header:
+ *   int    magic          "GBCT"
+ *   short  version        1
+ *   int    column mask    bits of the {@link TradeColumn}s present
+ *   short  symbol length  followed by the US-ASCII symbol
+ *   long   from           epoch milliseconds, inclusive
+ *   long   to             epoch milliseconds, exclusive
+ * chunk, repeated:
+ *   int    rows           0 marks the end of the file
+ *   per column present, in {@link TradeColumn} order:
+ *     int  byte length    followed by the column data
+ * </pre>
+ * Every column of a chunk is one contiguous buffer, so readers can map them straight to arrays
+ */
+public final class ColumnarTradeFormat {
+
+    public static final int MAGIC = 0x54434247;
+    public static final short VERSION = 1;
+    public static final int DEFAULT_CHUNK_ROWS = 65536;
+
+    private ColumnarTradeFormat() {
+    }
+
+    public static int mask(Set<TradeColumn> columns) {
+        int mask = 0;
+        for (TradeColumn column : columns) {
+            mask |= column.getBit();
+        }
+        return mask;
+    }
+
+    public static Set<TradeColumn> columns(int mask) {
+        Set<TradeColumn> columns = EnumSet.noneOf(TradeColumn.class);
+        for (TradeColumn column : TradeColumn.values()) {
+            if ((mask & column.getBit()) != 0) {
+                columns.add(column);
+            }
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,145 @@
+package com.jpm.stockmarket.export;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.model.Trade;
+
+import lombok.Getter;
+
+/**
+ * reads back a file written by the {@link ColumnarTradeExporter}, one chunk at a time
+ */
+public class ColumnarTradeReader {
+
+    private final ReadableByteChannel in;
+    @Getter
+    private final Set<TradeColumn> columns;
+    @Getter
+    private final String symbol;
+    @Getter
+    private final long fromMillis;
+    @Getter
+    private final long toMillis;
+    private ByteBuffer buffer = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+    private boolean finished;
+
+    public ColumnarTradeReader(ReadableByteChannel in) throws IOException, GBCEServiceException {
+        this.in = in;
+        ByteBuffer header = read(4 + 2 + 4 + 2);
+        if (header.getInt() != ColumnarTradeFormat.MAGIC) {
+            throw new GBCEServiceException("not a columnar trade export");
+        }
+        short version = header.getShort();
+        if (version != ColumnarTradeFormat.VERSION) {
+            throw new GBCEServiceException("unsupported columnar trade export version " + version);
+        }
+        columns = ColumnarTradeFormat.columns(header.getInt());
+        int symbolLength = header.getShort();
+        ByteBuffer rest = read(symbolLength + 8 + 8);
+        byte[] symbolBytes = new byte[symbolLength];
+        rest.get(symbolBytes);
+        symbol = new String(symbolBytes, StandardCharsets.US_ASCII);
+        fromMillis = rest.getLong();
+        toMillis = rest.getLong();
+    }
+
+    /**
+     * @return next chunk, null after the last one
+     * @throws IOException
+     */
+    public TradeChunk readChunk() throws IOException {
+        if (finished) {
+            return null;
+        }
+        int rows = read(4).getInt();
+        if (rows == 0) {
+            finished = true;
+            return null;
+        }
+        String[] ids = null;
+        long[] timestamps = null;
+        long[] quantities = null;
+        byte[] indicators = null;
+        int priceScale = 0;
+        long[] prices = null;
+        for (TradeColumn column : columns) {
+            ByteBuffer data = read(read(4).getInt());
+            switch (column) {
+                case ID:
+                    ids = readIds(data, rows);
+                    break;
+                case TIMESTAMP:
+                    timestamps = new long[rows];
+                    data.asLongBuffer().get(timestamps);
+                    break;
+                case QUANTITY:
+                    quantities = new long[rows];
+                    data.asLongBuffer().get(quantities);
+                    break;
+                case INDICATOR:
+                    indicators = new byte[rows];
+                    data.get(indicators);
+                    break;
+                case PRICE:
+                    priceScale = data.get();
+                    prices = new long[rows];
+                    data.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(prices);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return new TradeChunk(rows, ids, timestamps, quantities, indicators, priceScale, prices);
+    }
+
+    /**
+     * read the remaining chunks back into trades
+     *
+     * @return trades
+     * @throws IOException
+     */
+    public List<Trade> readTrades() throws IOException {
+        List<Trade> trades = new ArrayList<>();
+        for (TradeChunk chunk = readChunk(); chunk != null; chunk = readChunk()) {
+            trades.addAll(chunk.toTrades(symbol));
+        }
+        return trades;
+    }
+
+    private static String[] readIds(ByteBuffer data, int rows) {
+        int[] offsets = new int[rows + 1];
+        data.asIntBuffer().get(offsets);
+        int base = (rows + 1) * 4;
+        byte[] bytes = new byte[data.remaining() - base];
+        data.position(base);
+        data.get(bytes);
+        String[] ids = new String[rows];
+        for (int row = 0; row < rows; row++) {
+            ids[row] = new String(bytes, offsets[row], offsets[row + 1] - offsets[row], StandardCharsets.UTF_8);
+        }
+        return ids;
+    }
+
+    private ByteBuffer read(int length) throws IOException {
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                throw new EOFException("columnar trade export ends in the middle of a chunk");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,68 @@
+package com.jpm.stockmarket.export;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jpm.stockmarket.model.Trade;
+import com.jpm.stockmarket.model.TradeIndicator;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * one chunk of a columnar trade export, the arrays of the columns that were not exported are null
+ */
+@Getter
+@AllArgsConstructor
+public class TradeChunk {
+
+    private final int rows;
+    private final String[] ids;
+    private final long[] timestamps;
+    private final long[] quantities;
+    private final byte[] indicators;
+    private final int priceScale;
+    private final long[] unscaledPrices;
+
+    public BigDecimal getPrice(int row) {
+        long unscaled = unscaledPrices[row];
+        return unscaled == Long.MIN_VALUE ? null : BigDecimal.valueOf(unscaled, priceScale);
+    }
+
+    /**
+     * rebuild the trades of the chunk, fields of the columns not exported are left empty
+     *
+     * @param symbol
+     * @return trades
+     */
+    public List<Trade> toTrades(String symbol) {
+        TradeIndicator[] values = TradeIndicator.values();
+        List<Trade> trades = new ArrayList<>(rows);
+        for (int row = 0; row < rows; row++) {
+            Trade trade = new Trade();
+            trade.setStockSymbol(symbol);
+            if (ids != null) {
+                trade.setId(ids[row]);
+            }
+            if (timestamps != null && timestamps[row] != Long.MIN_VALUE) {
+                trade.setTimeStamp(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamps[row]),
+                        ZoneId.systemDefault()));
+            }
+            if (quantities != null) {
+                trade.setShareQuantity(quantities[row]);
+            }
+            if (indicators != null && indicators[row] >= 0) {
+                trade.setIndicator(values[indicators[row]]);
+            }
+            if (unscaledPrices != null) {
+                trade.setTradePrice(getPrice(row));
+            }
+            trades.add(trade);
+        }
+        return trades;
+    }
+}
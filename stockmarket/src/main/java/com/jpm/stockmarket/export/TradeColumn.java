@@ -0,0 +1,28 @@
+package com.jpm.stockmarket.export;
+
+/**
+ * columns of the columnar trade format, in the order they are written within a chunk
+ */
+public enum TradeColumn {
+
+    // UTF-8 strings: (rows + 1) int offsets followed by the bytes
+    ID(1),
+    // long epoch milliseconds, always present as trades without timestamp are in no time range
+    TIMESTAMP(1 << 1),
+    // long number of shares
+    QUANTITY(1 << 2),
+    // byte 0 = BUY, 1 = SELL, -1 = none
+    INDICATOR(1 << 3),
+    // one byte scale for the whole chunk followed by a long unscaled value per row, Long.MIN_VALUE when no price
+    PRICE(1 << 4);
+
+    private final int bit;
+
+    TradeColumn(int bit) {
+        this.bit = bit;
+    }
+
+    public int getBit() {
+        return bit;
+    }
+}
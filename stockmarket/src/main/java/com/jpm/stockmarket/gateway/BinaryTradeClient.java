@@ -0,0 +1,235 @@
+package com.jpm.stockmarket.gateway;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jpm.stockmarket.model.TradeIndicator;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * blocking client for the {@link TcpTradeGateway}. Trades are buffered and written without waiting for acks,
+ * a background thread reads the acks so callers can wait for any sequence to be confirmed and find out which
+ * ones were rejected
+ */
+@Slf4j
+public class BinaryTradeClient implements Closeable {
+
+    private final SocketChannel channel;
+    private final ByteBuffer out;
+    private final Thread ackReader;
+
+    // rejected sequences kept for awaitRecorded, the oldest are dropped beyond this
+    private static final int MAX_REJECTED_SEQUENCES = 4096;
+
+    private final long firstSequence;
+    private long nextSequence;
+    private final AtomicLong ackedSequence = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final ConcurrentSkipListSet<Long> rejectedSequences = new ConcurrentSkipListSet<>();
+    private final Object ackMonitor = new Object();
+    // null when nobody listens
+    private final ReplyListener listener;
+    private volatile boolean closed;
+
+    public BinaryTradeClient(String host, int port, int bufferSize) throws IOException {
+        this(host, port, bufferSize, 1);
+    }
+
+    /**
+     * @param firstSequence sequence of the first trade sent, e.g. to keep the sequences of a reconnected client
+     *                      increasing across its connections
+     */
+    public BinaryTradeClient(String host, int port, int bufferSize, long firstSequence) throws IOException {
+        this(host, port, bufferSize, firstSequence, null);
+    }
+
+    /**
+     * @param firstSequence sequence of the first trade sent
+     * @param listener      told about every reply of the gateway, null for none
+     */
+    public BinaryTradeClient(String host, int port, int bufferSize, long firstSequence, ReplyListener listener)
+            throws IOException {
+        this.firstSequence = firstSequence;
+        this.listener = listener;
+        this.nextSequence = firstSequence;
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+        out = ByteBuffer.allocateDirect(Math.max(bufferSize, BinaryTradeProtocol.FRAME_LENGTH));
+        ackReader = new Thread(this::readAcks, "binary-trade-client-acks");
+        ackReader.setDaemon(true);
+        ackReader.start();
+    }
+
+    /**
+     * buffer a trade, it is written once the buffer is full or on {@link #flush()}
+     *
+     * @return the sequence assigned to the trade
+     */
+    public long send(String symbol, long timestamp, long quantity, TradeIndicator indicator, BigDecimal price)
+            throws IOException {
+        if (out.remaining() < BinaryTradeProtocol.FRAME_LENGTH) {
+            flush();
+        }
+        long sequence = nextSequence++;
+        TradeFrame.encode(out, sequence, symbol, timestamp, quantity, indicator, price);
+        return sequence;
+    }
+
+    /**
+     * the same as {@link #send(String, long, long, TradeIndicator, BigDecimal)} with the price as unscaled value
+     * and scale
+     *
+     * @return the sequence assigned to the trade
+     */
+    public long send(String symbol, long timestamp, long quantity, TradeIndicator indicator, long priceUnscaled,
+                     int priceScale) throws IOException {
+        if (out.remaining() < BinaryTradeProtocol.FRAME_LENGTH) {
+            flush();
+        }
+        long sequence = nextSequence++;
+        TradeFrame.encode(out, sequence, symbol, timestamp, quantity, indicator, priceUnscaled, priceScale);
+        return sequence;
+    }
+
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * wait until the gateway confirmed every trade up to the sequence
+     *
+     * @return false if the timeout elapsed first
+     */
+    public boolean awaitAck(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (ackMonitor) {
+            while (ackedSequence.get() < sequence) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0 || closed) {
+                    return false;
+                }
+                ackMonitor.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * wait until the gateway handled the trades with the sequences from..to, forgetting their rejections
+     *
+     * @return number of those trades the gateway rejected, -1 if the timeout elapsed or the connection broke first
+     */
+    public int awaitRecorded(long from, long to, long timeout, TimeUnit unit) throws InterruptedException {
+        NavigableSet<Long> range = rejectedSequences.subSet(from, true, to, true);
+        try {
+            if (!awaitAck(to, timeout, unit)) {
+                return -1;
+            }
+            // a reject is read before the ack covering it
+            return range.size();
+        } finally {
+            range.clear();
+        }
+    }
+
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    public long getAckedSequence() {
+        return ackedSequence.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return true once the connection is gone, nothing sent afterwards reaches the gateway
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void readAcks() {
+        ByteBuffer in = ByteBuffer.allocateDirect(BinaryTradeProtocol.ACK_LENGTH * 1024);
+        try {
+            while (channel.read(in) >= 0) {
+                in.flip();
+                while (in.remaining() >= BinaryTradeProtocol.ACK_LENGTH) {
+                    byte type = in.get();
+                    long sequence = in.getLong();
+                    if (type == BinaryTradeProtocol.REJECT) {
+                        rejected.incrementAndGet();
+                        rejectedSequences.add(sequence);
+                        if (rejectedSequences.size() > MAX_REJECTED_SEQUENCES) {
+                            rejectedSequences.pollFirst();
+                        }
+                        log.warn("trade with sequence={} was rejected", sequence);
+                        if (listener != null) {
+                            listener.onReject(sequence);
+                        }
+                    } else {
+                        ackedSequence.accumulateAndGet(sequence, Math::max);
+                        if (listener != null) {
+                            listener.onAck(sequence);
+                        }
+                    }
+                }
+                in.compact();
+                synchronized (ackMonitor) {
+                    ackMonitor.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                log.error("failed reading acks", e);
+            }
+        } finally {
+            closed = true;
+            synchronized (ackMonitor) {
+                ackMonitor.notifyAll();
+            }
+            if (listener != null) {
+                listener.onClosed();
+            }
+        }
+    }
+
+    /**
+     * replies of the gateway in the order they are read, called on the thread reading them
+     */
+    public interface ReplyListener {
+
+        /**
+         * every sequence up to and including this one is recorded, except the ones rejected before
+         */
+        void onAck(long sequence);
+
+        void onReject(long sequence);
+
+        /**
+         * the connection is gone, no reply follows
+         */
+        void onClosed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+}
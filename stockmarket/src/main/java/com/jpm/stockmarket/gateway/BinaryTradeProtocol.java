@@ -0,0 +1,43 @@
+package com.jpm.stockmarket.gateway;
+
+/**
+ * wire layout of the binary trade feed, all numbers are big-endian.
+ * <pre>
+ * trade frame (client to gateway), 46 bytes:
+ *   int   length        always 42, the number of bytes following
+ *   long  sequence      increasing per connection, echoed in the acks
+ *   8     symbol        US-ASCII, right padded with spaces
+ *   long  timestamp     epoch milliseconds, Long.MIN_VALUE when the trade has none
+ *   long  quantity      number of shares
+ *   byte  indicator     0 = BUY, 1 = SELL
+ *   long  price         unscaled value of the trade price
+ *   byte  price scale   price = unscaled * 10^-scale
+ *
+ * ack frame (gateway to client), 9 bytes:
+ *   byte  type          1 = ACK, every sequence up to and including this one is recorded, except the ones
+ *                           rejected before this ack
+ *                       2 = REJECT, only this sequence was not recorded
+ *   long  sequence
+ * </pre>
+ * Acks are cumulative and sent once per network read, so clients can pipeline any number of trades. A reject
+ * follows an ack of every sequence handled before it, and no ack covers a sequence rejected after it
+ */
+public final class BinaryTradeProtocol {
+
+    public static final int LENGTH_PREFIX = 4;
+    public static final int SYMBOL_LENGTH = 8;
+    public static final int BODY_LENGTH = 8 + SYMBOL_LENGTH + 8 + 8 + 1 + 8 + 1;
+    public static final int FRAME_LENGTH = LENGTH_PREFIX + BODY_LENGTH;
+
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    public static final int ACK_LENGTH = 1 + 8;
+    public static final byte ACK = 1;
+    public static final byte REJECT = 2;
+
+    public static final byte BUY = 0;
+    public static final byte SELL = 1;
+
+    private BinaryTradeProtocol() {
+    }
+}
@@ -0,0 +1,127 @@
+package com.jpm.stockmarket.gateway;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * maps the 8 byte symbol of a frame, read as a single long, to its String.
+ * Open addressing over primitive arrays, so a known symbol is resolved without allocating
+ */
+public final class SymbolTable {
+
+    // distinct symbols a feed may bring, a misbehaving client must not grow the table without end
+    public static final int MAX_FEED_SYMBOLS = 1 << 16;
+
+    private final int maxSymbols;
+    private long[] keys = new long[64];
+    private String[] values = new String[64];
+    private int size;
+
+    public SymbolTable() {
+        this(MAX_FEED_SYMBOLS);
+    }
+
+    /**
+     * @param maxSymbols distinct symbols resolved at most, Integer.MAX_VALUE for a source trusted not to
+     *                   bring more symbols than it has, e.g. the replication log
+     */
+    public SymbolTable(int maxSymbols) {
+        this.maxSymbols = maxSymbols;
+    }
+
+    public String lookup(long encoded) {
+        int mask = keys.length - 1;
+        int index = mix(encoded) & mask;
+        while (values[index] != null) {
+            if (keys[index] == encoded) {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return insert(encoded);
+    }
+
+    private String insert(long encoded) {
+        if (size >= maxSymbols) {
+            throw new IllegalStateException("too many distinct symbols on the feed, maxSymbols=" + maxSymbols);
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize();
+        }
+        String symbol = decode(encoded);
+        int mask = keys.length - 1;
+        int index = mix(encoded) & mask;
+        while (values[index] != null) {
+            index = (index + 1) & mask;
+        }
+        keys[index] = encoded;
+        values[index] = symbol;
+        size++;
+        return symbol;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        String[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new String[oldValues.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int index = mix(oldKeys[i]) & mask;
+                while (values[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    static String decode(long encoded) {
+        byte[] bytes = new byte[BinaryTradeProtocol.SYMBOL_LENGTH];
+        for (int i = bytes.length - 1; i >= 0; i--) {
+            bytes[i] = (byte) encoded;
+            encoded >>>= 8;
+        }
+        int length = bytes.length;
+        while (length > 0 && (bytes[length - 1] == ' ' || bytes[length - 1] == 0)) {
+            length--;
+        }
+        return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return whether the symbol fits the 8 byte form, at most 8 US-ASCII characters
+     */
+    public static boolean isEncodable(String symbol) {
+        if (symbol.length() > BinaryTradeProtocol.SYMBOL_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < symbol.length(); i++) {
+            if (symbol.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static long encode(String symbol) {
+        if (symbol.length() > BinaryTradeProtocol.SYMBOL_LENGTH) {
+            throw new IllegalArgumentException("symbol longer than 8 characters=" + symbol);
+        }
+        long encoded = 0;
+        for (int i = 0; i < BinaryTradeProtocol.SYMBOL_LENGTH; i++) {
+            char c = i < symbol.length() ? symbol.charAt(i) : ' ';
+            if (c > 0x7F) {
+                throw new IllegalArgumentException("symbol is not US-ASCII=" + symbol);
+            }
+            encoded = (encoded << 8) | c;
+        }
+        return encoded;
+    }
+}
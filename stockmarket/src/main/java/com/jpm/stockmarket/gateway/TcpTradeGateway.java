@@ -0,0 +1,512 @@
+package com.jpm.stockmarket.gateway;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.jpm.stockmarket.admission.AdmissionControl;
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.model.TradeView;
+import com.jpm.stockmarket.repository.TradeRepository;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * optional TCP listener for exchange feed adapters speaking the {@link BinaryTradeProtocol}.
+ * A single selector thread reads into one direct buffer per connection, decodes the frames in place and
+ * records them, then sends one cumulative ack per read, and one ahead of each reject. Reading from a connection
+ * pauses while its client does not read its acks, and with admission control under the BLOCK policy while the
+ * trade at its head is over its rate limit, so the feed is pushed back through TCP flow control while every other
+ * connection carries on. A trade recorded by another instance, like one forwarded to its shard, is acked once
+ * recorded there without holding up the frames after it, their acks wait for it. Enabled with
+ * gateway.tcp.enabled=true
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "gateway.tcp.enabled", havingValue = "true")
+public class TcpTradeGateway {
+
+    // outcome of a spilled trade, acked but not counted as recorded
+    private static final CompletableFuture<Void> SPILLED = CompletableFuture.completedFuture(null);
+
+    private final TradeRepository tradeRepo;
+    private final String host;
+    private final int port;
+    private final int bufferSize;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+    private volatile boolean running;
+    // only set when trade ingestion is rate limited
+    private AdmissionControl admissionControl;
+    // connections waiting for the rate limit, only touched by the selector thread
+    private final List<Connection> paused = new ArrayList<>();
+    // connections with a trade recorded or rejected by another instance since the selector last looked
+    private final Queue<Connection> settled = new ConcurrentLinkedQueue<>();
+
+    @Getter
+    private final AtomicLong recorded = new AtomicLong();
+    @Getter
+    private final AtomicLong rejected = new AtomicLong();
+
+    @Autowired
+    public TcpTradeGateway(TradeRepository tradeRepo,
+                           @Value("${gateway.tcp.host:localhost}") String host,
+                           @Value("${gateway.tcp.port:7070}") int port,
+                           @Value("${gateway.tcp.buffer.bytes:65536}") int bufferSize) {
+        if (bufferSize < BinaryTradeProtocol.FRAME_LENGTH) {
+            throw new IllegalArgumentException("gateway buffer must hold a frame of "
+                    + BinaryTradeProtocol.FRAME_LENGTH + " bytes, bufferSize=" + bufferSize);
+        }
+        this.tradeRepo = tradeRepo;
+        this.host = host;
+        this.port = port;
+        this.bufferSize = bufferSize;
+    }
+
+    @Autowired(required = false)
+    public void setAdmissionControl(AdmissionControl admissionControl) {
+        this.admissionControl = admissionControl;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(host, port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        selectorThread = new Thread(this::run, "tcp-trade-gateway");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+        log.info("tcp trade gateway listening on port={}", getLocalPort());
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        log.info("tcp trade gateway stopped, recorded={} rejected={}", recorded.get(), rejected.get());
+    }
+
+    public int getLocalPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select(pauseMillis());
+                resumePaused();
+                replySettled();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            } catch (IOException e) {
+                log.error("tcp trade gateway selector failed", e);
+            }
+        }
+    }
+
+    /**
+     * @return how long the selector may sleep before a paused connection is due, 0 for no limit
+     */
+    private long pauseMillis() {
+        if (paused.isEmpty()) {
+            return 0;
+        }
+        long next = Long.MAX_VALUE;
+        for (Connection connection : paused) {
+            next = Math.min(next, connection.resumeAtNanos);
+        }
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(next - System.nanoTime()));
+    }
+
+    private void resumePaused() {
+        long now = System.nanoTime();
+        for (int i = paused.size() - 1; i >= 0; i--) {
+            Connection connection = paused.get(i);
+            if (connection.resumeAtNanos <= now) {
+                paused.remove(i);
+                try {
+                    connection.resume();
+                } catch (IOException | RuntimeException e) {
+                    close(connection.key, e);
+                }
+            }
+        }
+    }
+
+    private void replySettled() {
+        for (Connection connection = settled.poll(); connection != null; connection = settled.poll()) {
+            try {
+                connection.replySettled();
+            } catch (IOException | RuntimeException e) {
+                close(connection.key, e);
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                accept();
+            } else {
+                Connection connection = (Connection) key.attachment();
+                if (key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.drain();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            close(key, e);
+        }
+    }
+
+    private void close(SelectionKey key, Exception e) {
+        log.info("closing feed connection={}", key.channel(), e);
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+            // already closing
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+        log.info("feed connected from={}", channel.getRemoteAddress());
+    }
+
+    /**
+     * @param recording done
+     * @return why the trade was rejected, null when it was recorded
+     */
+    private static Throwable failure(CompletableFuture<Void> recording) {
+        try {
+            recording.getNow(null);
+            return null;
+        } catch (CompletionException e) {
+            return e.getCause();
+        } catch (CancellationException e) {
+            return e;
+        }
+    }
+
+    /**
+     * a frame waiting for its reply
+     */
+    private static final class InFlight {
+
+        private final long sequence;
+        private final CompletableFuture<Void> recording;
+
+        private InFlight(long sequence, CompletableFuture<Void> recording) {
+            this.sequence = sequence;
+            this.recording = recording;
+        }
+    }
+
+    /**
+     * state of one feed connection, only ever touched by the selector thread
+     */
+    private final class Connection {
+
+        // room kept in the out buffer before a frame is handled: an ack of the frames before it and its reject,
+        // then the ack sent after the last frame
+        private static final int REPLY_ROOM = 3 * BinaryTradeProtocol.ACK_LENGTH;
+        // frames in flight before reading stops until the oldest of them is recorded
+        private static final int MAX_IN_FLIGHT = 4096;
+
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer in = ByteBuffer.allocateDirect(bufferSize);
+        private final ByteBuffer out = ByteBuffer.allocateDirect(bufferSize);
+        private final TradeFrame frame = new TradeFrame();
+        // every frame is recorded through the same view, so steady state ingestion does not allocate
+        private final TradeView view = new TradeView();
+        // set while paused for the rate limit of the trade at the head of the buffer
+        private long resumeAtNanos;
+        private boolean throttled;
+        // set while reading stopped until the client reads the replies queued for it
+        private boolean backedUp;
+        // last sequence handled and not acked yet, -1 for none
+        private long unacked = -1;
+        // frames another instance records, see TradeRepository.submitTrade, and every frame after the first of
+        // them, oldest first. They are replied to in order, so an ack never covers a trade not recorded yet
+        private final Deque<InFlight> inFlight = new ArrayDeque<>();
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        private void read() throws IOException {
+            int read = channel.read(in);
+            if (read < 0) {
+                log.info("feed disconnected={}", channel.getRemoteAddress());
+                key.cancel();
+                channel.close();
+                return;
+            }
+            process();
+        }
+
+        private void resume() throws IOException {
+            if (!key.isValid()) {
+                return;
+            }
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            process();
+        }
+
+        /**
+         * the client read replies, carry on with the frames already buffered once there is room for their replies
+         */
+        private void drain() throws IOException {
+            flush();
+            if (backedUp && out.remaining() >= REPLY_ROOM) {
+                backedUp = false;
+                if (!paused.contains(this)) {
+                    resume();
+                }
+            }
+        }
+
+        /**
+         * another instance recorded or rejected a frame in flight, reply to it and carry on with the frames
+         * buffered when too many were in flight
+         */
+        private void replySettled() throws IOException {
+            if (!key.isValid()) {
+                return;
+            }
+            settleInFlight();
+            if (unacked >= 0) {
+                queue(BinaryTradeProtocol.ACK, unacked);
+                unacked = -1;
+            }
+            flush();
+            if (in.position() > 0 && inFlight.size() < MAX_IN_FLIGHT && !backedUp && !paused.contains(this)) {
+                resume();
+            }
+        }
+
+        /**
+         * record the complete frames in the buffer, up to the first one over its rate limit, the first one with
+         * no room left for its replies or the first one beyond the frames allowed in flight. A frame that cannot
+         * be decoded closes the connection, the frames recorded before it and not in flight are acked first
+         */
+        private void process() throws IOException {
+            in.flip();
+            IOException invalid = null;
+            while (in.remaining() >= BinaryTradeProtocol.LENGTH_PREFIX) {
+                settleInFlight();
+                if (out.remaining() < REPLY_ROOM) {
+                    // stop reading until the client takes its replies, TCP pushes back on the feed meanwhile
+                    backedUp = true;
+                    break;
+                }
+                if (inFlight.size() >= MAX_IN_FLIGHT) {
+                    // carried on from replySettled
+                    break;
+                }
+                int length = in.getInt(in.position());
+                if (length != BinaryTradeProtocol.BODY_LENGTH) {
+                    invalid = new IOException("invalid frame length=" + length);
+                    break;
+                }
+                if (in.remaining() < BinaryTradeProtocol.FRAME_LENGTH) {
+                    break;
+                }
+                int start = in.position();
+                in.position(start + BinaryTradeProtocol.LENGTH_PREFIX);
+                try {
+                    frame.decode(in);
+                } catch (RuntimeException e) {
+                    invalid = new IOException("invalid frame after sequence=" + unacked, e);
+                    break;
+                }
+                if (!record()) {
+                    // read the frame again once resumed
+                    in.position(start);
+                    break;
+                }
+            }
+            in.compact();
+            settleInFlight();
+            if (unacked >= 0) {
+                queue(BinaryTradeProtocol.ACK, unacked);
+                unacked = -1;
+            }
+            flush();
+            if (invalid != null) {
+                throw invalid;
+            }
+        }
+
+        /**
+         * @return false when the connection pauses for the rate limit, the frame is not handled yet
+         */
+        private boolean record() {
+            CompletableFuture<Void> recording;
+            try {
+                frame.copyTo(view);
+                if (admissionControl != null) {
+                    long admission = admissionControl.tryAdmit(view, throttled);
+                    if (admission > 0) {
+                        pause(admission);
+                        return false;
+                    }
+                    throttled = false;
+                    if (admission == AdmissionControl.SPILLED) {
+                        recording = SPILLED;
+                        handled(frame.getSequence(), recording);
+                        return true;
+                    }
+                }
+                recording = tradeRepo.submitTrade(view);
+            } catch (GBCEServiceException | RuntimeException e) {
+                throttled = false;
+                recording = new CompletableFuture<>();
+                recording.completeExceptionally(e);
+            }
+            handled(frame.getSequence(), recording);
+            return true;
+        }
+
+        private void handled(long sequence, CompletableFuture<Void> recording) {
+            if (inFlight.isEmpty() && recording.isDone()) {
+                reply(sequence, recording);
+                return;
+            }
+            inFlight.add(new InFlight(sequence, recording));
+            if (!recording.isDone()) {
+                recording.whenComplete((ignored, e) -> {
+                    settled.add(this);
+                    selector.wakeup();
+                });
+            }
+        }
+
+        /**
+         * reply to the frames in flight from the oldest, up to the first one not recorded or rejected yet
+         */
+        private void settleInFlight() {
+            while (!inFlight.isEmpty() && inFlight.peek().recording.isDone() && out.remaining() >= REPLY_ROOM) {
+                InFlight oldest = inFlight.poll();
+                reply(oldest.sequence, oldest.recording);
+            }
+            if (!inFlight.isEmpty() && inFlight.peek().recording.isDone()) {
+                backedUp = true;
+            }
+        }
+
+        /**
+         * @param recording done
+         */
+        private void reply(long sequence, CompletableFuture<Void> recording) {
+            Throwable failure = failure(recording);
+            if (failure == null) {
+                // a spilled trade is acked like a recorded one
+                if (recording != SPILLED) {
+                    recorded.incrementAndGet();
+                }
+                unacked = sequence;
+                return;
+            }
+            if (failure instanceof GBCEServiceException) {
+                // an invalid or over the limit trade, counted in rejected
+                log.debug("trade rejected for sequence={}: {}", sequence, failure.getMessage());
+            } else {
+                log.error("trade rejected for sequence={}", sequence, failure);
+            }
+            rejected.incrementAndGet();
+            // the cumulative ack goes first so it never covers the rejected sequence
+            if (unacked >= 0) {
+                queue(BinaryTradeProtocol.ACK, unacked);
+                unacked = -1;
+            }
+            queue(BinaryTradeProtocol.REJECT, sequence);
+        }
+
+        private void pause(long nanos) {
+            throttled = true;
+            resumeAtNanos = System.nanoTime() + nanos;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            paused.add(this);
+        }
+
+        /**
+         * the room is always there, process only handles a frame with REPLY_ROOM left
+         */
+        private void queue(byte type, long sequence) {
+            out.put(type);
+            out.putLong(sequence);
+        }
+
+        private void flush() throws IOException {
+            if (out.position() > 0) {
+                out.flip();
+                channel.write(out);
+                out.compact();
+            }
+            // keep writing when the socket accepts more, otherwise only wait for trades, unless paused, backed up
+            // or with too many frames in flight. Backed up waits for the socket even when every reply is written,
+            // drain then carries on reading
+            int reading = throttled || backedUp || inFlight.size() >= MAX_IN_FLIGHT ? 0 : SelectionKey.OP_READ;
+            key.interestOps(out.position() > 0 || backedUp ? reading | SelectionKey.OP_WRITE : reading);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.jpm.stockmarket.gateway;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import com.jpm.stockmarket.model.Trade;
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.model.TradeView;
+
+import lombok.Getter;
+
+/**
+ * reusable holder of one decoded trade frame, see {@link BinaryTradeProtocol} for the layout.
+ * A connection keeps a single instance and decodes every frame into it, so decoding does not allocate
+ */
+public final class TradeFrame {
+
+    private final SymbolTable symbols = new SymbolTable();
+
+    @Getter
+    private long sequence;
+    @Getter
+    private String symbol;
+    @Getter
+    private long timestamp;
+    @Getter
+    private long quantity;
+    @Getter
+    private TradeIndicator indicator;
+    @Getter
+    private long priceUnscaled;
+    @Getter
+    private int priceScale;
+
+    /**
+     * decode the body of a frame, the buffer must be positioned right after the length prefix
+     *
+     * @param buffer
+     */
+    public void decode(ByteBuffer buffer) {
+        sequence = buffer.getLong();
+        symbol = symbols.lookup(buffer.getLong());
+        timestamp = buffer.getLong();
+        quantity = buffer.getLong();
+        byte side = buffer.get();
+        if (side != BinaryTradeProtocol.BUY && side != BinaryTradeProtocol.SELL) {
+            throw new IllegalArgumentException("invalid indicator=" + side + " for sequence=" + sequence);
+        }
+        indicator = side == BinaryTradeProtocol.BUY ? TradeIndicator.BUY : TradeIndicator.SELL;
+        priceUnscaled = buffer.getLong();
+        priceScale = buffer.get();
+    }
+
+    /**
+     * the frame as a new trade, for callers that keep it. Allocates, the gateway and the bulk loader record
+     * through {@link #copyTo(TradeView)} instead
+     *
+     * @return
+     */
+    public Trade toTrade() {
+        return new Trade(symbol, timestamp == BinaryTradeProtocol.NO_TIMESTAMP ? null
+                : LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault()),
+                quantity, indicator, BigDecimal.valueOf(priceUnscaled, priceScale));
+    }
+
+    /**
+     * overwrite the view with the decoded frame, without allocating
+     *
+     * @param view
+     * @return the view
+     */
+    public TradeView copyTo(TradeView view) {
+        view.setSymbol(symbol);
+        if (timestamp == BinaryTradeProtocol.NO_TIMESTAMP) {
+            view.setTimestampNanos(TradeView.NO_TIMESTAMP);
+        } else {
+            view.setTimestampMillis(timestamp);
+        }
+        view.setQuantity(quantity);
+        view.setIndicator(indicator);
+        view.setEvicted(false);
+        return view.setPrice(priceUnscaled, priceScale);
+    }
+
+    /**
+     * write a complete frame including the length prefix
+     *
+     * @param buffer
+     * @param sequence
+     * @param symbol
+     * @param timestamp
+     * @param quantity
+     * @param indicator
+     * @param price
+     */
+    public static void encode(ByteBuffer buffer, long sequence, String symbol, long timestamp, long quantity,
+                              TradeIndicator indicator, BigDecimal price) {
+        encode(buffer, sequence, symbol, timestamp, quantity, indicator, price.unscaledValue().longValueExact(),
+                price.scale());
+    }
+
+    /**
+     * write a complete frame with the price as unscaled value and scale, without allocating
+     */
+    public static void encode(ByteBuffer buffer, long sequence, String symbol, long timestamp, long quantity,
+                              TradeIndicator indicator, long priceUnscaled, int priceScale) {
+        buffer.putInt(BinaryTradeProtocol.BODY_LENGTH);
+        buffer.putLong(sequence);
+        buffer.putLong(SymbolTable.encode(symbol));
+        buffer.putLong(timestamp);
+        buffer.putLong(quantity);
+        buffer.put(indicator == TradeIndicator.BUY ? BinaryTradeProtocol.BUY : BinaryTradeProtocol.SELL);
+        buffer.putLong(priceUnscaled);
+        buffer.put((byte) priceScale);
+    }
+}
@@ -0,0 +1,11 @@
+package com.jpm.stockmarket.index;
+
+/**
+ * the value of a constituent an index is calculated from
+ */
+public enum IndexBasis {
+    // last traded price
+    PRICE,
+    // volume weighted price over the trade window, as of the last trade of the symbol
+    VWAP
+}
@@ -0,0 +1,65 @@
+package com.jpm.stockmarket.index;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.jpm.stockmarket.model.Stock;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * an index as a basket of symbols with their weights, averaged with the given method over the given basis.
+ * Weights are relative, only the constituents that traded already count and their weights are normalized
+ */
+@ToString
+public class IndexDefinition {
+
+    @Getter
+    private final String name;
+    // weight by symbol
+    @Getter
+    private final Map<String, Double> weights;
+    @Getter
+    private final IndexMethod method;
+    @Getter
+    private final IndexBasis basis;
+
+    public IndexDefinition(String name, Map<String, Double> weights, IndexMethod method, IndexBasis basis) {
+        if (name == null || weights == null || weights.isEmpty() || method == null || basis == null) {
+            throw new IllegalArgumentException("index needs a name, constituents, a method and a basis, name="
+                    + name);
+        }
+        for (Map.Entry<String, Double> weight : weights.entrySet()) {
+            if (weight.getKey() == null || weight.getValue() == null || !(weight.getValue() > 0)
+                    || weight.getValue().isInfinite()) {
+                throw new IllegalArgumentException(String.format("invalid weight=%s for symbol=%s in index=%s",
+                        weight.getValue(), weight.getKey(), name));
+            }
+        }
+        this.name = name;
+        this.weights = Collections.unmodifiableMap(new LinkedHashMap<>(weights));
+        this.method = method;
+        this.basis = basis;
+    }
+
+    /**
+     * equal weight index of all the stocks of a type, e.g. the COMMON only sub-index
+     *
+     * @param name
+     * @param type
+     * @param method
+     * @param basis
+     * @return
+     */
+    public static IndexDefinition ofType(String name, Stock.StockTypes type, IndexMethod method, IndexBasis basis) {
+        Map<String, Double> weights = new LinkedHashMap<>();
+        for (Stock stock : Stock.values()) {
+            if (stock.getType() == type) {
+                weights.put(stock.getSymbol(), 1.0);
+            }
+        }
+        return new IndexDefinition(name, weights, method, basis);
+    }
+}
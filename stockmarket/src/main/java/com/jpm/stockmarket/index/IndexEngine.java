@@ -0,0 +1,291 @@
+package com.jpm.stockmarket.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.jpm.stockmarket.model.TradeView;
+import com.jpm.stockmarket.model.TradeWindow;
+
+/**
+ * keeps any number of weighted indices up to date with every trade. Every index holds the weighted sum over its
+ * constituents, Σ w ln v for geometric and Σ w v for arithmetic ones, together with the sum of the weights of
+ * the constituents that traded. A trade looks up the indices of its symbol in a reverse symbol to index map and
+ * only moves their sums by the difference between the old and new value of the symbol, so its cost depends on
+ * the number of indices holding the symbol, not on the number defined. The index value is recalculated right
+ * away, reading an index is a map lookup and a volatile read. Moving the sums accumulates rounding errors, so
+ * every {@link #RECALCULATE_MOVES} moves an index sums its constituents up again.
+ * <p>
+ * Geometric indices need positive values. Trades with a non-positive price do not move the symbols held by a
+ * geometric index, and a symbol that traded at one cannot join a geometric index.
+ * <p>
+ * Recording a trade of a known symbol does not allocate. Recording and defining indices are synchronized, reads
+ * never lock
+ */
+public class IndexEngine {
+
+    // moves of an index before its sums are recalculated from the constituents
+    static final int RECALCULATE_MOVES = 1024;
+
+    private final Map<String, IndexSlot> indices = new ConcurrentHashMap<>();
+    // reverse map, guarded by this
+    private final Map<String, SymbolState> symbols = new HashMap<>();
+
+    /**
+     * define an index, or replace the one with the same name. It starts from the values of its constituents
+     * recorded so far. A replaced index is swapped for the new one, readers see either of them
+     *
+     * @param definition
+     * @throws IllegalArgumentException when a constituent of a geometric index traded at a non-positive value
+     */
+    public synchronized void define(IndexDefinition definition) {
+        IndexSlot index = new IndexSlot(definition);
+        int i = 0;
+        for (Map.Entry<String, Double> weight : definition.getWeights().entrySet()) {
+            SymbolState symbol = symbolState(weight.getKey());
+            if (index.geometric && symbol.traded && !(symbol.value(index) > 0)) {
+                throw new IllegalArgumentException(String.format(
+                        "symbol=%s traded at value=%s, cannot be a constituent of geometric index=%s",
+                        weight.getKey(), symbol.value(index), definition.getName()));
+            }
+            index.constituents[i] = symbol;
+            index.weights[i++] = weight.getValue();
+        }
+        index.recalculate();
+        index.publish();
+
+        IndexSlot replaced = indices.put(definition.getName(), index);
+        if (replaced != null) {
+            leave(replaced);
+        }
+        for (i = 0; i < index.constituents.length; i++) {
+            index.constituents[i].join(index, index.weights[i]);
+        }
+    }
+
+    /**
+     * @param name
+     * @return false when no index has the name
+     */
+    public synchronized boolean remove(String name) {
+        IndexSlot index = indices.remove(name);
+        if (index == null) {
+            return false;
+        }
+        leave(index);
+        return true;
+    }
+
+
+    /**
+     * move the indices holding the symbol of the trade, the same window semantics as the market state apply
+     * to the VWAP basis
+     *
+     * @param trade
+     * @param nowMillis    time the trade is recorded at
+     * @param windowMillis length of the trade window
+     */
+    public synchronized void record(TradeView trade, long nowMillis, long windowMillis) {
+        if (trade.getSymbol() == null || !trade.isPriced()) {
+            return;
+        }
+        // symbols in no index are kept as well, so indices defined later start from their values
+        SymbolState symbol = symbolState(trade.getSymbol());
+        double price = trade.getPriceAsDouble();
+        if (!(price > 0) && symbol.geometricCount > 0) {
+            // the logarithm is undefined
+            return;
+        }
+        boolean traded = symbol.traded;
+        double oldPrice = symbol.lastPrice;
+        double oldVwap = symbol.vwap();
+        symbol.add(price, trade.getQuantity(), nowMillis, windowMillis);
+        double vwap = symbol.vwap();
+
+        for (int i = 0; i < symbol.indexCount; i++) {
+            IndexSlot index = symbol.indices[i];
+            boolean byPrice = index.definition.getBasis() == IndexBasis.PRICE;
+            double weight = symbol.weights[i];
+            if (traded) {
+                index.move(weight, byPrice ? oldPrice : oldVwap, byPrice ? price : vwap);
+            } else {
+                index.add(weight, byPrice ? price : vwap);
+            }
+            index.publish();
+        }
+    }
+
+    /**
+     * apply a new trade window length, see {@link com.jpm.stockmarket.model.MarketStateWriter#reshapeWindow}.
+     * Index values stay as they are until the next trade of a symbol
+     *
+     * @param windowMillis
+     */
+    public synchronized void reshapeWindow(long windowMillis) {
+        for (SymbolState symbol : symbols.values()) {
+            symbol.window.reshape(windowMillis);
+        }
+    }
+
+    /**
+     * @param name
+     * @return value of the index, NaN when it is not defined or none of its constituents traded yet
+     */
+    public double getValue(String name) {
+        IndexSlot index = indices.get(name);
+        return index == null ? Double.NaN : index.value;
+    }
+
+    public boolean isDefined(String name) {
+        return indices.containsKey(name);
+    }
+
+    public IndexDefinition getDefinition(String name) {
+        IndexSlot index = indices.get(name);
+        return index == null ? null : index.definition;
+    }
+
+    public List<String> getIndexNames() {
+        return new ArrayList<>(indices.keySet());
+    }
+
+    private void leave(IndexSlot index) {
+        for (SymbolState symbol : index.constituents) {
+            symbol.leave(index);
+        }
+    }
+
+    private SymbolState symbolState(String symbol) {
+        SymbolState state = symbols.get(symbol);
+        if (state == null) {
+            state = new SymbolState();
+            symbols.put(symbol, state);
+        }
+        return state;
+    }
+
+    private static final class IndexSlot {
+
+        private final IndexDefinition definition;
+        private final boolean geometric;
+        // constituents in the order of the definition, with their weights
+        private final SymbolState[] constituents;
+        private final double[] weights;
+        // sums over the constituents that traded, written by the recording thread only
+        private double weightedSum;
+        private double weightSum;
+        private int moves;
+        private volatile double value = Double.NaN;
+
+        private IndexSlot(IndexDefinition definition) {
+            this.definition = definition;
+            this.geometric = definition.getMethod() == IndexMethod.GEOMETRIC;
+            this.constituents = new SymbolState[definition.getWeights().size()];
+            this.weights = new double[constituents.length];
+        }
+
+        private void add(double weight, double constituentValue) {
+            weightedSum += weight * term(constituentValue);
+            weightSum += weight;
+        }
+
+        private void move(double weight, double oldValue, double newValue) {
+            weightedSum += weight * (term(newValue) - term(oldValue));
+            moves++;
+        }
+
+        /**
+         * sum the values of the constituents that traded up again, dropping the rounding errors of the moves
+         */
+        private void recalculate() {
+            weightedSum = 0;
+            weightSum = 0;
+            for (int i = 0; i < constituents.length; i++) {
+                if (constituents[i].traded) {
+                    add(weights[i], constituents[i].value(this));
+                }
+            }
+            moves = 0;
+        }
+
+        private double term(double constituentValue) {
+            return geometric ? Math.log(constituentValue) : constituentValue;
+        }
+
+        private void publish() {
+            if (moves >= RECALCULATE_MOVES) {
+                recalculate();
+            }
+            if (weightSum > 0) {
+                double mean = weightedSum / weightSum;
+                value = geometric ? Math.exp(mean) : mean;
+            }
+        }
+    }
+
+    private static final class SymbolState {
+
+        // indices holding the symbol with its weight in each
+        private IndexSlot[] indices = new IndexSlot[0];
+        private double[] weights = new double[0];
+        private int indexCount;
+        // geometric ones among them
+        private int geometricCount;
+
+        private boolean traded;
+        private double lastPrice;
+        private final TradeWindow window = new TradeWindow();
+        private double windowNotional;
+
+        private void add(double price, long quantity, long nowMillis, long windowMillis) {
+            if (window.add(quantity, nowMillis, windowMillis)) {
+                windowNotional += price * quantity;
+            } else {
+                windowNotional = price * quantity;
+            }
+            lastPrice = price;
+            traded = true;
+        }
+
+        private double vwap() {
+            // a window of trades without quantity falls back to the last price
+            return window.getQuantity() > 0 ? windowNotional / window.getQuantity() : lastPrice;
+        }
+
+        private double value(IndexSlot index) {
+            return index.definition.getBasis() == IndexBasis.PRICE ? lastPrice : vwap();
+        }
+
+        private void join(IndexSlot index, double weight) {
+            if (indexCount == indices.length) {
+                int length = Math.max(4, indexCount * 2);
+                indices = Arrays.copyOf(indices, length);
+                weights = Arrays.copyOf(weights, length);
+            }
+            indices[indexCount] = index;
+            weights[indexCount] = weight;
+            indexCount++;
+            if (index.geometric) {
+                geometricCount++;
+            }
+        }
+
+        private void leave(IndexSlot index) {
+            for (int i = 0; i < indexCount; i++) {
+                if (indices[i] == index) {
+                    indexCount--;
+                    indices[i] = indices[indexCount];
+                    weights[i] = weights[indexCount];
+                    indices[indexCount] = null;
+                    if (index.geometric) {
+                        geometricCount--;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.jpm.stockmarket.index;
+
+/**
+ * how the constituent values of an index are averaged, with their weights
+ */
+public enum IndexMethod {
+    // exp(Σ w ln v / Σ w), the GBCE All Share Index is an equal weight geometric index
+    GEOMETRIC,
+    // Σ w v / Σ w
+    ARITHMETIC
+}
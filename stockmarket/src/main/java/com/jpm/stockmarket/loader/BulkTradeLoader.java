@@ -0,0 +1,226 @@
+package com.jpm.stockmarket.loader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.gateway.BinaryTradeProtocol;
+import com.jpm.stockmarket.gateway.TradeFrame;
+import com.jpm.stockmarket.model.TradeView;
+import com.jpm.stockmarket.repository.TradeRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * loads historical trade files into the {@link TradeRepository}, e.g. to backfill or rebuild the state.
+ * The file is memory mapped and split into chunks ending on record boundaries, the chunks are parsed in parallel
+ * and their trades are recorded in file order in large batches, see {@link TradeRepository#ingestTrades(List)}.
+ * Only a bounded number of parsed chunks is held in memory at any time, trades are parsed straight into
+ * {@link TradeView}s that are reused once their chunk is recorded
+ */
+@Slf4j
+@Component
+public class BulkTradeLoader {
+
+    // longest CSV line searched for when looking for a record boundary
+    private static final int BOUNDARY_SCAN_BYTES = 64 * 1024;
+
+    private final TradeRepository tradeRepo;
+    private final int threads;
+    private final int chunkBytes;
+    private final int batchSize;
+
+    @Autowired
+    public BulkTradeLoader(TradeRepository tradeRepo,
+                           @Value("${bulkload.threads:0}") int threads,
+                           @Value("${bulkload.chunk.bytes:16777216}") int chunkBytes,
+                           @Value("${bulkload.batch.size:65536}") int batchSize) {
+        this.tradeRepo = tradeRepo;
+        // 0 means one thread per processor
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.chunkBytes = chunkBytes;
+        this.batchSize = batchSize;
+    }
+
+    public LoadProgress load(Path file, TradeFileFormat format) throws GBCEServiceException {
+        return load(file, format, progress -> { });
+    }
+
+    /**
+     * @param file
+     * @param format
+     * @param progressListener called after every chunk recorded
+     * @return totals of the load
+     * @throws GBCEServiceException when the file cannot be read or holds a malformed record, the trades of the
+     *                              chunks before the malformed one are recorded
+     */
+    public LoadProgress load(Path file, TradeFileFormat format, Consumer<LoadProgress> progressListener)
+            throws GBCEServiceException {
+        long start = System.currentTimeMillis();
+        ExecutorService parsers = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            List<Long> boundaries = format == TradeFileFormat.CSV ? csvBoundaries(channel, size)
+                    : binaryBoundaries(size);
+            log.info("bulk loading file={} format={} bytes={} in chunks={} with threads={}", file, format, size,
+                    boundaries.size() - 1, threads);
+
+            // parse ahead of the recording, but only so far
+            Deque<Future<TradeChunk>> parsed = new ArrayDeque<>();
+            Queue<TradeChunk> recorded = new ConcurrentLinkedQueue<>();
+            int next = 0;
+            long trades = 0;
+            LoadProgress progress = new LoadProgress(0, 0, size, 0);
+            for (int chunk = 0; chunk < boundaries.size() - 1; chunk++) {
+                while (next < boundaries.size() - 1 && parsed.size() < threads * 2) {
+                    parsed.add(parsers.submit(parseTask(channel, format, boundaries.get(next),
+                            boundaries.get(next + 1), next == 0, recorded)));
+                    next++;
+                }
+                TradeChunk chunkTrades = await(parsed.poll());
+                List<TradeView> views = chunkTrades.trades();
+                for (int from = 0; from < views.size(); from += batchSize) {
+                    tradeRepo.ingestTrades(views.subList(from, Math.min(from + batchSize, views.size())));
+                }
+                trades += chunkTrades.size();
+                chunkTrades.clear();
+                recorded.add(chunkTrades);
+                progress = new LoadProgress(trades, boundaries.get(chunk + 1), size,
+                        System.currentTimeMillis() - start);
+                log.info("bulk load of file={} at {}% trades={} trades/s={}", file, (int) progress.getPercent(),
+                        trades, (long) progress.getTradesPerSecond());
+                progressListener.accept(progress);
+            }
+            return progress;
+        } catch (IOException e) {
+            log.error("bulk load of file={} failed={}", file, e.getMessage(), e);
+            throw new GBCEServiceException(e);
+        } finally {
+            parsers.shutdownNow();
+        }
+    }
+
+    private static TradeChunk await(Future<TradeChunk> future) throws GBCEServiceException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GBCEServiceException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GBCEServiceException) {
+                throw (GBCEServiceException) e.getCause();
+            }
+            throw new GBCEServiceException(e);
+        }
+    }
+
+    /**
+     * @param recorded chunks recorded already, parsed into again
+     */
+    private static Callable<TradeChunk> parseTask(FileChannel channel, TradeFileFormat format, long from, long to,
+                                                  boolean first, Queue<TradeChunk> recorded) {
+        return () -> {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+            TradeChunk trades = recorded.poll();
+            if (trades == null) {
+                trades = new TradeChunk();
+            }
+            if (format == TradeFileFormat.CSV) {
+                new CsvTradeParser(buffer, from).parse(trades, first);
+            } else {
+                parseFrames(buffer, from, trades);
+            }
+            return trades;
+        };
+    }
+
+    private static void parseFrames(ByteBuffer buffer, long fileOffset, TradeChunk trades)
+            throws GBCEServiceException {
+        TradeFrame frame = new TradeFrame();
+        while (buffer.hasRemaining()) {
+            int frameStart = buffer.position();
+            int length = buffer.getInt();
+            if (length != BinaryTradeProtocol.BODY_LENGTH) {
+                throw new GBCEServiceException("invalid frame length=" + length + " at byte="
+                        + (fileOffset + frameStart));
+            }
+            try {
+                frame.decode(buffer);
+            } catch (IllegalArgumentException e) {
+                throw new GBCEServiceException("invalid trade frame at byte=" + (fileOffset + frameStart)
+                        + ": " + e.getMessage());
+            }
+            frame.copyTo(trades.next());
+        }
+    }
+
+    /**
+     * chunk boundaries of a binary file, frames have a fixed length
+     */
+    private List<Long> binaryBoundaries(long size) throws GBCEServiceException {
+        if (size % BinaryTradeProtocol.FRAME_LENGTH != 0) {
+            throw new GBCEServiceException("binary trade file is truncated, bytes=" + size);
+        }
+        long step = Math.max(1, chunkBytes / BinaryTradeProtocol.FRAME_LENGTH) * BinaryTradeProtocol.FRAME_LENGTH;
+        List<Long> boundaries = new ArrayList<>();
+        for (long boundary = 0; boundary < size; boundary += step) {
+            boundaries.add(boundary);
+        }
+        boundaries.add(size);
+        return boundaries;
+    }
+
+    /**
+     * chunk boundaries of a CSV file, every chunk but the first starts right after a line feed
+     */
+    private List<Long> csvBoundaries(FileChannel channel, long size) throws IOException, GBCEServiceException {
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        long nominal = chunkBytes;
+        while (nominal < size) {
+            long boundary = nextLineStart(channel, nominal - 1, size);
+            if (boundary >= size) {
+                break;
+            }
+            boundaries.add(boundary);
+            nominal = Math.max(boundary, nominal) + chunkBytes;
+        }
+        boundaries.add(size);
+        return boundaries;
+    }
+
+    private static long nextLineStart(FileChannel channel, long from, long size)
+            throws IOException, GBCEServiceException {
+        int length = (int) Math.min(BOUNDARY_SCAN_BYTES, size - from);
+        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+        for (int i = 0; i < length; i++) {
+            if (window.get(i) == '\n') {
+                return from + i + 1;
+            }
+        }
+        if (from + length >= size) {
+            return size;
+        }
+        throw new GBCEServiceException("no line break within " + BOUNDARY_SCAN_BYTES + " bytes at byte=" + from);
+    }
+}
@@ -0,0 +1,336 @@
+package com.jpm.stockmarket.loader;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoField;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.gateway.BinaryTradeProtocol;
+import com.jpm.stockmarket.gateway.SymbolTable;
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.model.TradeView;
+
+/**
+ * parses the CSV trade records of one chunk straight from the mapped bytes into reused {@link TradeView}s.
+ * Numbers are accumulated digit by digit, symbols are resolved through a {@link SymbolTable} and timestamps are
+ * converted to epoch nanoseconds with the zone offset remembered between its transitions, so a record does not
+ * allocate once its symbol and date were seen
+ */
+final class CsvTradeParser {
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    private static final long SECONDS_PER_DAY = 86400;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private final SymbolTable symbols = new SymbolTable();
+    private final ByteBuffer buffer;
+    private final long fileOffset;
+    private int position;
+    private int limit;
+
+    // the last parsed price, unscaled value and scale
+    private long unscaled;
+    private int scale;
+
+    // the last date parsed, records of a file mostly share their date with the one before
+    private int lastYear = Integer.MIN_VALUE;
+    private int lastMonth;
+    private int lastDay;
+    private long lastEpochDay;
+    // offset of the zone and the local times, in seconds since the epoch as if in UTC, it holds for
+    private int offsetSeconds;
+    private long offsetFrom = Long.MAX_VALUE;
+    private long offsetUntil = Long.MIN_VALUE;
+
+    /**
+     * @param buffer     the chunk, from its position to its limit
+     * @param fileOffset offset of the chunk in the file, for error messages
+     */
+    CsvTradeParser(ByteBuffer buffer, long fileOffset) {
+        this.buffer = buffer;
+        this.fileOffset = fileOffset - buffer.position();
+        this.position = buffer.position();
+        this.limit = buffer.limit();
+    }
+
+    /**
+     * @param trades receives the trades in file order
+     * @param header whether the chunk may start with a header line
+     * @throws GBCEServiceException on a malformed record
+     */
+    void parse(TradeChunk trades, boolean header) throws GBCEServiceException {
+        if (header && startsWithIgnoreCase("symbol")) {
+            skipLine();
+        }
+        while (position < limit) {
+            int lineStart = position;
+            if (endOfLine()) {
+                // blank line
+                skipLine();
+                continue;
+            }
+            try {
+                parseRecord(trades.next());
+            } catch (RuntimeException e) {
+                throw new GBCEServiceException("invalid trade record at byte=" + (fileOffset + lineStart)
+                        + ": " + e.getMessage());
+            }
+            skipLine();
+        }
+    }
+
+    private void parseRecord(TradeView trade) {
+        trade.setSymbol(parseSymbol());
+        expect(',');
+        trade.setTimestampNanos(parseTimestamp());
+        expect(',');
+        trade.setQuantity(parseLong());
+        expect(',');
+        trade.setIndicator(parseIndicator());
+        expect(',');
+        if (endOfField()) {
+            trade.clearPrice();
+        } else {
+            parseDecimal();
+            trade.setPrice(unscaled, scale);
+        }
+        if (!endOfLine()) {
+            throw new IllegalArgumentException("unexpected data after the price");
+        }
+        trade.setEvicted(false);
+    }
+
+    private String parseSymbol() {
+        int start = position;
+        long encoded = 0;
+        while (!endOfField()) {
+            encoded = (encoded << 8) | (buffer.get(position++) & 0xFF);
+        }
+        int length = position - start;
+        if (length == 0) {
+            throw new IllegalArgumentException("missing symbol");
+        }
+        if (length > BinaryTradeProtocol.SYMBOL_LENGTH) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(start + i);
+            }
+            return new String(bytes, StandardCharsets.US_ASCII);
+        }
+        // right pad with spaces like the binary feed does
+        for (int i = length; i < BinaryTradeProtocol.SYMBOL_LENGTH; i++) {
+            encoded = (encoded << 8) | ' ';
+        }
+        return symbols.lookup(encoded);
+    }
+
+    /**
+     * @return nanoseconds since the epoch, {@link TradeView#NO_TIMESTAMP} for an empty field
+     */
+    private long parseTimestamp() {
+        if (endOfField()) {
+            return TradeView.NO_TIMESTAMP;
+        }
+        // epoch milliseconds have no date separator
+        int dash = position;
+        while (dash < limit && isDigit(buffer.get(dash))) {
+            dash++;
+        }
+        if (dash >= limit || buffer.get(dash) != '-') {
+            return Math.multiplyExact(parseLong(), NANOS_PER_MILLI);
+        }
+        int year = (int) parseLong();
+        expect('-');
+        int month = (int) parseLong();
+        expect('-');
+        int day = (int) parseLong();
+        expect('T');
+        int hour = (int) parseLong();
+        expect(':');
+        int minute = (int) parseLong();
+        int second = 0;
+        int nanos = 0;
+        if (peek() == ':') {
+            position++;
+            second = (int) parseLong();
+            if (peek() == '.') {
+                position++;
+                int digits = 0;
+                while (position < limit && isDigit(buffer.get(position))) {
+                    if (digits++ < 9) {
+                        nanos = nanos * 10 + (buffer.get(position) - '0');
+                    }
+                    position++;
+                }
+                for (; digits < 9; digits++) {
+                    nanos *= 10;
+                }
+            }
+        }
+        return toEpochNanos(year, month, day, hour, minute, second, nanos);
+    }
+
+    /**
+     * the local date and time in the system zone as nanoseconds since the epoch, the same as
+     * {@link TradeView#toNanos(LocalDateTime)}
+     */
+    private long toEpochNanos(int year, int month, int day, int hour, int minute, int second, int nanos) {
+        if (year != lastYear || month != lastMonth || day != lastDay) {
+            // validates the date
+            lastEpochDay = LocalDate.of(year, month, day).toEpochDay();
+            lastYear = year;
+            lastMonth = month;
+            lastDay = day;
+        }
+        ChronoField.HOUR_OF_DAY.checkValidValue(hour);
+        ChronoField.MINUTE_OF_HOUR.checkValidValue(minute);
+        ChronoField.SECOND_OF_MINUTE.checkValidValue(second);
+        long localSecond = lastEpochDay * SECONDS_PER_DAY + hour * 3600L + minute * 60L + second;
+        if (localSecond < offsetFrom || localSecond >= offsetUntil) {
+            LocalDateTime local = LocalDateTime.ofEpochSecond(localSecond, nanos, ZoneOffset.UTC);
+            if (!rememberOffset(local)) {
+                // in a gap or an overlap of the zone, resolved the way LocalDateTime#atZone does
+                return TradeView.toNanos(local);
+            }
+        }
+        return Math.addExact(Math.multiplyExact(localSecond - offsetSeconds, NANOS_PER_SECOND), nanos);
+    }
+
+    /**
+     * remember the offset of the zone at the local time together with the local times it holds for, from the
+     * transition before the time to the one after it
+     *
+     * @return false when the local time is in a gap or an overlap of a transition itself
+     */
+    private boolean rememberOffset(LocalDateTime local) {
+        ZoneRules rules = ZONE.getRules();
+        Instant instant = local.atZone(ZONE).toInstant();
+        offsetSeconds = rules.getOffset(instant).getTotalSeconds();
+        ZoneOffsetTransition previous = rules.previousTransition(instant);
+        ZoneOffsetTransition following = rules.nextTransition(instant);
+        offsetFrom = previous == null ? Long.MIN_VALUE : Math.max(
+                previous.getDateTimeBefore().toEpochSecond(ZoneOffset.UTC),
+                previous.getDateTimeAfter().toEpochSecond(ZoneOffset.UTC));
+        offsetUntil = following == null ? Long.MAX_VALUE : Math.min(
+                following.getDateTimeBefore().toEpochSecond(ZoneOffset.UTC),
+                following.getDateTimeAfter().toEpochSecond(ZoneOffset.UTC));
+        long localSecond = local.toEpochSecond(ZoneOffset.UTC);
+        return localSecond >= offsetFrom && localSecond < offsetUntil;
+    }
+
+    private TradeIndicator parseIndicator() {
+        if (endOfField()) {
+            return null;
+        }
+        byte first = buffer.get(position);
+        TradeIndicator indicator;
+        if (first == 'B' || first == 'b') {
+            indicator = TradeIndicator.BUY;
+        } else if (first == 'S' || first == 's') {
+            indicator = TradeIndicator.SELL;
+        } else {
+            throw new IllegalArgumentException("invalid indicator");
+        }
+        while (!endOfField()) {
+            position++;
+        }
+        return indicator;
+    }
+
+    private long parseLong() {
+        boolean negative = peek() == '-';
+        if (negative) {
+            position++;
+        }
+        int start = position;
+        long value = 0;
+        while (position < limit && isDigit(buffer.get(position))) {
+            value = Math.addExact(Math.multiplyExact(value, 10), buffer.get(position++) - '0');
+        }
+        if (position == start) {
+            throw new IllegalArgumentException("number expected");
+        }
+        return negative ? -value : value;
+    }
+
+    private void parseDecimal() {
+        boolean negative = peek() == '-';
+        if (negative) {
+            position++;
+        }
+        long value = 0;
+        int digits = 0;
+        int fraction = -1;
+        while (position < limit) {
+            byte b = buffer.get(position);
+            if (isDigit(b)) {
+                value = Math.addExact(Math.multiplyExact(value, 10), b - '0');
+                digits++;
+                if (fraction >= 0) {
+                    fraction++;
+                }
+            } else if (b == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                break;
+            }
+            position++;
+        }
+        if (digits == 0) {
+            throw new IllegalArgumentException("price expected");
+        }
+        unscaled = negative ? -value : value;
+        scale = Math.max(fraction, 0);
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw new IllegalArgumentException("'" + c + "' expected");
+        }
+        position++;
+    }
+
+    private int peek() {
+        return position < limit ? buffer.get(position) & 0xFF : -1;
+    }
+
+    private boolean endOfField() {
+        int c = peek();
+        return c == ',' || c == '\n' || c == '\r' || c == -1;
+    }
+
+    private boolean endOfLine() {
+        int c = peek();
+        return c == '\n' || c == '\r' || c == -1;
+    }
+
+    private void skipLine() {
+        while (position < limit && buffer.get(position++) != '\n') {
+            // up to and including the line feed
+        }
+    }
+
+    private boolean startsWithIgnoreCase(String prefix) {
+        if (limit - position < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase(buffer.get(position + i)) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
@@ -0,0 +1,27 @@
+package com.jpm.stockmarket.loader;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * progress of a bulk load, reported after every chunk and returned once the load is complete
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class LoadProgress {
+
+    private final long trades;
+    private final long bytes;
+    private final long totalBytes;
+    private final long elapsedMillis;
+
+    public double getTradesPerSecond() {
+        return elapsedMillis == 0 ? trades * 1000d : trades * 1000d / elapsedMillis;
+    }
+
+    public double getPercent() {
+        return totalBytes == 0 ? 100 : bytes * 100d / totalBytes;
+    }
+}
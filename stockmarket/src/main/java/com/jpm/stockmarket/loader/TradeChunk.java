@@ -0,0 +1,41 @@
+package com.jpm.stockmarket.loader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jpm.stockmarket.model.TradeView;
+
+/**
+ * the trades parsed from one chunk of a file. The views are kept when the chunk is cleared and overwritten by the
+ * next chunk parsed into it, so a load allocates views for the chunks held at once, not for every trade
+ */
+final class TradeChunk {
+
+    private final List<TradeView> views = new ArrayList<>();
+    private int size;
+
+    /**
+     * @return the view to parse the next trade into
+     */
+    TradeView next() {
+        if (size == views.size()) {
+            views.add(new TradeView());
+        }
+        return views.get(size++);
+    }
+
+    /**
+     * @return the trades parsed, in file order
+     */
+    List<TradeView> trades() {
+        return views.subList(0, size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
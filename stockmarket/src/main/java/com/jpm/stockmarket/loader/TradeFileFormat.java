@@ -0,0 +1,13 @@
+package com.jpm.stockmarket.loader;
+
+/**
+ * formats of historical trade files accepted by the {@link BulkTradeLoader}
+ */
+public enum TradeFileFormat {
+
+    // one trade per line: symbol,timestamp,quantity,indicator,price with the timestamp either in epoch
+    // milliseconds or ISO local date time, an optional header line starting with "symbol"
+    CSV,
+    // back to back frames of the binary trade feed, see BinaryTradeProtocol
+    BINARY
+}
@@ -0,0 +1,101 @@
+package com.jpm.stockmarket.management;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import com.jpm.stockmarket.repository.StockRepository;
+import com.jpm.stockmarket.repository.TradeRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * window lengths, cache sizes and bucket granularity that can be changed at runtime over JMX, e.g. with jconsole.
+ * Every change is applied in place: trades keep being recorded, and the live windows and buckets are reshaped
+ * rather than rebuilt, so no trade recorded before the change is lost
+ */
+@Slf4j
+@Component
+@ManagedResource(objectName = "com.jpm.stockmarket:type=LiveConfiguration",
+        description = "runtime reconfiguration of the trade windows, caches and buckets")
+public class LiveConfiguration {
+
+    private final TradeRepository tradeRepo;
+    private final StockRepository stockRepo;
+
+    @Autowired
+    public LiveConfiguration(TradeRepository tradeRepo, StockRepository stockRepo) {
+        this.tradeRepo = tradeRepo;
+        this.stockRepo = stockRepo;
+    }
+
+    @ManagedAttribute(description = "length of the in-memory trade window in milliseconds")
+    public long getTradeWindowMillis() {
+        return tradeRepo.getWindowMillis();
+    }
+
+    @ManagedAttribute
+    public void setTradeWindowMillis(long windowMillis) {
+        tradeRepo.setWindowMillis(windowMillis);
+    }
+
+    @ManagedAttribute(description = "maximum number of stocks cached")
+    public long getStockCacheMaximumSize() {
+        return stockRepo.getCacheMaximumSize();
+    }
+
+    @ManagedAttribute
+    public void setStockCacheMaximumSize(long maximumSize) {
+        stockRepo.setCacheMaximumSize(maximumSize);
+    }
+
+    @ManagedAttribute(description = "length of new event time buckets in milliseconds")
+    public long getEventTimeBucketMillis() {
+        return tradeRepo.getEventTimeWindow().getBucketMillis();
+    }
+
+    @ManagedAttribute
+    public void setEventTimeBucketMillis(long bucketMillis) {
+        tradeRepo.getEventTimeWindow().setBucketMillis(bucketMillis);
+        log.info("event time bucket changed to bucketMillis={}", bucketMillis);
+    }
+
+    @ManagedAttribute(description = "length of new compaction buckets in milliseconds")
+    public long getCompactionBucketMillis() {
+        return tradeRepo.getCompactionBucketMillis();
+    }
+
+    @ManagedAttribute
+    public void setCompactionBucketMillis(long bucketMillis) {
+        tradeRepo.setCompactionBucketMillis(bucketMillis);
+    }
+
+    @ManagedAttribute(description = "length of the analytics buckets in milliseconds")
+    public long getAnalyticsBucketMillis() {
+        return tradeRepo.getTradeAnalytics().getBucketMillis();
+    }
+
+    @ManagedAttribute(description = "number of analytics buckets in the window")
+    public int getAnalyticsBucketCount() {
+        return tradeRepo.getTradeAnalytics().getBucketCount();
+    }
+
+    /**
+     * bucket length and count change together, the analytics window is their product
+     *
+     * @param bucketMillis
+     * @param bucketCount
+     */
+    @ManagedOperation(description = "reshape the analytics window, window = bucketMillis * bucketCount")
+    @ManagedOperationParameters({
+            @ManagedOperationParameter(name = "bucketMillis", description = "length of a bucket"),
+            @ManagedOperationParameter(name = "bucketCount", description = "number of buckets in the window")})
+    public void reshapeAnalytics(long bucketMillis, int bucketCount) {
+        tradeRepo.getTradeAnalytics().reshape(bucketMillis, bucketCount, System.currentTimeMillis());
+        log.info("analytics window reshaped to bucketMillis={} bucketCount={}", bucketMillis, bucketCount);
+    }
+}
@@ -0,0 +1,65 @@
+package com.jpm.stockmarket.model;
+
+import java.math.BigDecimal;
+
+/**
+ * mutable exact sum of price × quantity products, adding does not allocate as long as the sum fits into an
+ * unscaled long. The scale of the sum is the largest scale added, exactly like summing the products as
+ * {@link BigDecimal}s starting from {@link BigDecimal#ZERO}. Not thread safe
+ */
+public final class DecimalAccumulator {
+
+    private long unscaled;
+    private int scale;
+    // only used once the sum no longer fits into a long
+    private BigDecimal overflow;
+
+    public void add(long priceUnscaled, int priceScale, long quantity) {
+        if (overflow == null) {
+            try {
+                long product = Math.multiplyExact(priceUnscaled, quantity);
+                if (priceScale > scale) {
+                    unscaled = Math.addExact(Decimals.rescale(unscaled, priceScale - scale), product);
+                    scale = priceScale;
+                } else {
+                    unscaled = Math.addExact(unscaled, Decimals.rescale(product, scale - priceScale));
+                }
+                return;
+            } catch (ArithmeticException e) {
+                overflow = BigDecimal.valueOf(unscaled, scale);
+            }
+        }
+        overflow = overflow.add(BigDecimal.valueOf(priceUnscaled, priceScale).multiply(BigDecimal.valueOf(quantity)));
+    }
+
+    /**
+     * start over with a single product, its scale is the scale of the price like {@link BigDecimal#multiply}
+     */
+    public void set(long priceUnscaled, int priceScale, long quantity) {
+        overflow = null;
+        try {
+            unscaled = Math.multiplyExact(priceUnscaled, quantity);
+            scale = priceScale;
+        } catch (ArithmeticException e) {
+            unscaled = 0;
+            scale = 0;
+            overflow = BigDecimal.valueOf(priceUnscaled, priceScale).multiply(BigDecimal.valueOf(quantity));
+        }
+    }
+
+    public void set(DecimalAccumulator other) {
+        unscaled = other.unscaled;
+        scale = other.scale;
+        overflow = other.overflow;
+    }
+
+    public void clear() {
+        unscaled = 0;
+        scale = 0;
+        overflow = null;
+    }
+
+    public BigDecimal toBigDecimal() {
+        return overflow != null ? overflow : BigDecimal.valueOf(unscaled, scale);
+    }
+}
@@ -0,0 +1,85 @@
+package com.jpm.stockmarket.model;
+
+import java.math.BigDecimal;
+
+/**
+ * arithmetic on decimals held as an unscaled long and a scale, value = unscaled × 10^-scale, the way the
+ * garbage-free ingestion path keeps prices. Results match the ones of {@link BigDecimal} exactly, only the rare
+ * values that do not fit into a long fall back to it
+ */
+public final class Decimals {
+
+    private static final long[] LONG_TEN_POWERS = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+            10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+            1000000000000000L, 10000000000000000L, 100000000000000000L, 1000000000000000000L};
+
+    // powers of ten exactly representable as double
+    private static final double[] DOUBLE_TEN_POWERS = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17,
+            1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private Decimals() {
+    }
+
+    /**
+     * the same as {@link BigDecimal#doubleValue()}, both are correctly rounded
+     *
+     * @param unscaled
+     * @param scale
+     * @return
+     */
+    public static double toDouble(long unscaled, int scale) {
+        if (scale == 0) {
+            return unscaled;
+        }
+        if (Math.abs(unscaled) < 1L << 52) {
+            if (scale > 0 && scale < DOUBLE_TEN_POWERS.length) {
+                return unscaled / DOUBLE_TEN_POWERS[scale];
+            }
+            if (scale < 0 && scale > -DOUBLE_TEN_POWERS.length) {
+                return unscaled * DOUBLE_TEN_POWERS[-scale];
+            }
+        }
+        return BigDecimal.valueOf(unscaled, scale).doubleValue();
+    }
+
+    /**
+     * @return negative, zero or positive like {@link BigDecimal#compareTo(BigDecimal)}
+     */
+    public static int compare(long unscaled1, int scale1, long unscaled2, int scale2) {
+        if (scale1 == scale2) {
+            return Long.compare(unscaled1, unscaled2);
+        }
+        try {
+            return scale1 < scale2
+                    ? Long.compare(rescale(unscaled1, scale2 - scale1), unscaled2)
+                    : Long.compare(unscaled1, rescale(unscaled2, scale1 - scale2));
+        } catch (ArithmeticException e) {
+            return BigDecimal.valueOf(unscaled1, scale1).compareTo(BigDecimal.valueOf(unscaled2, scale2));
+        }
+    }
+
+    /**
+     * unscaled × 10^digits
+     *
+     * @throws ArithmeticException when the result does not fit into a long
+     */
+    public static long rescale(long unscaled, int digits) {
+        if (digits >= LONG_TEN_POWERS.length) {
+            if (unscaled == 0) {
+                return 0;
+            }
+            throw new ArithmeticException("long overflow");
+        }
+        return Math.multiplyExact(unscaled, LONG_TEN_POWERS[digits]);
+    }
+
+    /**
+     * @return the unscaled value of the price
+     * @throws ArithmeticException when it does not fit into a long
+     */
+    public static long unscaled(BigDecimal price) {
+        return price.unscaledValue().longValueExact();
+    }
+}
@@ -0,0 +1,32 @@
+package com.jpm.stockmarket.model;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * GBCE all share index, volume weighted prices and last prices of all the stocks, all calculated from the
+ * same {@link MarketState}
+ */
+@ToString
+public class MarketSnapshot {
+
+    // number of trades recorded when the snapshot was taken
+    @Getter
+    private final long epoch;
+    @Getter
+    private final long timestamp;
+    @Getter
+    private final BigDecimal shareIndex;
+    @Getter
+    private final Map<String, StockQuote> quotes;
+
+    public MarketSnapshot(long epoch, long timestamp, BigDecimal shareIndex, Map<String, StockQuote> quotes) {
+        this.epoch = epoch;
+        this.timestamp = timestamp;
+        this.shareIndex = shareIndex;
+        this.quotes = quotes;
+    }
+}
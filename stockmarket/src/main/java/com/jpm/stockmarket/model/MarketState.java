@@ -0,0 +1,79 @@
+package com.jpm.stockmarket.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import lombok.Getter;
+
+/**
+ * immutable aggregates of every symbol as of one epoch, the epoch being the number of trades recorded.
+ * States are published by {@link MarketStateWriter}, a new one shares everything but the changed symbols with
+ * the previous one: aggregates are held in fixed size chunks and only the chunks of the changed symbols and the
+ * chunk table are copied.
+ * Readers keep using the state they got while writers publish new ones, so all the figures calculated from one
+ * state are consistent with each other
+ */
+public final class MarketState {
+
+    static final int CHUNK_SHIFT = 5;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final MarketState EMPTY = new MarketState(0, 0, 0, Collections.emptyMap(),
+            new SymbolAggregate[0][], 0);
+
+    @Getter
+    private final long epoch;
+    // trades with a price, these make up the GBCE all share index
+    @Getter
+    private final long tradeCount;
+    @Getter
+    private final double logPriceSum;
+
+    private final Map<String, Integer> symbolIndex;
+    private final SymbolAggregate[][] chunks;
+    private final int symbolCount;
+
+    MarketState(long epoch, long tradeCount, double logPriceSum, Map<String, Integer> symbolIndex,
+                SymbolAggregate[][] chunks, int symbolCount) {
+        this.epoch = epoch;
+        this.tradeCount = tradeCount;
+        this.logPriceSum = logPriceSum;
+        this.symbolIndex = symbolIndex;
+        this.chunks = chunks;
+        this.symbolCount = symbolCount;
+    }
+
+    public static MarketState empty() {
+        return EMPTY;
+    }
+
+    // shared with the next state, see MarketStateWriter
+    SymbolAggregate[][] chunksForWriter() {
+        return chunks;
+    }
+
+    Map<String, Integer> symbolIndexForWriter() {
+        return symbolIndex;
+    }
+
+    public Optional<SymbolAggregate> getAggregate(String symbol) {
+        Integer index = symbolIndex.get(symbol);
+        return index == null ? Optional.empty()
+                : Optional.of(chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK]);
+    }
+
+    /**
+     * @return aggregates of all the symbols in order of their first trade
+     */
+    public List<SymbolAggregate> getAggregates() {
+        List<SymbolAggregate> aggregates = new ArrayList<>(symbolCount);
+        for (int i = 0; i < symbolCount; i++) {
+            aggregates.add(chunks[i >>> CHUNK_SHIFT][i & CHUNK_MASK]);
+        }
+        return aggregates;
+    }
+}
@@ -0,0 +1,165 @@
+package com.jpm.stockmarket.model;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * mutable counterpart of {@link MarketState} for the recording thread. Trades are added to primitive per symbol
+ * totals in place, which does not allocate, and the symbols changed since the last publish are remembered.
+ * {@link #publish()} turns the totals into an immutable state, copying only the chunks of the changed symbols.
+ * Not thread safe, recording and publishing have to be serialized by the caller; only {@link #getEpoch()} may be
+ * read from any thread
+ */
+public final class MarketStateWriter {
+
+    private final Map<String, Slot> slotsBySymbol = new HashMap<>();
+    private final List<Slot> slots = new ArrayList<>();
+
+    // number of trades recorded, written last so a reader seeing it is stale can publish
+    private volatile long epoch;
+    private long tradeCount;
+    private double logPriceSum;
+
+    private int[] dirty = new int[MarketState.CHUNK_SIZE];
+    private int dirtyCount;
+    private boolean symbolsAdded;
+
+    private MarketState published = MarketState.empty();
+
+    /**
+     * add the trade, trades without a symbol or price only advance the epoch
+     *
+     * @param trade
+     * @param nowMillis    time the trade is recorded at
+     * @param windowMillis length of the trade window
+     */
+    public void record(TradeView trade, long nowMillis, long windowMillis) {
+        if (trade.getSymbol() != null && trade.isPriced()) {
+            Slot slot = slotsBySymbol.get(trade.getSymbol());
+            if (slot == null) {
+                slot = new Slot(trade.getSymbol(), slots.size());
+                slotsBySymbol.put(trade.getSymbol(), slot);
+                slots.add(slot);
+                symbolsAdded = true;
+            }
+            double logPrice = Math.log(trade.getPriceAsDouble());
+            slot.add(trade.getPriceUnscaled(), trade.getPriceScale(), trade.getQuantity(), logPrice, nowMillis,
+                    windowMillis);
+            markDirty(slot);
+            tradeCount++;
+            logPriceSum += logPrice;
+        }
+        epoch++;
+    }
+
+    private void markDirty(Slot slot) {
+        if (!slot.dirty) {
+            slot.dirty = true;
+            if (dirtyCount == dirty.length) {
+                dirty = Arrays.copyOf(dirty, dirty.length * 2);
+            }
+            dirty[dirtyCount++] = slot.index;
+        }
+    }
+
+    /**
+     * apply a new trade window length to the windows recorded so far: every window now expires one window length
+     * after the last trade recorded into it. Windows are only restarted by the next trade after they expired, so a
+     * longer window keeps the totals collected so far and a shorter one may expire right away. Touches every
+     * symbol once, trades recorded afterwards continue the reshaped windows
+     *
+     * @param windowMillis new length of the trade window
+     */
+    public void reshapeWindow(long windowMillis) {
+        for (Slot slot : slots) {
+            if (slot.window.reshape(windowMillis)) {
+                markDirty(slot);
+            }
+        }
+        epoch++;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return immutable state as of the last trade recorded, the one published before if nothing changed since
+     */
+    public MarketState publish() {
+        if (published.getEpoch() == epoch) {
+            return published;
+        }
+        SymbolAggregate[][] chunks = Arrays.copyOf(published.chunksForWriter(),
+                (slots.size() + MarketState.CHUNK_SIZE - 1) >>> MarketState.CHUNK_SHIFT);
+        boolean[] copied = new boolean[chunks.length];
+        for (int i = 0; i < dirtyCount; i++) {
+            Slot slot = slots.get(dirty[i]);
+            int chunk = slot.index >>> MarketState.CHUNK_SHIFT;
+            if (!copied[chunk]) {
+                chunks[chunk] = chunks[chunk] == null ? new SymbolAggregate[MarketState.CHUNK_SIZE]
+                        : chunks[chunk].clone();
+                copied[chunk] = true;
+            }
+            chunks[chunk][slot.index & MarketState.CHUNK_MASK] = slot.toAggregate();
+            slot.dirty = false;
+        }
+        dirtyCount = 0;
+
+        Map<String, Integer> symbolIndex = published.symbolIndexForWriter();
+        if (symbolsAdded) {
+            Map<String, Integer> index = new HashMap<>(slots.size() * 2);
+            for (Slot slot : slots) {
+                index.put(slot.symbol, slot.index);
+            }
+            symbolIndex = Collections.unmodifiableMap(index);
+            symbolsAdded = false;
+        }
+        published = new MarketState(epoch, tradeCount, logPriceSum, symbolIndex, chunks, slots.size());
+        return published;
+    }
+
+    private static final class Slot {
+
+        private final String symbol;
+        private final int index;
+        private boolean dirty;
+
+        private long tradeCount;
+        private double logPriceSum;
+        private long lastUnscaled;
+        private int lastScale;
+
+        private final TradeWindow window = new TradeWindow();
+        private final DecimalAccumulator windowNotional = new DecimalAccumulator();
+
+        private Slot(String symbol, int index) {
+            this.symbol = symbol;
+            this.index = index;
+        }
+
+        private void add(long priceUnscaled, int priceScale, long quantity, double logPrice, long nowMillis,
+                         long windowMillis) {
+            if (window.add(quantity, nowMillis, windowMillis)) {
+                windowNotional.add(priceUnscaled, priceScale, quantity);
+            } else {
+                windowNotional.set(priceUnscaled, priceScale, quantity);
+            }
+            tradeCount++;
+            logPriceSum += logPrice;
+            lastUnscaled = priceUnscaled;
+            lastScale = priceScale;
+        }
+
+        private SymbolAggregate toAggregate() {
+            return SymbolAggregate.of(symbol, tradeCount, logPriceSum, BigDecimal.valueOf(lastUnscaled, lastScale),
+                    windowNotional.toBigDecimal(), window.getQuantity(), window.getTradeCount(),
+                    window.getExpiresAtMillis());
+        }
+    }
+}
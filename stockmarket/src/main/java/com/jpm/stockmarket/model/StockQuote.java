@@ -0,0 +1,30 @@
+package com.jpm.stockmarket.model;
+
+import java.math.BigDecimal;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * figures of one stock within a {@link MarketSnapshot}
+ */
+@ToString
+public class StockQuote {
+
+    @Getter
+    private final String symbol;
+    @Getter
+    private final BigDecimal lastPrice;
+    // null when no trades are left in the window
+    @Getter
+    private final BigDecimal volWeightedPrice;
+    @Getter
+    private final long tradeCount;
+
+    public StockQuote(String symbol, BigDecimal lastPrice, BigDecimal volWeightedPrice, long tradeCount) {
+        this.symbol = symbol;
+        this.lastPrice = lastPrice;
+        this.volWeightedPrice = volWeightedPrice;
+        this.tradeCount = tradeCount;
+    }
+}
@@ -0,0 +1,61 @@
+package com.jpm.stockmarket.model;
+
+import java.math.BigDecimal;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * immutable running totals of one stock symbol, part of a {@link MarketState}.
+ * The window totals follow the in-memory trade cache: they restart with the first trade recorded after the
+ * window expired, i.e. once no trade was recorded for the symbol for the whole window length
+ */
+@ToString
+public final class SymbolAggregate {
+
+    @Getter
+    private final String symbol;
+    @Getter
+    private final long tradeCount;
+    @Getter
+    private final double logPriceSum;
+    @Getter
+    private final BigDecimal lastPrice;
+
+    @Getter
+    private final BigDecimal windowNotional;
+    @Getter
+    private final long windowQuantity;
+    @Getter
+    private final long windowTradeCount;
+    @Getter
+    private final long windowExpiresAtMillis;
+
+    private SymbolAggregate(String symbol, long tradeCount, double logPriceSum, BigDecimal lastPrice,
+                            BigDecimal windowNotional, long windowQuantity, long windowTradeCount,
+                            long windowExpiresAtMillis) {
+        this.symbol = symbol;
+        this.tradeCount = tradeCount;
+        this.logPriceSum = logPriceSum;
+        this.lastPrice = lastPrice;
+        this.windowNotional = windowNotional;
+        this.windowQuantity = windowQuantity;
+        this.windowTradeCount = windowTradeCount;
+        this.windowExpiresAtMillis = windowExpiresAtMillis;
+    }
+
+    static SymbolAggregate of(String symbol, long tradeCount, double logPriceSum, BigDecimal lastPrice,
+                              BigDecimal windowNotional, long windowQuantity, long windowTradeCount,
+                              long windowExpiresAtMillis) {
+        return new SymbolAggregate(symbol, tradeCount, logPriceSum, lastPrice, windowNotional, windowQuantity,
+                windowTradeCount, windowExpiresAtMillis);
+    }
+
+    /**
+     * @param nowMillis
+     * @return true when the window still holds trades at the given time
+     */
+    public boolean isWindowLive(long nowMillis) {
+        return nowMillis < windowExpiresAtMillis;
+    }
+}
@@ -0,0 +1,116 @@
+package com.jpm.stockmarket.model;
+
+import java.math.BigDecimal;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * totals of the trades of one symbol within one time interval [start, start + length).
+ * Holds Σ price × quantity exactly, so volume weighted prices over any set of buckets match the ones
+ * calculated from the raw trades, and Σ ln(price) in the order the trades were added for the share index.
+ * Prices are kept as unscaled value and scale, so adding a trade does not allocate.
+ * Once sealed the bucket does not change anymore
+ */
+@ToString(exclude = {"notionalSum", "highUnscaled", "highScale", "lowUnscaled", "lowScale"})
+public class TradeBucket {
+
+    @Getter
+    private final String symbol;
+    @Getter
+    private final long startMillis;
+    @Getter
+    private final long lengthMillis;
+
+    private final DecimalAccumulator notionalSum = new DecimalAccumulator();
+    @Getter
+    private long quantity;
+    @Getter
+    private long tradeCount;
+    private long highUnscaled;
+    private int highScale;
+    private long lowUnscaled;
+    private int lowScale;
+    @Getter
+    private double logPriceSum;
+    @Getter
+    private boolean sealed;
+
+    public TradeBucket(String symbol, long startMillis, long lengthMillis) {
+        this.symbol = symbol;
+        this.startMillis = startMillis;
+        this.lengthMillis = lengthMillis;
+    }
+
+    public void add(BigDecimal price, long tradeQuantity) {
+        add(Decimals.unscaled(price), price.scale(), tradeQuantity);
+    }
+
+    /**
+     * add a trade with the price given as unscaled value and scale
+     *
+     * @param priceUnscaled
+     * @param priceScale
+     * @param tradeQuantity
+     */
+    public void add(long priceUnscaled, int priceScale, long tradeQuantity) {
+        if (sealed) {
+            throw new IllegalStateException("bucket is sealed=" + this);
+        }
+        notionalSum.add(priceUnscaled, priceScale, tradeQuantity);
+        quantity += tradeQuantity;
+        if (tradeCount == 0 || Decimals.compare(priceUnscaled, priceScale, highUnscaled, highScale) > 0) {
+            highUnscaled = priceUnscaled;
+            highScale = priceScale;
+        }
+        if (tradeCount == 0 || Decimals.compare(priceUnscaled, priceScale, lowUnscaled, lowScale) < 0) {
+            lowUnscaled = priceUnscaled;
+            lowScale = priceScale;
+        }
+        tradeCount++;
+        logPriceSum += Math.log(Decimals.toDouble(priceUnscaled, priceScale));
+    }
+
+    public BigDecimal getNotional() {
+        return notionalSum.toBigDecimal();
+    }
+
+    public BigDecimal getHigh() {
+        return tradeCount == 0 ? null : BigDecimal.valueOf(highUnscaled, highScale);
+    }
+
+    public BigDecimal getLow() {
+        return tradeCount == 0 ? null : BigDecimal.valueOf(lowUnscaled, lowScale);
+    }
+
+    public void seal() {
+        sealed = true;
+    }
+
+    public long getEndMillis() {
+        return startMillis + lengthMillis;
+    }
+
+    /**
+     * @return the bucket itself once sealed, otherwise a copy that does not see later trades
+     */
+    public TradeBucket snapshot() {
+        return sealed ? this : copy();
+    }
+
+    /**
+     * @return open copy of the bucket, sealed or not, to continue adding trades to
+     */
+    public TradeBucket copy() {
+        TradeBucket copy = new TradeBucket(symbol, startMillis, lengthMillis);
+        copy.notionalSum.set(notionalSum);
+        copy.quantity = quantity;
+        copy.tradeCount = tradeCount;
+        copy.highUnscaled = highUnscaled;
+        copy.highScale = highScale;
+        copy.lowUnscaled = lowUnscaled;
+        copy.lowScale = lowScale;
+        copy.logPriceSum = logPriceSum;
+        return copy;
+    }
+}
@@ -0,0 +1,127 @@
+package com.jpm.stockmarket.model;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * reusable flyweight of one trade in primitive form, the allocation free counterpart of {@link Trade}.
+ * Feed handlers keep one instance per thread and overwrite it for every trade they hand to the repository;
+ * the repository in turn hands out a view it overwrites for every trade it reads. A view is only valid until
+ * the call it was passed to returns, whoever needs the trade longer has to copy it, e.g. with {@link #toTrade()}.
+ * The timestamp is held as nanoseconds since the epoch in the system time zone, the price as unscaled value and
+ * scale exactly like {@link BigDecimal}
+ */
+@ToString
+public final class TradeView {
+
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    // assigned by the repository once the trade is recorded
+    @Getter @Setter
+    private long id;
+    // system time the repository recorded the trade at, assigned together with the id
+    @Getter @Setter
+    private long recordedMillis;
+    @Getter @Setter
+    private String symbol;
+    @Getter @Setter
+    private long timestampNanos = NO_TIMESTAMP;
+    @Getter @Setter
+    private long quantity;
+    @Getter @Setter
+    private TradeIndicator indicator;
+    @Getter
+    private boolean priced;
+    @Getter
+    private long priceUnscaled;
+    @Getter
+    private int priceScale;
+    @Getter @Setter
+    private boolean evicted;
+
+    public TradeView setPrice(long unscaled, int scale) {
+        priced = true;
+        priceUnscaled = unscaled;
+        priceScale = scale;
+        return this;
+    }
+
+    public TradeView clearPrice() {
+        priced = false;
+        priceUnscaled = 0;
+        priceScale = 0;
+        return this;
+    }
+
+    public boolean hasTimestamp() {
+        return timestampNanos != NO_TIMESTAMP;
+    }
+
+    public TradeView setTimestampMillis(long epochMillis) {
+        timestampNanos = Math.multiplyExact(epochMillis, NANOS_PER_MILLI);
+        return this;
+    }
+
+    /**
+     * @return the timestamp rounded down to milliseconds, the same as {@link Trade} timestamps converted by
+     * the event time window
+     */
+    public long getTimestampMillis() {
+        return Math.floorDiv(timestampNanos, NANOS_PER_MILLI);
+    }
+
+    /**
+     * @return the price as double, the same value {@link BigDecimal#doubleValue()} gives
+     */
+    public double getPriceAsDouble() {
+        return Decimals.toDouble(priceUnscaled, priceScale);
+    }
+
+    /**
+     * overwrite the view with the trade, the id is left as it is
+     *
+     * @param trade
+     * @return
+     * @throws ArithmeticException when the price has more digits than fit into a long or the timestamp is
+     *                             outside of about 290 years around the epoch
+     */
+    public TradeView set(Trade trade) {
+        symbol = trade.getStockSymbol();
+        timestampNanos = trade.getTimeStamp() == null ? NO_TIMESTAMP : toNanos(trade.getTimeStamp());
+        quantity = trade.getShareQuantity();
+        indicator = trade.getIndicator();
+        evicted = trade.isEvicted();
+        BigDecimal price = trade.getTradePrice();
+        return price == null ? clearPrice() : setPrice(Decimals.unscaled(price), price.scale());
+    }
+
+    /**
+     * @return new trade holding the current values of the view
+     */
+    public Trade toTrade() {
+        Trade trade = new Trade(symbol, hasTimestamp() ? toLocalDateTime(timestampNanos) : null, quantity,
+                indicator, priced ? BigDecimal.valueOf(priceUnscaled, priceScale) : null);
+        trade.setId(String.valueOf(id));
+        trade.setEvicted(evicted);
+        return trade;
+    }
+
+    public static long toNanos(LocalDateTime timestamp) {
+        Instant instant = timestamp.atZone(ZoneId.systemDefault()).toInstant();
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), NANOS_PER_SECOND), instant.getNano());
+    }
+
+    public static LocalDateTime toLocalDateTime(long epochNanos) {
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(Math.floorDiv(epochNanos, NANOS_PER_SECOND),
+                Math.floorMod(epochNanos, NANOS_PER_SECOND)), ZoneId.systemDefault());
+    }
+}
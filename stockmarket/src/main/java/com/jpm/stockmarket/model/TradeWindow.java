@@ -0,0 +1,64 @@
+package com.jpm.stockmarket.model;
+
+/**
+ * mutable trade window of one symbol, the window arithmetic shared by {@link MarketStateWriter} and the index
+ * engine so both restart their windows on the same trades. A window restarts with the first trade recorded after
+ * it expired, i.e. once no trade was recorded for the symbol for the whole window length. The notional is left
+ * to the caller, which keeps it in whatever precision it needs. Not thread safe
+ */
+public final class TradeWindow {
+
+    private long quantity;
+    private long tradeCount;
+    private long expiresAtMillis = Long.MIN_VALUE;
+    private long lastRecordedMillis;
+
+    /**
+     * add a trade to the window
+     *
+     * @param tradeQuantity
+     * @param nowMillis    time the trade is recorded at
+     * @param windowMillis length of the trade window
+     * @return true when the trade continues the window, false when the window restarted with it and the caller
+     * has to restart its notional as well
+     */
+    public boolean add(long tradeQuantity, long nowMillis, long windowMillis) {
+        boolean live = nowMillis < expiresAtMillis;
+        if (live) {
+            quantity += tradeQuantity;
+            tradeCount++;
+        } else {
+            quantity = tradeQuantity;
+            tradeCount = 1;
+        }
+        expiresAtMillis = nowMillis + windowMillis;
+        lastRecordedMillis = nowMillis;
+        return live;
+    }
+
+    /**
+     * apply a new window length, the window now expires one window length after the last trade recorded into it
+     *
+     * @param windowMillis
+     * @return true when the window holds trades and was reshaped
+     */
+    public boolean reshape(long windowMillis) {
+        if (tradeCount == 0) {
+            return false;
+        }
+        expiresAtMillis = lastRecordedMillis + windowMillis;
+        return true;
+    }
+
+    public long getQuantity() {
+        return quantity;
+    }
+
+    public long getTradeCount() {
+        return tradeCount;
+    }
+
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+}
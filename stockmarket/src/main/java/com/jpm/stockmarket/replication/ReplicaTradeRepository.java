@@ -0,0 +1,158 @@
+package com.jpm.stockmarket.replication;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+import com.jpm.stockmarket.analytics.TradeAnalytics;
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.index.IndexEngine;
+import com.jpm.stockmarket.model.MarketState;
+import com.jpm.stockmarket.model.Trade;
+import com.jpm.stockmarket.model.TradeBucket;
+import com.jpm.stockmarket.model.TradeView;
+import com.jpm.stockmarket.repository.TradeCursor;
+import com.jpm.stockmarket.repository.TradeListener;
+import com.jpm.stockmarket.repository.TradeRepository;
+import com.jpm.stockmarket.repository.impl.TradeRepositoryImpl;
+import com.jpm.stockmarket.window.EventTimeWindow;
+
+/**
+ * the trade repository every component uses on a replica. Reads are answered from the local repository the
+ * {@link ReplicationReplica} applies the log of the primary to, writes are refused until the replica is
+ * promoted, whatever way they came in: the service, the trade gateway or the bulk loader
+ */
+@Primary
+@Repository
+@ConditionalOnProperty(name = "replication.role", havingValue = "replica")
+public class ReplicaTradeRepository implements TradeRepository {
+
+    private final TradeRepositoryImpl local;
+    private final ReplicationReplica replica;
+
+    @Autowired
+    public ReplicaTradeRepository(TradeRepositoryImpl local, ReplicationReplica replica) {
+        this.local = local;
+        this.replica = replica;
+    }
+
+    @Override
+    public String recordTrade(Trade trade) throws GBCEServiceException {
+        checkWritable();
+        return local.recordTrade(trade);
+    }
+
+    @Override
+    public long ingestTrade(TradeView trade) throws GBCEServiceException {
+        checkWritable();
+        return local.ingestTrade(trade);
+    }
+
+    @Override
+    public CompletableFuture<Void> submitTrade(TradeView trade) throws GBCEServiceException {
+        checkWritable();
+        return local.submitTrade(trade);
+    }
+
+    @Override
+    public List<String> recordTrades(List<Trade> trades) throws GBCEServiceException {
+        checkWritable();
+        return local.recordTrades(trades);
+    }
+
+    @Override
+    public void ingestTrades(List<TradeView> trades) throws GBCEServiceException {
+        checkWritable();
+        local.ingestTrades(trades);
+    }
+
+    private void checkWritable() throws GBCEServiceException {
+        if (!replica.isPromoted()) {
+            throw new GBCEServiceException("read-only replica, trades are recorded on the primary");
+        }
+    }
+
+    @Override
+    public List<Trade> getTrades(String stockSymbol) {
+        return local.getTrades(stockSymbol);
+    }
+
+    @Override
+    public List<Trade> getLatestTrades(String symbol) throws GBCEServiceException {
+        return local.getLatestTrades(symbol);
+    }
+
+    @Override
+    public List<Trade> getTradesForAllStocks() {
+        return local.getTradesForAllStocks();
+    }
+
+    @Override
+    public TradeCursor openTrades(String symbol) {
+        return local.openTrades(symbol);
+    }
+
+    @Override
+    public MarketState getMarketState() {
+        return local.getMarketState();
+    }
+
+    @Override
+    public int compactTrades(long cutoffMillis) {
+        return local.compactTrades(cutoffMillis);
+    }
+
+    @Override
+    public List<TradeBucket> getTradeBuckets(String symbol, long fromMillis, long toMillis) {
+        return local.getTradeBuckets(symbol, fromMillis, toMillis);
+    }
+
+    @Override
+    public TradeAnalytics getTradeAnalytics() {
+        return local.getTradeAnalytics();
+    }
+
+    @Override
+    public EventTimeWindow getEventTimeWindow() {
+        return local.getEventTimeWindow();
+    }
+
+    @Override
+    public IndexEngine getIndexEngine() {
+        return local.getIndexEngine();
+    }
+
+    @Override
+    public long getWindowMillis() {
+        return local.getWindowMillis();
+    }
+
+    @Override
+    public void setWindowMillis(long windowMillis) {
+        local.setWindowMillis(windowMillis);
+    }
+
+    @Override
+    public long getCompactionBucketMillis() {
+        return local.getCompactionBucketMillis();
+    }
+
+    @Override
+    public void setCompactionBucketMillis(long bucketMillis) {
+        local.setCompactionBucketMillis(bucketMillis);
+    }
+
+    @Override
+    public void addTradeListener(TradeListener listener) {
+        local.addTradeListener(listener);
+    }
+
+    @Override
+    public void removeTradeListener(TradeListener listener) {
+        local.removeTradeListener(listener);
+    }
+}
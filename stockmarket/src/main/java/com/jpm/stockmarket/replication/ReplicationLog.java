@@ -0,0 +1,147 @@
+package com.jpm.stockmarket.replication;
+
+import java.nio.ByteBuffer;
+
+import com.jpm.stockmarket.gateway.SymbolTable;
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.model.TradeView;
+import com.jpm.stockmarket.repository.TradeListener;
+
+/**
+ * the latest trades of the primary by log position, kept in a ring of primitive columns for the replicas to
+ * read from. Listeners may be notified out of id order by concurrent writers, so a trade is only shipped once
+ * every position before it arrived as well. Recording a trade does not allocate. Symbols are shipped in the 8
+ * byte form of the binary trade feed, so they are limited to 8 US-ASCII characters there as well, the primary
+ * rejects other symbols before recording them
+ */
+class ReplicationLog implements TradeListener {
+
+    private final int mask;
+    private final long[] positions;
+    private final long[] recordedMillis;
+    private final long[] symbols;
+    private final long[] timestamps;
+    private final long[] quantities;
+    private final byte[] flags;
+    private final long[] prices;
+    private final byte[] scales;
+
+    // guarded by this
+    private final long start;
+    private long committed;
+    private long highest;
+
+    /**
+     * @param capacity number of trades held, rounded up to a power of two
+     * @param start    last position recorded before the log was attached, replicas cannot get it from here
+     */
+    ReplicationLog(int capacity, long start) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("replication log capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        size = Math.max(size, 1);
+        mask = size - 1;
+        positions = new long[size];
+        recordedMillis = new long[size];
+        symbols = new long[size];
+        timestamps = new long[size];
+        quantities = new long[size];
+        flags = new byte[size];
+        prices = new long[size];
+        scales = new byte[size];
+        this.start = start;
+        this.committed = start;
+        this.highest = start;
+    }
+
+    @Override
+    public synchronized void onTradeRecorded(TradeView trade) {
+        long position = trade.getId();
+        if (position <= committed) {
+            return;
+        }
+        // a symbol that cannot be shipped fails before the slot is touched, it is never shipped with stale data
+        long symbol = SymbolTable.encode(trade.getSymbol());
+        int slot = (int) position & mask;
+        recordedMillis[slot] = trade.getRecordedMillis();
+        symbols[slot] = symbol;
+        timestamps[slot] = trade.getTimestampNanos();
+        quantities[slot] = trade.getQuantity();
+        byte flag = trade.isPriced() ? ReplicationProtocol.PRICED : 0;
+        if (trade.getIndicator() != null) {
+            flag |= ReplicationProtocol.HAS_INDICATOR;
+            flag |= trade.getIndicator() == TradeIndicator.SELL ? ReplicationProtocol.SELL : 0;
+        }
+        flags[slot] = flag;
+        prices[slot] = trade.getPriceUnscaled();
+        scales[slot] = (byte) trade.getPriceScale();
+        // the position marks the slot complete, so it is written last
+        positions[slot] = position;
+        highest = Math.max(highest, position);
+
+        long before = committed;
+        while (committed < highest && positions[(int) (committed + 1) & mask] == committed + 1) {
+            committed++;
+        }
+        if (committed > before) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return last position every trade up to has arrived
+     */
+    synchronized long getCommitted() {
+        return committed;
+    }
+
+    /**
+     * @return oldest position still held
+     */
+    synchronized long getOldest() {
+        return Math.max(start, highest - positions.length) + 1;
+    }
+
+    /**
+     * wait for trades after the position
+     *
+     * @return the committed position, the same as the one given if the timeout elapsed first
+     */
+    synchronized long awaitCommitted(long position, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (committed <= position && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return committed;
+    }
+
+    /**
+     * write trade frames from the position on, as many as are committed and fit into the buffer
+     *
+     * @return number of trades written, -1 when the position is no longer held
+     */
+    synchronized int copy(long from, ByteBuffer out) {
+        if (from < getOldest()) {
+            return -1;
+        }
+        int count = 0;
+        for (long position = from; position <= committed
+                && out.remaining() >= ReplicationProtocol.TRADE_LENGTH; position++) {
+            int slot = (int) position & mask;
+            out.put(ReplicationProtocol.TRADE);
+            out.putLong(position);
+            out.putLong(recordedMillis[slot]);
+            out.putLong(symbols[slot]);
+            out.putLong(timestamps[slot]);
+            out.putLong(quantities[slot]);
+            out.put(flags[slot]);
+            out.putLong(prices[slot]);
+            out.put(scales[slot]);
+            count++;
+        }
+        return count;
+    }
+}
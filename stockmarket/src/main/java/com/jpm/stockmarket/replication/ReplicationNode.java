@@ -0,0 +1,20 @@
+package com.jpm.stockmarket.replication;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the primary or a replica, whichever this instance runs as
+ */
+public interface ReplicationNode {
+
+    ReplicationStatus getStatus();
+
+    /**
+     * wait until the trade at the position, e.g. the id a write on the primary returned, is applied here, for
+     * reads that must see that write
+     *
+     * @return false if the timeout elapsed first or the position will never be reached here
+     */
+    boolean awaitPosition(long position, long timeout, TimeUnit unit) throws InterruptedException;
+
+}
@@ -0,0 +1,194 @@
+package com.jpm.stockmarket.replication;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.jpm.stockmarket.gateway.SymbolTable;
+import com.jpm.stockmarket.repository.impl.TradeRepositoryImpl;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * the writable instance of a primary/replica setup. Every recorded trade goes into the {@link ReplicationLog},
+ * and every replica connected to the replication port gets its own thread streaming the log to it from the
+ * position it asked for, see {@link ReplicationProtocol}. Trades are shipped as soon as they are recorded,
+ * recording never waits for a replica. Enabled with replication.role=primary
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "replication.role", havingValue = "primary")
+public class ReplicationPrimary implements ReplicationNode {
+
+    private final TradeRepositoryImpl tradeRepo;
+    private final String host;
+    private final int port;
+    private final int logCapacity;
+    private final long heartbeatMillis;
+    private final int bufferSize;
+
+    private ReplicationLog replicationLog;
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+    private volatile boolean running;
+    private final List<SocketChannel> replicas = new CopyOnWriteArrayList<>();
+
+    @Autowired
+    public ReplicationPrimary(TradeRepositoryImpl tradeRepo,
+                              @Value("${replication.host:localhost}") String host,
+                              @Value("${replication.port:7171}") int port,
+                              @Value("${replication.log.capacity:1048576}") int logCapacity,
+                              @Value("${replication.heartbeat.millis:100}") long heartbeatMillis,
+                              @Value("${replication.buffer.bytes:65536}") int bufferSize) {
+        this.tradeRepo = tradeRepo;
+        this.host = host;
+        this.port = port;
+        this.logCapacity = logCapacity;
+        this.heartbeatMillis = heartbeatMillis;
+        this.bufferSize = Math.max(bufferSize, ReplicationProtocol.HEAD_LENGTH + ReplicationProtocol.TRADE_LENGTH);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        // only trades the log can ship are recorded from here on, see ReplicationLog
+        tradeRepo.setAcceptedSymbols(SymbolTable::isEncodable);
+        replicationLog = new ReplicationLog(logCapacity, tradeRepo.getLogPosition());
+        tradeRepo.addTradeListener(replicationLog);
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(host, port));
+        running = true;
+        acceptor = new Thread(this::accept, "replication-primary");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("replication primary listening on port={} from position={}", getLocalPort(),
+                replicationLog.getCommitted());
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        running = false;
+        tradeRepo.removeTradeListener(replicationLog);
+        tradeRepo.setAcceptedSymbols(null);
+        serverChannel.close();
+        for (SocketChannel replica : replicas) {
+            replica.close();
+        }
+        try {
+            acceptor.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("replication primary stopped at position={}", replicationLog.getCommitted());
+    }
+
+    public int getLocalPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+
+    @Override
+    public ReplicationStatus getStatus() {
+        long position = tradeRepo.getLogPosition();
+        return new ReplicationStatus(ReplicationRole.PRIMARY, position, position, 0, true, false);
+    }
+
+    /**
+     * a trade is recorded here once its write returned, there is nothing to wait for
+     */
+    @Override
+    public boolean awaitPosition(long position, long timeout, TimeUnit unit) {
+        return tradeRepo.getLogPosition() >= position;
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+                replicas.add(channel);
+                Thread session = new Thread(() -> ship(channel), "replication-session");
+                session.setDaemon(true);
+                session.start();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                log.error("accepting replica failed", e);
+            }
+        }
+    }
+
+    /**
+     * stream the log to one replica until it disconnects
+     */
+    private void ship(SocketChannel channel) {
+        try {
+            ByteBuffer subscribe = ByteBuffer.allocate(ReplicationProtocol.SUBSCRIBE_LENGTH);
+            while (subscribe.hasRemaining()) {
+                if (channel.read(subscribe) < 0) {
+                    return;
+                }
+            }
+            long next = subscribe.getLong(0);
+            log.info("replica={} subscribed from position={}", channel.getRemoteAddress(), next);
+            if (next > replicationLog.getCommitted() + 1) {
+                log.warn("replica={} is ahead of the primary at position={}, it diverged",
+                        channel.getRemoteAddress(), replicationLog.getCommitted());
+                return;
+            }
+            ByteBuffer out = ByteBuffer.allocateDirect(bufferSize);
+            while (running) {
+                long head = replicationLog.awaitCommitted(next - 1, heartbeatMillis);
+                out.clear();
+                out.put(ReplicationProtocol.HEAD);
+                out.putLong(head);
+                out.putLong(System.currentTimeMillis());
+                int copied = replicationLog.copy(next, out);
+                if (copied < 0) {
+                    log.warn("replica={} asked for position={} no longer held, it has to be rebuilt",
+                            channel.getRemoteAddress(), next);
+                    out.put(ReplicationProtocol.TRUNCATED);
+                    out.putLong(replicationLog.getOldest());
+                    write(channel, out);
+                    return;
+                }
+                next += copied;
+                write(channel, out);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.info("replica connection={} closed", channel, e);
+        } finally {
+            replicas.remove(channel);
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // already closing
+            }
+        }
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+    }
+}
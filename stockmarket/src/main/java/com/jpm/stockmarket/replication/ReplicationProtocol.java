@@ -0,0 +1,50 @@
+package com.jpm.stockmarket.replication;
+
+/**
+ * wire layout of the trade log shipped from a primary to its replicas, all numbers are big-endian.
+ * <pre>
+ * subscribe frame (replica to primary, once after connecting), 8 bytes:
+ *   long  position      first log position the replica needs, its own position + 1
+ *
+ * head frame (primary to replica), 17 bytes, sent ahead of every batch of trades and when idle:
+ *   byte  type          1 = HEAD
+ *   long  position      last position of the primary log
+ *   long  millis        system time of the primary
+ *
+ * trade frame (primary to replica), 51 bytes:
+ *   byte  type          2 = TRADE
+ *   long  position      id of the trade on the primary
+ *   long  recorded      system time the primary recorded the trade at, epoch milliseconds
+ *   8     symbol        US-ASCII, right padded with spaces
+ *   long  timestamp     epoch nanoseconds, Long.MIN_VALUE when the trade has none
+ *   long  quantity      number of shares
+ *   byte  flags         1 = priced, 2 = has indicator, 4 = SELL
+ *   long  price         unscaled value of the trade price
+ *   byte  price scale   price = unscaled * 10^-scale
+ *
+ * truncated frame (primary to replica), 9 bytes, the connection is closed afterwards:
+ *   byte  type          3 = TRUNCATED, the position asked for is no longer held by the primary
+ *   long  position      oldest position still held
+ * </pre>
+ * Trades are shipped strictly in log order without gaps, a replica applies them in the order received
+ */
+public final class ReplicationProtocol {
+
+    public static final int SUBSCRIBE_LENGTH = 8;
+
+    public static final byte HEAD = 1;
+    public static final int HEAD_LENGTH = 1 + 8 + 8;
+
+    public static final byte TRADE = 2;
+    public static final int TRADE_LENGTH = 1 + 8 + 8 + 8 + 8 + 8 + 1 + 8 + 1;
+
+    public static final byte TRUNCATED = 3;
+    public static final int TRUNCATED_LENGTH = 1 + 8;
+
+    public static final byte PRICED = 1;
+    public static final byte HAS_INDICATOR = 2;
+    public static final byte SELL = 4;
+
+    private ReplicationProtocol() {
+    }
+}
@@ -0,0 +1,268 @@
+package com.jpm.stockmarket.replication;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.jpm.stockmarket.gateway.SymbolTable;
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.model.TradeView;
+import com.jpm.stockmarket.repository.impl.TradeRepositoryImpl;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * a read-only instance following the trade log of the primary. A single thread connects to the primary,
+ * subscribes from its own log position and applies the trades to the local repository in log order, so the
+ * windows, aggregates and indices end up the same as on the primary and serve the reads of the calculation
+ * service. The connection is opened again after it broke. On failover the replica is promoted: it stops
+ * following and takes writes itself, the ids of new trades continuing its log.
+ * A replica whose position the primary no longer holds, e.g. one restarted empty after the primary log wrapped,
+ * stops following and reports that it has to be rebuilt, its reads are refused from then on.
+ * Enabled with replication.role=replica
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "replication.role", havingValue = "replica")
+public class ReplicationReplica implements ReplicationNode {
+
+    private final TradeRepositoryImpl tradeRepo;
+    private final String primaryHost;
+    private final int primaryPort;
+    private final long reconnectMillis;
+    private final int bufferSize;
+
+    private Thread follower;
+    private volatile SocketChannel channel;
+    private volatile boolean running;
+    private volatile boolean promoted;
+    private volatile boolean connected;
+    private volatile boolean rebuildRequired;
+    // last primary position received
+    private volatile long primaryPosition;
+    // primary time sent with the last head frame
+    private volatile long headMillis;
+    // primary time of the last head frame the replica caught up with, the local start time before the first one
+    private volatile long appliedHeadMillis;
+    private final Object positionMonitor = new Object();
+
+    @Autowired
+    public ReplicationReplica(TradeRepositoryImpl tradeRepo,
+                              @Value("${replication.primary.host:localhost}") String primaryHost,
+                              @Value("${replication.primary.port:7171}") int primaryPort,
+                              @Value("${replication.reconnect.millis:500}") long reconnectMillis,
+                              @Value("${replication.buffer.bytes:65536}") int bufferSize) {
+        this.tradeRepo = tradeRepo;
+        this.primaryHost = primaryHost;
+        this.primaryPort = primaryPort;
+        this.reconnectMillis = reconnectMillis;
+        this.bufferSize = Math.max(bufferSize, ReplicationProtocol.TRADE_LENGTH);
+    }
+
+    @PostConstruct
+    public void start() {
+        appliedHeadMillis = System.currentTimeMillis();
+        running = true;
+        follower = new Thread(this::follow, "replication-replica");
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        disconnect();
+        try {
+            follower.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * stop following the primary and take writes from now on, e.g. once the primary is gone. Trades the
+     * primary recorded but did not ship yet are lost to this instance
+     *
+     * @return the log position the replica was promoted at
+     */
+    public synchronized long promote() {
+        if (!promoted) {
+            promoted = true;
+            stop();
+            synchronized (positionMonitor) {
+                positionMonitor.notifyAll();
+            }
+            log.warn("replica promoted to primary at position={}", tradeRepo.getLogPosition());
+        }
+        return tradeRepo.getLogPosition();
+    }
+
+    public boolean isPromoted() {
+        return promoted;
+    }
+
+    @Override
+    public ReplicationStatus getStatus() {
+        long position = tradeRepo.getLogPosition();
+        if (promoted) {
+            return new ReplicationStatus(ReplicationRole.PRIMARY, position, position, 0, true, false);
+        }
+        boolean following = connected;
+        long lagMillis = following && position >= primaryPosition ? 0
+                : Math.max(0, System.currentTimeMillis() - appliedHeadMillis);
+        return new ReplicationStatus(ReplicationRole.REPLICA, position, primaryPosition, lagMillis, following,
+                rebuildRequired);
+    }
+
+    @Override
+    public boolean awaitPosition(long position, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (positionMonitor) {
+            while (tradeRepo.getLogPosition() < position) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                // once promoted the trades of the old primary will not arrive any more
+                if (remaining <= 0 || promoted) {
+                    return false;
+                }
+                positionMonitor.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    private void follow() {
+        while (running) {
+            try {
+                if (!apply()) {
+                    return;
+                }
+            } catch (IOException | RuntimeException e) {
+                if (running) {
+                    log.warn("replication from primary={}:{} failed={}, reconnecting", primaryHost, primaryPort,
+                            e.toString());
+                }
+            } finally {
+                connected = false;
+                disconnect();
+            }
+            if (!running) {
+                return;
+            }
+            try {
+                Thread.sleep(reconnectMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * subscribe from the local position and apply the log until the connection breaks
+     *
+     * @return false when the primary does not hold the position any more, following it is pointless
+     */
+    private boolean apply() throws IOException {
+        SocketChannel socket = SocketChannel.open(new InetSocketAddress(primaryHost, primaryPort));
+        channel = socket;
+        if (!running) {
+            return false;
+        }
+        socket.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+        ByteBuffer subscribe = ByteBuffer.allocate(ReplicationProtocol.SUBSCRIBE_LENGTH);
+        subscribe.putLong(0, tradeRepo.getLogPosition() + 1);
+        while (subscribe.hasRemaining()) {
+            socket.write(subscribe);
+        }
+        log.info("following primary={}:{} from position={}", primaryHost, primaryPort,
+                tradeRepo.getLogPosition() + 1);
+
+        ByteBuffer in = ByteBuffer.allocateDirect(bufferSize);
+        // the primary logs as many symbols as it recorded, a cap would stop the replica for good once passed
+        SymbolTable symbols = new SymbolTable(Integer.MAX_VALUE);
+        // every trade is applied through the same view
+        TradeView view = new TradeView();
+        while (socket.read(in) >= 0) {
+            in.flip();
+            boolean complete = true;
+            while (complete && in.hasRemaining()) {
+                byte type = in.get(in.position());
+                if (type == ReplicationProtocol.HEAD) {
+                    complete = in.remaining() >= ReplicationProtocol.HEAD_LENGTH;
+                    if (complete) {
+                        in.get();
+                        primaryPosition = in.getLong();
+                        headMillis = in.getLong();
+                        // only connected once the primary position is known, the lag is right from then on
+                        connected = true;
+                    }
+                } else if (type == ReplicationProtocol.TRADE) {
+                    complete = in.remaining() >= ReplicationProtocol.TRADE_LENGTH;
+                    if (complete) {
+                        in.get();
+                        tradeRepo.applyReplicated(decode(in, symbols, view));
+                    }
+                } else if (type == ReplicationProtocol.TRUNCATED) {
+                    complete = in.remaining() >= ReplicationProtocol.TRUNCATED_LENGTH;
+                    if (complete) {
+                        in.get();
+                        log.error("primary only holds positions from={}, this replica at position={} has to be "
+                                + "rebuilt", in.getLong(), tradeRepo.getLogPosition());
+                        rebuildRequired = true;
+                        return false;
+                    }
+                } else {
+                    throw new IOException("invalid replication frame type=" + type);
+                }
+            }
+            in.compact();
+            applied();
+        }
+        return true;
+    }
+
+    private static TradeView decode(ByteBuffer in, SymbolTable symbols, TradeView view) {
+        view.setId(in.getLong());
+        view.setRecordedMillis(in.getLong());
+        view.setSymbol(symbols.lookup(in.getLong()));
+        view.setTimestampNanos(in.getLong());
+        view.setQuantity(in.getLong());
+        byte flags = in.get();
+        view.setIndicator((flags & ReplicationProtocol.HAS_INDICATOR) == 0 ? null
+                : (flags & ReplicationProtocol.SELL) == 0 ? TradeIndicator.BUY : TradeIndicator.SELL);
+        view.setEvicted(false);
+        long priceUnscaled = in.getLong();
+        byte priceScale = in.get();
+        return (flags & ReplicationProtocol.PRICED) == 0 ? view.clearPrice()
+                : view.setPrice(priceUnscaled, priceScale);
+    }
+
+    private void applied() {
+        if (tradeRepo.getLogPosition() >= primaryPosition) {
+            appliedHeadMillis = headMillis;
+        }
+        synchronized (positionMonitor) {
+            positionMonitor.notifyAll();
+        }
+    }
+
+    private void disconnect() {
+        SocketChannel socket = channel;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("closing connection to primary failed", e);
+            }
+        }
+    }
+}
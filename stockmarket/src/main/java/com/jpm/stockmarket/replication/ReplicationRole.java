@@ -0,0 +1,8 @@
+package com.jpm.stockmarket.replication;
+
+/**
+ * role of an instance in primary/replica replication, a promoted replica becomes a primary
+ */
+public enum ReplicationRole {
+    PRIMARY, REPLICA
+}
@@ -0,0 +1,37 @@
+package com.jpm.stockmarket.replication;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * how far an instance got in the trade log of the primary, returned with every replicated read. Lag in
+ * milliseconds is how old the newest primary state the replica has fully applied is, by the primary clock sent
+ * with the head frames, 0 while it is connected and caught up. A replica that is disconnected keeps lagging
+ * more until it is connected again
+ */
+@Getter
+@ToString
+public class ReplicationStatus {
+
+    private final ReplicationRole role;
+    // last trade applied locally
+    private final long position;
+    // last trade the primary recorded, as far as this instance knows
+    private final long primaryPosition;
+    private final long lagTrades;
+    private final long lagMillis;
+    private final boolean connected;
+    // the primary no longer holds the positions the replica needs, it does not follow any more
+    private final boolean rebuildRequired;
+
+    public ReplicationStatus(ReplicationRole role, long position, long primaryPosition, long lagMillis,
+                             boolean connected, boolean rebuildRequired) {
+        this.role = role;
+        this.position = position;
+        this.primaryPosition = Math.max(primaryPosition, position);
+        this.lagTrades = this.primaryPosition - position;
+        this.lagMillis = lagMillis;
+        this.connected = connected;
+        this.rebuildRequired = rebuildRequired;
+    }
+}
@@ -11,6 +11,10 @@ import com.jpm.stockmarket.model.Stock;
 public interface StockRepository {
 
 	Optional<Stock> getStockBySymbol(String symbol) throws GBCEServiceException;
+
+	long getCacheMaximumSize();
+
+	void setCacheMaximumSize(long maximumSize);
 	
 	
 }
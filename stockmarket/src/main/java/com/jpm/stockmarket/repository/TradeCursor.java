@@ -0,0 +1,27 @@
+package com.jpm.stockmarket.repository;
+
+import com.jpm.stockmarket.model.TradeView;
+
+/**
+ * walks the trades of one symbol recorded up to when it was opened, oldest first, without materializing them.
+ * The trades it reads stay in place until the cursor is closed, so they can be walked more than once
+ */
+public interface TradeCursor extends AutoCloseable {
+
+    /**
+     * overwrite the view with the next trade
+     *
+     * @param view
+     * @return false once every trade was read, the view is left as it is then
+     */
+    boolean next(TradeView view);
+
+    /**
+     * start over at the first trade
+     */
+    void rewind();
+
+    @Override
+    void close();
+
+}
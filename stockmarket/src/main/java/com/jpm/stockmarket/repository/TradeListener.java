@@ -0,0 +1,14 @@
+package com.jpm.stockmarket.repository;
+
+import com.jpm.stockmarket.model.TradeView;
+
+/**
+ * callback invoked by the trade repository after every successfully recorded trade.
+ * Implementations run on the recording thread, so they must only hand the trade off and never block.
+ * The view is reused for the next trade once the callback returned, it must not be kept
+ */
+public interface TradeListener {
+
+    void onTradeRecorded(TradeView trade);
+
+}
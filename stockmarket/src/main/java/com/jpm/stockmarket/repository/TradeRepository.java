@@ -1,10 +1,17 @@
 package com.jpm.stockmarket.repository;
 
+import com.jpm.stockmarket.analytics.TradeAnalytics;
 import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.index.IndexEngine;
+import com.jpm.stockmarket.model.MarketState;
 import com.jpm.stockmarket.model.Trade;
+import com.jpm.stockmarket.model.TradeBucket;
+import com.jpm.stockmarket.model.TradeView;
+import com.jpm.stockmarket.window.EventTimeWindow;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @Repository
 public interface TradeRepository {
@@ -13,8 +20,42 @@ public interface TradeRepository {
 
     String recordTrade(Trade trade) throws GBCEServiceException;
 
+    long ingestTrade(TradeView trade) throws GBCEServiceException;
+
+    CompletableFuture<Void> submitTrade(TradeView trade) throws GBCEServiceException;
+
+    List<String> recordTrades(List<Trade> trades) throws GBCEServiceException;
+
+    void ingestTrades(List<TradeView> trades) throws GBCEServiceException;
+
     List<Trade> getLatestTrades(String symbol) throws GBCEServiceException;
 
     List<Trade> getTradesForAllStocks() throws GBCEServiceException;
 
+    TradeCursor openTrades(String symbol);
+
+    MarketState getMarketState();
+
+    int compactTrades(long cutoffMillis);
+
+    List<TradeBucket> getTradeBuckets(String symbol, long fromMillis, long toMillis);
+
+    TradeAnalytics getTradeAnalytics();
+
+    EventTimeWindow getEventTimeWindow();
+
+    IndexEngine getIndexEngine();
+
+    long getWindowMillis();
+
+    void setWindowMillis(long windowMillis);
+
+    long getCompactionBucketMillis();
+
+    void setCompactionBucketMillis(long bucketMillis);
+
+    void addTradeListener(TradeListener listener);
+
+    void removeTradeListener(TradeListener listener);
+
 }
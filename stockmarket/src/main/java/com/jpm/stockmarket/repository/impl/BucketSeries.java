@@ -0,0 +1,141 @@
+package com.jpm.stockmarket.repository.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import com.jpm.stockmarket.model.TradeBucket;
+
+/**
+ * immutable compacted buckets of one symbol ordered by start, kept in leaves of a bounded number of buckets.
+ * Adding buckets copies only the index of the leaves and the leaves the buckets go into, so a compaction costs
+ * about the size of what it adds whatever the length of the history, and no bucket is ever dropped
+ */
+final class BucketSeries {
+
+    // most buckets of a leaf, a fuller leaf is split
+    static final int LEAF_BUCKETS = 1024;
+
+    private static final BucketSeries EMPTY = new BucketSeries(Collections.emptyNavigableMap(), 0);
+
+    // leaves by the start of their first bucket, never empty
+    private final NavigableMap<Long, NavigableMap<Long, TradeBucket>> leaves;
+    private final int size;
+
+    private BucketSeries(NavigableMap<Long, NavigableMap<Long, TradeBucket>> leaves, int size) {
+        this.leaves = leaves;
+        this.size = size;
+    }
+
+    static BucketSeries empty() {
+        return EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param startMillis
+     * @return the bucket with the greatest start at or before the time, null if there is none
+     */
+    Map.Entry<Long, TradeBucket> floorEntry(long startMillis) {
+        Map.Entry<Long, NavigableMap<Long, TradeBucket>> leaf = leaves.floorEntry(startMillis);
+        return leaf == null ? null : leaf.getValue().floorEntry(startMillis);
+    }
+
+    /**
+     * @param startMillis
+     * @return the bucket with the least start after the time, null if there is none
+     */
+    Map.Entry<Long, TradeBucket> higherEntry(long startMillis) {
+        Map.Entry<Long, NavigableMap<Long, TradeBucket>> leaf = leaves.floorEntry(startMillis);
+        Map.Entry<Long, TradeBucket> higher = leaf == null ? null : leaf.getValue().higherEntry(startMillis);
+        if (higher != null) {
+            return higher;
+        }
+        Map.Entry<Long, NavigableMap<Long, TradeBucket>> next = leaves.higherEntry(startMillis);
+        return next == null ? null : next.getValue().firstEntry();
+    }
+
+    /**
+     * @param fromMillis
+     * @param toMillis
+     * @return buckets with a start in [from, to), ordered by start
+     */
+    List<TradeBucket> between(long fromMillis, long toMillis) {
+        List<TradeBucket> buckets = new ArrayList<>();
+        if (fromMillis >= toMillis) {
+            return buckets;
+        }
+        Long first = leaves.floorKey(fromMillis);
+        for (NavigableMap<Long, TradeBucket> leaf
+                : leaves.subMap(first == null ? fromMillis : first, true, toMillis, false).values()) {
+            buckets.addAll(leaf.subMap(fromMillis, true, toMillis, false).values());
+        }
+        return buckets;
+    }
+
+    /**
+     * new series with the buckets added, buckets with the start of one already held replace it
+     *
+     * @param added sealed buckets
+     * @return
+     */
+    BucketSeries with(Collection<TradeBucket> added) {
+        if (added.isEmpty()) {
+            return this;
+        }
+        NavigableMap<Long, NavigableMap<Long, TradeBucket>> newLeaves = new TreeMap<>(leaves);
+        // copies of the leaves touched, by their key before the change
+        Map<Long, NavigableMap<Long, TradeBucket>> touched = new TreeMap<>();
+        int newSize = size;
+        for (TradeBucket bucket : added) {
+            Long key = newLeaves.floorKey(bucket.getStartMillis());
+            if (key == null) {
+                // before every leaf, goes into the first one
+                key = newLeaves.isEmpty() ? bucket.getStartMillis() : newLeaves.firstKey();
+            }
+            NavigableMap<Long, TradeBucket> leaf = touched.get(key);
+            if (leaf == null) {
+                NavigableMap<Long, TradeBucket> existing = newLeaves.get(key);
+                leaf = existing == null ? new TreeMap<>() : new TreeMap<>(existing);
+                touched.put(key, leaf);
+                newLeaves.put(key, leaf);
+            }
+            if (leaf.put(bucket.getStartMillis(), bucket) == null) {
+                newSize++;
+            }
+        }
+        for (Map.Entry<Long, NavigableMap<Long, TradeBucket>> entry : touched.entrySet()) {
+            newLeaves.remove(entry.getKey());
+            split(entry.getValue(), newLeaves);
+        }
+        return new BucketSeries(newLeaves, newSize);
+    }
+
+    /**
+     * put the leaf into the leaves, split into leaves of LEAF_BUCKETS when it holds twice as many
+     */
+    private static void split(NavigableMap<Long, TradeBucket> leaf,
+                              NavigableMap<Long, NavigableMap<Long, TradeBucket>> leaves) {
+        if (leaf.size() < 2 * LEAF_BUCKETS) {
+            leaves.put(leaf.firstKey(), Collections.unmodifiableNavigableMap(leaf));
+            return;
+        }
+        Iterator<TradeBucket> iterator = leaf.values().iterator();
+        while (iterator.hasNext()) {
+            NavigableMap<Long, TradeBucket> part = new TreeMap<>();
+            while (iterator.hasNext() && part.size() < LEAF_BUCKETS) {
+                TradeBucket bucket = iterator.next();
+                part.put(bucket.getStartMillis(), bucket);
+            }
+            leaves.put(part.firstKey(), Collections.unmodifiableNavigableMap(part));
+        }
+    }
+}
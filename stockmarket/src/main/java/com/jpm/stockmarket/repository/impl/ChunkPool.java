@@ -0,0 +1,38 @@
+package com.jpm.stockmarket.repository.impl;
+
+import java.util.ArrayDeque;
+
+/**
+ * free {@link LogChunk}s, filled up front with the configured capacity and refilled with the chunks of logs
+ * dropped after a compaction. Taking a chunk only allocates once the pool ran dry
+ */
+final class ChunkPool {
+
+    private final ArrayDeque<LogChunk> free;
+
+    ChunkPool(int preallocatedChunks) {
+        free = new ArrayDeque<>(Math.max(16, preallocatedChunks));
+        for (int i = 0; i < preallocatedChunks; i++) {
+            free.addLast(new LogChunk());
+        }
+    }
+
+    /**
+     * @param trades
+     * @return number of chunks needed to hold that many trades
+     */
+    static int chunksFor(long trades) {
+        return (int) ((trades + LogChunk.SIZE - 1) >>> LogChunk.SHIFT);
+    }
+
+    synchronized LogChunk take() {
+        LogChunk chunk = free.pollLast();
+        return chunk == null ? new LogChunk() : chunk;
+    }
+
+    synchronized void release(LogChunk[] chunks, int count) {
+        for (int i = 0; i < count; i++) {
+            free.addLast(chunks[i]);
+        }
+    }
+}
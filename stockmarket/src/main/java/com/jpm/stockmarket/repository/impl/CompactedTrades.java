@@ -0,0 +1,141 @@
+package com.jpm.stockmarket.repository.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import com.jpm.stockmarket.model.TradeBucket;
+import com.jpm.stockmarket.model.TradeView;
+
+import lombok.Getter;
+
+/**
+ * immutable per symbol buckets of the trades that were compacted, keyed by bucket start.
+ * Raw trades are folded into buckets the same way whether they are compacted or only queried, see
+ * {@link #fold(NavigableMap, NavigableMap, TradeView, long)}, so figures calculated from the buckets do not depend on
+ * how much of the history was compacted already
+ */
+final class CompactedTrades {
+
+    private static final CompactedTrades EMPTY = new CompactedTrades(Collections.emptyMap(), 0, 0);
+
+    private final Map<String, BucketSeries> bucketsBySymbol;
+    @Getter
+    private final long tradeCount;
+    @Getter
+    private final long bucketCount;
+
+    private CompactedTrades(Map<String, BucketSeries> bucketsBySymbol, long tradeCount,
+                            long bucketCount) {
+        this.bucketsBySymbol = bucketsBySymbol;
+        this.tradeCount = tradeCount;
+        this.bucketCount = bucketCount;
+    }
+
+    static CompactedTrades empty() {
+        return EMPTY;
+    }
+
+    BucketSeries getBuckets(String symbol) {
+        return bucketsBySymbol.getOrDefault(symbol, BucketSeries.empty());
+    }
+
+    Iterable<String> getSymbols() {
+        return bucketsBySymbol.keySet();
+    }
+
+    /**
+     * only trades with a symbol, timestamp and price can be compacted
+     *
+     * @param trade
+     * @return
+     */
+    static boolean isFoldable(TradeView trade) {
+        return trade.getSymbol() != null && trade.hasTimestamp() && trade.isPriced();
+    }
+
+    /**
+     * fold one more trade into the working buckets of a compaction, see {@link #merge(Map, long)}
+     *
+     * @param working      buckets by symbol the trades were folded into so far
+     * @param trade        foldable trade
+     * @param bucketMillis length of new buckets
+     */
+    void fold(Map<String, NavigableMap<Long, TradeBucket>> working, TradeView trade, long bucketMillis) {
+        NavigableMap<Long, TradeBucket> buckets = working.get(trade.getSymbol());
+        if (buckets == null) {
+            buckets = new TreeMap<>();
+            working.put(trade.getSymbol(), buckets);
+        }
+        fold(getBuckets(trade.getSymbol()), buckets, trade, bucketMillis);
+    }
+
+    /**
+     * new compacted state including the working buckets, which are sealed. Only the leaves of a symbol's series the
+     * buckets go into are copied, see {@link BucketSeries}, every bucket compacted before is kept
+     *
+     * @param working    buckets by symbol the trades were folded into
+     * @param tradeCount number of trades folded
+     * @return
+     */
+    CompactedTrades merge(Map<String, NavigableMap<Long, TradeBucket>> working, long tradeCount) {
+        Map<String, BucketSeries> merged = new HashMap<>(bucketsBySymbol);
+        long newBucketCount = bucketCount;
+        for (Map.Entry<String, NavigableMap<Long, TradeBucket>> entry : working.entrySet()) {
+            for (TradeBucket bucket : entry.getValue().values()) {
+                bucket.seal();
+            }
+            BucketSeries buckets = getBuckets(entry.getKey());
+            BucketSeries mergedBuckets = buckets.with(entry.getValue().values());
+            newBucketCount += mergedBuckets.size() - buckets.size();
+            merged.put(entry.getKey(), mergedBuckets);
+        }
+        return new CompactedTrades(Collections.unmodifiableMap(merged), this.tradeCount + tradeCount,
+                newBucketCount);
+    }
+
+    /**
+     * add the trade to the bucket its timestamp falls into. A compacted bucket holding the timestamp is continued
+     * in a copy, otherwise a new bucket aligned to the bucket length is opened, cut short where it would overlap
+     * buckets of an earlier length
+     *
+     * @param compacted    buckets of the symbol already compacted, left unchanged
+     * @param working      buckets the trade is added to, new and continued ones
+     * @param trade
+     * @param bucketMillis
+     * @return the bucket the trade was added to
+     */
+    static TradeBucket fold(BucketSeries compacted, NavigableMap<Long, TradeBucket> working, TradeView trade,
+                            long bucketMillis) {
+        long timestamp = trade.getTimestampMillis();
+        TradeBucket bucket = containing(working.floorEntry(timestamp), timestamp);
+        if (bucket == null) {
+            TradeBucket existing = containing(compacted.floorEntry(timestamp), timestamp);
+            if (existing != null) {
+                bucket = existing.copy();
+            } else {
+                long start = Math.floorDiv(timestamp, bucketMillis) * bucketMillis;
+                long end = start + bucketMillis;
+                for (Map.Entry<Long, TradeBucket> before
+                        : Arrays.asList(compacted.floorEntry(timestamp), working.floorEntry(timestamp))) {
+                    start = before == null ? start : Math.max(start, before.getValue().getEndMillis());
+                }
+                for (Map.Entry<Long, TradeBucket> after
+                        : Arrays.asList(compacted.higherEntry(timestamp), working.higherEntry(timestamp))) {
+                    end = after == null ? end : Math.min(end, after.getKey());
+                }
+                bucket = new TradeBucket(trade.getSymbol(), start, end - start);
+            }
+            working.put(bucket.getStartMillis(), bucket);
+        }
+        bucket.add(trade.getPriceUnscaled(), trade.getPriceScale(), trade.getQuantity());
+        return bucket;
+    }
+
+    private static TradeBucket containing(Map.Entry<Long, TradeBucket> entry, long timestamp) {
+        return entry != null && entry.getValue().getEndMillis() > timestamp ? entry.getValue() : null;
+    }
+}
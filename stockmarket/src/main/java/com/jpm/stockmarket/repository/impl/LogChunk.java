@@ -0,0 +1,27 @@
+package com.jpm.stockmarket.repository.impl;
+
+/**
+ * fixed number of trades of the {@link TradeLog} stored column by column in primitive arrays, reused through
+ * the {@link ChunkPool} once the log holding it is dropped
+ */
+final class LogChunk {
+
+    static final int SHIFT = 12;
+    static final int SIZE = 1 << SHIFT;
+    static final int MASK = SIZE - 1;
+
+    static final byte PRICED = 1;
+    static final byte EVICTED = 2;
+
+    final long[] ids = new long[SIZE];
+    final int[] symbols = new int[SIZE];
+    final long[] timestamps = new long[SIZE];
+    final long[] quantities = new long[SIZE];
+    // ordinal of the indicator, -1 for none
+    final byte[] indicators = new byte[SIZE];
+    final long[] prices = new long[SIZE];
+    final int[] scales = new int[SIZE];
+    final byte[] flags = new byte[SIZE];
+    // position of the previous trade of the same symbol in the log, -1 for its first one
+    final int[] previous = new int[SIZE];
+}
@@ -0,0 +1,90 @@
+package com.jpm.stockmarket.repository.impl;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import com.jpm.stockmarket.model.TradeBucket;
+import com.jpm.stockmarket.model.TradeView;
+
+/**
+ * buckets of the raw trades, folded as the trades are appended so reading buckets does not scan the raw log.
+ * Trades are folded against the compacted state of the same history exactly like the compactor will fold them,
+ * see {@link CompactedTrades#fold(NavigableMap, NavigableMap, TradeView, long)}. Replaced together with the raw
+ * log, on compaction and when the bucket length changes
+ */
+final class RawBuckets {
+
+    private final CompactedTrades compacted;
+    private final long bucketMillis;
+    private final Map<String, NavigableMap<Long, TradeBucket>> bucketsBySymbol = new HashMap<>();
+    // bucket the last trade of the symbol went into, trades mostly arrive in order and land in it again
+    private final Map<String, TradeBucket> lastBySymbol = new HashMap<>();
+    // earliest timestamp folded, compaction has nothing to do before it
+    private long earliestMillis = Long.MAX_VALUE;
+
+    RawBuckets(CompactedTrades compacted, long bucketMillis) {
+        this.compacted = compacted;
+        this.bucketMillis = bucketMillis;
+    }
+
+    long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    /**
+     * fold one more raw trade, trades that cannot be compacted are skipped
+     *
+     * @param trade
+     */
+    synchronized void fold(TradeView trade) {
+        if (!CompactedTrades.isFoldable(trade)) {
+            return;
+        }
+        long timestamp = trade.getTimestampMillis();
+        earliestMillis = Math.min(earliestMillis, timestamp);
+        TradeBucket last = lastBySymbol.get(trade.getSymbol());
+        if (last != null && last.getStartMillis() <= timestamp && timestamp < last.getEndMillis()) {
+            last.add(trade.getPriceUnscaled(), trade.getPriceScale(), trade.getQuantity());
+            return;
+        }
+        NavigableMap<Long, TradeBucket> buckets = bucketsBySymbol.get(trade.getSymbol());
+        if (buckets == null) {
+            buckets = new TreeMap<>();
+            bucketsBySymbol.put(trade.getSymbol(), buckets);
+        }
+        lastBySymbol.put(trade.getSymbol(),
+                CompactedTrades.fold(compacted.getBuckets(trade.getSymbol()), buckets, trade, bucketMillis));
+    }
+
+    /**
+     * add snapshots of the buckets of the symbol with a start in [from, to) to the ones given, replacing the
+     * compacted buckets they continue
+     *
+     * @param symbol
+     * @param fromMillis
+     * @param toMillis
+     * @param into       buckets by start
+     */
+    synchronized void snapshot(String symbol, long fromMillis, long toMillis, NavigableMap<Long, TradeBucket> into) {
+        NavigableMap<Long, TradeBucket> buckets = bucketsBySymbol.get(symbol);
+        if (buckets != null) {
+            for (TradeBucket bucket : buckets.subMap(fromMillis, true, toMillis, false).values()) {
+                into.put(bucket.getStartMillis(), bucket.snapshot());
+            }
+        }
+    }
+
+    /**
+     * @return earliest timestamp of the raw trades that can be compacted, Long.MAX_VALUE if there is none
+     */
+    synchronized long getEarliestMillis() {
+        return earliestMillis;
+    }
+
+    synchronized void addSymbolsTo(Collection<String> symbols) {
+        symbols.addAll(bucketsBySymbol.keySet());
+    }
+}
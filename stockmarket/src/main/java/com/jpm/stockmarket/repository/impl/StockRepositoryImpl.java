@@ -6,6 +6,7 @@ import java.util.concurrent.ExecutionException;
 
 import javax.annotation.PostConstruct;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
 import com.google.common.cache.CacheBuilder;
@@ -21,15 +22,23 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class StockRepositoryImpl implements StockRepository {
 
-    // in-memory stock cache
-    private LoadingCache<String, Optional<Stock>> StockCache;
+    // in-memory stock cache, replaced as a whole when its size changes
+    private volatile LoadingCache<String, Optional<Stock>> StockCache;
+
+    // maximum number of stocks cached
+    @Value("${stock.cache.maximumsize:5}")
+    private long cacheMaximumSize = 5;
 
     @PostConstruct
     public void initialize() {
+        StockCache = buildCache(cacheMaximumSize);
+    }
+
+    private LoadingCache<String, Optional<Stock>> buildCache(long maximumSize) {
 
         // initialize and override the load of CacheLoader to have control over the fetch
-        StockCache = CacheBuilder.newBuilder()
-                .maximumSize(5)    // maximum 5 records can only be cached
+        return CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
                 .build(new CacheLoader<String, Optional<Stock>>() {
                     @Override
                     public Optional<Stock> load(String symbol) throws GBCEServiceException {
@@ -38,6 +47,29 @@ public class StockRepositoryImpl implements StockRepository {
                 });
     }
 
+    @Override
+    public long getCacheMaximumSize() {
+        return cacheMaximumSize;
+    }
+
+    /**
+     * resize the stock cache. The cached stocks are carried over into a cache of the new size, which drops the
+     * ones beyond it when it shrinks; lookups meanwhile are served by the old cache
+     *
+     * @param maximumSize
+     */
+    @Override
+    public synchronized void setCacheMaximumSize(long maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("stock cache size must not be negative, maximumSize=" + maximumSize);
+        }
+        LoadingCache<String, Optional<Stock>> resized = buildCache(maximumSize);
+        resized.putAll(StockCache.asMap());
+        StockCache = resized;
+        cacheMaximumSize = maximumSize;
+        log.info("stock cache resized to maximumSize={}, cached={}", maximumSize, resized.size());
+    }
+
 
     /*
         method to load the data from the database. This will query the db and extract the matching Stock with 
@@ -0,0 +1,57 @@
+package com.jpm.stockmarket.repository.impl;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * numbers the stock symbols in the order they are first recorded, so the trade log stores an int per trade
+ * instead of a reference and per symbol state can live in plain arrays. Symbols are only added by the
+ * recording thread, looking them up is safe from any thread and does not allocate
+ */
+final class SymbolDictionary {
+
+    static final int NO_SYMBOL = -1;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    // written before the id is published in the map or the log
+    private volatile String[] symbols = new String[64];
+    private int size;
+
+    /**
+     * id of the symbol, a new one for a symbol not seen before. Only the recording thread may call it
+     *
+     * @param symbol
+     * @return {@link #NO_SYMBOL} for a null symbol
+     */
+    int register(String symbol) {
+        if (symbol == null) {
+            return NO_SYMBOL;
+        }
+        Integer id = ids.get(symbol);
+        if (id != null) {
+            return id;
+        }
+        String[] current = symbols;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[size] = symbol;
+        symbols = current;
+        ids.put(symbol, size);
+        return size++;
+    }
+
+    /**
+     * @param symbol
+     * @return id of the symbol, {@link #NO_SYMBOL} if it was never recorded
+     */
+    int find(String symbol) {
+        Integer id = symbol == null ? null : ids.get(symbol);
+        return id == null ? NO_SYMBOL : id;
+    }
+
+    String symbolOf(int id) {
+        return id == NO_SYMBOL ? null : symbols[id];
+    }
+}
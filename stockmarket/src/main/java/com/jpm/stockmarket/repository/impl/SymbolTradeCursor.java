@@ -0,0 +1,57 @@
+package com.jpm.stockmarket.repository.impl;
+
+import java.util.Arrays;
+
+import com.jpm.stockmarket.model.TradeView;
+import com.jpm.stockmarket.repository.TradeCursor;
+
+/**
+ * cursor over the trades of one symbol in a pinned raw log. The positions are collected once along the links
+ * between the trades of the symbol, so trades of other symbols are never touched
+ */
+final class SymbolTradeCursor implements TradeCursor {
+
+    private final TradeLog raw;
+    private int[] positions = new int[16];
+    private int count;
+    private int next;
+    private boolean closed;
+
+    /**
+     * @param raw  pinned log, unpinned when the cursor is closed
+     * @param last position of the last trade of the symbol, -1 if it has none
+     */
+    SymbolTradeCursor(TradeLog raw, int last) {
+        this.raw = raw;
+        for (int position = last; position >= 0; position = raw.previousPosition(position)) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            positions[count++] = position;
+        }
+        // newest first along the links
+        next = count - 1;
+    }
+
+    @Override
+    public boolean next(TradeView view) {
+        if (next < 0) {
+            return false;
+        }
+        raw.read(positions[next--], view);
+        return true;
+    }
+
+    @Override
+    public void rewind() {
+        next = count - 1;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            raw.unpin();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.jpm.stockmarket.repository.impl;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * the raw trades and the compacted ones, published together so a reader never sees a trade in both or in
+ * neither. New trades are appended to the raw log and folded into its buckets, compaction replaces the whole
+ * history
+ */
+@Getter
+@AllArgsConstructor
+final class TradeHistory {
+
+    private final TradeLog raw;
+    private final CompactedTrades compacted;
+    private final RawBuckets rawBuckets;
+}
@@ -0,0 +1,247 @@
+package com.jpm.stockmarket.repository.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.model.TradeView;
+
+/**
+ * append-only store of all the recorded trades in primitive columns, see {@link LogChunk}. Chunks are never
+ * moved, so readers never lock: they read the size and see every trade below it, trades appended afterwards are
+ * simply not part of their read. Appending does not allocate as long as the {@link ChunkPool} has chunks left.
+ * <p>
+ * Readers pin the log while reading it. A log replaced by compaction is retired and hands its chunks back to the
+ * pool once the last reader unpinned it; pinning a log that was handed back fails, the reader then has to move on
+ * to the log that replaced it. Appends must be serialized by the caller
+ */
+class TradeLog {
+
+    private static final TradeIndicator[] INDICATORS = TradeIndicator.values();
+
+    private final SymbolDictionary symbols;
+    private final ChunkPool pool;
+
+    // written before size, so a reader seeing a size also sees chunks holding every trade below it
+    private volatile LogChunk[] chunks;
+    private int chunkCount;
+    private volatile int size;
+
+    // position of the first and the last trade of every symbol id, -1 while it has none. The trades of a symbol
+    // are linked backwards from the last one, so a symbol is read without going through the others
+    private int[] firstPositions = new int[0];
+    private int[] lastPositions = new int[0];
+
+    // readers currently reading, -1 once the chunks went back to the pool
+    private final AtomicInteger pins = new AtomicInteger();
+    private volatile boolean retired;
+
+    TradeLog(SymbolDictionary symbols, ChunkPool pool, int expectedChunks) {
+        this.symbols = symbols;
+        this.pool = pool;
+        this.chunks = new LogChunk[Math.max(16, expectedChunks)];
+    }
+
+    /**
+     * add the trade at the end of the log, only one thread may append at a time
+     *
+     * @param trade with the id assigned already
+     * @return position of the trade in the log
+     */
+    int append(TradeView trade) {
+        int symbolId = symbols.register(trade.getSymbol());
+        byte flags = (byte) ((trade.isPriced() ? LogChunk.PRICED : 0) | (trade.isEvicted() ? LogChunk.EVICTED : 0));
+        return append(trade.getId(), symbolId, trade.getTimestampNanos(), trade.getQuantity(),
+                (byte) (trade.getIndicator() == null ? -1 : trade.getIndicator().ordinal()), trade.getPriceUnscaled(),
+                trade.getPriceScale(), flags);
+    }
+
+    /**
+     * copy a trade of another log sharing the same dictionary, e.g. the trades kept raw by a compaction
+     *
+     * @param other
+     * @param position
+     * @return position of the trade in this log
+     */
+    int appendFrom(TradeLog other, int position) {
+        LogChunk chunk = other.chunks[position >>> LogChunk.SHIFT];
+        int row = position & LogChunk.MASK;
+        return append(chunk.ids[row], chunk.symbols[row], chunk.timestamps[row], chunk.quantities[row],
+                chunk.indicators[row], chunk.prices[row], chunk.scales[row], chunk.flags[row]);
+    }
+
+    private int append(long id, int symbolId, long timestamp, long quantity, byte indicator, long price, int scale,
+                       byte flags) {
+        int position = size;
+        int index = position >>> LogChunk.SHIFT;
+        LogChunk[] current = chunks;
+        if (index == chunkCount) {
+            if (index == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[index] = pool.take();
+            chunkCount++;
+        }
+        LogChunk chunk = current[index];
+        int row = position & LogChunk.MASK;
+        chunk.ids[row] = id;
+        chunk.symbols[row] = symbolId;
+        chunk.timestamps[row] = timestamp;
+        chunk.quantities[row] = quantity;
+        chunk.indicators[row] = indicator;
+        chunk.prices[row] = price;
+        chunk.scales[row] = scale;
+        chunk.flags[row] = flags;
+        chunk.previous[row] = -1;
+        if (symbolId != SymbolDictionary.NO_SYMBOL) {
+            if (symbolId >= firstPositions.length) {
+                int length = firstPositions.length;
+                int grown = Math.max(symbolId + 1, length * 2);
+                firstPositions = Arrays.copyOf(firstPositions, grown);
+                lastPositions = Arrays.copyOf(lastPositions, grown);
+                Arrays.fill(firstPositions, length, grown, -1);
+                Arrays.fill(lastPositions, length, grown, -1);
+            }
+            if (firstPositions[symbolId] < 0) {
+                firstPositions[symbolId] = position;
+            }
+            chunk.previous[row] = lastPositions[symbolId];
+            lastPositions[symbolId] = position;
+        }
+        chunks = current;
+        size = position + 1;
+        return position;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * overwrite the view with the trade at the position, which must be below a size read before
+     *
+     * @param position
+     * @param view
+     * @return the view
+     */
+    TradeView read(int position, TradeView view) {
+        LogChunk chunk = chunks[position >>> LogChunk.SHIFT];
+        int row = position & LogChunk.MASK;
+        view.setId(chunk.ids[row]);
+        view.setSymbol(symbols.symbolOf(chunk.symbols[row]));
+        view.setTimestampNanos(chunk.timestamps[row]);
+        view.setQuantity(chunk.quantities[row]);
+        view.setIndicator(chunk.indicators[row] < 0 ? null : INDICATORS[chunk.indicators[row]]);
+        if ((chunk.flags[row] & LogChunk.PRICED) != 0) {
+            view.setPrice(chunk.prices[row], chunk.scales[row]);
+        } else {
+            view.clearPrice();
+        }
+        view.setEvicted((chunk.flags[row] & LogChunk.EVICTED) != 0);
+        return view;
+    }
+
+    int symbolAt(int position) {
+        return chunks[position >>> LogChunk.SHIFT].symbols[position & LogChunk.MASK];
+    }
+
+    boolean isEvicted(int position) {
+        return (chunks[position >>> LogChunk.SHIFT].flags[position & LogChunk.MASK] & LogChunk.EVICTED) != 0;
+    }
+
+    long idAt(int position) {
+        return chunks[position >>> LogChunk.SHIFT].ids[position & LogChunk.MASK];
+    }
+
+
+    /**
+     * mark the first trade of the symbol as evicted, only under the lock the appends are serialized with
+     *
+     * @param symbolId
+     * @return position of the trade, -1 if the symbol has none in this log
+     */
+    int evictFirst(int symbolId) {
+        int position = firstPosition(symbolId);
+        if (position >= 0) {
+            chunks[position >>> LogChunk.SHIFT].flags[position & LogChunk.MASK] |= LogChunk.EVICTED;
+        }
+        return position;
+    }
+
+    /**
+     * @param symbolId
+     * @return position of the first trade of the symbol, -1 if it has none in this log
+     */
+    int firstPosition(int symbolId) {
+        return symbolId >= 0 && symbolId < firstPositions.length ? firstPositions[symbolId] : -1;
+    }
+
+    /**
+     * only consistent with a size read under the same lock the appends are serialized with
+     *
+     * @param symbolId
+     * @return position of the last trade of the symbol, -1 if it has none in this log
+     */
+    int lastPosition(int symbolId) {
+        return symbolId >= 0 && symbolId < lastPositions.length ? lastPositions[symbolId] : -1;
+    }
+
+    /**
+     * @param position
+     * @return position of the trade of the same symbol before it, -1 for the first one
+     */
+    int previousPosition(int position) {
+        return chunks[position >>> LogChunk.SHIFT].previous[position & LogChunk.MASK];
+    }
+
+    /**
+     * mark the first trade of every symbol evicted in the other log evicted here as well, as long as it is
+     * still the first one here. Only the appending thread may call it
+     *
+     * @param other log this one was copied from
+     */
+    void copyEvictions(TradeLog other) {
+        for (int symbolId = 0; symbolId < other.firstPositions.length; symbolId++) {
+            int theirs = other.firstPosition(symbolId);
+            int ours = firstPosition(symbolId);
+            if (theirs >= 0 && ours >= 0 && other.isEvicted(theirs) && other.idAt(theirs) == idAt(ours)) {
+                evictFirst(symbolId);
+            }
+        }
+    }
+
+    /**
+     * @return false when the log was handed back to the pool already
+     */
+    boolean pin() {
+        while (true) {
+            int current = pins.get();
+            if (current < 0) {
+                return false;
+            }
+            if (pins.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void unpin() {
+        if (pins.decrementAndGet() == 0 && retired) {
+            reclaim();
+        }
+    }
+
+    /**
+     * the log was replaced, its chunks go back to the pool as soon as no reader has it pinned
+     */
+    void retire() {
+        retired = true;
+        reclaim();
+    }
+
+    private void reclaim() {
+        if (pins.compareAndSet(0, -1)) {
+            pool.release(chunks, chunkCount);
+        }
+    }
+}
@@ -1,23 +1,39 @@
 package com.jpm.stockmarket.repository.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 
 import javax.annotation.PostConstruct;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.cache.RemovalListener;
+import com.jpm.stockmarket.analytics.TradeAnalytics;
 import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.index.IndexBasis;
+import com.jpm.stockmarket.index.IndexDefinition;
+import com.jpm.stockmarket.index.IndexEngine;
+import com.jpm.stockmarket.index.IndexMethod;
+import com.jpm.stockmarket.model.MarketState;
+import com.jpm.stockmarket.model.MarketStateWriter;
+import com.jpm.stockmarket.model.Stock;
 import com.jpm.stockmarket.model.Trade;
+import com.jpm.stockmarket.model.TradeBucket;
+import com.jpm.stockmarket.model.TradeView;
+import com.jpm.stockmarket.repository.TradeCursor;
+import com.jpm.stockmarket.repository.TradeListener;
 import com.jpm.stockmarket.repository.TradeRepository;
+import com.jpm.stockmarket.window.EventTimeWindow;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
@@ -26,15 +42,97 @@ import lombok.extern.slf4j.Slf4j;
 @Repository
 public class TradeRepositoryImpl implements TradeRepository {
 
-    // should be configurable, ideally something like zookeeper
+    // default length of the in-memory trade window, see setWindowMillis to change it at runtime
     public static final Long inMemoryExpirationValue = 2000l;
+    // result of every submitted trade, they are recorded right away
+    private static final CompletableFuture<Void> RECORDED = CompletableFuture.completedFuture(null);
 
-    private static List<Trade> trades = new ArrayList<Trade>();
+    // numbers the symbols for the trade log and the per symbol state
+    private final SymbolDictionary symbols = new SymbolDictionary();
+
+    // chunks for the trade log, filled up front with tradelog.preallocated.trades
+    private ChunkPool chunkPool = new ChunkPool(0);
+
+    @Value("${tradelog.preallocated.trades:0}")
+    private long preallocatedTrades = 0;
+
+    // length of new compaction buckets, existing buckets keep theirs
+    @Value("${compaction.bucket.millis:1000}")
+    private volatile long compactionBucketMillis = 1000;
+
+    // mock database, readers work on it while trades keep getting appended.
+    // Trades older than the compaction age are moved from the raw log into buckets
+    private volatile TradeHistory history = new TradeHistory(new TradeLog(symbols, chunkPool, 0),
+            CompactedTrades.empty(), new RawBuckets(CompactedTrades.empty(), compactionBucketMillis));
+
+    // one compaction at a time, recording trades carries on meanwhile
+    private final Object compactionLock = new Object();
+
+    // represents in memory cache, the trades of every symbol recorded within the expiration
+    private TradeWindows tradeWindows;
+    @Value("${trade.window.millis:2000}")
+    private volatile long windowMillis = inMemoryExpirationValue;
+
+    // aggregates of all the symbols, updated in place on every trade and published to readers on demand
+    private final MarketStateWriter marketStateWriter = new MarketStateWriter();
+    // last state published, readers always get one consistent epoch
+    private volatile MarketState marketState = MarketState.empty();
+
+    // writers are serialized among each other, readers only take it to publish a newer market state
+    private final Object writeLock = new Object();
+    // guards the trade windows, the ids and the appends to the raw log. Taken by writers within the write lock
+    // and by readers of the windows on their own, only for the bookkeeping and never while reading trades
+    private final Object windowLock = new Object();
+    // id of the next recorded trade, guarded by the window lock
+    private long nextId = 1;
+    // id of the last recorded trade, its position in the trade log
+    private volatile long logPosition;
+
+    // notified after every recorded trade, e.g. the market data stream. Replaced as a whole on changes so the
+    // recording thread iterates it without allocating
+    private volatile TradeListener[] tradeListeners = new TradeListener[0];
+    // symbols a recorded trade may have, e.g. only the ones a replication primary can ship. Null for any symbol
+    private volatile Predicate<String> acceptedSymbols;
+
+    @Value("${analytics.bucket.millis:60000}")
+    private long analyticsBucketMillis = 60000;
+    @Value("${analytics.bucket.count:15}")
+    private int analyticsBucketCount = 15;
+    @Value("${analytics.quantile.accuracy:0.01}")
+    private double quantileAccuracy = 0.01;
+    @Value("${analytics.quantile.maxbuckets:2048}")
+    private int quantileMaxBuckets = 2048;
+    @Value("${analytics.heavyhitters.capacity:64}")
+    private int heavyHitterCapacity = 64;
+    @Value("${analytics.countmin.width:2048}")
+    private int countMinWidth = 2048;
+    @Value("${analytics.countmin.depth:5}")
+    private int countMinDepth = 5;
 
     @Getter
-    // represents in memory cache
-    private LoadingCache<String, List<Trade>> inMemoryTradeCache;
+    // price percentiles and traded volumes, updated with every trade
+    private TradeAnalytics tradeAnalytics;
+
+    @Value("${eventtime.bucket.millis:1000}")
+    private long eventTimeBucketMillis = 1000;
+    @Value("${eventtime.maxoutoforder.millis:500}")
+    private long maxOutOfOrderMillis = 500;
+    @Value("${eventtime.allowedlateness.millis:5000}")
+    private long allowedLatenessMillis = 5000;
+    @Value("${eventtime.reorder.capacity:1024}")
+    private int reorderCapacity = 1024;
+    @Value("${eventtime.retained.buckets:900}")
+    private int retainedBuckets = 900;
+    @Value("${eventtime.idle.millis:1000}")
+    private long idleMillis = 1000;
 
+    @Getter
+    // buckets by the trades' own timestamps, tolerating out of order and late trades
+    private EventTimeWindow eventTimeWindow;
+
+    @Getter
+    // weighted and sector indices, moved by every trade under the write lock so they follow the log order
+    private final IndexEngine indexEngine = new IndexEngine();
 
     /**
      * this will be creating all the caches for holding the trade data
@@ -42,24 +140,90 @@ public class TradeRepositoryImpl implements TradeRepository {
     @PostConstruct
     public void setup() {
 
-        inMemoryTradeCache = CacheBuilder.newBuilder()
-                .expireAfterWrite(inMemoryExpirationValue, TimeUnit.MILLISECONDS)
-                .removalListener((RemovalListener<String, List<Trade>>) notification -> {
-                    log.info("data is getting evicted={}", notification.getKey());
-                    Optional<Trade> first = trades.stream()
-                            .filter(t -> t.getStockSymbol().equalsIgnoreCase(notification.getKey())).findFirst();
-                    if(first.isPresent()) {
-                        first.get().setEvicted(true);
-                    }
-                })
-                // building a cache loader to load the data
-                .build(new CacheLoader<String, List<Trade>>() {
+        tradeAnalytics = new TradeAnalytics(analyticsBucketMillis, analyticsBucketCount, quantileAccuracy,
+                quantileMaxBuckets, heavyHitterCapacity, countMinWidth, countMinDepth);
+        eventTimeWindow = new EventTimeWindow(eventTimeBucketMillis, maxOutOfOrderMillis, allowedLatenessMillis,
+                reorderCapacity, retainedBuckets, idleMillis);
 
-                    @Override
-                    public List<Trade> load(String symbol) {
-                        return getTrades(symbol);
-                    }
-                });
+        int chunks = 0;
+        if (preallocatedTrades > 0) {
+            // recording stays allocation free until this many trades are held raw
+            chunks = ChunkPool.chunksFor(preallocatedTrades);
+            chunkPool = new ChunkPool(chunks);
+            log.info("preallocated trade log chunks={} for trades={}", chunks, preallocatedTrades);
+        }
+        // the raw buckets take the configured bucket length
+        history = new TradeHistory(new TradeLog(symbols, chunkPool, chunks), CompactedTrades.empty(),
+                new RawBuckets(CompactedTrades.empty(), compactionBucketMillis));
+        tradeWindows = new TradeWindows(windowMillis);
+
+        // the sector sub-indices of the GBCE, further baskets are defined through the calculation service
+        for (Stock.StockTypes type : Arrays.asList(Stock.StockTypes.COMMON, Stock.StockTypes.PREFERRED)) {
+            indexEngine.define(IndexDefinition.ofType(type.name(), type, IndexMethod.GEOMETRIC, IndexBasis.PRICE));
+        }
+    }
+
+    @Override
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * change the length of the in-memory trade window. The windows of all symbols and the window totals of the
+     * market state are reshaped in place: a window is live as long as its last trade is younger than the new
+     * length, so growing it keeps windows that would have expired and shrinking it expires them early. No trade
+     * is lost either way, the raw log is not touched. Recording only waits for one pass over the symbols
+     *
+     * @param windowMillis
+     */
+    @Override
+    public void setWindowMillis(long windowMillis) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("trade window must be positive, windowMillis=" + windowMillis);
+        }
+        synchronized (writeLock) {
+            this.windowMillis = windowMillis;
+            synchronized (windowLock) {
+                tradeWindows.setExpirationMillis(windowMillis);
+            }
+            marketStateWriter.reshapeWindow(windowMillis);
+            indexEngine.reshapeWindow(windowMillis);
+        }
+        log.info("trade window changed to windowMillis={}", windowMillis);
+    }
+
+    @Override
+    public long getCompactionBucketMillis() {
+        return compactionBucketMillis;
+    }
+
+    /**
+     * change the length of the buckets compaction opens from now on. Buckets compacted already keep their
+     * length, new ones are cut short where they would overlap them, see {@link CompactedTrades}. The buckets of
+     * the raw trades are folded again with the new length, recording only waits for the trades recorded meanwhile
+     *
+     * @param bucketMillis
+     */
+    @Override
+    public void setCompactionBucketMillis(long bucketMillis) {
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("compaction bucket must be positive, bucketMillis=" + bucketMillis);
+        }
+        synchronized (compactionLock) {
+            TradeHistory current = history;
+            TradeLog raw = current.getRaw();
+            RawBuckets rawBuckets = new RawBuckets(current.getCompacted(), bucketMillis);
+            TradeView view = new TradeView();
+            int folded = foldRaw(raw, 0, raw.size(), rawBuckets, view);
+            synchronized (writeLock) {
+                synchronized (windowLock) {
+                    foldRaw(raw, folded, raw.size(), rawBuckets, view);
+                    compactionBucketMillis = bucketMillis;
+                    history = new TradeHistory(raw, current.getCompacted(), rawBuckets);
+                }
+            }
+        }
+        log.info("compaction bucket changed to bucketMillis={}", bucketMillis);
     }
 
     /**
@@ -73,40 +237,260 @@ public class TradeRepositoryImpl implements TradeRepository {
     @Override
     public List<Trade> getTrades(String stockSymbol) {
         log.info("getting trades from database as not found in cache");
-        return trades.stream()
-                .filter(e -> e.getStockSymbol().equals(stockSymbol)
+        List<Trade> trades = new ArrayList<>();
+        int symbolId = symbols.find(stockSymbol);
+        if (symbolId == SymbolDictionary.NO_SYMBOL) {
+            return trades;
+        }
+        TradeLog raw = pinHistory().getRaw();
+        try {
+            TradeView view = new TradeView();
+            int size = raw.size();
+            for (int i = 0; i < size; i++) {
                 // only the active trades needs to be fetched having status isEvicted set to false
-                        && ! e.isEvicted()).collect(Collectors.toList());
-
+                if (raw.symbolAt(i) == symbolId && !raw.isEvicted(i)) {
+                    trades.add(raw.read(i, view).toTrade());
+                }
+            }
+        } finally {
+            raw.unpin();
+        }
+        return trades;
     }
 
 
     /**
-     * capture every trade in both primary and secondary cache
+     * capture every trade in both primary and secondary cache, convenience on top of
+     * {@link #ingestTrade(TradeView)}
      *
      * @param trade
      * @return
+     * @throws GBCEServiceException when the trade has no stock symbol
      */
     @Override
-    public String recordTrade(Trade trade) {
+    public String recordTrade(Trade trade) throws GBCEServiceException {
         log.debug("Adding trade for Symbol={}", trade.getStockSymbol());
-       
-        // using random number to generate ID , in real scenario this would be the ID returned after inserting data into DB
-        String id = UUID.randomUUID().toString();
+
+        // the sequence number of the trade, in real scenario this would be the ID returned after inserting data into DB
+        String id = String.valueOf(ingestTrade(new TradeView().set(trade)));
         trade.setId(id);
         log.info("trade is recorded for id={}", id);
-        List<Trade> cachedTrades = inMemoryTradeCache.getIfPresent(trade.getStockSymbol());
-        if (cachedTrades == null) {
-            cachedTrades = new ArrayList<>();
-        }
-        cachedTrades.add(trade);
-        // adding in cache
-        inMemoryTradeCache.put(trade.getStockSymbol(), cachedTrades);
-        //adding in database
-        trades.add(trade);
         return id;
     }
 
+    /**
+     * record the trade held by the view, the garbage free way of recording used by the feed handlers. Nothing
+     * is allocated once the symbol is known and the trade log has preallocated room, the view can be reused
+     * for the next trade as soon as the call returned
+     *
+     * @param trade the id of the recorded trade is set on it
+     * @return id of the trade
+     * @throws GBCEServiceException when the trade has no stock symbol
+     */
+    @Override
+    public long ingestTrade(TradeView trade) throws GBCEServiceException {
+        validate(trade);
+        long now = System.currentTimeMillis();
+        synchronized (writeLock) {
+            append(trade, now);
+        }
+        afterAppend(trade, now);
+        return trade.getId();
+    }
+
+    /**
+     * the same as {@link #ingestTrade(TradeView)}, the trade is recorded once the call returned
+     *
+     * @param trade the id of the recorded trade is set on it
+     * @return an already completed future, the same every time
+     * @throws GBCEServiceException when the trade has no stock symbol
+     */
+    @Override
+    public CompletableFuture<Void> submitTrade(TradeView trade) throws GBCEServiceException {
+        ingestTrade(trade);
+        return RECORDED;
+    }
+
+    /**
+     * record a batch of trades, convenience on top of {@link #ingestTrades(List)}
+     *
+     * @param batch
+     * @return ids in the order of the trades
+     * @throws GBCEServiceException when a trade has no stock symbol, nothing of the batch is recorded then
+     */
+    @Override
+    public List<String> recordTrades(List<Trade> batch) throws GBCEServiceException {
+        List<TradeView> views = new ArrayList<>(batch.size());
+        for (Trade trade : batch) {
+            views.add(new TradeView().set(trade));
+        }
+        ingestTrades(views);
+        List<String> ids = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            String id = String.valueOf(views.get(i).getId());
+            batch.get(i).setId(id);
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * record a batch of trades, e.g. from a bulk load. The trades are recorded in order like one by one, but the
+     * write lock is taken once for the whole batch. Trades loaded in bulk mostly happened long before they are
+     * recorded, so the analytics and the event time window take them at their own timestamp, see
+     * {@link #afterLoad(TradeView, long)}
+     *
+     * @param batch the id of every recorded trade is set on its view, the views can be reused once the call
+     *              returned
+     * @throws GBCEServiceException when a trade has no stock symbol, nothing of the batch is recorded then
+     */
+    @Override
+    public void ingestTrades(List<TradeView> batch) throws GBCEServiceException {
+        log.debug("Adding batch of trades={}", batch.size());
+        for (TradeView view : batch) {
+            validate(view);
+        }
+        long now = System.currentTimeMillis();
+        synchronized (writeLock) {
+            for (TradeView view : batch) {
+                append(view, now);
+            }
+        }
+        for (TradeView view : batch) {
+            afterLoad(view, now);
+        }
+        log.info("batch of trades is recorded, trades={}", batch.size());
+    }
+
+    /**
+     * number of trades the raw log preallocates room for, the same as tradelog.preallocated.trades. Only read by
+     * {@link #setup()}, so it has to be set before, e.g. by a benchmark creating the repository itself
+     *
+     * @param preallocatedTrades
+     */
+    public void setPreallocatedTrades(long preallocatedTrades) {
+        this.preallocatedTrades = preallocatedTrades;
+    }
+
+    /**
+     * restrict the symbols of the trades recorded from now on, trades with other symbols are rejected before
+     * they are recorded
+     *
+     * @param acceptedSymbols null to accept every symbol again
+     */
+    public void setAcceptedSymbols(Predicate<String> acceptedSymbols) {
+        this.acceptedSymbols = acceptedSymbols;
+    }
+
+    private void validate(TradeView trade) throws GBCEServiceException {
+        if (trade.getSymbol() == null) {
+            throw new GBCEServiceException("trade without stock symbol");
+        }
+        Predicate<String> accepted = acceptedSymbols;
+        if (accepted != null && !accepted.test(trade.getSymbol())) {
+            throw new GBCEServiceException("stock symbol not accepted=" + trade.getSymbol());
+        }
+    }
+
+    /**
+     * add the validated trade to the window of its symbol, the raw log and the market state, under the write lock
+     */
+    private void append(TradeView trade, long now) {
+        synchronized (windowLock) {
+            trade.setId(nextId++);
+            trade.setRecordedMillis(now);
+            logPosition = trade.getId();
+            TradeHistory current = history;
+            TradeLog raw = current.getRaw();
+            int symbolId = symbols.register(trade.getSymbol());
+            if (tradeWindows.record(symbolId, trade.getId(), now)) {
+                // the window was replaced or expired
+                raw.evictFirst(symbolId);
+            }
+            //adding in database
+            raw.append(trade);
+            current.getRawBuckets().fold(trade);
+        }
+        marketStateWriter.record(trade, now, windowMillis);
+        indexEngine.record(trade, now, windowMillis);
+    }
+
+    /**
+     * record a trade shipped from the log of a primary, see
+     * {@link com.jpm.stockmarket.replication.ReplicationReplica}. It is recorded as of the time the primary
+     * recorded it, so windows and buckets end up the same as there
+     *
+     * @param trade with the id and recording time it got on the primary
+     * @throws IllegalStateException when the id is not the next position of the local log, the replica would
+     *                               diverge from the primary
+     */
+    public void applyReplicated(TradeView trade) {
+        long now = trade.getRecordedMillis();
+        synchronized (writeLock) {
+            if (trade.getId() != nextId) {
+                throw new IllegalStateException("replicated trade id=" + trade.getId() + " does not follow log position="
+                        + (nextId - 1));
+            }
+            append(trade, now);
+        }
+        afterAppend(trade, now);
+    }
+
+    /**
+     * @return id of the last recorded trade, 0 before the first one
+     */
+    public long getLogPosition() {
+        return logPosition;
+    }
+
+    private void afterAppend(TradeView trade, long now) {
+        if (trade.isPriced()) {
+            tradeAnalytics.record(trade.getSymbol(), trade.getPriceAsDouble(), trade.getQuantity(), now);
+        }
+        eventTimeWindow.accept(trade, now);
+        notifyListeners(trade);
+    }
+
+    /**
+     * the analytics take a loaded trade at its own timestamp rather than when it was loaded, so old trades fall
+     * outside their window. A trade without timestamp is taken at the time it was recorded, like
+     * {@link #afterAppend(TradeView, long)} does, and so does the event time window
+     */
+    private void afterLoad(TradeView trade, long now) {
+        if (trade.isPriced()) {
+            tradeAnalytics.record(trade.getSymbol(), trade.getPriceAsDouble(), trade.getQuantity(),
+                    trade.hasTimestamp() ? trade.getTimestampMillis() : now);
+        }
+        // only the arrival is processing time, the watermark measures idleness against it
+        eventTimeWindow.accept(trade, now);
+        notifyListeners(trade);
+    }
+
+    private void notifyListeners(TradeView trade) {
+        for (TradeListener listener : tradeListeners) {
+            try {
+                listener.onTradeRecorded(trade);
+            } catch (RuntimeException e) {
+                // a faulty listener must never fail the recording of the trade
+                log.error("trade listener failed for id={}", trade.getId(), e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void addTradeListener(TradeListener listener) {
+        TradeListener[] listeners = Arrays.copyOf(tradeListeners, tradeListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        tradeListeners = listeners;
+    }
+
+    @Override
+    public synchronized void removeTradeListener(TradeListener listener) {
+        List<TradeListener> listeners = new ArrayList<>(Arrays.asList(tradeListeners));
+        listeners.remove(listener);
+        tradeListeners = listeners.toArray(new TradeListener[0]);
+    }
+
 
     /**
      * this method will get all the trades that are available in the cache. As cache is assigned with an
@@ -120,26 +504,249 @@ public class TradeRepositoryImpl implements TradeRepository {
     @Override
     public List<Trade> getLatestTrades(String symbol) throws GBCEServiceException {
         log.debug("Getting trades in last minute ");
+        if (tradeWindows == null || symbol == null) {
+            throw new GBCEServiceException("no trade window for symbol=" + symbol);
+        }
+        List<Trade> tradeList = new ArrayList<>();
+        int symbolId = symbols.find(symbol);
+        if (symbolId == SymbolDictionary.NO_SYMBOL) {
+            // never traded, nothing to load and nothing to remember
+            return tradeList;
+        }
+
+        long startId;
+        boolean loaded;
+        long keptFirstId;
+        TradeLog raw;
+        int last;
+        long now = System.currentTimeMillis();
+        synchronized (windowLock) {
+            raw = history.getRaw();
+            if (tradeWindows.expire(symbolId, now)) {
+                log.info("data is getting evicted={}", symbol);
+                raw.evictFirst(symbolId);
+            }
+            int first = raw.firstPosition(symbolId);
+            tradeWindows.load(symbolId, nextId, first < 0 ? -1 : raw.idAt(first), first >= 0 && raw.isEvicted(first),
+                    now);
+            startId = tradeWindows.getStartId(symbolId);
+            loaded = tradeWindows.isLoaded(symbolId);
+            keptFirstId = tradeWindows.getKeptFirstId(symbolId);
+            // the raw log is only replaced under this lock as well, so it can still be pinned
+            raw = pinHistory().getRaw();
+            last = raw.lastPosition(symbolId);
+        }
 
-        List<Trade> tradeList;
         try {
-            tradeList = inMemoryTradeCache.get(symbol);
-        } catch (Exception e) {
-            log.error("exception occurred when retrieving data from cache={}", e.getMessage(), e);
-            throw new GBCEServiceException(e);
+            TradeView view = new TradeView();
+            // newest first along the trades of the symbol, a fresh window ends at its first trade while a loaded
+            // one also holds the older trades that were not evicted when it was loaded
+            for (int position = last; position >= 0; position = raw.previousPosition(position)) {
+                long id = raw.idAt(position);
+                if (id < startId) {
+                    if (!loaded) {
+                        break;
+                    }
+                    if (raw.isEvicted(position) && id != keptFirstId) {
+                        continue;
+                    }
+                }
+                tradeList.add(raw.read(position, view).toTrade());
+            }
+        } finally {
+            raw.unpin();
         }
+        Collections.reverse(tradeList);
         log.info("total trades extracted={}", tradeList.size());
         return tradeList;
 
     }
 
     /**
-     *
+     * copy of all the trades recorded so far, trades recorded afterwards are not part of it
      */
     @Override
     public List<Trade> getTradesForAllStocks() {
         log.debug("Getting trades for all stocks with no time limit");
+        TradeLog raw = pinHistory().getRaw();
+        List<Trade> trades;
+        try {
+            int size = raw.size();
+            trades = new ArrayList<>(size);
+            TradeView view = new TradeView();
+            for (int i = 0; i < size; i++) {
+                trades.add(raw.read(i, view).toTrade());
+            }
+        } finally {
+            raw.unpin();
+        }
         log.info("total trades extracted={}", trades.size());
         return trades;
     }
-}
\ No newline at end of file
+
+    /**
+     * cursor over the raw trades of the symbol recorded so far, evicted ones included. Trades recorded afterwards
+     * are not part of it, the trade log stays pinned until it is closed
+     *
+     * @param symbol
+     * @return
+     */
+    @Override
+    public TradeCursor openTrades(String symbol) {
+        int symbolId = symbol == null ? SymbolDictionary.NO_SYMBOL : symbols.find(symbol);
+        TradeLog raw;
+        int last;
+        synchronized (windowLock) {
+            // the last position is only consistent under the lock the appends run under
+            raw = pinHistory().getRaw();
+            last = symbolId == SymbolDictionary.NO_SYMBOL ? -1 : raw.lastPosition(symbolId);
+        }
+        try {
+            return new SymbolTradeCursor(raw, last);
+        } catch (RuntimeException | Error e) {
+            raw.unpin();
+            throw e;
+        }
+    }
+
+    /**
+     * fold every raw trade with a timestamp before the cutoff into per symbol buckets, the cutoff is rounded down
+     * to a bucket boundary. The raw trades are dropped together with publishing the buckets, so readers see
+     * every trade exactly once, either raw or compacted. Trades without timestamp or price stay raw. The chunks
+     * of the replaced raw log go back to the pool for the trades recorded next
+     *
+     * @param cutoffMillis
+     * @return number of trades compacted
+     */
+    @Override
+    public int compactTrades(long cutoffMillis) {
+        synchronized (compactionLock) {
+            long bucketMillis = compactionBucketMillis;
+            long alignedCutoff = Math.floorDiv(cutoffMillis, bucketMillis) * bucketMillis;
+            // only compaction replaces the raw log, so it stays valid without pinning
+            TradeHistory current = history;
+            if (current.getRawBuckets().getEarliestMillis() >= alignedCutoff) {
+                // nothing old enough, the raw log is not copied
+                return 0;
+            }
+            TradeLog raw = current.getRaw();
+            int size = raw.size();
+            TradeLog retained = new TradeLog(symbols, chunkPool, ChunkPool.chunksFor(size));
+            Map<String, NavigableMap<Long, TradeBucket>> working = new HashMap<>();
+            TradeView view = new TradeView();
+            int folded = 0;
+            for (int i = 0; i < size; i++) {
+                raw.read(i, view);
+                if (CompactedTrades.isFoldable(view) && view.getTimestampMillis() < alignedCutoff) {
+                    current.getCompacted().fold(working, view, bucketMillis);
+                    folded++;
+                } else {
+                    retained.appendFrom(raw, i);
+                }
+            }
+            if (folded == 0) {
+                retained.retire();
+                return 0;
+            }
+            CompactedTrades compacted = current.getCompacted().merge(working, folded);
+            RawBuckets rawBuckets = new RawBuckets(compacted, bucketMillis);
+            int retainedFolded = foldRaw(retained, 0, retained.size(), rawBuckets, view);
+
+            synchronized (writeLock) {
+                synchronized (windowLock) {
+                    // trades recorded while the buckets were built stay raw
+                    for (int i = size; i < raw.size(); i++) {
+                        retained.appendFrom(raw, i);
+                    }
+                    foldRaw(retained, retainedFolded, retained.size(), rawBuckets, view);
+                    // readers may have evicted trades that were copied already
+                    retained.copyEvictions(raw);
+                    history = new TradeHistory(retained, compacted, rawBuckets);
+                }
+            }
+            raw.retire();
+            log.info("compacted trades={} before={} into buckets={}, raw trades left={}", folded,
+                    alignedCutoff, compacted.getBucketCount(), retained.size());
+            return folded;
+        }
+    }
+
+    /**
+     * buckets with a start in [from, to), compacted trades and raw ones alike. Raw trades are folded as they are
+     * recorded exactly like the compactor will fold them, so the totals are the same before and after compaction
+     * and reading them does not scan the raw log
+     *
+     * @param symbol       null for the buckets of all symbols
+     * @param fromMillis
+     * @param toMillis
+     * @return buckets ordered by symbol and start
+     */
+    @Override
+    public List<TradeBucket> getTradeBuckets(String symbol, long fromMillis, long toMillis) {
+        TradeHistory current = history;
+        CompactedTrades compacted = current.getCompacted();
+        Set<String> bucketSymbols = new TreeSet<>();
+        if (symbol == null) {
+            compacted.getSymbols().forEach(bucketSymbols::add);
+            current.getRawBuckets().addSymbolsTo(bucketSymbols);
+        } else {
+            bucketSymbols.add(symbol);
+        }
+
+        List<TradeBucket> buckets = new ArrayList<>();
+        for (String bucketSymbol : bucketSymbols) {
+            NavigableMap<Long, TradeBucket> inRange = new TreeMap<>();
+            for (TradeBucket bucket : compacted.getBuckets(bucketSymbol).between(fromMillis, toMillis)) {
+                inRange.put(bucket.getStartMillis(), bucket);
+            }
+            current.getRawBuckets().snapshot(bucketSymbol, fromMillis, toMillis, inRange);
+            buckets.addAll(inRange.values());
+        }
+        return buckets;
+    }
+
+    /**
+     * fold the raw trades in [from, to) into the buckets
+     *
+     * @return the position folded up to
+     */
+    private static int foldRaw(TradeLog raw, int from, int to, RawBuckets rawBuckets, TradeView view) {
+        for (int i = from; i < to; i++) {
+            raw.read(i, view);
+            rawBuckets.fold(view);
+        }
+        return to;
+    }
+
+    /**
+     * aggregates of all the symbols as of the latest recorded trade. Recording only updates the totals in place,
+     * the first reader after a change publishes them as a new immutable state, every other read is a single
+     * volatile read
+     *
+     * @return
+     */
+    @Override
+    public MarketState getMarketState() {
+        MarketState published = marketState;
+        if (published.getEpoch() == marketStateWriter.getEpoch()) {
+            return published;
+        }
+        synchronized (writeLock) {
+            marketState = marketStateWriter.publish();
+            return marketState;
+        }
+    }
+
+
+    /**
+     * the current history with its raw log pinned, the caller has to unpin it
+     */
+    private TradeHistory pinHistory() {
+        while (true) {
+            TradeHistory current = history;
+            if (current.getRaw().pin()) {
+                return current;
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.jpm.stockmarket.repository.impl;
+
+import java.util.Arrays;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * the in-memory trade window of every symbol, kept as a few primitives per symbol id instead of a cache of trade
+ * lists. It follows the expire after write cache it replaces:
+ * <ul>
+ * <li>recording a trade starts a new window with that trade once the previous one expired, i.e. no trade was
+ * recorded for the symbol for the whole expiration, otherwise the trade is added to the live window</li>
+ * <li>reading a symbol without live window loads one holding all the trades of the symbol that are not
+ * evicted, and trades recorded later are added to it</li>
+ * <li>every time a window is replaced or expires the first trade of the symbol is evicted</li>
+ * </ul>
+ * A window is described by the id of its first recorded trade, the trades of the symbol in the log from there on
+ * belong to it. The expiration can be changed at any time, whether a window is live is always decided with the
+ * current one, so all the windows grow or shrink with it without being touched. It is guarded by the window lock of
+ * the repository
+ */
+final class TradeWindows {
+
+    @Getter
+    @Setter
+    private long expirationMillis;
+
+    private boolean[] present = new boolean[0];
+    private long[] writtenAtMillis = new long[0];
+    // the window holds every trade of the symbol with an id of at least this
+    private long[] startIds = new long[0];
+    // loaded windows also hold the older trades not evicted when loading
+    private boolean[] loaded = new boolean[0];
+    // first trade of the symbol when the window was loaded if it was not evicted then, -1 otherwise
+    private long[] keptFirstIds = new long[0];
+
+    TradeWindows(long expirationMillis) {
+        this.expirationMillis = expirationMillis;
+    }
+
+    /**
+     * the trade with the given id is about to be recorded
+     *
+     * @param symbolId
+     * @param id
+     * @param nowMillis
+     * @return true when the first trade of the symbol has to be evicted
+     */
+    boolean record(int symbolId, long id, long nowMillis) {
+        ensureCapacity(symbolId);
+        boolean replaced = present[symbolId];
+        if (!isLive(symbolId, nowMillis)) {
+            present[symbolId] = true;
+            startIds[symbolId] = id;
+            loaded[symbolId] = false;
+            keptFirstIds[symbolId] = -1;
+        }
+        writtenAtMillis[symbolId] = nowMillis;
+        return replaced;
+    }
+
+    /**
+     * expire the window if it is due
+     *
+     * @param symbolId
+     * @param nowMillis
+     * @return true when the window expired and the first trade of the symbol has to be evicted
+     */
+    boolean expire(int symbolId, long nowMillis) {
+        ensureCapacity(symbolId);
+        if (present[symbolId] && !isLive(symbolId, nowMillis)) {
+            present[symbolId] = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * load a window for the symbol unless it has a live one
+     *
+     * @param symbolId
+     * @param nextId        id the next recorded trade gets
+     * @param firstId       id of the first trade of the symbol, -1 if it has none
+     * @param firstEvicted  whether that trade is evicted
+     * @param nowMillis
+     */
+    void load(int symbolId, long nextId, long firstId, boolean firstEvicted, long nowMillis) {
+        ensureCapacity(symbolId);
+        if (present[symbolId]) {
+            return;
+        }
+        present[symbolId] = true;
+        writtenAtMillis[symbolId] = nowMillis;
+        startIds[symbolId] = nextId;
+        loaded[symbolId] = true;
+        keptFirstIds[symbolId] = firstEvicted ? -1 : firstId;
+    }
+
+    long getStartId(int symbolId) {
+        return startIds[symbolId];
+    }
+
+    boolean isLoaded(int symbolId) {
+        return loaded[symbolId];
+    }
+
+    long getKeptFirstId(int symbolId) {
+        return keptFirstIds[symbolId];
+    }
+
+    private boolean isLive(int symbolId, long nowMillis) {
+        return present[symbolId] && nowMillis - writtenAtMillis[symbolId] < expirationMillis;
+    }
+
+    private void ensureCapacity(int symbolId) {
+        if (symbolId < present.length) {
+            return;
+        }
+        int length = Math.max(symbolId + 1, Math.max(16, present.length * 2));
+        present = Arrays.copyOf(present, length);
+        writtenAtMillis = Arrays.copyOf(writtenAtMillis, length);
+        startIds = Arrays.copyOf(startIds, length);
+        loaded = Arrays.copyOf(loaded, length);
+        keptFirstIds = Arrays.copyOf(keptFirstIds, length);
+    }
+}
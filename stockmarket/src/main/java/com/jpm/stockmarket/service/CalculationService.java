@@ -1,8 +1,15 @@
 package com.jpm.stockmarket.service;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import com.jpm.stockmarket.analytics.VolumeEstimate;
 
 import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.index.IndexDefinition;
+import com.jpm.stockmarket.model.MarketSnapshot;
+import com.jpm.stockmarket.window.WindowStatistics;
 import org.springframework.stereotype.Service;
 
 import com.jpm.stockmarket.model.Trade;
@@ -19,4 +26,26 @@ public interface CalculationService {
     BigDecimal calculateVolWeightedStockPrice(String stockSymbol) throws GBCEServiceException;
 
     BigDecimal calculateGBCEAllShareIndex() throws GBCEServiceException;
+
+    MarketSnapshot getMarketSnapshot() throws GBCEServiceException;
+
+    BigDecimal calculatePricePercentile(String stockSymbol, double percentile) throws GBCEServiceException;
+
+    List<VolumeEstimate> getTopTradedStocks(int count) throws GBCEServiceException;
+
+    BigDecimal calculateEventTimeVolWeightedStockPrice(String stockSymbol, LocalDateTime from, LocalDateTime to)
+            throws GBCEServiceException;
+
+    WindowStatistics getEventTimeStatistics() throws GBCEServiceException;
+
+    BigDecimal calculateHistoricalVolWeightedStockPrice(String stockSymbol, LocalDateTime from, LocalDateTime to)
+            throws GBCEServiceException;
+
+    BigDecimal calculateHistoricalGBCEAllShareIndex(LocalDateTime from, LocalDateTime to) throws GBCEServiceException;
+
+    BigDecimal calculateIndex(String name) throws GBCEServiceException;
+
+    void defineIndex(IndexDefinition definition) throws GBCEServiceException;
+
+    boolean removeIndex(String name) throws GBCEServiceException;
 }
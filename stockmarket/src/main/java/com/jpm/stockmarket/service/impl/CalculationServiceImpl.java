@@ -1,18 +1,37 @@
 package com.jpm.stockmarket.service.impl;
 
 import java.math.BigDecimal;
-import java.math.BigInteger;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
 
+import com.jpm.stockmarket.admission.AdmissionControl;
+import com.jpm.stockmarket.analytics.QuantileSketch;
+import com.jpm.stockmarket.analytics.TradeAnalytics;
+import com.jpm.stockmarket.analytics.VolumeEstimate;
 import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.index.IndexDefinition;
+import com.jpm.stockmarket.index.IndexEngine;
+import com.jpm.stockmarket.model.MarketSnapshot;
+import com.jpm.stockmarket.model.MarketState;
 import com.jpm.stockmarket.model.Stock;
+import com.jpm.stockmarket.model.StockQuote;
+import com.jpm.stockmarket.model.SymbolAggregate;
 import com.jpm.stockmarket.model.Trade;
+import com.jpm.stockmarket.model.TradeBucket;
 import com.jpm.stockmarket.repository.StockRepository;
 import com.jpm.stockmarket.repository.TradeRepository;
 import com.jpm.stockmarket.service.CalculationService;
+import com.jpm.stockmarket.shard.IndexPartial;
+import com.jpm.stockmarket.shard.ShardCoordinator;
+import com.jpm.stockmarket.window.EventTimeWindow;
+import com.jpm.stockmarket.window.WindowStatistics;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -22,10 +41,15 @@ import lombok.extern.slf4j.Slf4j;
  *
  */
 @Slf4j
+@Service
 public class CalculationServiceImpl implements CalculationService {
 
 	private StockRepository stockRepo;
 	private TradeRepository tradeRepo;
+	// only set when running as one of several shards
+	private ShardCoordinator shardCoordinator;
+	// only set when trade ingestion is rate limited
+	private AdmissionControl admissionControl;
 
 	@Autowired
 	public CalculationServiceImpl(StockRepository stockRepo, TradeRepository tradeRepo) {
@@ -33,6 +57,16 @@ public class CalculationServiceImpl implements CalculationService {
 		this.tradeRepo = tradeRepo;
 	}
 
+	@Autowired(required = false)
+	public void setShardCoordinator(ShardCoordinator shardCoordinator) {
+		this.shardCoordinator = shardCoordinator;
+	}
+
+	@Autowired(required = false)
+	public void setAdmissionControl(AdmissionControl admissionControl) {
+		this.admissionControl = admissionControl;
+	}
+
 	/**
 	 * For a given market price as input, calculates the dividend yield.
 	 * Calculation formula is different depending on the stocktype.
@@ -108,8 +142,10 @@ public class CalculationServiceImpl implements CalculationService {
 
 
 	/**
-	 * Calculate Volume Weighted Stock Price based on trades happened in past 15 minutes
+	 * Calculate Volume Weighted Stock Price based on trades happened within the trade window
 	 * Formula - ∑i Trade Pricei × Quantityi/ ∑i Quantityi
+	 * Calculated from the window totals of the market state, the same the market snapshot quotes, so both
+	 * always agree
 	 *
 	 * @param symbol
 	 * @return
@@ -121,39 +157,53 @@ public class CalculationServiceImpl implements CalculationService {
 
 		Optional.ofNullable(symbol).orElseThrow(() -> new GBCEServiceException("symbol cannot be null"));
 
-		// get all the recent trades for input symbol from database
-		List<Trade> trades = tradeRepo.getLatestTrades(symbol);
+		// the window totals of the symbol as of the latest recorded trade
+		MarketState state = Optional.ofNullable(tradeRepo.getMarketState())
+				.orElseThrow(() -> new GBCEServiceException("market state is not available"));
+		long now = System.currentTimeMillis();
 
 		// throw exeption in case of no data available to process
-		Optional.ofNullable(trades).filter(t -> !t.isEmpty()).orElseThrow(() -> new GBCEServiceException(
-				"no data found for symbol=" + symbol + " to perform weight stock price calculation"));
+		BigDecimal price = state.getAggregate(symbol).map(aggregate -> windowVolWeightedPrice(aggregate, now))
+				.orElseThrow(() -> new GBCEServiceException(
+						"no data found for symbol=" + symbol + " to perform weight stock price calculation"));
+		log.info("calculation completed for stock symbol={} at epoch={}", symbol, state.getEpoch());
+		return price;
+	}
 
-		log.info("collected the trades with size={} for symbol={}", trades.size(), symbol);
-		BigDecimal priceSum = BigDecimal.ZERO;
-		BigInteger quantitySum = BigInteger.ZERO;
+	/**
+	 * @return volume weighted price of the trades in the window of the symbol, null once the window expired
+	 */
+	private static BigDecimal windowVolWeightedPrice(SymbolAggregate aggregate, long now) {
+		// window totals are only valid as long as the window did not expire
+		return aggregate.isWindowLive(now) && aggregate.getWindowQuantity() > 0
+				? volWeightedPrice(aggregate.getWindowNotional(), BigDecimal.valueOf(aggregate.getWindowQuantity()))
+				: null;
+	}
 
-		// add all the price and sums for calculating stock price
-		for (Trade t : trades) {
-			priceSum = priceSum.add(t.getTradePrice().multiply(BigDecimal.valueOf(t.getShareQuantity())));
-			quantitySum = quantitySum.add(BigInteger.valueOf(t.getShareQuantity()));
-		}
-		BigDecimal price = priceSum.divide(new BigDecimal(quantitySum), 7, 3).setScale(0, BigDecimal.ROUND_UP);
-		log.info("calculation completed for stock symbol={}");
-		return price;
+	private static BigDecimal volWeightedPrice(BigDecimal priceSum, BigDecimal quantitySum) {
+		return priceSum.divide(quantitySum, 7, 3).setScale(0, BigDecimal.ROUND_UP);
 	}
 
 	/**
-	 * all the buying and selling needs to be recorded for auditing purposes
+	 * all the buying and selling needs to be recorded for auditing purposes. With admission control enabled
+	 * the trade may wait for its symbol's rate limit, or be spilled to a file and get the id -1
 	 *
 	 * @param trade
 	 * @return
-	 * @throws GBCEServiceException
+	 * @throws GBCEServiceException when admission control rejects the trade
 	 */
 	@Override
 	public String recordTrade(Trade trade) throws GBCEServiceException {
 		log.info("recording trade={}", trade);
 		Optional.ofNullable(trade).orElseThrow(() -> new GBCEServiceException("trade cannot be null"));
 
+		if (admissionControl != null && !admissionControl.admit(trade)) {
+			String id = String.valueOf(AdmissionControl.SPILLED);
+			trade.setId(id);
+			log.info("trade over the rate limit spilled for symbol={}", trade.getStockSymbol());
+			return id;
+		}
+
 		// unique id - system generated
 		String id = tradeRepo.recordTrade(trade);
 
@@ -163,7 +213,9 @@ public class CalculationServiceImpl implements CalculationService {
 
 	/**
 	 * Calculate the GBCE All Share Index using the geometric mean of prices for all stocks
-	 * Formula - √p1p2p3 ... pn
+	 * Formula - √p1p2p3 ... pn, calculated as exp((ln p1 + ln p2 + ... + ln pn) / n) from one market state
+	 * so trades recorded meanwhile cannot make it inconsistent. When sharded, every shard contributes the sum
+	 * and count of its own market state
 	 * @return
 	 * @throws GBCEServiceException
 	 */
@@ -171,19 +223,300 @@ public class CalculationServiceImpl implements CalculationService {
 	public BigDecimal calculateGBCEAllShareIndex() throws GBCEServiceException {
 		log.info("calculating shareindex for all the stocks");
 
-		List<Trade> trades = tradeRepo.getTradesForAllStocks();
-		Optional.ofNullable(trades).filter(t -> !t.isEmpty()).orElseThrow(() ->
+		if (shardCoordinator != null) {
+			BigDecimal shareIndex = Optional.ofNullable(gatheredShareIndex()).orElseThrow(() ->
+			new GBCEServiceException("No trades found. Trades cannot be null for calculating share index"));
+			log.info("calculated GBCE share Index= {} from shards={}", shareIndex, shardCoordinator.getConfig().size());
+			return shareIndex;
+		}
+
+		MarketState state = tradeRepo.getMarketState();
+		Optional.ofNullable(state).filter(s -> s.getTradeCount() > 0).orElseThrow(() ->
 		new GBCEServiceException("No trades found. Trades cannot be null for calculating share index"));
 
-		// calculate the share index
-		BigDecimal tradePrice = BigDecimal.ONE;
-		// iterate through all the trades and multiply the prices
-		for (Trade trade : trades) {
-			tradePrice = tradePrice.multiply(trade.getTradePrice());
+		BigDecimal shareIndex = shareIndex(state);
+		log.info("calculated GBCE share Index= {} for epoch={}", shareIndex, state.getEpoch());
+		return shareIndex;
+	}
+
+	private static BigDecimal shareIndex(MarketState state) {
+		return new BigDecimal(Math.exp(state.getLogPriceSum() / state.getTradeCount()))
+				.setScale(2, BigDecimal.ROUND_HALF_UP);
+	}
+
+	/**
+	 * @return index of the trades of every shard, null when there are none
+	 */
+	private BigDecimal gatheredShareIndex() throws GBCEServiceException {
+		IndexPartial partial = shardCoordinator.gatherIndexPartial();
+		if (partial.getTradeCount() == 0) {
+			return null;
 		}
-		BigDecimal shareIndex = new BigDecimal(Math.pow(tradePrice.doubleValue(), 1.0 / trades.size()))
+		return new BigDecimal(Math.exp(partial.getLogPriceSum() / partial.getTradeCount()))
 				.setScale(2, BigDecimal.ROUND_HALF_UP);
-		log.info("calculated GBCE share Index= {} ",shareIndex);
+	}
+
+	/**
+	 * value of a weighted or sector index, e.g. COMMON or PREFERRED, see {@link IndexEngine}.
+	 * Indices are kept up to date with every trade, so this is a lookup whatever the number of indices defined.
+	 * Not available when sharded, every shard only holds the constituents it owns
+	 *
+	 * @param name
+	 * @return
+	 * @throws GBCEServiceException
+	 */
+	@Override
+	public BigDecimal calculateIndex(String name) throws GBCEServiceException {
+		Optional.ofNullable(name).orElseThrow(() -> new GBCEServiceException("index name cannot be null"));
+		IndexEngine engine = indexEngine();
+		double value = engine.getValue(name);
+		if (Double.isNaN(value)) {
+			throw new GBCEServiceException(engine.isDefined(name) ? "no trades found for index=" + name
+					: "no index defined for name=" + name);
+		}
+		BigDecimal index = new BigDecimal(value).setScale(2, BigDecimal.ROUND_HALF_UP);
+		log.debug("calculated index={} value={}", name, index);
+		return index;
+	}
+
+	/**
+	 * define a basket index, an index with the same name is replaced. It starts from the trades recorded so far
+	 *
+	 * @param definition
+	 * @throws GBCEServiceException when a constituent of a geometric index traded at a non-positive price
+	 */
+	@Override
+	public void defineIndex(IndexDefinition definition) throws GBCEServiceException {
+		Optional.ofNullable(definition).orElseThrow(() -> new GBCEServiceException("index definition cannot be null"));
+		try {
+			indexEngine().define(definition);
+		} catch (IllegalArgumentException e) {
+			throw new GBCEServiceException(e.getMessage());
+		}
+		log.info("index defined={}", definition);
+	}
+
+	@Override
+	public boolean removeIndex(String name) throws GBCEServiceException {
+		Optional.ofNullable(name).orElseThrow(() -> new GBCEServiceException("index name cannot be null"));
+		boolean removed = indexEngine().remove(name);
+		log.info("index={} removed={}", name, removed);
+		return removed;
+	}
+
+	/**
+	 * index, volume weighted prices and last prices of all the stocks as of the same instant.
+	 * Everything is calculated from one immutable market state, recording trades is never blocked by it.
+	 * When sharded the quotes only cover the symbols of this shard and the index is gathered from every shard
+	 *
+	 * @return
+	 * @throws GBCEServiceException
+	 */
+	@Override
+	public MarketSnapshot getMarketSnapshot() throws GBCEServiceException {
+		MarketState state = Optional.ofNullable(tradeRepo.getMarketState())
+				.orElseThrow(() -> new GBCEServiceException("market state is not available"));
+		long now = System.currentTimeMillis();
+
+		Map<String, StockQuote> quotes = new LinkedHashMap<>();
+		for (SymbolAggregate aggregate : state.getAggregates()) {
+			quotes.put(aggregate.getSymbol(), new StockQuote(aggregate.getSymbol(), aggregate.getLastPrice(),
+					windowVolWeightedPrice(aggregate, now), aggregate.getTradeCount()));
+		}
+		BigDecimal shareIndex;
+		if (shardCoordinator != null) {
+			shareIndex = gatheredShareIndex();
+		} else {
+			shareIndex = state.getTradeCount() > 0 ? shareIndex(state) : null;
+		}
+		log.info("market snapshot taken for epoch={} with symbols={}", state.getEpoch(), quotes.size());
+		return new MarketSnapshot(state.getEpoch(), now, shareIndex, Collections.unmodifiableMap(quotes));
+	}
+
+	/**
+	 * Approximate trade price percentile of a stock over the analytics window, e.g. 99 for the 99th percentile.
+	 * Calculated from quantile sketches, the result is within the configured relative accuracy (1% by default)
+	 * of the exact percentile
+	 *
+	 * @param symbol
+	 * @param percentile between 0 and 100
+	 * @return
+	 * @throws GBCEServiceException
+	 */
+	@Override
+	public BigDecimal calculatePricePercentile(String symbol, double percentile) throws GBCEServiceException {
+		log.info("calculating price percentile={} for symbol={}", percentile, symbol);
+
+		Optional.ofNullable(symbol).orElseThrow(() -> new GBCEServiceException("symbol cannot be null"));
+		if (percentile < 0 || percentile > 100) {
+			throw new GBCEServiceException("percentile must be between 0 and 100, was " + percentile);
+		}
+
+		QuantileSketch sketch = analytics().getPriceSketch(symbol, System.currentTimeMillis());
+		Optional.of(sketch).filter(s -> !s.isEmpty()).orElseThrow(() -> new GBCEServiceException(
+				"no data found for symbol=" + symbol + " to perform percentile calculation"));
+
+		BigDecimal price = BigDecimal.valueOf(sketch.quantile(percentile / 100)).setScale(2, BigDecimal.ROUND_HALF_UP);
+		log.info("calculated price percentile={} for symbol={} is {} from trades={}", percentile, symbol, price,
+				sketch.getCount());
+		return price;
+	}
+
+	/**
+	 * Most traded stocks by volume over the analytics window, highest first.
+	 * Volumes are count-min estimates, never below the real volume and at most 0.13% (by default) of the total
+	 * traded volume above it
+	 *
+	 * @param count
+	 * @return
+	 * @throws GBCEServiceException
+	 */
+	@Override
+	public List<VolumeEstimate> getTopTradedStocks(int count) throws GBCEServiceException {
+		log.info("getting top={} traded stocks", count);
+		if (count <= 0) {
+			throw new GBCEServiceException("count must be positive, was " + count);
+		}
+		return analytics().getTopSymbolsByVolume(count, System.currentTimeMillis());
+	}
+
+	/**
+	 * Volume Weighted Stock Price of the trades whose own timestamp falls into [from, to), whatever order they
+	 * were recorded in. Trades still waiting in the reorder buffer are not included yet
+	 * Formula - ∑i Trade Pricei × Quantityi/ ∑i Quantityi
+	 *
+	 * @param symbol
+	 * @param from
+	 * @param to
+	 * @return
+	 * @throws GBCEServiceException
+	 */
+	@Override
+	public BigDecimal calculateEventTimeVolWeightedStockPrice(String symbol, LocalDateTime from, LocalDateTime to)
+			throws GBCEServiceException {
+		log.info("calculating event time volume weighted stock price for symbol={} from={} to={}", symbol, from, to);
+
+		Optional.ofNullable(symbol).orElseThrow(() -> new GBCEServiceException("symbol cannot be null"));
+		Optional.ofNullable(from).orElseThrow(() -> new GBCEServiceException("from cannot be null"));
+		Optional.ofNullable(to).orElseThrow(() -> new GBCEServiceException("to cannot be null"));
+
+		// sealing runs on the EventTimeTicker, a read never changes the window
+		List<TradeBucket> buckets = eventTimeWindow().getBuckets(symbol, EventTimeWindow.toMillis(from),
+				EventTimeWindow.toMillis(to));
+
+		BigDecimal priceSum = BigDecimal.ZERO;
+		long quantitySum = 0;
+		for (TradeBucket bucket : buckets) {
+			priceSum = priceSum.add(bucket.getNotional());
+			quantitySum += bucket.getQuantity();
+		}
+		if (quantitySum == 0) {
+			throw new GBCEServiceException("no data found for symbol=" + symbol + " between " + from + " and " + to);
+		}
+		BigDecimal price = volWeightedPrice(priceSum, BigDecimal.valueOf(quantitySum));
+		log.info("calculated event time volume weighted price={} for symbol={} from buckets={}", price, symbol,
+				buckets.size());
+		return price;
+	}
+
+	/**
+	 * counters of the event time window, how many trades arrived late or were dropped
+	 *
+	 * @return
+	 * @throws GBCEServiceException
+	 */
+	@Override
+	public WindowStatistics getEventTimeStatistics() throws GBCEServiceException {
+		return eventTimeWindow().getStatistics();
+	}
+
+	/**
+	 * Volume Weighted Stock Price over the whole trade history in [from, to), compacted or not.
+	 * The range is resolved to the buckets starting in it, the result is the same as from the raw trades
+	 * Formula - ∑i Trade Pricei × Quantityi/ ∑i Quantityi
+	 *
+	 * @param symbol
+	 * @param from
+	 * @param to
+	 * @return
+	 * @throws GBCEServiceException
+	 */
+	@Override
+	public BigDecimal calculateHistoricalVolWeightedStockPrice(String symbol, LocalDateTime from, LocalDateTime to)
+			throws GBCEServiceException {
+		log.info("calculating historical volume weighted stock price for symbol={} from={} to={}", symbol, from, to);
+
+		Optional.ofNullable(symbol).orElseThrow(() -> new GBCEServiceException("symbol cannot be null"));
+		List<TradeBucket> buckets = historicalBuckets(symbol, from, to);
+
+		BigDecimal priceSum = BigDecimal.ZERO;
+		long quantitySum = 0;
+		for (TradeBucket bucket : buckets) {
+			priceSum = priceSum.add(bucket.getNotional());
+			quantitySum += bucket.getQuantity();
+		}
+		if (quantitySum == 0) {
+			throw new GBCEServiceException("no data found for symbol=" + symbol + " between " + from + " and " + to);
+		}
+		BigDecimal price = volWeightedPrice(priceSum, BigDecimal.valueOf(quantitySum));
+		log.info("calculated historical volume weighted price={} for symbol={} from buckets={}", price, symbol,
+				buckets.size());
+		return price;
+	}
+
+	/**
+	 * GBCE All Share Index over the whole trade history in [from, to), compacted or not.
+	 * Formula - n√(p1 × p2 × ... × pn), from the Σ ln(price) of every bucket
+	 *
+	 * @param from
+	 * @param to
+	 * @return
+	 * @throws GBCEServiceException
+	 */
+	@Override
+	public BigDecimal calculateHistoricalGBCEAllShareIndex(LocalDateTime from, LocalDateTime to)
+			throws GBCEServiceException {
+		log.info("calculating historical GBCE share index from={} to={}", from, to);
+
+		List<TradeBucket> buckets = historicalBuckets(null, from, to);
+		double logPriceSum = 0;
+		long tradeCount = 0;
+		for (TradeBucket bucket : buckets) {
+			logPriceSum += bucket.getLogPriceSum();
+			tradeCount += bucket.getTradeCount();
+		}
+		if (tradeCount == 0) {
+			throw new GBCEServiceException("no data found between " + from + " and " + to);
+		}
+		BigDecimal shareIndex = new BigDecimal(Math.exp(logPriceSum / tradeCount))
+				.setScale(2, BigDecimal.ROUND_HALF_UP);
+		log.info("calculated historical GBCE share Index= {} from buckets={}", shareIndex, buckets.size());
 		return shareIndex;
 	}
+
+	private List<TradeBucket> historicalBuckets(String symbol, LocalDateTime from, LocalDateTime to)
+			throws GBCEServiceException {
+		Optional.ofNullable(from).orElseThrow(() -> new GBCEServiceException("from cannot be null"));
+		Optional.ofNullable(to).orElseThrow(() -> new GBCEServiceException("to cannot be null"));
+		return tradeRepo.getTradeBuckets(symbol, EventTimeWindow.toMillis(from), EventTimeWindow.toMillis(to));
+	}
+
+	private EventTimeWindow eventTimeWindow() throws GBCEServiceException {
+		return Optional.ofNullable(tradeRepo.getEventTimeWindow())
+				.orElseThrow(() -> new GBCEServiceException("event time window is not available"));
+	}
+
+	private IndexEngine indexEngine() throws GBCEServiceException {
+		if (shardCoordinator != null) {
+			throw new GBCEServiceException("weighted and sector indices are not gathered across shards,"
+					+ " only the GBCE all share index is");
+		}
+		return Optional.ofNullable(tradeRepo.getIndexEngine())
+				.orElseThrow(() -> new GBCEServiceException("index engine is not available"));
+	}
+
+	private TradeAnalytics analytics() throws GBCEServiceException {
+		return Optional.ofNullable(tradeRepo.getTradeAnalytics())
+				.orElseThrow(() -> new GBCEServiceException("trade analytics are not available"));
+	}
 }
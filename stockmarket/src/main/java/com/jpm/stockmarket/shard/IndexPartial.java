@@ -0,0 +1,30 @@
+package com.jpm.stockmarket.shard;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * the part of the GBCE all share index one shard contributes, Σ ln(price) and the number of its trades.
+ * Partials of all the shards add up to the figures of the whole market
+ */
+@ToString
+public class IndexPartial {
+
+    @Getter @Setter
+    private double logPriceSum;
+    @Getter @Setter
+    private long tradeCount;
+
+    public IndexPartial(double logPriceSum, long tradeCount) {
+        this.logPriceSum = logPriceSum;
+        this.tradeCount = tradeCount;
+    }
+
+    public IndexPartial() {
+    }
+
+    public IndexPartial add(IndexPartial other) {
+        return new IndexPartial(logPriceSum + other.logPriceSum, tradeCount + other.tradeCount);
+    }
+}
@@ -0,0 +1,40 @@
+package com.jpm.stockmarket.shard;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * where a shard listens, the trade gateway for forwarded trades and http for the scatter-gather queries
+ */
+@ToString
+public final class ShardAddress {
+
+    @Getter
+    private final int index;
+    @Getter
+    private final String host;
+    @Getter
+    private final int tradePort;
+    @Getter
+    private final int httpPort;
+
+    public ShardAddress(int index, String host, int tradePort, int httpPort) {
+        this.index = index;
+        this.host = host;
+        this.tradePort = tradePort;
+        this.httpPort = httpPort;
+    }
+
+    /**
+     * @param index
+     * @param address host:trade port:http port
+     * @return
+     */
+    static ShardAddress parse(int index, String address) {
+        String[] parts = address.trim().split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("shard." + index + " is not host:tradePort:httpPort=" + address);
+        }
+        return new ShardAddress(index, parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+    }
+}
@@ -0,0 +1,262 @@
+package com.jpm.stockmarket.shard;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.gateway.BinaryTradeClient;
+import com.jpm.stockmarket.gateway.BinaryTradeProtocol;
+import com.jpm.stockmarket.model.TradeView;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * connection of this instance to another shard. Trades are forwarded over the binary trade feed of its gateway,
+ * pipelined until the caller waits for their acks, and the index partial is queried over http. The feed
+ * connection is opened on the first trade and again after it broke, the sequences keep increasing across
+ * connections so a wait for trades sent on a broken one fails instead of matching the acks of the next
+ */
+@Slf4j
+class ShardClient implements Closeable {
+
+    @Getter
+    private final ShardAddress address;
+    private final RestTemplate restTemplate;
+    private final int bufferSize;
+
+    // guarded by this
+    private BinaryTradeClient feed;
+    // trades of the feed connection waiting for their reply
+    private PendingReplies pending;
+    private long lastSequence;
+    @Getter
+    private long forwarded;
+    // rejections of connections already replaced
+    private long rejectedBefore;
+
+    ShardClient(ShardAddress address, RestTemplate restTemplate, int bufferSize) {
+        this.address = address;
+        this.restTemplate = restTemplate;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * send the trade to the shard, the view is not kept
+     *
+     * @param trade must have an indicator and a price, the fields of a trade frame
+     * @param flush false to leave the trade buffered, e.g. while forwarding a batch
+     * @return sequence of the trade on the feed connection
+     * @throws GBCEServiceException when the shard cannot be reached
+     */
+    synchronized long forward(TradeView trade, boolean flush) throws GBCEServiceException {
+        if (trade.getIndicator() == null || !trade.isPriced()) {
+            throw new GBCEServiceException("trade for symbol=" + trade.getSymbol()
+                    + " needs an indicator and a price to be forwarded to shard=" + address.getIndex());
+        }
+        try {
+            BinaryTradeClient client = connect();
+            // the feed carries epoch milliseconds, trades without timestamp stay without one on the owner
+            long timestamp = trade.hasTimestamp() ? trade.getTimestampMillis() : BinaryTradeProtocol.NO_TIMESTAMP;
+            lastSequence = client.send(trade.getSymbol(), timestamp, trade.getQuantity(), trade.getIndicator(),
+                    trade.getPriceUnscaled(), trade.getPriceScale());
+            if (flush) {
+                client.flush();
+            }
+            forwarded++;
+            return lastSequence;
+        } catch (IOException e) {
+            disconnect();
+            throw new GBCEServiceException(e);
+        }
+    }
+
+    /**
+     * send the trade to the shard without waiting for it, the view is not kept
+     *
+     * @param trade must have an indicator and a price, the fields of a trade frame
+     * @return completed once the shard recorded the trade, or failed once it rejected it or the connection broke
+     * @throws GBCEServiceException when the shard cannot be reached
+     */
+    synchronized CompletableFuture<Void> submit(TradeView trade) throws GBCEServiceException {
+        long sequence = forward(trade, false);
+        CompletableFuture<Void> recorded = new CompletableFuture<>();
+        // registered before the trade is written, its reply cannot come earlier
+        PendingReplies replies = pending;
+        replies.futures.put(sequence, recorded);
+        flush();
+        if (feed == null || feed.isClosed()) {
+            // the connection broke, maybe after its pending trades were failed
+            replies.futures.remove(sequence);
+            recorded.completeExceptionally(replies.broken(sequence));
+        }
+        return recorded;
+    }
+
+    synchronized void flush() throws GBCEServiceException {
+        if (feed == null) {
+            return;
+        }
+        try {
+            feed.flush();
+        } catch (IOException e) {
+            disconnect();
+            throw new GBCEServiceException(e);
+        }
+    }
+
+    /**
+     * wait until the shard acknowledged every trade forwarded so far
+     *
+     * @return false if the timeout elapsed or the connection broke first
+     */
+    boolean awaitForwarded(long timeout, TimeUnit unit) throws InterruptedException {
+        BinaryTradeClient client;
+        long sequence;
+        synchronized (this) {
+            client = feed;
+            sequence = lastSequence;
+        }
+        return client == null || client.awaitAck(sequence, timeout, unit);
+    }
+
+    /**
+     * wait until the shard recorded the trades forwarded with the sequences from..to, which must have been
+     * flushed
+     *
+     * @throws GBCEServiceException when the shard rejected any of them, did not ack them within the timeout or
+     *                              the connection they were sent on broke
+     */
+    void awaitRecorded(long from, long to, long timeoutMillis) throws GBCEServiceException {
+        BinaryTradeClient client;
+        synchronized (this) {
+            client = feed;
+        }
+        if (client == null || client.getFirstSequence() > from) {
+            throw new GBCEServiceException("connection to shard=" + address.getIndex()
+                    + " broke before trades up to sequence=" + to + " were acked");
+        }
+        int rejected;
+        try {
+            rejected = client.awaitRecorded(from, to, timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GBCEServiceException(e);
+        }
+        if (rejected < 0) {
+            throw new GBCEServiceException("shard=" + address.getIndex() + " did not ack trades up to sequence="
+                    + to + " within millis=" + timeoutMillis);
+        }
+        if (rejected > 0) {
+            throw new GBCEServiceException("shard=" + address.getIndex() + " rejected trades=" + rejected
+                    + " of sequences " + from + ".." + to);
+        }
+    }
+
+    /**
+     * @return trades the shard rejected after they were forwarded
+     */
+    synchronized long getRejected() {
+        return rejectedBefore + (feed == null ? 0 : feed.getRejected());
+    }
+
+    /**
+     * @return the index partial of the shard as of now
+     * @throws GBCEServiceException when the shard does not answer
+     */
+    IndexPartial fetchIndexPartial() throws GBCEServiceException {
+        String url = "http://" + address.getHost() + ":" + address.getHttpPort() + "/shard/index-partial";
+        try {
+            IndexPartial partial = restTemplate.getForObject(url, IndexPartial.class);
+            if (partial == null) {
+                throw new GBCEServiceException("no index partial from shard=" + address.getIndex());
+            }
+            return partial;
+        } catch (RestClientException e) {
+            throw new GBCEServiceException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        disconnect();
+    }
+
+    private BinaryTradeClient connect() throws IOException {
+        if (feed != null && feed.isClosed()) {
+            log.warn("feed connection to shard={} broke, reconnecting", address);
+            disconnect();
+        }
+        if (feed == null) {
+            pending = new PendingReplies();
+            feed = new BinaryTradeClient(address.getHost(), address.getTradePort(), bufferSize, lastSequence + 1,
+                    pending);
+            log.info("forwarding trades to shard={}", address);
+        }
+        return feed;
+    }
+
+    private void disconnect() {
+        if (feed == null) {
+            return;
+        }
+        rejectedBefore += feed.getRejected();
+        try {
+            feed.close();
+        } catch (IOException e) {
+            log.debug("closing feed connection to shard={} failed", address, e);
+        }
+        feed = null;
+        pending = null;
+    }
+
+    /**
+     * the submitted trades of one feed connection by sequence, completed as the replies of the shard come in
+     */
+    private final class PendingReplies implements BinaryTradeClient.ReplyListener {
+
+        private final ConcurrentNavigableMap<Long, CompletableFuture<Void>> futures = new ConcurrentSkipListMap<>();
+
+        @Override
+        public void onAck(long sequence) {
+            // the rejected ones are gone already, a reject comes before the ack covering it
+            for (Iterator<CompletableFuture<Void>> acked = futures.headMap(sequence, true).values().iterator();
+                 acked.hasNext(); ) {
+                CompletableFuture<Void> recorded = acked.next();
+                acked.remove();
+                recorded.complete(null);
+            }
+        }
+
+        @Override
+        public void onReject(long sequence) {
+            CompletableFuture<Void> rejected = futures.remove(sequence);
+            if (rejected != null) {
+                rejected.completeExceptionally(new GBCEServiceException("shard=" + address.getIndex()
+                        + " rejected the trade with sequence=" + sequence));
+            }
+        }
+
+        @Override
+        public void onClosed() {
+            for (Map.Entry<Long, CompletableFuture<Void>> entry = futures.pollFirstEntry(); entry != null;
+                 entry = futures.pollFirstEntry()) {
+                entry.getValue().completeExceptionally(broken(entry.getKey()));
+            }
+        }
+
+        private GBCEServiceException broken(long sequence) {
+            return new GBCEServiceException("connection to shard=" + address.getIndex()
+                    + " broke before the trade with sequence=" + sequence + " was acked");
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.jpm.stockmarket.shard;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import lombok.Getter;
+
+/**
+ * static shard membership, read from a properties file shared by all the instances, e.g.
+ * <pre>
+ * # shard.index = host:trade gateway port:http port
+ * shard.0=localhost:7071:8081
+ * shard.1=localhost:7072:8082
+ * </pre>
+ * The hash space of the symbols is split into as many equal ranges as there are shards, in index order, so
+ * every instance agrees on the owner of a symbol without talking to the others
+ */
+public final class ShardConfig {
+
+    @Getter
+    private final List<ShardAddress> shards;
+    // index of this instance
+    @Getter
+    private final int self;
+
+    public ShardConfig(List<ShardAddress> shards, int self) {
+        if (shards.isEmpty() || self < 0 || self >= shards.size()) {
+            throw new IllegalArgumentException("shard self=" + self + " is not one of shards=" + shards.size());
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.self = self;
+    }
+
+    /**
+     * @param file properties with one shard.N entry per shard, numbered from 0 without gaps
+     * @param self index of this instance
+     * @return
+     * @throws IOException
+     */
+    public static ShardConfig load(Path file, int self) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        List<ShardAddress> shards = new ArrayList<>();
+        for (int i = 0; properties.containsKey("shard." + i); i++) {
+            shards.add(ShardAddress.parse(i, properties.getProperty("shard." + i)));
+        }
+        return new ShardConfig(shards, self);
+    }
+
+    /**
+     * @param symbol
+     * @return index of the shard owning the symbol
+     */
+    public int ownerOf(String symbol) {
+        // spread the hash first, short symbols only differ in the low bits of String.hashCode
+        int hash = symbol.hashCode() * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        return (int) (((hash & 0xFFFFFFFFL) * shards.size()) >>> 32);
+    }
+
+    public boolean isLocal(String symbol) {
+        return ownerOf(symbol) == self;
+    }
+
+    public int size() {
+        return shards.size();
+    }
+}
@@ -0,0 +1,228 @@
+package com.jpm.stockmarket.shard;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.model.MarketState;
+import com.jpm.stockmarket.model.TradeView;
+import com.jpm.stockmarket.repository.impl.TradeRepositoryImpl;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * runs this instance as one shard of several, see {@link ShardConfig}. It forwards the trades of symbols owned
+ * by other shards to their trade gateway and calculates market wide figures by scatter-gather: every shard
+ * returns its {@link IndexPartial}, computed from its own market state, and the partials are added up.
+ * Every instance needs the trade gateway enabled on the port given for it in the config file.
+ * Enabled with shard.enabled=true
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "shard.enabled", havingValue = "true")
+public class ShardCoordinator {
+
+    private final TradeRepositoryImpl localRepo;
+    @Getter
+    private final ShardConfig config;
+    // null for this instance
+    private final ShardClient[] clients;
+    private final long timeoutMillis;
+    private final ExecutorService scatterExecutor;
+
+    @Autowired
+    public ShardCoordinator(TradeRepositoryImpl localRepo,
+                            @Value("${shard.config.file:shards.properties}") String configFile,
+                            @Value("${shard.self:0}") int self,
+                            @Value("${shard.request.timeout.millis:2000}") int timeoutMillis,
+                            @Value("${gateway.tcp.buffer.bytes:65536}") int bufferSize) throws IOException {
+        this(localRepo, ShardConfig.load(Paths.get(configFile), self), timeoutMillis, bufferSize);
+    }
+
+    public ShardCoordinator(TradeRepositoryImpl localRepo, ShardConfig config, int timeoutMillis, int bufferSize) {
+        this.localRepo = localRepo;
+        this.config = config;
+        this.timeoutMillis = timeoutMillis;
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(timeoutMillis);
+        requestFactory.setReadTimeout(timeoutMillis);
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+        this.clients = new ShardClient[config.size()];
+        for (ShardAddress address : config.getShards()) {
+            if (address.getIndex() != config.getSelf()) {
+                clients[address.getIndex()] = new ShardClient(address, restTemplate, bufferSize);
+            }
+        }
+        this.scatterExecutor = Executors.newFixedThreadPool(Math.max(1, config.size() - 1), r -> {
+            Thread thread = new Thread(r, "shard-scatter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("running as shard={} of shards={}", config.getSelf(), config.getShards());
+    }
+
+    public boolean isLocal(String symbol) {
+        return config.isLocal(symbol);
+    }
+
+    /**
+     * send the trade to the shard owning its symbol
+     *
+     * @param trade
+     * @param flush false to leave the trade buffered until {@link #flush()}
+     * @return sequence of the trade on the connection to the owner
+     * @throws GBCEServiceException when the owner cannot be reached or the trade cannot be sent
+     */
+    public long forward(TradeView trade, boolean flush) throws GBCEServiceException {
+        return client(config.ownerOf(trade.getSymbol())).forward(trade, flush);
+    }
+
+    /**
+     * send the trade to the shard owning its symbol without waiting for it
+     *
+     * @param trade
+     * @return completed once the owner recorded the trade, failed once it rejected it or the connection broke
+     * @throws GBCEServiceException when the owner cannot be reached or the trade cannot be sent
+     */
+    public CompletableFuture<Void> submit(TradeView trade) throws GBCEServiceException {
+        return client(config.ownerOf(trade.getSymbol())).submit(trade);
+    }
+
+    /**
+     * write out the trades buffered for every shard
+     *
+     * @throws GBCEServiceException
+     */
+    public void flush() throws GBCEServiceException {
+        for (ShardClient client : clients) {
+            if (client != null) {
+                client.flush();
+            }
+        }
+    }
+
+    /**
+     * wait until the shard recorded the trades forwarded to it with the sequences from..to, at most for the
+     * shard request timeout
+     *
+     * @throws GBCEServiceException when the shard rejected any of them or did not ack them in time
+     */
+    public void awaitRecorded(int shard, long from, long to) throws GBCEServiceException {
+        client(shard).awaitRecorded(from, to, timeoutMillis);
+    }
+
+    public int ownerOf(String symbol) {
+        return config.ownerOf(symbol);
+    }
+
+    /**
+     * wait until every shard acknowledged the trades forwarded to it so far
+     *
+     * @return false if the timeout elapsed first
+     */
+    public boolean awaitForwarded(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ShardClient client : clients) {
+            if (client != null && !client.awaitForwarded(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getForwarded() {
+        long forwarded = 0;
+        for (ShardClient client : clients) {
+            forwarded += client == null ? 0 : client.getForwarded();
+        }
+        return forwarded;
+    }
+
+    public long getRejected() {
+        long rejected = 0;
+        for (ShardClient client : clients) {
+            rejected += client == null ? 0 : client.getRejected();
+        }
+        return rejected;
+    }
+
+    /**
+     * @return partial of the trades this instance recorded itself
+     */
+    public IndexPartial localIndexPartial() {
+        MarketState state = localRepo.getMarketState();
+        return new IndexPartial(state.getLogPriceSum(), state.getTradeCount());
+    }
+
+    /**
+     * ask every shard for its partial at the same time and add them up. Each shard answers from its own latest
+     * market state, so trades still on their way to a shard may be missing
+     *
+     * @return partial of the whole market
+     * @throws GBCEServiceException when a shard does not answer within the timeout, the index would be wrong
+     */
+    public IndexPartial gatherIndexPartial() throws GBCEServiceException {
+        List<CompletableFuture<IndexPartial>> scattered = new ArrayList<>();
+        for (ShardClient client : clients) {
+            if (client != null) {
+                scattered.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return client.fetchIndexPartial();
+                    } catch (GBCEServiceException e) {
+                        throw new IllegalStateException("shard=" + client.getAddress().getIndex()
+                                + " did not return its index partial", e);
+                    }
+                }, scatterExecutor));
+            }
+        }
+        IndexPartial total = localIndexPartial();
+        for (CompletableFuture<IndexPartial> partial : scattered) {
+            try {
+                total = total.add(partial.get(timeoutMillis, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GBCEServiceException(e);
+            } catch (ExecutionException | TimeoutException e) {
+                throw new GBCEServiceException(e);
+            }
+        }
+        log.debug("gathered index partial={} from shards={}", total, config.size());
+        return total;
+    }
+
+    @PreDestroy
+    public void stop() {
+        scatterExecutor.shutdownNow();
+        for (ShardClient client : clients) {
+            if (client != null) {
+                client.close();
+            }
+        }
+    }
+
+    private ShardClient client(int shard) throws GBCEServiceException {
+        ShardClient client = clients[shard];
+        if (client == null) {
+            throw new GBCEServiceException("shard=" + shard + " is this instance, nothing to forward");
+        }
+        return client;
+    }
+}
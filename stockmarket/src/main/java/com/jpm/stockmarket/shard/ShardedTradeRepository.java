@@ -0,0 +1,265 @@
+package com.jpm.stockmarket.shard;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+import com.jpm.stockmarket.analytics.TradeAnalytics;
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.index.IndexEngine;
+import com.jpm.stockmarket.model.MarketState;
+import com.jpm.stockmarket.model.Trade;
+import com.jpm.stockmarket.model.TradeBucket;
+import com.jpm.stockmarket.model.TradeView;
+import com.jpm.stockmarket.repository.TradeCursor;
+import com.jpm.stockmarket.repository.TradeListener;
+import com.jpm.stockmarket.repository.TradeRepository;
+import com.jpm.stockmarket.repository.impl.TradeRepositoryImpl;
+import com.jpm.stockmarket.window.EventTimeWindow;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * the trade repository every component uses in sharded mode. Trades of symbols this shard owns are recorded in
+ * the local repository, all others are forwarded to their owner, whatever way they came in: the service, the
+ * trade gateway or the bulk loader. Forwarded trades get their id on the owning shard; here they are identified
+ * by the owner and the sequence they were forwarded with. A recorded, ingested or batch-recorded trade only
+ * returns once its owner acked it, a rejection on the owner fails the call; the gateway submits trades instead
+ * and acks a forwarded one once its owner did. Queries are answered from the local repository, so they only
+ * cover the symbols of this shard. The GBCE all share index is gathered by the {@link ShardCoordinator}, the
+ * weighted and sector indices are not available
+ */
+@Slf4j
+@Primary
+@Repository
+@ConditionalOnProperty(name = "shard.enabled", havingValue = "true")
+public class ShardedTradeRepository implements TradeRepository {
+
+    // id of a trade forwarded to another shard, recorded there with an id of its own
+    public static final long FORWARDED_ID = 0;
+
+    private final TradeRepositoryImpl local;
+    private final ShardCoordinator coordinator;
+
+    @Autowired
+    public ShardedTradeRepository(TradeRepositoryImpl local, ShardCoordinator coordinator) {
+        this.local = local;
+        this.coordinator = coordinator;
+    }
+
+    @Override
+    public String recordTrade(Trade trade) throws GBCEServiceException {
+        if (trade.getStockSymbol() == null || coordinator.isLocal(trade.getStockSymbol())) {
+            return local.recordTrade(trade);
+        }
+        long sequence = coordinator.forward(new TradeView().set(trade), true);
+        coordinator.awaitRecorded(coordinator.ownerOf(trade.getStockSymbol()), sequence, sequence);
+        String id = forwardedId(trade.getStockSymbol(), sequence);
+        trade.setId(id);
+        log.debug("trade for symbol={} forwarded as id={}", trade.getStockSymbol(), id);
+        return id;
+    }
+
+    /**
+     * a forwarded trade only returns once its owner recorded it, a rejection on the owner fails the call
+     *
+     * @return id of a local trade, {@link #FORWARDED_ID} for a forwarded one
+     */
+    @Override
+    public long ingestTrade(TradeView trade) throws GBCEServiceException {
+        if (trade.getSymbol() == null || coordinator.isLocal(trade.getSymbol())) {
+            return local.ingestTrade(trade);
+        }
+        long sequence = coordinator.forward(trade, true);
+        coordinator.awaitRecorded(coordinator.ownerOf(trade.getSymbol()), sequence, sequence);
+        trade.setId(FORWARDED_ID);
+        return FORWARDED_ID;
+    }
+
+    /**
+     * the feed path, forwarded trades are pipelined without waiting for the owner. The trade gateway holds back
+     * the ack of a forwarded trade until the future completes, so its ack still means recorded, while its thread
+     * carries on with the next trades instead of waiting a round trip per trade
+     *
+     * @return completed for a local trade, otherwise completed once the owner recorded the trade or failed once
+     * it rejected it
+     */
+    @Override
+    public CompletableFuture<Void> submitTrade(TradeView trade) throws GBCEServiceException {
+        if (trade.getSymbol() == null || coordinator.isLocal(trade.getSymbol())) {
+            return local.submitTrade(trade);
+        }
+        CompletableFuture<Void> recorded = coordinator.submit(trade);
+        trade.setId(FORWARDED_ID);
+        return recorded;
+    }
+
+    /**
+     * see {@link #ingestTrades(List)}
+     *
+     * @throws GBCEServiceException when an owner rejected a trade of the batch or did not ack it in time
+     */
+    @Override
+    public List<String> recordTrades(List<Trade> trades) throws GBCEServiceException {
+        List<TradeView> views = new ArrayList<>(trades.size());
+        for (Trade trade : trades) {
+            views.add(new TradeView().set(trade));
+        }
+        record(views);
+        List<String> ids = new ArrayList<>(trades.size());
+        for (int i = 0; i < trades.size(); i++) {
+            TradeView view = views.get(i);
+            String id = isLocal(view) ? String.valueOf(view.getId()) : forwardedId(view.getSymbol(), view.getId());
+            trades.get(i).setId(id);
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * the local trades are recorded as one batch, the others are forwarded and written out once at the end.
+     * Then the acks of every owner are awaited, the local trades stay recorded when an owner rejected some
+     *
+     * @param trades the id of a forwarded trade is set to {@link #FORWARDED_ID}
+     * @throws GBCEServiceException when an owner rejected a trade of the batch or did not ack it in time
+     */
+    @Override
+    public void ingestTrades(List<TradeView> trades) throws GBCEServiceException {
+        record(trades);
+        for (TradeView trade : trades) {
+            if (!isLocal(trade)) {
+                trade.setId(FORWARDED_ID);
+            }
+        }
+    }
+
+    /**
+     * @param trades the id of a forwarded trade is set to the sequence it was forwarded with
+     */
+    private void record(List<TradeView> trades) throws GBCEServiceException {
+        List<TradeView> localTrades = new ArrayList<>();
+        // first and last sequence forwarded to every shard, 0 for none
+        long[] firstSequences = new long[coordinator.getConfig().size()];
+        long[] lastSequences = new long[firstSequences.length];
+        for (TradeView trade : trades) {
+            if (isLocal(trade)) {
+                localTrades.add(trade);
+            } else {
+                int owner = coordinator.ownerOf(trade.getSymbol());
+                long sequence = coordinator.forward(trade, false);
+                if (firstSequences[owner] == 0) {
+                    firstSequences[owner] = sequence;
+                }
+                lastSequences[owner] = sequence;
+                trade.setId(sequence);
+            }
+        }
+        coordinator.flush();
+        local.ingestTrades(localTrades);
+        for (int shard = 0; shard < firstSequences.length; shard++) {
+            if (firstSequences[shard] != 0) {
+                coordinator.awaitRecorded(shard, firstSequences[shard], lastSequences[shard]);
+            }
+        }
+    }
+
+    private boolean isLocal(TradeView trade) {
+        return trade.getSymbol() == null || coordinator.isLocal(trade.getSymbol());
+    }
+
+    private String forwardedId(String symbol, long sequence) {
+        return "shard" + coordinator.ownerOf(symbol) + "-" + sequence;
+    }
+
+    @Override
+    public List<Trade> getTrades(String stockSymbol) {
+        return local.getTrades(stockSymbol);
+    }
+
+    @Override
+    public List<Trade> getLatestTrades(String symbol) throws GBCEServiceException {
+        return local.getLatestTrades(symbol);
+    }
+
+    @Override
+    public List<Trade> getTradesForAllStocks() {
+        return local.getTradesForAllStocks();
+    }
+
+    @Override
+    public TradeCursor openTrades(String symbol) {
+        return local.openTrades(symbol);
+    }
+
+    /**
+     * @return market state of the symbols of this shard only, the market wide index is gathered by the
+     * {@link ShardCoordinator}
+     */
+    @Override
+    public MarketState getMarketState() {
+        return local.getMarketState();
+    }
+
+    @Override
+    public int compactTrades(long cutoffMillis) {
+        return local.compactTrades(cutoffMillis);
+    }
+
+    @Override
+    public List<TradeBucket> getTradeBuckets(String symbol, long fromMillis, long toMillis) {
+        return local.getTradeBuckets(symbol, fromMillis, toMillis);
+    }
+
+    @Override
+    public TradeAnalytics getTradeAnalytics() {
+        return local.getTradeAnalytics();
+    }
+
+    @Override
+    public EventTimeWindow getEventTimeWindow() {
+        return local.getEventTimeWindow();
+    }
+
+    /**
+     * @return null, the weighted and sector indices of this shard would only cover the constituents it owns
+     */
+    @Override
+    public IndexEngine getIndexEngine() {
+        return null;
+    }
+
+    @Override
+    public long getWindowMillis() {
+        return local.getWindowMillis();
+    }
+
+    @Override
+    public void setWindowMillis(long windowMillis) {
+        local.setWindowMillis(windowMillis);
+    }
+
+    @Override
+    public long getCompactionBucketMillis() {
+        return local.getCompactionBucketMillis();
+    }
+
+    @Override
+    public void setCompactionBucketMillis(long bucketMillis) {
+        local.setCompactionBucketMillis(bucketMillis);
+    }
+
+    @Override
+    public void addTradeListener(TradeListener listener) {
+        local.addTradeListener(listener);
+    }
+
+    @Override
+    public void removeTradeListener(TradeListener listener) {
+        local.removeTradeListener(listener);
+    }
+}
@@ -0,0 +1,168 @@
+package com.jpm.stockmarket.stream;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * one client of the market data stream. Pending updates are kept per key (symbol or index) and a newer update
+ * replaces the one not yet delivered, so a slow consumer holds at most one update per subscribed key instead
+ * of an unbounded queue.
+ * At most one drain task per subscription is scheduled on the delivery executor at any time. A send that does
+ * not return, e.g. a client that stopped reading, is found by {@link #stall(long, long)}; the sink is only closed
+ * once that send returned, the delivery thread being the only one that may touch it meanwhile.
+ */
+@Slf4j
+public class ConflatingSubscription {
+
+    private static final long IDLE = 0;
+    private static final long STALLED = -2;
+
+    @Getter
+    private final String id;
+    @Getter
+    private final Set<String> keys;
+    private final MarketDataSink sink;
+    private final Executor deliveryExecutor;
+
+    private final Map<String, String> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicBoolean sinkClosed = new AtomicBoolean();
+    // System.nanoTime() the send in progress started at, IDLE when none is and STALLED once it was given up on
+    private final AtomicLong sendingSince = new AtomicLong(IDLE);
+
+    @Getter
+    private final AtomicLong delivered = new AtomicLong();
+    @Getter
+    private final AtomicLong conflated = new AtomicLong();
+
+    // invoked once when the sink fails, so the publisher can drop the subscription
+    private final Consumer<ConflatingSubscription> onFailure;
+    // invoked once a stalled send returned, its delivery thread is free again
+    private final Consumer<ConflatingSubscription> onStallEnded;
+
+    ConflatingSubscription(String id, Set<String> keys, MarketDataSink sink, Executor deliveryExecutor,
+                           Consumer<ConflatingSubscription> onFailure,
+                           Consumer<ConflatingSubscription> onStallEnded) {
+        this.id = id;
+        this.keys = Collections.unmodifiableSet(keys);
+        this.sink = sink;
+        this.deliveryExecutor = deliveryExecutor;
+        this.onFailure = onFailure;
+        this.onStallEnded = onStallEnded;
+    }
+
+    /**
+     * queue the serialized update for the key, replacing any update that was not delivered yet
+     *
+     * @param key
+     * @param payload
+     */
+    void offer(String key, String payload) {
+        if (closed.get()) {
+            return;
+        }
+        if (pending.put(key, payload) != null) {
+            conflated.incrementAndGet();
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                deliveryExecutor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // publisher is shutting down
+                scheduled.set(false);
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            Iterator<Map.Entry<String, String>> iterator = pending.entrySet().iterator();
+            while (iterator.hasNext() && !closed.get()) {
+                Map.Entry<String, String> entry = iterator.next();
+                // only send the value if it is still the latest one for the key
+                String payload = entry.getValue();
+                if (pending.remove(entry.getKey(), payload)) {
+                    send(payload);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.info("stream client id={} failed, dropping subscription", id, e);
+            close();
+            onFailure.accept(this);
+            return;
+        } finally {
+            scheduled.set(false);
+        }
+        // updates offered while the previous drain was running
+        if (!pending.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private void send(String payload) throws IOException {
+        // odd, so never IDLE or STALLED
+        sendingSince.set(System.nanoTime() | 1);
+        try {
+            sink.send(payload);
+            delivered.incrementAndGet();
+        } finally {
+            if (sendingSince.getAndSet(IDLE) == STALLED) {
+                onStallEnded.accept(this);
+            }
+            if (closed.get()) {
+                // closed while sending, left to this thread
+                closeSink();
+            }
+        }
+    }
+
+    /**
+     * give up on a send that has been in progress for longer than the timeout. The sending thread stays blocked
+     * until the send returns, the caller has to close the subscription and may replace the thread meanwhile
+     *
+     * @param nowNanos
+     * @param timeoutNanos
+     * @return true when the send in progress was given up on, only once per send
+     */
+    boolean stall(long nowNanos, long timeoutNanos) {
+        long since = sendingSince.get();
+        return since != IDLE && since != STALLED && nowNanos - since > timeoutNanos
+                && sendingSince.compareAndSet(since, STALLED);
+    }
+
+    void close() {
+        if (closed.compareAndSet(false, true)) {
+            pending.clear();
+            if (sendingSince.get() == IDLE) {
+                closeSink();
+            }
+        }
+    }
+
+    private void closeSink() {
+        if (sinkClosed.compareAndSet(false, true)) {
+            sink.close();
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+}
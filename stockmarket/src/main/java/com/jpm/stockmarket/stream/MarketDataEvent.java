@@ -0,0 +1,40 @@
+package com.jpm.stockmarket.stream;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * single market data update pushed to the stream subscribers. For a stock symbol it carries the last traded
+ * price and the volume weighted price, for the {@link MarketDataPublisher#INDEX_KEY} it carries the GBCE index
+ */
+@ToString
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MarketDataEvent {
+
+    @Getter
+    private final String symbol;
+    @Getter
+    private final BigDecimal lastPrice;
+    @Getter
+    private final BigDecimal volWeightedPrice;
+    @Getter
+    private final BigDecimal shareIndex;
+    @Getter
+    private final long sequence;
+    @Getter
+    private final long timestamp;
+
+    public MarketDataEvent(String symbol, BigDecimal lastPrice, BigDecimal volWeightedPrice, BigDecimal shareIndex,
+                           long sequence, long timestamp) {
+        this.symbol = symbol;
+        this.lastPrice = lastPrice;
+        this.volWeightedPrice = volWeightedPrice;
+        this.shareIndex = shareIndex;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+    }
+}
@@ -0,0 +1,264 @@
+package com.jpm.stockmarket.stream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.model.MarketSnapshot;
+import com.jpm.stockmarket.model.StockQuote;
+import com.jpm.stockmarket.model.TradeView;
+import com.jpm.stockmarket.repository.TradeListener;
+import com.jpm.stockmarket.repository.TradeRepository;
+import com.jpm.stockmarket.service.CalculationService;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * pushes last price, volume weighted price and GBCE index updates to stream subscribers.
+ * Recording a trade only marks its symbol as changed; once per publish interval the publisher thread takes one
+ * market snapshot, so all the updates of a round are consistent, and every update is serialized once and
+ * shared by all the subscribers of the symbol.
+ * A client whose send has not returned within the send timeout, e.g. one that stopped reading, is dropped. Its
+ * delivery thread stays blocked until the send fails, so the pool gets an extra thread meanwhile and the other
+ * clients keep getting all the delivery threads configured
+ */
+@Slf4j
+@Component
+public class MarketDataPublisher implements TradeListener {
+
+    // subscription key for the GBCE all share index updates
+    public static final String INDEX_KEY = "GBCE";
+
+    private final TradeRepository tradeRepo;
+    private final CalculationService calculationService;
+    private final ObjectMapper objectMapper;
+    private final long publishIntervalMillis;
+    private final int deliveryThreads;
+    private final long sendTimeoutMillis;
+
+    // symbols traded since the last publish
+    private final Set<String> changedSymbols = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<ConflatingSubscription>> subscriptionsByKey = new ConcurrentHashMap<>();
+    // last published payload per key, sent to new subscribers straight away
+    private final Map<String, String> latestPayloads = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Getter
+    private final AtomicLong published = new AtomicLong();
+    @Getter
+    private final AtomicLong stalled = new AtomicLong();
+
+    private ScheduledExecutorService publishExecutor;
+    private ThreadPoolExecutor deliveryExecutor;
+
+    @Autowired
+    public MarketDataPublisher(TradeRepository tradeRepo, CalculationService calculationService,
+                               ObjectMapper objectMapper,
+                               @Value("${stream.publish.interval.ms:100}") long publishIntervalMillis,
+                               @Value("${stream.delivery.threads:4}") int deliveryThreads,
+                               @Value("${stream.send.timeout.ms:5000}") long sendTimeoutMillis) {
+        this.tradeRepo = tradeRepo;
+        this.calculationService = calculationService;
+        this.objectMapper = objectMapper;
+        this.publishIntervalMillis = publishIntervalMillis;
+        this.deliveryThreads = deliveryThreads;
+        this.sendTimeoutMillis = sendTimeoutMillis;
+    }
+
+    @PostConstruct
+    public void start() {
+        deliveryExecutor = new ThreadPoolExecutor(deliveryThreads, deliveryThreads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> daemon(r, "market-data-delivery"));
+        publishExecutor = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "market-data-publisher"));
+        publishExecutor.scheduleWithFixedDelay(this::publishChanges, publishIntervalMillis, publishIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        publishExecutor.scheduleWithFixedDelay(this::dropStalled, sendTimeoutMillis, sendTimeoutMillis,
+                TimeUnit.MILLISECONDS);
+        tradeRepo.addTradeListener(this);
+        log.info("market data publisher started with interval={}ms", publishIntervalMillis);
+    }
+
+    @PreDestroy
+    public void stop() {
+        tradeRepo.removeTradeListener(this);
+        publishExecutor.shutdownNow();
+        deliveryExecutor.shutdownNow();
+        subscriptionsByKey.values().forEach(s -> s.forEach(ConflatingSubscription::close));
+        subscriptionsByKey.clear();
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * runs on the recording thread, hence only marks the symbol of the trade as changed
+     *
+     * @param trade
+     */
+    @Override
+    public void onTradeRecorded(TradeView trade) {
+        changedSymbols.add(trade.getSymbol());
+    }
+
+    /**
+     * register a client for the given symbols, {@link #INDEX_KEY} subscribes to the GBCE index.
+     * The latest known value of every key is delivered immediately
+     *
+     * @param keys
+     * @param sink
+     * @return
+     */
+    public ConflatingSubscription subscribe(Set<String> keys, MarketDataSink sink) {
+        String id = UUID.randomUUID().toString();
+        ConflatingSubscription subscription = new ConflatingSubscription(id, keys, sink, deliveryExecutor,
+                this::unsubscribe, s -> resizeDelivery(-1));
+        for (String key : keys) {
+            // atomic per key with the removal of an emptied set in unsubscribe, so no subscription is lost
+            subscriptionsByKey.compute(key, (k, subscriptions) -> {
+                Set<ConflatingSubscription> result = subscriptions == null ? ConcurrentHashMap.newKeySet()
+                        : subscriptions;
+                result.add(subscription);
+                return result;
+            });
+            String latest = latestPayloads.get(key);
+            if (latest != null) {
+                subscription.offer(key, latest);
+            }
+        }
+        log.info("stream client id={} subscribed to keys={}", id, keys);
+        return subscription;
+    }
+
+    public void unsubscribe(ConflatingSubscription subscription) {
+        for (String key : subscription.getKeys()) {
+            // keys nobody subscribes to any more are dropped, clients come and go with arbitrary symbols
+            subscriptionsByKey.computeIfPresent(key, (k, subscriptions) -> {
+                subscriptions.remove(subscription);
+                return subscriptions.isEmpty() ? null : subscriptions;
+            });
+        }
+        subscription.close();
+        log.info("stream client id={} unsubscribed", subscription.getId());
+    }
+
+    public int getSubscriptionCount() {
+        return (int) subscriptionsByKey.values().stream().flatMap(Set::stream).distinct().count();
+    }
+
+    /**
+     * @return number of symbols, and the index, with at least one subscription
+     */
+    public int getSubscribedKeyCount() {
+        return subscriptionsByKey.size();
+    }
+
+    /**
+     * drop the clients whose send has been in progress for longer than the send timeout, every stalled send
+     * holds a delivery thread until it returns, so the pool grows by one until then
+     */
+    void dropStalled() {
+        long now = System.nanoTime();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+        subscriptionsByKey.values().stream().flatMap(Set::stream).distinct()
+                .filter(subscription -> subscription.stall(now, timeout))
+                .forEach(subscription -> {
+                    log.warn("stream client id={} did not take an update within {}ms, dropping subscription",
+                            subscription.getId(), sendTimeoutMillis);
+                    stalled.incrementAndGet();
+                    resizeDelivery(1);
+                    unsubscribe(subscription);
+                });
+    }
+
+    private synchronized void resizeDelivery(int delta) {
+        int size = deliveryExecutor.getCorePoolSize() + delta;
+        // the maximum may never be below the core size
+        if (delta > 0) {
+            deliveryExecutor.setMaximumPoolSize(size);
+            deliveryExecutor.setCorePoolSize(size);
+        } else {
+            deliveryExecutor.setCorePoolSize(size);
+            deliveryExecutor.setMaximumPoolSize(size);
+        }
+    }
+
+    int getDeliveryThreadCount() {
+        return deliveryExecutor.getCorePoolSize();
+    }
+
+    /**
+     * calculate the new values of all the changed symbols and the index and fan them out
+     */
+    void publishChanges() {
+        if (changedSymbols.isEmpty()) {
+            return;
+        }
+        // taken out before the snapshot, a trade recorded meanwhile marks its symbol again for the next round
+        List<String> symbols = new ArrayList<>();
+        for (Iterator<String> iterator = changedSymbols.iterator(); iterator.hasNext(); ) {
+            symbols.add(iterator.next());
+            iterator.remove();
+        }
+        MarketSnapshot snapshot;
+        try {
+            snapshot = calculationService.getMarketSnapshot();
+        } catch (GBCEServiceException | RuntimeException e) {
+            log.error("failed to take market snapshot", e);
+            changedSymbols.addAll(symbols);
+            return;
+        }
+        for (String symbol : symbols) {
+            StockQuote quote = snapshot.getQuotes().get(symbol);
+            if (quote == null) {
+                // trades without a price are not part of the market state
+                continue;
+            }
+            publish(symbol, new MarketDataEvent(symbol, quote.getLastPrice(), quote.getVolWeightedPrice(), null,
+                    sequence.incrementAndGet(), snapshot.getTimestamp()));
+        }
+        publish(INDEX_KEY, new MarketDataEvent(INDEX_KEY, null, null, snapshot.getShareIndex(),
+                sequence.incrementAndGet(), snapshot.getTimestamp()));
+    }
+
+    private void publish(String key, MarketDataEvent event) {
+        String payload;
+        try {
+            // serialized once for all the subscribers
+            payload = objectMapper.writeValueAsString(event);
+        } catch (JsonProcessingException e) {
+            log.error("unable to serialize event={}", event, e);
+            return;
+        }
+        latestPayloads.put(key, payload);
+        published.incrementAndGet();
+        for (ConflatingSubscription subscription : subscriptionsByKey.getOrDefault(key, Collections.emptySet())) {
+            subscription.offer(key, payload);
+        }
+    }
+
+}
@@ -0,0 +1,15 @@
+package com.jpm.stockmarket.stream;
+
+import java.io.IOException;
+
+/**
+ * transport of a single stream client, e.g. a server-sent events connection.
+ * Payloads are already serialized so the same instance is handed to every subscriber
+ */
+public interface MarketDataSink {
+
+    void send(String payload) throws IOException;
+
+    void close();
+
+}
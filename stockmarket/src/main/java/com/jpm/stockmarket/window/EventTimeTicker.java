@@ -0,0 +1,63 @@
+package com.jpm.stockmarket.window;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.jpm.stockmarket.repository.TradeRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * periodically passes the processing time to the {@link EventTimeWindow}, so its buckets seal while the feed is
+ * quiet whether anybody reads them or not
+ */
+@Slf4j
+@Component
+public class EventTimeTicker {
+
+    private final TradeRepository tradeRepo;
+    private final long tickMillis;
+
+    private ScheduledExecutorService executor;
+
+    @Autowired
+    public EventTimeTicker(TradeRepository tradeRepo, @Value("${eventtime.tick.millis:250}") long tickMillis) {
+        this.tradeRepo = tradeRepo;
+        this.tickMillis = tickMillis;
+    }
+
+    @PostConstruct
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "event-time-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    public void tick() {
+        try {
+            EventTimeWindow window = tradeRepo.getEventTimeWindow();
+            if (window != null) {
+                window.onProcessingTime(System.currentTimeMillis());
+            }
+        } catch (RuntimeException e) {
+            // keep the schedule going, the next tick tries again
+            log.error("event time tick failed={}", e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package com.jpm.stockmarket.window;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import com.jpm.stockmarket.model.Trade;
+import com.jpm.stockmarket.model.TradeBucket;
+import com.jpm.stockmarket.model.TradeView;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * assigns trades to per-symbol time buckets by their own timestamp instead of the time they are recorded.
+ * <ul>
+ * <li>trades first go through a small reorder buffer, a heap of at most reorderCapacity trades ordered by
+ * event time, and leave it once the watermark passed them. A full buffer releases its oldest trade into its
+ * bucket early without moving the watermark, counted as overflowed</li>
+ * <li>the watermark is the highest event time seen minus maxOutOfOrderMillis; after idleMillis without trades
+ * the highest event time is carried forward by the processing time passed since the last trade, so buckets
+ * still seal when the feed goes quiet, see {@link #onProcessingTime(long)}. A replay of old trades is not
+ * overtaken by the clock that way</li>
+ * <li>a bucket seals once the watermark is allowedLatenessMillis past its end. Trades older than the watermark
+ * still go into their bucket while it is open (counted as late), trades for sealed buckets are dropped</li>
+ * <li>trades more than maxOutOfOrderMillis ahead of the processing time, e.g. with a bad timestamp, go straight
+ * into their bucket without moving the watermark (counted as ahead). Otherwise a single one would turn every
+ * later trade late</li>
+ * </ul>
+ * The bucket length can be changed while trades keep arriving: buckets opened before keep their length, new
+ * ones are aligned to the new length and cut short where they would overlap an existing bucket of the symbol, so
+ * no trade is counted twice or lost. Only the latest retainedBuckets buckets per symbol are kept, the evicted
+ * ones are counted. The reorder buffer is a heap over primitive
+ * arrays and trades usually land in the bucket used last for their symbol, so accepting a trade does not allocate
+ * apart from opening a new bucket. All methods are synchronized
+ */
+@Slf4j
+public class EventTimeWindow {
+
+    // length of the buckets opened from now on
+    @Getter
+    private volatile long bucketMillis;
+    @Getter
+    private final long maxOutOfOrderMillis;
+    @Getter
+    private final long allowedLatenessMillis;
+    private final int reorderCapacity;
+    private final int retainedBuckets;
+    private final long idleMillis;
+
+    // min heap by event time of the buffered trades, one array per field
+    private final long[] pendingEventTimes;
+    private final String[] pendingSymbols;
+    private final long[] pendingPrices;
+    private final int[] pendingScales;
+    private final long[] pendingQuantities;
+    private int pendingCount;
+
+    private final Map<String, SymbolBuckets> bucketsBySymbol = new HashMap<>();
+
+    private long maxEventTime = Long.MIN_VALUE;
+    private long lastArrivalMillis;
+    @Getter
+    private long watermark = Long.MIN_VALUE;
+    // lowest watermark at which an open bucket becomes sealable, sealing only runs once the watermark got there
+    private long nextSealWatermark = Long.MAX_VALUE;
+
+    @Getter
+    private long accepted;
+    // trades behind the watermark, including the dropped ones
+    @Getter
+    private long late;
+    @Getter
+    private long dropped;
+    // ahead of the processing time, the watermark does not follow them
+    @Getter
+    private long ahead;
+    // released from a full reorder buffer before the watermark passed them
+    @Getter
+    private long overflowed;
+    // buckets evicted beyond retainedBuckets
+    @Getter
+    private long evicted;
+
+    public EventTimeWindow(long bucketMillis, long maxOutOfOrderMillis, long allowedLatenessMillis,
+                           int reorderCapacity, int retainedBuckets, long idleMillis) {
+        this.bucketMillis = bucketMillis;
+        this.maxOutOfOrderMillis = maxOutOfOrderMillis;
+        this.allowedLatenessMillis = allowedLatenessMillis;
+        this.reorderCapacity = reorderCapacity;
+        this.retainedBuckets = retainedBuckets;
+        this.idleMillis = idleMillis;
+        // one more than the capacity, a full buffer releases its oldest trade after adding
+        this.pendingEventTimes = new long[reorderCapacity + 1];
+        this.pendingSymbols = new String[reorderCapacity + 1];
+        this.pendingPrices = new long[reorderCapacity + 1];
+        this.pendingScales = new int[reorderCapacity + 1];
+        this.pendingQuantities = new long[reorderCapacity + 1];
+    }
+
+    /**
+     * hand a trade to the window, trades without a timestamp use the time they are recorded at
+     *
+     * @param trade
+     * @param nowMillis
+     */
+    public void accept(Trade trade, long nowMillis) {
+        accept(new TradeView().set(trade), nowMillis);
+    }
+
+    /**
+     * hand a trade to the window, the view is not kept
+     *
+     * @param trade
+     * @param nowMillis
+     */
+    public synchronized void accept(TradeView trade, long nowMillis) {
+        if (trade.getSymbol() == null || !trade.isPriced()) {
+            return;
+        }
+        long eventTime = trade.hasTimestamp() ? trade.getTimestampMillis() : nowMillis;
+        lastArrivalMillis = nowMillis;
+        accepted++;
+
+        if (eventTime - maxOutOfOrderMillis > nowMillis) {
+            ahead++;
+            log.debug("trade for symbol={} at eventTime={} ahead of processing time={}", trade.getSymbol(),
+                    eventTime, nowMillis);
+            // its bucket is after the watermark, so it cannot be sealed
+            apply(trade.getSymbol(), eventTime, trade.getPriceUnscaled(), trade.getPriceScale(), trade.getQuantity(),
+                    true);
+            return;
+        }
+
+        if (eventTime < watermark) {
+            // behind the watermark already, goes straight into its bucket if that one is still open
+            late++;
+            apply(trade.getSymbol(), eventTime, trade.getPriceUnscaled(), trade.getPriceScale(), trade.getQuantity(),
+                    false);
+            return;
+        }
+        push(trade.getSymbol(), eventTime, trade.getPriceUnscaled(), trade.getPriceScale(), trade.getQuantity());
+        if (eventTime > maxEventTime) {
+            maxEventTime = eventTime;
+            advanceWatermark(maxEventTime - maxOutOfOrderMillis);
+        }
+        // a full buffer releases its oldest trade early rather than growing, it is ahead of the watermark so its
+        // bucket is still open
+        while (pendingCount > reorderCapacity) {
+            overflowed++;
+            releaseOldest();
+        }
+    }
+
+    /**
+     * advance the watermark when no trade arrived for idleMillis, called periodically by the
+     * {@link EventTimeTicker}. The highest event time seen is carried forward by the processing time passed since
+     * the last trade, but never beyond the clock, so buckets of a live feed seal about when they would with
+     * trades arriving, and a replay of old trades only moves on as far as its own time went
+     *
+     * @param nowMillis
+     */
+    public synchronized void onProcessingTime(long nowMillis) {
+        long idle = nowMillis - lastArrivalMillis;
+        if (maxEventTime == Long.MIN_VALUE || idle < idleMillis) {
+            return;
+        }
+        advanceWatermark(Math.min(nowMillis, maxEventTime + idle) - maxOutOfOrderMillis);
+    }
+
+    /**
+     * change the length of the buckets opened from now on, open buckets carry on with their length
+     *
+     * @param bucketMillis
+     */
+    public synchronized void setBucketMillis(long bucketMillis) {
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("bucket length must be positive, bucketMillis=" + bucketMillis);
+        }
+        this.bucketMillis = bucketMillis;
+    }
+
+    /**
+     * buckets of the symbol overlapping [from, to), oldest first. Open buckets are returned as copies
+     *
+     * @param symbol
+     * @param fromMillis
+     * @param toMillis
+     * @return
+     */
+    public synchronized List<TradeBucket> getBuckets(String symbol, long fromMillis, long toMillis) {
+        SymbolBuckets symbolBuckets = bucketsBySymbol.get(symbol);
+        List<TradeBucket> result = new ArrayList<>();
+        if (symbolBuckets == null) {
+            return result;
+        }
+        // the bucket holding fromMillis starts before it
+        TradeBucket first = containing(symbolBuckets.buckets, fromMillis);
+        long fromStart = first == null ? fromMillis : first.getStartMillis();
+        for (TradeBucket bucket : symbolBuckets.buckets.subMap(fromStart, true, toMillis, false).values()) {
+            result.add(bucket.snapshot());
+        }
+        return result;
+    }
+
+    public synchronized int getBuffered() {
+        return pendingCount;
+    }
+
+    public synchronized WindowStatistics getStatistics() {
+        return new WindowStatistics(accepted, late, dropped, ahead, overflowed, evicted, pendingCount,
+                watermark);
+    }
+
+    public static long toMillis(LocalDateTime timestamp) {
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private void advanceWatermark(long candidate) {
+        if (candidate <= watermark) {
+            return;
+        }
+        watermark = candidate;
+        // release every buffered trade the watermark passed, in event time order, before anything seals
+        while (pendingCount > 0 && pendingEventTimes[0] <= watermark) {
+            releaseOldest();
+        }
+        seal();
+    }
+
+    /**
+     * @param onTime released from the reorder buffer, its bucket cannot have been sealed yet
+     */
+    private void apply(String symbol, long eventTime, long priceUnscaled, int priceScale, long quantity,
+                       boolean onTime) {
+        SymbolBuckets symbolBuckets = bucketsBySymbol.get(symbol);
+        if (symbolBuckets == null) {
+            symbolBuckets = new SymbolBuckets();
+            bucketsBySymbol.put(symbol, symbolBuckets);
+        }
+        TradeBucket bucket = symbolBuckets.last;
+        if (bucket == null || eventTime < bucket.getStartMillis() || eventTime >= bucket.getEndMillis()) {
+            NavigableMap<Long, TradeBucket> buckets = symbolBuckets.buckets;
+            bucket = containing(buckets, eventTime);
+            if (bucket == null) {
+                long start = Math.floorDiv(eventTime, bucketMillis) * bucketMillis;
+                long end = start + bucketMillis;
+                // buckets of an earlier length may overlap the aligned one
+                Map.Entry<Long, TradeBucket> before = buckets.floorEntry(eventTime);
+                Map.Entry<Long, TradeBucket> after = buckets.higherEntry(eventTime);
+                start = before == null ? start : Math.max(start, before.getValue().getEndMillis());
+                end = after == null ? end : Math.min(end, after.getKey());
+                if ((!onTime && isSealable(end)) || (!buckets.isEmpty() && buckets.size() >= retainedBuckets
+                        && start < buckets.firstKey())) {
+                    // the bucket was sealed (or evicted) already
+                    drop(symbol, eventTime);
+                    return;
+                }
+                bucket = new TradeBucket(symbol, start, end - start);
+                buckets.put(start, bucket);
+                nextSealWatermark = Math.min(nextSealWatermark, end + allowedLatenessMillis);
+                while (buckets.size() > retainedBuckets) {
+                    buckets.pollFirstEntry();
+                    evicted++;
+                }
+            }
+            symbolBuckets.last = bucket;
+        }
+        if (bucket.isSealed()) {
+            drop(symbol, eventTime);
+            return;
+        }
+        bucket.add(priceUnscaled, priceScale, quantity);
+    }
+
+    private void drop(String symbol, long eventTime) {
+        dropped++;
+        log.debug("dropping late trade for symbol={} at eventTime={}, watermark={}", symbol, eventTime, watermark);
+    }
+
+    private boolean isSealable(long bucketEnd) {
+        return bucketEnd + allowedLatenessMillis <= watermark;
+    }
+
+    private void seal() {
+        if (watermark < nextSealWatermark) {
+            // no further bucket became sealable
+            return;
+        }
+        // buckets ending at or before the limit seal
+        long limit = watermark - allowedLatenessMillis;
+        long next = Long.MAX_VALUE;
+        for (SymbolBuckets symbolBuckets : bucketsBySymbol.values()) {
+            NavigableMap<Long, TradeBucket> buckets = symbolBuckets.buckets;
+            // newest first, everything older than the first sealed bucket was sealed before
+            for (TradeBucket bucket : buckets.headMap(limit, false).descendingMap().values()) {
+                if (bucket.isSealed()) {
+                    break;
+                }
+                if (bucket.getEndMillis() <= limit) {
+                    bucket.seal();
+                }
+            }
+            // buckets do not overlap, the oldest one left open either holds the limit or starts after it
+            TradeBucket open = containing(buckets, limit);
+            if (open == null) {
+                Map.Entry<Long, TradeBucket> after = buckets.higherEntry(limit);
+                open = after == null ? null : after.getValue();
+            }
+            if (open != null) {
+                next = Math.min(next, open.getEndMillis() + allowedLatenessMillis);
+            }
+        }
+        nextSealWatermark = next;
+    }
+
+    private static TradeBucket containing(NavigableMap<Long, TradeBucket> buckets, long timeMillis) {
+        Map.Entry<Long, TradeBucket> entry = buckets.floorEntry(timeMillis);
+        return entry != null && entry.getValue().getEndMillis() > timeMillis ? entry.getValue() : null;
+    }
+
+    private void push(String symbol, long eventTime, long priceUnscaled, int priceScale, long quantity) {
+        int index = pendingCount++;
+        set(index, symbol, eventTime, priceUnscaled, priceScale, quantity);
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (pendingEventTimes[parent] <= pendingEventTimes[index]) {
+                break;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    /**
+     * take the trade with the lowest event time out of the buffer and into its bucket
+     */
+    private void releaseOldest() {
+        String symbol = pendingSymbols[0];
+        long eventTime = pendingEventTimes[0];
+        long priceUnscaled = pendingPrices[0];
+        int priceScale = pendingScales[0];
+        long quantity = pendingQuantities[0];
+        removeOldest();
+        apply(symbol, eventTime, priceUnscaled, priceScale, quantity, true);
+    }
+
+    private void removeOldest() {
+        int last = --pendingCount;
+        set(0, pendingSymbols[last], pendingEventTimes[last], pendingPrices[last], pendingScales[last],
+                pendingQuantities[last]);
+        pendingSymbols[last] = null;
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= pendingCount) {
+                break;
+            }
+            if (child + 1 < pendingCount && pendingEventTimes[child + 1] < pendingEventTimes[child]) {
+                child++;
+            }
+            if (pendingEventTimes[index] <= pendingEventTimes[child]) {
+                break;
+            }
+            swap(index, child);
+            index = child;
+        }
+    }
+
+    private void set(int index, String symbol, long eventTime, long priceUnscaled, int priceScale, long quantity) {
+        pendingSymbols[index] = symbol;
+        pendingEventTimes[index] = eventTime;
+        pendingPrices[index] = priceUnscaled;
+        pendingScales[index] = priceScale;
+        pendingQuantities[index] = quantity;
+    }
+
+    private void swap(int i, int j) {
+        String symbol = pendingSymbols[i];
+        long eventTime = pendingEventTimes[i];
+        long priceUnscaled = pendingPrices[i];
+        int priceScale = pendingScales[i];
+        long quantity = pendingQuantities[i];
+        set(i, pendingSymbols[j], pendingEventTimes[j], pendingPrices[j], pendingScales[j], pendingQuantities[j]);
+        set(j, symbol, eventTime, priceUnscaled, priceScale, quantity);
+    }
+
+    private static final class SymbolBuckets {
+
+        private final NavigableMap<Long, TradeBucket> buckets = new TreeMap<>();
+        // bucket the symbol's last trade went into, most trades go into the same one
+        private TradeBucket last;
+    }
+}
@@ -0,0 +1,45 @@
+package com.jpm.stockmarket.window;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * counters of an {@link EventTimeWindow} at one point in time
+ */
+@ToString
+public class WindowStatistics {
+
+    @Getter
+    private final long accepted;
+    // behind the watermark when they arrived, including the dropped ones
+    @Getter
+    private final long late;
+    // arrived after their bucket was sealed
+    @Getter
+    private final long dropped;
+    // ahead of the processing time when they arrived, the watermark did not follow them
+    @Getter
+    private final long ahead;
+    // released from a full reorder buffer before the watermark passed them
+    @Getter
+    private final long overflowed;
+    // buckets evicted beyond the retained number per symbol
+    @Getter
+    private final long evicted;
+    @Getter
+    private final int buffered;
+    @Getter
+    private final long watermark;
+
+    public WindowStatistics(long accepted, long late, long dropped, long ahead, long overflowed, long evicted,
+                            int buffered, long watermark) {
+        this.accepted = accepted;
+        this.late = late;
+        this.dropped = dropped;
+        this.ahead = ahead;
+        this.overflowed = overflowed;
+        this.evicted = evicted;
+        this.buffered = buffered;
+        this.watermark = watermark;
+    }
+}
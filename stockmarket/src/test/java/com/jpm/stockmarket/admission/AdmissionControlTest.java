@@ -0,0 +1,220 @@
+package com.jpm.stockmarket.admission;
+
+import static com.jpm.stockmarket.model.TradeFixtures.trade;
+import static com.jpm.stockmarket.model.TradeFixtures.view;
+import static org.junit.Assert.assertThat;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.gateway.BinaryTradeClient;
+import com.jpm.stockmarket.gateway.TcpTradeGateway;
+import com.jpm.stockmarket.loader.BulkTradeLoader;
+import com.jpm.stockmarket.loader.TradeFileFormat;
+import com.jpm.stockmarket.model.Trade;
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.repository.impl.TradeRepositoryImpl;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = AdmissionControlTest.class)
+public class AdmissionControlTest {
+
+    private static AdmissionControl control(OverloadPolicy policy, double symbolRate, double symbolBurst,
+                                            double globalRate, double globalBurst, int queueCapacity, String spill) {
+        return new AdmissionControl(policy, symbolRate, symbolBurst, globalRate, globalBurst, queueCapacity, 5000,
+                100, spill);
+    }
+
+    private static AdmissionControl control(OverloadPolicy policy, double symbolRate, double symbolBurst,
+                                            double globalRate, double globalBurst, int maxSymbols, AtomicLong clock) {
+        return new AdmissionControl(policy, symbolRate, symbolBurst, globalRate, globalBurst, 1, 5000, maxSymbols,
+                "unused.csv", clock::get);
+    }
+
+
+    @Test
+    public void reject_overSymbolRate_countsThrottled() throws Exception {
+        AdmissionControl underTest = control(OverloadPolicy.REJECT, 1, 5, 0, 0, 8, "unused.csv");
+        for (int i = 0; i < 5; i++) {
+            assertThat(underTest.admit(trade("TEA", 12)), CoreMatchers.is(true));
+        }
+        try {
+            underTest.admit(trade("TEA", 12));
+            throw new AssertionError("trade over the rate limit admitted");
+        } catch (GBCEServiceException expected) {
+            // the burst is used up
+        }
+        // other symbols have buckets of their own
+        assertThat(underTest.admit(trade("GIN", 12)), CoreMatchers.is(true));
+
+        AdmissionStatistics tea = underTest.getStatistics("TEA");
+        assertThat(tea.getAdmitted(), CoreMatchers.is(5L));
+        assertThat(tea.getThrottled(), CoreMatchers.is(1L));
+        assertThat(tea.getRejected(), CoreMatchers.is(1L));
+        assertThat(underTest.getThrottledTrades(), CoreMatchers.is(1L));
+        assertThat(underTest.getAdmittedTrades(), CoreMatchers.is(6L));
+    }
+
+    @Test(expected = GBCEServiceException.class)
+    public void reject_overGlobalRate_failure() throws Exception {
+        AdmissionControl underTest = control(OverloadPolicy.REJECT, 0, 0, 1, 2, 8, "unused.csv");
+        underTest.admit(trade("TEA", 12));
+        underTest.admit(trade("GIN", 12));
+        underTest.admit(trade("POP", 12));
+    }
+
+    @Test
+    public void block_hotSymbol_otherSymbolsNotDelayed() throws Exception {
+        AtomicLong clock = new AtomicLong();
+        AdmissionControl underTest = control(OverloadPolicy.BLOCK, 5, 1, 0, 0, 100, clock);
+        assertThat(underTest.admit(trade("TEA", 12)), CoreMatchers.is(true));
+        // the clock stands still, the next trade of TEA waits for its token until the clock is moved
+        CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> {
+            try {
+                return underTest.admit(trade("TEA", 12));
+            } catch (GBCEServiceException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (underTest.getStatistics("TEA").getQueued() == 0) {
+            Thread.sleep(1);
+        }
+        // the queue of TEA holds one trade only
+        try {
+            underTest.admit(trade("TEA", 12));
+            throw new AssertionError("trade admitted to a full queue");
+        } catch (GBCEServiceException expected) {
+            assertThat(underTest.getStatistics("TEA").getRejected(), CoreMatchers.is(1L));
+        }
+
+        assertThat(underTest.admit(trade("GIN", 12)), CoreMatchers.is(true));
+        assertThat(underTest.getStatistics("GIN").getThrottled(), CoreMatchers.is(0L));
+        assertThat(blocked.isDone(), CoreMatchers.is(false));
+
+        // the next token of TEA
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+        assertThat(blocked.get(5, TimeUnit.SECONDS), CoreMatchers.is(true));
+        assertThat(underTest.getStatistics("TEA").getAdmitted(), CoreMatchers.is(2L));
+    }
+
+    @Test
+    public void tryAdmit_globalRateExhausted_waitingSymbolServedFirst() throws Exception {
+        AtomicLong clock = new AtomicLong();
+        AdmissionControl underTest = control(OverloadPolicy.BLOCK, 0, 0, 10, 1, 100, clock);
+        assertThat(underTest.tryAdmit(view("TEA", 0, 125, 1), false), CoreMatchers.is(AdmissionControl.ADMITTED));
+        assertThat(underTest.tryAdmit(view("GIN", 0, 125, 1), false) > 0, CoreMatchers.is(true));
+
+        // one global token, GIN waits for it longer than TEA
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(underTest.tryAdmit(view("TEA", 0, 125, 1), false) > 0, CoreMatchers.is(true));
+        assertThat(underTest.tryAdmit(view("GIN", 0, 125, 1), true), CoreMatchers.is(AdmissionControl.ADMITTED));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(underTest.tryAdmit(view("TEA", 0, 125, 1), true), CoreMatchers.is(AdmissionControl.ADMITTED));
+    }
+
+    @Test
+    public void admit_beyondMaxSymbols_sharedGate() throws Exception {
+        AdmissionControl underTest = control(OverloadPolicy.REJECT, 1, 1, 0, 0, 2, new AtomicLong());
+        assertThat(underTest.admit(trade("TEA", 12)), CoreMatchers.is(true));
+        assertThat(underTest.admit(trade("GIN", 12)), CoreMatchers.is(true));
+        assertThat(underTest.admit(trade("POP", 12)), CoreMatchers.is(true));
+        try {
+            underTest.admit(trade("ALE", 12));
+            throw new AssertionError("trade over the rate of the shared gate admitted");
+        } catch (GBCEServiceException expected) {
+            // POP took the token of every symbol beyond the first two
+        }
+
+        assertThat(underTest.getStatistics("POP"), CoreMatchers.nullValue());
+        assertThat(underTest.getStatistics(AdmissionControl.OTHER_SYMBOLS).getAdmitted(), CoreMatchers.is(1L));
+        assertThat(underTest.getStatistics(AdmissionControl.OTHER_SYMBOLS).getRejected(), CoreMatchers.is(1L));
+        assertThat(underTest.getStatistics().size(), CoreMatchers.is(3));
+    }
+
+    @Test
+    public void spill_overRate_reloadedByBulkLoader() throws Exception {
+        Path spill = Files.createTempDirectory("spill").resolve("trades.csv");
+        AdmissionControl underTest = control(OverloadPolicy.SPILL, 1, 1, 0, 0, 8, spill.toString());
+        long now = System.currentTimeMillis();
+        assertThat(underTest.admit(trade("TEA", now, 10, TradeIndicator.BUY, new BigDecimal("12.5"))),
+                CoreMatchers.is(true));
+        for (int i = 0; i < 2; i++) {
+            assertThat(underTest.admit(trade("TEA", now, 10, TradeIndicator.BUY, new BigDecimal("12.5"))),
+                    CoreMatchers.is(false));
+        }
+        underTest.stop();
+
+        List<String> lines = Files.readAllLines(spill, StandardCharsets.US_ASCII);
+        assertThat(lines.size(), CoreMatchers.is(3));
+        assertThat(lines.get(1).startsWith("TEA,"), CoreMatchers.is(true));
+        assertThat(lines.get(1).endsWith(",10,BUY,12.5"), CoreMatchers.is(true));
+        assertThat(underTest.getSpilledTrades(), CoreMatchers.is(2L));
+
+        TradeRepositoryImpl tradeRepository = new TradeRepositoryImpl();
+        tradeRepository.setup();
+        new BulkTradeLoader(tradeRepository, 1, 4096, 100).load(spill, TradeFileFormat.CSV);
+        assertThat(tradeRepository.getTradesForAllStocks().size(), CoreMatchers.is(2));
+    }
+
+    @Test
+    public void spill_beyondMaxSymbols_reloadedWithOwnSymbols() throws Exception {
+        Path spill = Files.createTempDirectory("spill").resolve("trades.csv");
+        AdmissionControl underTest = new AdmissionControl(OverloadPolicy.SPILL, 1, 1, 0, 0, 1, 5000, 1,
+                spill.toString(), new AtomicLong()::get);
+        assertThat(underTest.admit(trade("TEA", 12)), CoreMatchers.is(true));
+        // GIN takes the token of the shared gate, POP and ALE go to the spill file
+        assertThat(underTest.admit(trade("GIN", 12)), CoreMatchers.is(true));
+        assertThat(underTest.admit(trade("POP", 12)), CoreMatchers.is(false));
+        assertThat(underTest.tryAdmit(view("ALE", 0, 125, 1), false), CoreMatchers.is(AdmissionControl.SPILLED));
+        underTest.stop();
+
+        TradeRepositoryImpl tradeRepository = new TradeRepositoryImpl();
+        tradeRepository.setup();
+        new BulkTradeLoader(tradeRepository, 1, 4096, 100).load(spill, TradeFileFormat.CSV);
+        List<Trade> reloaded = tradeRepository.getTradesForAllStocks();
+        assertThat(reloaded.size(), CoreMatchers.is(2));
+        assertThat(reloaded.get(0).getStockSymbol(), CoreMatchers.is("POP"));
+        assertThat(reloaded.get(1).getStockSymbol(), CoreMatchers.is("ALE"));
+    }
+
+    @Test
+    public void gateway_block_pausesConnectionUntilAdmitted() throws Exception {
+        TradeRepositoryImpl tradeRepository = new TradeRepositoryImpl();
+        tradeRepository.setup();
+        AdmissionControl admission = control(OverloadPolicy.BLOCK, 50, 1, 0, 0, 8, "unused.csv");
+        TcpTradeGateway gateway = new TcpTradeGateway(tradeRepository, "localhost", 0, 64 * 1024);
+        gateway.setAdmissionControl(admission);
+        gateway.start();
+        try (BinaryTradeClient client = new BinaryTradeClient("localhost", gateway.getLocalPort(), 4096)) {
+            long start = System.nanoTime();
+            long last = 0;
+            for (int i = 0; i < 6; i++) {
+                last = client.send("TEA", System.currentTimeMillis(), 10, TradeIndicator.SELL, BigDecimal.TEN);
+            }
+            client.flush();
+            assertThat(client.awaitAck(last, 5, TimeUnit.SECONDS), CoreMatchers.is(true));
+            // one trade of the burst, then one every 20ms
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 80, CoreMatchers.is(true));
+        } finally {
+            gateway.stop();
+        }
+        assertThat(gateway.getRecorded().get(), CoreMatchers.is(6L));
+        assertThat(admission.getStatistics("TEA").getAdmitted(), CoreMatchers.is(6L));
+        // every throttled trade is counted once however often the connection paused for it
+        assertThat(admission.getStatistics("TEA").getThrottled() <= 5, CoreMatchers.is(true));
+    }
+}
@@ -0,0 +1,174 @@
+package com.jpm.stockmarket.analytics;
+
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.hamcrest.CoreMatchers;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = TradeAnalyticsTest.class)
+public class TradeAnalyticsTest {
+
+    private static final double ACCURACY = 0.01;
+
+    @Test
+    public void quantileSketch_withinRelativeAccuracy_success() {
+        QuantileSketch sketch = new QuantileSketch(ACCURACY, 2048);
+        Random random = new Random(42);
+        double[] values = new double[100000];
+        for (int i = 0; i < values.length; i++) {
+            // log-normal prices around 100
+            values[i] = 100 * Math.exp(random.nextGaussian() * 0.5);
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double q : new double[]{0, 0.01, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999, 1}) {
+            double exact = values[(int) (q * (values.length - 1))];
+            double estimate = sketch.quantile(q);
+            assertThat(Math.abs(estimate - exact) / exact, Matchers.lessThanOrEqualTo(ACCURACY));
+        }
+        assertThat(sketch.getCount(), CoreMatchers.is(100000L));
+    }
+
+    @Test
+    public void quantileSketch_mergeEqualsSingleSketch_success() {
+        QuantileSketch all = new QuantileSketch(ACCURACY, 2048);
+        QuantileSketch first = new QuantileSketch(ACCURACY, 2048);
+        QuantileSketch second = new QuantileSketch(ACCURACY, 2048);
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            double value = 1 + random.nextDouble() * 1000;
+            all.add(value);
+            (i % 2 == 0 ? first : second).add(value);
+        }
+        first.merge(second);
+
+        for (double q : new double[]{0.1, 0.5, 0.9, 0.99}) {
+            assertThat(first.quantile(q), CoreMatchers.is(all.quantile(q)));
+        }
+        assertThat(first.getMin(), CoreMatchers.is(all.getMin()));
+        assertThat(first.getMax(), CoreMatchers.is(all.getMax()));
+    }
+
+    @Test
+    public void quantileSketch_boundedMemory_keepsHighQuantiles() {
+        QuantileSketch sketch = new QuantileSketch(ACCURACY, 16);
+        for (int i = 1; i <= 1000; i++) {
+            sketch.add(i);
+        }
+        // only 16 buckets, the low values are folded but the maximum stays accurate
+        double p100 = sketch.quantile(1);
+        assertThat(Math.abs(p100 - 1000) / 1000, Matchers.lessThanOrEqualTo(ACCURACY));
+        assertThat(sketch.quantile(0), Matchers.greaterThanOrEqualTo(1.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void quantileSketch_mergeDifferentAccuracy_failure() {
+        new QuantileSketch(0.01, 16).merge(new QuantileSketch(0.02, 16));
+    }
+
+    @Test
+    public void countMinSketch_neverUnderestimates_success() {
+        CountMinSketch sketch = new CountMinSketch(2048, 5);
+        for (int i = 0; i < 1000; i++) {
+            sketch.add("S" + i, i);
+        }
+        long total = sketch.getTotalWeight();
+        for (int i = 0; i < 1000; i++) {
+            long estimate = sketch.estimate("S" + i);
+            assertThat(estimate, Matchers.greaterThanOrEqualTo((long) i));
+            assertThat((double) (estimate - i), Matchers.lessThanOrEqualTo(Math.E / 2048 * total * 2));
+        }
+    }
+
+    @Test
+    public void countMinSketch_equalStringHashCodes_estimatedApart() {
+        // "Aa" and "BB" have the same String.hashCode()
+        CountMinSketch sketch = new CountMinSketch(2048, 5);
+        sketch.add("Aa", 1000);
+        sketch.add("BB", 1);
+
+        assertThat("Aa".hashCode(), CoreMatchers.is("BB".hashCode()));
+        assertThat(sketch.estimate("Aa"), CoreMatchers.is(1000L));
+        assertThat(sketch.estimate("BB"), CoreMatchers.is(1L));
+    }
+
+    @Test
+    public void heavyHitters_topByVolume_success() {
+        HeavyHitters hitters = new HeavyHitters(8, 1024, 4);
+        hitters.add("TEA", 500);
+        hitters.add("POP", 100);
+        hitters.add("ALE", 300);
+        for (int i = 0; i < 200; i++) {
+            hitters.add("X" + i, 1);
+        }
+        hitters.add("TEA", 500);
+
+        List<VolumeEstimate> top = hitters.top(3);
+        assertThat(top.size(), CoreMatchers.is(3));
+        assertThat(top.get(0).getSymbol(), CoreMatchers.is("TEA"));
+        assertThat(top.get(0).getVolume(), Matchers.greaterThanOrEqualTo(1000L));
+        assertThat(top.get(1).getSymbol(), CoreMatchers.is("ALE"));
+        assertThat(top.get(2).getSymbol(), CoreMatchers.is("POP"));
+    }
+
+    @Test
+    public void tradeAnalytics_mergesLiveBucketsOnly_success() {
+        TradeAnalytics analytics = new TradeAnalytics(1000, 3, ACCURACY, 2048, 8, 1024, 4);
+        analytics.record("TEA", 10, 5, 0);
+        analytics.record("TEA", 20, 5, 1500);
+        analytics.record("POP", 30, 50, 2500);
+
+        QuantileSketch sketch = analytics.getPriceSketch("TEA", 2500);
+        assertThat(sketch.getCount(), CoreMatchers.is(2L));
+        assertThat(analytics.getTopSymbolsByVolume(1, 2500).get(0).getSymbol(), CoreMatchers.is("POP"));
+
+        // the first bucket left the window, its ring slot is taken over by the new trade
+        analytics.record("TEA", 40, 5, 3100);
+        sketch = analytics.getPriceSketch("TEA", 3100);
+        assertThat(sketch.getCount(), CoreMatchers.is(2L));
+        assertThat(sketch.getMin(), CoreMatchers.is(20.0));
+        assertThat(analytics.getPriceSketch("TEA", 10000).isEmpty(), CoreMatchers.is(true));
+    }
+
+    @Test
+    public void tradeAnalytics_reshape_keepsRecordedTrades() {
+        TradeAnalytics analytics = new TradeAnalytics(1000, 3, ACCURACY, 2048, 8, 1024, 4);
+        analytics.record("TEA", 10, 5, 1500);
+        analytics.record("TEA", 20, 5, 2500);
+        // one bucket of 10 seconds from now on
+        analytics.reshape(10000, 1, 2600);
+        analytics.record("TEA", 30, 5, 2700);
+
+        assertThat(analytics.getBucketMillis(), CoreMatchers.is(10000L));
+        assertThat(analytics.getBucketCount(), CoreMatchers.is(1));
+        QuantileSketch sketch = analytics.getPriceSketch("TEA", 2700);
+        assertThat(sketch.getCount(), CoreMatchers.is(3L));
+        assertThat(sketch.getMin(), CoreMatchers.is(10.0));
+        assertThat(analytics.getVolumes(2700).getTotalVolume(), CoreMatchers.is(15L));
+        assertThat(analytics.getPriceSketch("TEA", 20000).isEmpty(), CoreMatchers.is(true));
+    }
+
+    @Test
+    public void tradeAnalytics_reshapeShorter_oldBucketsLeaveWithNewWindow() {
+        TradeAnalytics analytics = new TradeAnalytics(1000, 3, ACCURACY, 2048, 8, 1024, 4);
+        analytics.record("TEA", 10, 5, 1500);
+        analytics.record("TEA", 20, 5, 2500);
+        // window of one second from now on, [1000, 2000) is outside of it
+        analytics.reshape(500, 2, 2600);
+        analytics.record("TEA", 30, 5, 2700);
+
+        QuantileSketch sketch = analytics.getPriceSketch("TEA", 2700);
+        assertThat(sketch.getCount(), CoreMatchers.is(2L));
+        assertThat(sketch.getMin(), CoreMatchers.is(20.0));
+    }
+}
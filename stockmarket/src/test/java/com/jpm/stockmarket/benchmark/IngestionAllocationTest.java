@@ -0,0 +1,37 @@
+package com.jpm.stockmarket.benchmark;
+
+import static org.junit.Assert.assertThat;
+
+import java.util.Collection;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+@Category(PerformanceTest.class)
+public class IngestionAllocationTest {
+
+    @Test
+    public void ingestTrade_steadyState_noAllocation() throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(IngestionBenchmark.class.getName())
+                // in process, a forked JVM would not get the test class path
+                .forks(0)
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        Collection<RunResult> results = new Runner(options).run();
+
+        assertThat(results.size(), CoreMatchers.is(1));
+        Result<?> allocated = results.iterator().next().getSecondaryResults().get("·gc.alloc.rate.norm");
+        double bytesPerTrade = allocated.getScore() / IngestionBenchmark.BATCH_SIZE;
+        assertThat("bytes allocated per trade=" + bytesPerTrade, bytesPerTrade < 1, CoreMatchers.is(true));
+    }
+}
@@ -0,0 +1,61 @@
+package com.jpm.stockmarket.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.model.TradeView;
+import com.jpm.stockmarket.repository.impl.TradeRepositoryImpl;
+
+/**
+ * steady state ingestion through a reused {@link TradeView}, the way the tcp gateway records trades.
+ * Every iteration records a batch of trades into a repository with a preallocated trade log, so the allocation
+ * profile shows the recording path only. Run with the GC profiler, see {@link IngestionAllocationTest}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = IngestionBenchmark.WARMUP_ITERATIONS, batchSize = IngestionBenchmark.BATCH_SIZE)
+@Measurement(iterations = IngestionBenchmark.MEASUREMENT_ITERATIONS, batchSize = IngestionBenchmark.BATCH_SIZE)
+public class IngestionBenchmark {
+
+    static final int BATCH_SIZE = 200000;
+    static final int WARMUP_ITERATIONS = 3;
+    static final int MEASUREMENT_ITERATIONS = 5;
+
+    private static final String[] SYMBOLS = {"TEA", "POP", "ALE", "GIN", "JOE"};
+    private static final long START_MILLIS = 1561975200000L;
+
+    private TradeRepositoryImpl tradeRepository;
+    private final TradeView view = new TradeView();
+    private long sequence;
+
+    @Setup
+    public void setup() {
+        tradeRepository = new TradeRepositoryImpl();
+        tradeRepository.setPreallocatedTrades((long) BATCH_SIZE * (WARMUP_ITERATIONS + MEASUREMENT_ITERATIONS + 1));
+        tradeRepository.setup();
+    }
+
+    @Benchmark
+    public long ingestTrade() throws GBCEServiceException {
+        long i = sequence++;
+        view.setSymbol(SYMBOLS[(int) (i % SYMBOLS.length)]);
+        // 100 trades per millisecond, slightly out of order
+        view.setTimestampMillis(START_MILLIS + i / 100 - (i % 7));
+        view.setQuantity(1 + i % 100);
+        view.setIndicator(i % 2 == 0 ? TradeIndicator.BUY : TradeIndicator.SELL);
+        view.setPrice(10000 + i % 500, 2);
+        return tradeRepository.ingestTrade(view);
+    }
+}
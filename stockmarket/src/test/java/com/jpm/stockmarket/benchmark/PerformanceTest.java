@@ -0,0 +1,8 @@
+package com.jpm.stockmarket.benchmark;
+
+/**
+ * category of the tests running benchmarks, they take long and measure the machine they run on so they are only
+ * run with the benchmark profile
+ */
+public interface PerformanceTest {
+}
@@ -0,0 +1,122 @@
+package com.jpm.stockmarket.benchmark;
+
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.jpm.stockmarket.gateway.BinaryTradeClient;
+import com.jpm.stockmarket.gateway.TcpTradeGateway;
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.repository.impl.TradeRepositoryImpl;
+import com.jpm.stockmarket.shard.ShardAddress;
+import com.jpm.stockmarket.shard.ShardConfig;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * ingestion throughput of 1, 2 and 4 shards in one JVM, each with its own repository and trade gateway and fed
+ * by its own client with the symbols it owns, the way feeds that know the shard config send their trades.
+ * The shards share nothing, so the rate should grow with their number as long as the machine has a core for
+ * every gateway and client thread
+ */
+@Slf4j
+@Category(PerformanceTest.class)
+public class ShardScalingTest {
+
+    private static final int TRADES = 2000000;
+    private static final int SYMBOLS = 64;
+
+    @Test
+    public void ingest_moreShards_higherRate() throws Exception {
+        // warm up the recording path before measuring
+        rate(1, TRADES / 4);
+        double oneShard = rate(1, TRADES);
+        double twoShards = rate(2, TRADES);
+        double fourShards = rate(4, TRADES);
+        log.info("trades/s with shards 1={} 2={} 4={}", (long) oneShard, (long) twoShards, (long) fourShards);
+
+        // a gateway and a client thread per shard
+        Assume.assumeTrue("too few cores to scale", Runtime.getRuntime().availableProcessors() >= 2 * 4);
+        assertThat("2 shards=" + twoShards + " 1 shard=" + oneShard, twoShards > 1.5 * oneShard,
+                CoreMatchers.is(true));
+        assertThat("4 shards=" + fourShards + " 2 shards=" + twoShards, fourShards > 1.5 * twoShards,
+                CoreMatchers.is(true));
+    }
+
+    /**
+     * @return trades per second of all the shards together
+     */
+    private static double rate(int shardCount, int trades) throws Exception {
+        List<ShardAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            addresses.add(new ShardAddress(i, "localhost", 0, 0));
+        }
+        ShardConfig config = new ShardConfig(addresses, 0);
+        List<List<String>> symbolsByShard = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            symbolsByShard.add(new ArrayList<>());
+        }
+        for (int i = 0; symbolsByShard.stream().anyMatch(symbols -> symbols.size() < SYMBOLS / shardCount); i++) {
+            String symbol = "S" + i;
+            List<String> symbols = symbolsByShard.get(config.ownerOf(symbol));
+            if (symbols.size() < SYMBOLS / shardCount) {
+                symbols.add(symbol);
+            }
+        }
+
+        List<TcpTradeGateway> gateways = new ArrayList<>();
+        ExecutorService feeds = Executors.newFixedThreadPool(shardCount);
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                TradeRepositoryImpl repository = new TradeRepositoryImpl();
+                repository.setup();
+                TcpTradeGateway gateway = new TcpTradeGateway(repository, "localhost", 0, 64 * 1024);
+                gateway.start();
+                gateways.add(gateway);
+            }
+            long start = System.nanoTime();
+            List<Future<Boolean>> fed = new ArrayList<>();
+            for (int i = 0; i < shardCount; i++) {
+                int port = gateways.get(i).getLocalPort();
+                List<String> symbols = symbolsByShard.get(i);
+                fed.add(feeds.submit(() -> feed(port, symbols, trades / shardCount)));
+            }
+            for (Future<Boolean> acked : fed) {
+                assertThat(acked.get(), CoreMatchers.is(true));
+            }
+            long elapsed = System.nanoTime() - start;
+            for (TcpTradeGateway gateway : gateways) {
+                assertThat(gateway.getRecorded().get(), CoreMatchers.is((long) trades / shardCount));
+            }
+            return trades * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+        } finally {
+            feeds.shutdownNow();
+            for (TcpTradeGateway gateway : gateways) {
+                gateway.stop();
+            }
+        }
+    }
+
+    private static boolean feed(int port, List<String> symbols, int trades) throws Exception {
+        try (BinaryTradeClient client = new BinaryTradeClient("localhost", port, 64 * 1024)) {
+            long last = 0;
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < trades; i++) {
+                last = client.send(symbols.get(i % symbols.size()), now, 1 + i % 100,
+                        i % 2 == 0 ? TradeIndicator.BUY : TradeIndicator.SELL, 10000 + i % 500, 2);
+            }
+            client.flush();
+            return client.awaitAck(last, 120, TimeUnit.SECONDS) && client.getRejected() == 0;
+        }
+    }
+}
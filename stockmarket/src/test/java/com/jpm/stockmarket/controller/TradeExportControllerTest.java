@@ -0,0 +1,47 @@
+package com.jpm.stockmarket.controller;
+
+import static com.jpm.stockmarket.model.TradeFixtures.trade;
+import static org.junit.Assert.assertThat;
+
+import java.math.BigDecimal;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.jpm.stockmarket.export.ColumnarTradeExporter;
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.repository.impl.TradeRepositoryImpl;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = TradeExportControllerTest.class)
+public class TradeExportControllerTest {
+
+    private TradeRepositoryImpl tradeRepository;
+    private TradeExportController underTest;
+
+    @Before
+    public void setup() {
+        tradeRepository = new TradeRepositoryImpl();
+        tradeRepository.setup();
+        underTest = new TradeExportController(new ColumnarTradeExporter(tradeRepository, 16));
+    }
+
+    @Test
+    public void export_success() throws Exception {
+        tradeRepository.recordTrade(trade("TEA", 1000, 1, TradeIndicator.BUY, BigDecimal.TEN));
+        assertThat(underTest.export("TEA", 0, Long.MAX_VALUE, null).getStatusCode(), CoreMatchers.is(HttpStatus.OK));
+    }
+
+    @Test
+    public void export_priceNotFitting_badRequest() throws Exception {
+        tradeRepository.recordTrade(trade("TEA", 1000, 1, TradeIndicator.BUY, BigDecimal.valueOf(Long.MAX_VALUE)));
+        tradeRepository.recordTrade(trade("TEA", 2000, 1, TradeIndicator.BUY, new BigDecimal("0.5")));
+        assertThat(underTest.export("TEA", 0, Long.MAX_VALUE, null).getStatusCode(),
+                CoreMatchers.is(HttpStatus.BAD_REQUEST));
+    }
+}
@@ -0,0 +1,167 @@
+package com.jpm.stockmarket.export;
+
+import static com.jpm.stockmarket.model.TradeFixtures.time;
+import static com.jpm.stockmarket.model.TradeFixtures.trade;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.model.Trade;
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.repository.impl.TradeRepositoryImpl;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = ColumnarTradeExportTest.class)
+public class ColumnarTradeExportTest {
+
+    private TradeRepositoryImpl tradeRepository;
+    private ColumnarTradeExporter underTest;
+
+    @Before
+    public void setup() {
+        tradeRepository = new TradeRepositoryImpl();
+        tradeRepository.setup();
+        // small chunks so the tests cross chunk boundaries
+        underTest = new ColumnarTradeExporter(tradeRepository, 7);
+    }
+
+    @Test
+    public void export_allColumns_roundTrip() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            tradeRepository.recordTrade(trade("TEA", 1000 + i, i + 1,
+                    i % 2 == 0 ? TradeIndicator.BUY : TradeIndicator.SELL, new BigDecimal("12." + (i % 10))));
+            tradeRepository.recordTrade(trade("POP", 1000 + i, 5, TradeIndicator.BUY, BigDecimal.TEN));
+        }
+        List<Trade> expected = tradeRepository.getTradesForAllStocks().stream()
+                .filter(t -> t.getStockSymbol().equals("TEA"))
+                .collect(Collectors.toList());
+
+        ColumnarTradeReader reader = exportAndRead("TEA", 0, Long.MAX_VALUE, EnumSet.allOf(TradeColumn.class), 20);
+        assertThat(reader.getSymbol(), CoreMatchers.is("TEA"));
+        List<Trade> trades = reader.readTrades();
+
+        assertThat(trades.size(), CoreMatchers.is(20));
+        for (int i = 0; i < 20; i++) {
+            assertThat(trades.get(i).getId(), CoreMatchers.is(expected.get(i).getId()));
+            assertThat(trades.get(i).getStockSymbol(), CoreMatchers.is("TEA"));
+            assertThat(trades.get(i).getTimeStamp(), CoreMatchers.is(expected.get(i).getTimeStamp()));
+            assertThat(trades.get(i).getShareQuantity(), CoreMatchers.is(expected.get(i).getShareQuantity()));
+            assertThat(trades.get(i).getIndicator(), CoreMatchers.is(expected.get(i).getIndicator()));
+            assertThat(trades.get(i).getTradePrice().compareTo(expected.get(i).getTradePrice()), CoreMatchers.is(0));
+        }
+    }
+
+    @Test
+    public void export_projection_onlyRequestedColumns() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            tradeRepository.recordTrade(trade("TEA", 1000 + i, 100, TradeIndicator.BUY, new BigDecimal("1.25")));
+        }
+
+        ColumnarTradeReader reader = exportAndRead("TEA", 0, Long.MAX_VALUE,
+                EnumSet.of(TradeColumn.TIMESTAMP, TradeColumn.PRICE), 10);
+        assertThat(reader.getColumns(), CoreMatchers.is(EnumSet.of(TradeColumn.TIMESTAMP, TradeColumn.PRICE)));
+
+        TradeChunk chunk = reader.readChunk();
+        assertThat(chunk.getRows(), CoreMatchers.is(7));
+        assertThat(chunk.getIds(), CoreMatchers.nullValue());
+        assertThat(chunk.getQuantities(), CoreMatchers.nullValue());
+        assertThat(chunk.getIndicators(), CoreMatchers.nullValue());
+        assertThat(chunk.getTimestamps()[3], CoreMatchers.is(1003L));
+        assertThat(chunk.getPriceScale(), CoreMatchers.is(2));
+        assertThat(chunk.getUnscaledPrices()[0], CoreMatchers.is(125L));
+        assertThat(reader.readChunk().getRows(), CoreMatchers.is(3));
+        assertThat(reader.readChunk(), CoreMatchers.nullValue());
+    }
+
+    @Test
+    public void export_timeRange_fromInclusiveToExclusive() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            tradeRepository.recordTrade(trade("TEA", 1000 * i, 1, TradeIndicator.BUY, BigDecimal.ONE));
+        }
+
+        ColumnarTradeReader reader = exportAndRead("TEA", 3000, 6000, EnumSet.of(TradeColumn.TIMESTAMP), 3);
+        assertThat(reader.getFromMillis(), CoreMatchers.is(3000L));
+        List<Trade> trades = reader.readTrades();
+        assertThat(trades.get(0).getTimeStamp(), CoreMatchers.is(time(3000)));
+        assertThat(trades.get(2).getTimeStamp(), CoreMatchers.is(time(5000)));
+    }
+
+    @Test
+    public void export_tradeWithoutTimestamp_notExported() throws Exception {
+        tradeRepository.recordTrade(trade("TEA", 1000, 1, TradeIndicator.BUY, BigDecimal.ONE));
+        tradeRepository.recordTrade(new Trade("TEA", null, 2, TradeIndicator.BUY, BigDecimal.ONE));
+        tradeRepository.recordTrade(trade("TEA", 2000, 3, TradeIndicator.BUY, BigDecimal.ONE));
+
+        List<Trade> trades = exportAndRead("TEA", Long.MIN_VALUE, Long.MAX_VALUE,
+                EnumSet.of(TradeColumn.TIMESTAMP, TradeColumn.QUANTITY), 2).readTrades();
+        assertThat(trades.get(0).getShareQuantity(), CoreMatchers.is(1L));
+        assertThat(trades.get(1).getShareQuantity(), CoreMatchers.is(3L));
+    }
+
+    @Test
+    public void export_priceNotFittingChunkScale_failureBeforeWriting() throws Exception {
+        tradeRepository.recordTrade(trade("TEA", 1000, 1, TradeIndicator.BUY, BigDecimal.valueOf(Long.MAX_VALUE)));
+        tradeRepository.recordTrade(trade("TEA", 2000, 1, TradeIndicator.BUY, new BigDecimal("0.5")));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            underTest.export("TEA", 0, Long.MAX_VALUE, EnumSet.allOf(TradeColumn.class), Channels.newChannel(out));
+            throw new AssertionError("price does not fit at scale 1");
+        } catch (GBCEServiceException e) {
+            assertThat(out.size(), CoreMatchers.is(0));
+        }
+        // without the prices there is nothing to check
+        exportAndRead("TEA", 0, Long.MAX_VALUE, EnumSet.of(TradeColumn.QUANTITY), 2);
+    }
+
+    @Test
+    public void export_compactedTrades_onlyRawOnesWritten() throws Exception {
+        tradeRepository.recordTrade(trade("TEA", 1000, 1, TradeIndicator.BUY, BigDecimal.TEN));
+        tradeRepository.recordTrade(trade("TEA", 200000, 1, TradeIndicator.BUY, BigDecimal.TEN));
+        assertThat(tradeRepository.compactTrades(100000), CoreMatchers.is(1));
+
+        List<Trade> trades = exportAndRead("TEA", 0, Long.MAX_VALUE, EnumSet.allOf(TradeColumn.class), 1)
+                .readTrades();
+        assertThat(trades.get(0).getTimeStamp(), CoreMatchers.is(time(200000)));
+    }
+
+    @Test
+    public void prepare_tradesRecordedAfter_notWritten() throws Exception {
+        tradeRepository.recordTrade(trade("TEA", 1000, 1, TradeIndicator.BUY, BigDecimal.TEN));
+        try (ColumnarTradeExporter.Export export = underTest.prepare("TEA", 0, Long.MAX_VALUE,
+                EnumSet.allOf(TradeColumn.class))) {
+            tradeRepository.recordTrade(trade("TEA", 2000, 1, TradeIndicator.BUY, BigDecimal.TEN));
+            assertThat(export.writeTo(Channels.newChannel(new ByteArrayOutputStream())), CoreMatchers.is(1L));
+        }
+    }
+
+    @Test(expected = GBCEServiceException.class)
+    public void export_noColumns_exception() throws Exception {
+        underTest.export("TEA", 0, Long.MAX_VALUE, EnumSet.noneOf(TradeColumn.class),
+                Channels.newChannel(new ByteArrayOutputStream()));
+    }
+
+    private ColumnarTradeReader exportAndRead(String symbol, long from, long to, Set<TradeColumn> columns,
+                                              long expectedRows) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long rows = underTest.export(symbol, from, to, columns, Channels.newChannel(out));
+        assertThat(rows, CoreMatchers.is(expectedRows));
+        return new ColumnarTradeReader(Channels.newChannel(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.jpm.stockmarket.gateway;
+
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.jpm.stockmarket.model.Trade;
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.repository.impl.TradeRepositoryImpl;
+
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = TcpTradeGatewayTest.class)
+public class TcpTradeGatewayTest {
+
+    private TradeRepositoryImpl tradeRepository;
+    private TcpTradeGateway underTest;
+
+    @Before
+    public void setup() throws Exception {
+        tradeRepository = new TradeRepositoryImpl();
+        tradeRepository.setup();
+        // port 0 picks any free port
+        underTest = new TcpTradeGateway(tradeRepository, "localhost", 0, 64 * 1024);
+        underTest.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        underTest.stop();
+    }
+
+    @Test
+    public void encodeDecode_roundTrip_success() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BinaryTradeProtocol.FRAME_LENGTH);
+        TradeFrame.encode(buffer, 7, "GIN", 1000L, 25, TradeIndicator.SELL, new BigDecimal("101.25"));
+        buffer.flip();
+        assertThat(buffer.getInt(), CoreMatchers.is(BinaryTradeProtocol.BODY_LENGTH));
+
+        TradeFrame frame = new TradeFrame();
+        frame.decode(buffer);
+        assertThat(frame.getSequence(), CoreMatchers.is(7L));
+        assertThat(frame.getSymbol(), CoreMatchers.is("GIN"));
+        assertThat(frame.getQuantity(), CoreMatchers.is(25L));
+        assertThat(frame.getIndicator(), CoreMatchers.is(TradeIndicator.SELL));
+        assertThat(frame.toTrade().getTradePrice(), CoreMatchers.is(new BigDecimal("101.25")));
+        assertThat(buffer.hasRemaining(), CoreMatchers.is(false));
+    }
+
+    @Test
+    public void sendTrades_pipelined_allAcked() throws Exception {
+        try (BinaryTradeClient client = new BinaryTradeClient("localhost", underTest.getLocalPort(), 16 * 1024)) {
+            long last = 0;
+            for (int i = 0; i < 3; i++) {
+                last = client.send("TEA", System.currentTimeMillis(), 10 + i, TradeIndicator.BUY,
+                        BigDecimal.valueOf(100 + i));
+            }
+            client.flush();
+            assertThat(client.awaitAck(last, 10, TimeUnit.SECONDS), CoreMatchers.is(true));
+        }
+
+        List<Trade> trades = tradeRepository.getTradesForAllStocks();
+        assertThat(trades.size(), CoreMatchers.is(3));
+        assertThat(trades.get(2).getShareQuantity(), CoreMatchers.is(12L));
+        assertThat(trades.get(2).getTradePrice(), CoreMatchers.is(BigDecimal.valueOf(102)));
+    }
+
+    @Test
+    public void sendTrades_invalidFrameAfterValidOnes_ackedBeforeClose() throws Exception {
+        ByteBuffer frames = ByteBuffer.allocate(3 * BinaryTradeProtocol.FRAME_LENGTH + 4);
+        for (int i = 1; i <= 3; i++) {
+            TradeFrame.encode(frames, i, "TEA", 1000L, 10, TradeIndicator.BUY, BigDecimal.TEN);
+        }
+        frames.putInt(BinaryTradeProtocol.BODY_LENGTH + 1);
+        frames.flip();
+
+        try (SocketChannel channel = SocketChannel.open(
+                new InetSocketAddress("localhost", underTest.getLocalPort()))) {
+            while (frames.hasRemaining()) {
+                channel.write(frames);
+            }
+            ByteBuffer acks = ByteBuffer.allocate(64);
+            while (channel.read(acks) >= 0) {
+                // until the gateway closed the connection
+            }
+            acks.flip();
+            // one cumulative ack per read of the gateway, the last one covers every valid frame
+            long acked = 0;
+            while (acks.remaining() >= BinaryTradeProtocol.ACK_LENGTH) {
+                assertThat(acks.get(), CoreMatchers.is(BinaryTradeProtocol.ACK));
+                acked = acks.getLong();
+            }
+            assertThat(acks.hasRemaining(), CoreMatchers.is(false));
+            assertThat(acked, CoreMatchers.is(3L));
+        }
+        assertThat(tradeRepository.getTradesForAllStocks().size(), CoreMatchers.is(3));
+    }
+
+    @Test
+    public void sendTrades_everyOtherRejected_ackedAheadOfEachReject() throws Exception {
+        tradeRepository.setAcceptedSymbols(symbol -> !"BAD".equals(symbol));
+        underTest.stop();
+        // room for a few replies only
+        underTest = new TcpTradeGateway(tradeRepository, "localhost", 0, 2 * BinaryTradeProtocol.FRAME_LENGTH);
+        underTest.start();
+        int count = 20000;
+        ByteBuffer frames = ByteBuffer.allocate(count * BinaryTradeProtocol.FRAME_LENGTH);
+        for (int i = 1; i <= count; i++) {
+            // every other trade is rejected
+            TradeFrame.encode(frames, i, i % 2 == 0 ? "BAD" : "TEA", 1000L, 10, TradeIndicator.BUY, BigDecimal.TEN);
+        }
+        frames.flip();
+
+        try (SocketChannel channel = SocketChannel.open(
+                new InetSocketAddress("localhost", underTest.getLocalPort()))) {
+            Thread writer = new Thread(() -> {
+                try {
+                    while (frames.hasRemaining()) {
+                        channel.write(frames);
+                    }
+                } catch (IOException e) {
+                    log.info("writer stopped", e);
+                }
+            });
+            writer.start();
+            // the replies pile up before any is read
+            writer.join(1000);
+
+            ByteBuffer replies = ByteBuffer.allocate(BinaryTradeProtocol.ACK_LENGTH * 1024);
+            long acked = 0;
+            long rejected = 0;
+            long settled = 0;
+            while (settled < count && channel.read(replies) >= 0) {
+                replies.flip();
+                while (replies.remaining() >= BinaryTradeProtocol.ACK_LENGTH) {
+                    byte type = replies.get();
+                    long sequence = replies.getLong();
+                    if (type == BinaryTradeProtocol.REJECT) {
+                        // trades before a rejected one are acked ahead of its reject
+                        assertThat(sequence % 2, CoreMatchers.is(0L));
+                        assertThat(acked, CoreMatchers.is(sequence - 1));
+                        rejected++;
+                    } else {
+                        assertThat(sequence % 2, CoreMatchers.is(1L));
+                        acked = sequence;
+                    }
+                    settled = sequence;
+                }
+                replies.compact();
+            }
+            writer.join();
+            assertThat(settled, CoreMatchers.is((long) count));
+            assertThat(rejected, CoreMatchers.is((long) count / 2));
+        }
+        assertThat(tradeRepository.getTradesForAllStocks().size(), CoreMatchers.is(count / 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void create_bufferSmallerThanFrame_failure() {
+        new TcpTradeGateway(tradeRepository, "localhost", 0, BinaryTradeProtocol.FRAME_LENGTH - 1);
+    }
+
+    @Test
+    public void sendTrades_manyPipelined_allRecorded() throws Exception {
+        int count = 20000;
+        String[] symbols = {"TEA", "POP", "ALE", "GIN", "JOE"};
+        long start = System.nanoTime();
+        try (BinaryTradeClient client = new BinaryTradeClient("localhost", underTest.getLocalPort(), 64 * 1024)) {
+            long last = 0;
+            for (int i = 0; i < count; i++) {
+                last = client.send(symbols[i % symbols.length], System.currentTimeMillis(), 1,
+                        TradeIndicator.BUY, BigDecimal.valueOf(i % 100 + 1, 2));
+            }
+            client.flush();
+            assertThat(client.awaitAck(last, 60, TimeUnit.SECONDS), CoreMatchers.is(true));
+            assertThat(client.getRejected(), CoreMatchers.is(0L));
+        }
+        long elapsed = System.nanoTime() - start;
+        log.info("recorded trades={} in {}ms, rate={}/s", count, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                count * TimeUnit.SECONDS.toNanos(1) / elapsed);
+
+        assertThat(underTest.getRecorded().get(), CoreMatchers.is((long) count));
+        assertThat(tradeRepository.getTradesForAllStocks().size(), CoreMatchers.is(count));
+    }
+}
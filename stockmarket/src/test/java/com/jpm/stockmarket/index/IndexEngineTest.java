@@ -0,0 +1,169 @@
+package com.jpm.stockmarket.index;
+
+import static org.junit.Assert.assertThat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.hamcrest.CoreMatchers;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.jpm.stockmarket.model.Stock;
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.model.TradeView;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = IndexEngineTest.class)
+public class IndexEngineTest {
+
+    private static final double DELTA = 1e-9;
+
+    private IndexEngine underTest;
+
+    @Before
+    public void setup() {
+        underTest = new IndexEngine();
+    }
+
+    @Test
+    public void record_geometricPriceIndex_weighted() {
+        underTest.define(new IndexDefinition("BASKET", weights("TEA", 1, "POP", 3), IndexMethod.GEOMETRIC,
+                IndexBasis.PRICE));
+        record("TEA", 10, 1, 0);
+        assertThat(underTest.getValue("BASKET"), Matchers.closeTo(10, DELTA));
+
+        record("POP", 20, 1, 0);
+        record("TEA", 40, 1, 0);
+        // (40 × 20³)^(1/4)
+        assertThat(underTest.getValue("BASKET"), Matchers.closeTo(Math.pow(40 * 8000.0, 0.25), DELTA));
+    }
+
+    @Test
+    public void record_arithmeticVwapIndex_followsWindow() {
+        underTest.define(new IndexDefinition("VWAP", weights("TEA", 1, "POP", 1), IndexMethod.ARITHMETIC,
+                IndexBasis.VWAP));
+        record("TEA", 10, 1, 0);
+        record("TEA", 20, 3, 100);
+        record("POP", 30, 1, 100);
+        // TEA (10 + 60) / 4 = 17.5
+        assertThat(underTest.getValue("VWAP"), Matchers.closeTo((17.5 + 30) / 2, DELTA));
+
+        // the TEA window expired, its VWAP starts over
+        record("TEA", 50, 1, 5000);
+        assertThat(underTest.getValue("VWAP"), Matchers.closeTo((50 + 30) / 2.0, DELTA));
+    }
+
+    @Test
+    public void define_afterTrades_startsFromRecordedValues() {
+        record("TEA", 10, 1, 0);
+        record("GIN", 99, 1, 0);
+        record("JOE", 40, 1, 0);
+        underTest.define(IndexDefinition.ofType("COMMON", Stock.StockTypes.COMMON, IndexMethod.GEOMETRIC,
+                IndexBasis.PRICE));
+
+        assertThat(underTest.getValue("COMMON"), Matchers.closeTo(20, DELTA));
+        assertThat(Double.isNaN(underTest.getValue("PREFERRED")), CoreMatchers.is(true));
+    }
+
+    @Test
+    public void remove_symbolNoLongerMovesIndex() {
+        underTest.define(new IndexDefinition("ONE", weights("TEA", 1, "POP", 1), IndexMethod.ARITHMETIC,
+                IndexBasis.PRICE));
+        underTest.define(new IndexDefinition("TWO", weights("TEA", 1, "ALE", 1), IndexMethod.ARITHMETIC,
+                IndexBasis.PRICE));
+        record("TEA", 10, 1, 0);
+
+        assertThat(underTest.remove("ONE"), CoreMatchers.is(true));
+        record("TEA", 30, 1, 0);
+        assertThat(underTest.isDefined("ONE"), CoreMatchers.is(false));
+        assertThat(Double.isNaN(underTest.getValue("ONE")), CoreMatchers.is(true));
+        assertThat(underTest.getValue("TWO"), Matchers.closeTo(30, DELTA));
+    }
+
+    @Test
+    public void record_manyIndices_onlyBasketsOfSymbolMoved() {
+        for (int i = 0; i < 2000; i++) {
+            underTest.define(new IndexDefinition("IDX" + i, weights(i % 2 == 0 ? "TEA" : "POP", 1, "ALE", 1),
+                    IndexMethod.GEOMETRIC, IndexBasis.PRICE));
+        }
+        record("TEA", 4, 1, 0);
+        record("ALE", 9, 1, 0);
+
+        assertThat(underTest.getValue("IDX0"), Matchers.closeTo(6, DELTA));
+        assertThat(underTest.getValue("IDX1"), Matchers.closeTo(9, DELTA));
+    }
+
+    @Test
+    public void record_manyMoves_sumsRecalculated() {
+        underTest.define(new IndexDefinition("ARITH", weights("TEA", 1, "POP", 1), IndexMethod.ARITHMETIC,
+                IndexBasis.PRICE));
+        record("POP", 1, 1, 0);
+        record("TEA", 3, 1, 0);
+        // every move to and back from 1e17 loses the small values in the running sum
+        for (int i = 0; i < IndexEngine.RECALCULATE_MOVES; i++) {
+            record("TEA", i % 2 == 0 ? 100000000000000000L : 3, 1, 0);
+        }
+
+        assertThat(underTest.getValue("ARITH"), Matchers.closeTo(2, DELTA));
+    }
+
+    @Test
+    public void record_nonPositivePriceOfGeometricConstituent_ignored() {
+        underTest.define(new IndexDefinition("BASKET", weights("TEA", 1, "POP", 1), IndexMethod.GEOMETRIC,
+                IndexBasis.PRICE));
+        record("TEA", 10, 1, 0);
+        record("TEA", 0, 1, 0);
+        record("TEA", -5, 1, 0);
+
+        assertThat(underTest.getValue("BASKET"), Matchers.closeTo(10, DELTA));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void define_geometricOverNonPositivePrice_failure() {
+        record("TEA", 0, 1, 0);
+        underTest.define(new IndexDefinition("BASKET", weights("TEA", 1, "POP", 1), IndexMethod.GEOMETRIC,
+                IndexBasis.PRICE));
+    }
+
+    @Test
+    public void define_sameName_replacedIndexLeavesItsSymbols() {
+        underTest.define(new IndexDefinition("ONE", weights("TEA", 1, "POP", 1), IndexMethod.ARITHMETIC,
+                IndexBasis.PRICE));
+        record("TEA", 10, 1, 0);
+        record("POP", 20, 1, 0);
+        underTest.define(new IndexDefinition("ONE", weights("TEA", 1, "ALE", 1), IndexMethod.ARITHMETIC,
+                IndexBasis.PRICE));
+        assertThat(underTest.getValue("ONE"), Matchers.closeTo(10, DELTA));
+
+        record("POP", 50, 1, 0);
+        record("ALE", 30, 1, 0);
+        assertThat(underTest.getValue("ONE"), Matchers.closeTo(20, DELTA));
+        assertThat(underTest.getDefinition("ONE").getWeights().keySet(), Matchers.contains("TEA", "ALE"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void define_negativeWeight_failure() {
+        new IndexDefinition("BAD", weights("TEA", -1, "POP", 1), IndexMethod.GEOMETRIC, IndexBasis.PRICE);
+    }
+
+    private void record(String symbol, long price, long quantity, long nowMillis) {
+        TradeView trade = new TradeView();
+        trade.setSymbol(symbol);
+        trade.setQuantity(quantity);
+        trade.setIndicator(TradeIndicator.BUY);
+        trade.setPrice(price, 0);
+        underTest.record(trade, nowMillis, 2000);
+    }
+
+    private static Map<String, Double> weights(String first, double firstWeight, String second, double secondWeight) {
+        Map<String, Double> weights = new LinkedHashMap<>();
+        weights.put(first, firstWeight);
+        weights.put(second, secondWeight);
+        return weights;
+    }
+}
@@ -0,0 +1,186 @@
+package com.jpm.stockmarket.loader;
+
+import static com.jpm.stockmarket.model.TradeFixtures.trade;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.gateway.TradeFrame;
+import com.jpm.stockmarket.model.MarketState;
+import com.jpm.stockmarket.model.SymbolAggregate;
+import com.jpm.stockmarket.model.Trade;
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.repository.impl.TradeRepositoryImpl;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = BulkTradeLoaderTest.class)
+public class BulkTradeLoaderTest {
+
+    private static final String[] SYMBOLS = {"TEA", "POP", "ALE", "GIN", "JOEVERYLONG"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TradeRepositoryImpl tradeRepository;
+    private BulkTradeLoader underTest;
+
+    @Before
+    public void setup() {
+        tradeRepository = new TradeRepositoryImpl();
+        tradeRepository.setup();
+        // small chunks and batches so a few thousand trades are split many times
+        underTest = new BulkTradeLoader(tradeRepository, 4, 4096, 500);
+    }
+
+    @Test
+    public void load_csv_sameAsSequential() throws Exception {
+        List<Trade> expected = new ArrayList<>();
+        File file = folder.newFile("trades.csv");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII)) {
+            writer.write("symbol,timestamp,quantity,indicator,price\n");
+            for (int i = 0; i < 5000; i++) {
+                Trade trade = generated(i);
+                expected.add(trade);
+                long millis = 1561939200000L + i * 10L;
+                String timestamp = i % 2 == 0 ? Long.toString(millis) : trade.getTimeStamp().toString();
+                writer.write(trade.getStockSymbol() + "," + timestamp + "," + trade.getShareQuantity() + ","
+                        + trade.getIndicator() + "," + trade.getTradePrice().toPlainString()
+                        + (i % 3 == 0 ? "\r\n" : "\n"));
+                if (i % 1000 == 0) {
+                    writer.write("\n");
+                }
+            }
+        }
+
+        LoadProgress result = underTest.load(file.toPath(), TradeFileFormat.CSV);
+
+        assertThat(result.getTrades(), CoreMatchers.is(5000L));
+        assertSameAsSequential(expected);
+    }
+
+    @Test
+    public void load_binary_sameAsSequential() throws Exception {
+        List<Trade> expected = new ArrayList<>();
+        File file = folder.newFile("trades.bin");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(46);
+            for (int i = 0; i < 5000; i++) {
+                Trade trade = generated(i);
+                trade.setStockSymbol(trade.getStockSymbol().substring(0, 3));
+                expected.add(trade);
+                buffer.clear();
+                TradeFrame.encode(buffer, i, trade.getStockSymbol(), 1561939200000L + i * 10L,
+                        trade.getShareQuantity(), trade.getIndicator(), trade.getTradePrice());
+                buffer.flip();
+                channel.write(buffer);
+            }
+        }
+
+        LoadProgress result = underTest.load(file.toPath(), TradeFileFormat.BINARY);
+
+        assertThat(result.getTrades(), CoreMatchers.is(5000L));
+        assertThat(result.getBytes(), CoreMatchers.is(5000L * 46));
+        assertSameAsSequential(expected);
+    }
+
+    @Test
+    public void load_progress_reportedPerChunk() throws Exception {
+        File file = folder.newFile("progress.csv");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < 1000; i++) {
+                writer.write("TEA,1561939200000,10,BUY,12.5\n");
+            }
+        }
+        List<LoadProgress> reports = new ArrayList<>();
+
+        underTest.load(file.toPath(), TradeFileFormat.CSV, reports::add);
+
+        assertThat(reports.size() > 1, CoreMatchers.is(true));
+        LoadProgress last = reports.get(reports.size() - 1);
+        assertThat(last.getTrades(), CoreMatchers.is(1000L));
+        assertThat(last.getBytes(), CoreMatchers.is(file.length()));
+        assertThat(last.getPercent(), CoreMatchers.is(100d));
+    }
+
+    @Test(expected = GBCEServiceException.class)
+    public void load_malformedCsv_exception() throws Exception {
+        File file = folder.newFile("bad.csv");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII)) {
+            writer.write("TEA,1561939200000,10,BUY,12.5\n");
+            writer.write("TEA,1561939200000,ten,BUY,12.5\n");
+        }
+        underTest.load(file.toPath(), TradeFileFormat.CSV);
+    }
+
+    @Test(expected = GBCEServiceException.class)
+    public void load_truncatedBinary_exception() throws Exception {
+        File file = folder.newFile("bad.bin");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(50));
+        }
+        underTest.load(file.toPath(), TradeFileFormat.BINARY);
+    }
+
+    private void assertSameAsSequential(List<Trade> expected) throws GBCEServiceException {
+        TradeRepositoryImpl sequential = new TradeRepositoryImpl();
+        sequential.setup();
+        for (Trade trade : expected) {
+            sequential.recordTrade(trade);
+        }
+
+        List<Trade> loaded = tradeRepository.getTradesForAllStocks();
+        assertThat(loaded.size(), CoreMatchers.is(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(loaded.get(i).getStockSymbol(), CoreMatchers.is(expected.get(i).getStockSymbol()));
+            assertThat(loaded.get(i).getTimeStamp(), CoreMatchers.is(expected.get(i).getTimeStamp()));
+            assertThat(loaded.get(i).getShareQuantity(), CoreMatchers.is(expected.get(i).getShareQuantity()));
+            assertThat(loaded.get(i).getIndicator(), CoreMatchers.is(expected.get(i).getIndicator()));
+            assertThat(loaded.get(i).getTradePrice(), CoreMatchers.is(expected.get(i).getTradePrice()));
+        }
+
+        MarketState loadedState = tradeRepository.getMarketState();
+        MarketState sequentialState = sequential.getMarketState();
+        assertThat(loadedState.getEpoch(), CoreMatchers.is(sequentialState.getEpoch()));
+        assertThat(loadedState.getTradeCount(), CoreMatchers.is(sequentialState.getTradeCount()));
+        assertThat(loadedState.getLogPriceSum(), CoreMatchers.is(sequentialState.getLogPriceSum()));
+        List<SymbolAggregate> loadedAggregates = loadedState.getAggregates();
+        List<SymbolAggregate> sequentialAggregates = sequentialState.getAggregates();
+        assertThat(loadedAggregates.size(), CoreMatchers.is(sequentialAggregates.size()));
+        for (int i = 0; i < sequentialAggregates.size(); i++) {
+            assertThat(loadedAggregates.get(i).getSymbol(), CoreMatchers.is(sequentialAggregates.get(i).getSymbol()));
+            assertThat(loadedAggregates.get(i).getTradeCount(),
+                    CoreMatchers.is(sequentialAggregates.get(i).getTradeCount()));
+            assertThat(loadedAggregates.get(i).getLogPriceSum(),
+                    CoreMatchers.is(sequentialAggregates.get(i).getLogPriceSum()));
+            assertThat(loadedAggregates.get(i).getLastPrice(),
+                    CoreMatchers.is(sequentialAggregates.get(i).getLastPrice()));
+        }
+    }
+
+    private static Trade generated(int i) {
+        // prices with different scales
+        BigDecimal price = BigDecimal.valueOf(1000 + i % 97, i % 3);
+        return trade(SYMBOLS[i % SYMBOLS.length], 1561939200000L + i * 10L, 1 + i % 50,
+                i % 2 == 0 ? TradeIndicator.BUY : TradeIndicator.SELL, price);
+    }
+}
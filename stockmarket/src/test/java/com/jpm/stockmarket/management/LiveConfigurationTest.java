@@ -0,0 +1,62 @@
+package com.jpm.stockmarket.management;
+
+import static org.junit.Assert.assertThat;
+
+import java.math.BigDecimal;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.model.Trade;
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.repository.impl.StockRepositoryImpl;
+import com.jpm.stockmarket.repository.impl.TradeRepositoryImpl;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = LiveConfigurationTest.class)
+public class LiveConfigurationTest {
+
+    private TradeRepositoryImpl tradeRepo;
+    private LiveConfiguration underTest;
+
+    @Before
+    public void setup() {
+        tradeRepo = new TradeRepositoryImpl();
+        tradeRepo.setup();
+        StockRepositoryImpl stockRepo = new StockRepositoryImpl();
+        stockRepo.initialize();
+        underTest = new LiveConfiguration(tradeRepo, stockRepo);
+    }
+
+    @Test
+    public void attributes_changedWhileRecording_noTradeLost() throws GBCEServiceException {
+        tradeRepo.recordTrade(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.ONE));
+
+        underTest.setTradeWindowMillis(60000);
+        underTest.setStockCacheMaximumSize(10);
+        underTest.setEventTimeBucketMillis(5000);
+        underTest.setCompactionBucketMillis(60000);
+        underTest.reshapeAnalytics(1000, 60);
+        tradeRepo.recordTrade(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.ONE));
+
+        assertThat(underTest.getTradeWindowMillis(), CoreMatchers.is(60000L));
+        assertThat(underTest.getStockCacheMaximumSize(), CoreMatchers.is(10L));
+        assertThat(underTest.getEventTimeBucketMillis(), CoreMatchers.is(5000L));
+        assertThat(underTest.getCompactionBucketMillis(), CoreMatchers.is(60000L));
+        assertThat(underTest.getAnalyticsBucketMillis(), CoreMatchers.is(1000L));
+        assertThat(underTest.getAnalyticsBucketCount(), CoreMatchers.is(60));
+        assertThat(tradeRepo.getLatestTrades("TEA").size(), CoreMatchers.is(2));
+        assertThat(tradeRepo.getTradeAnalytics().getPriceSketch("TEA", System.currentTimeMillis()).getCount(),
+                CoreMatchers.is(2L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reshapeAnalytics_invalid_failure() {
+        underTest.reshapeAnalytics(0, 10);
+    }
+}
@@ -0,0 +1,88 @@
+package com.jpm.stockmarket.model;
+
+import static org.junit.Assert.assertThat;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.hamcrest.CoreMatchers;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class MarketStateWriterTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void publish_windowRestartedAfterExpiry_success() {
+        MarketStateWriter underTest = new MarketStateWriter();
+        underTest.record(new TradeView().set(new Trade("TEA", null, 2, TradeIndicator.BUY, BigDecimal.TEN)), 0, 10);
+        underTest.record(new TradeView().set(new Trade("TEA", null, 3, TradeIndicator.BUY, new BigDecimal("1.5"))),
+                5, 10);
+        underTest.record(new TradeView().set(new Trade("POP", null, 1, TradeIndicator.BUY, BigDecimal.ONE)), 6, 10);
+        SymbolAggregate live = underTest.publish().getAggregate("TEA").get();
+        assertThat(live.getWindowNotional(), CoreMatchers.is(new BigDecimal("24.5")));
+        assertThat(live.getWindowQuantity(), CoreMatchers.is(5L));
+        assertThat(live.getWindowTradeCount(), CoreMatchers.is(2L));
+        assertThat(live.getWindowExpiresAtMillis(), CoreMatchers.is(15L));
+
+        // the window expired at 15, the next trade restarts it
+        underTest.record(new TradeView().set(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.valueOf(4))),
+                15, 10);
+        underTest.record(new TradeView().set(new Trade("TEA", null, 1, TradeIndicator.BUY, null)), 16, 10);
+        MarketState state = underTest.publish();
+        SymbolAggregate restarted = state.getAggregate("TEA").get();
+        assertThat(restarted.getTradeCount(), CoreMatchers.is(3L));
+        assertThat(restarted.getLastPrice(), CoreMatchers.is(BigDecimal.valueOf(4)));
+        assertThat(restarted.getWindowNotional(), CoreMatchers.is(BigDecimal.valueOf(4)));
+        assertThat(restarted.getWindowQuantity(), CoreMatchers.is(1L));
+        assertThat(restarted.getWindowTradeCount(), CoreMatchers.is(1L));
+        assertThat(restarted.getWindowExpiresAtMillis(), CoreMatchers.is(25L));
+        assertThat(restarted.getLogPriceSum(), Matchers.closeTo(Math.log(10) + Math.log(1.5) + Math.log(4), DELTA));
+
+        // the trade without a price only advances the epoch
+        assertThat(state.getEpoch(), CoreMatchers.is(5L));
+        assertThat(state.getTradeCount(), CoreMatchers.is(4L));
+        assertThat(state.getLogPriceSum(), Matchers.closeTo(restarted.getLogPriceSum(), DELTA));
+        assertThat(underTest.publish(), CoreMatchers.sameInstance(state));
+    }
+
+    @Test
+    public void publish_symbolsOfSeveralChunks_success() {
+        MarketStateWriter underTest = new MarketStateWriter();
+        TradeView view = new TradeView();
+        int symbols = 3 * MarketState.CHUNK_SIZE + 1;
+        for (int i = 0; i < 2 * symbols; i++) {
+            underTest.record(view.set(new Trade("S" + i % symbols, null, 1, TradeIndicator.BUY,
+                    BigDecimal.valueOf(1 + i))), i, 1000);
+            if (i % 17 == 0) {
+                // publishing in between copies only the chunks changed since
+                underTest.publish();
+            }
+        }
+        MarketState state = underTest.publish();
+        List<SymbolAggregate> aggregates = state.getAggregates();
+        assertThat(aggregates.size(), CoreMatchers.is(symbols));
+        for (int i = 0; i < symbols; i++) {
+            SymbolAggregate aggregate = state.getAggregate("S" + i).get();
+            assertThat(aggregates.get(i), CoreMatchers.sameInstance(aggregate));
+            assertThat(aggregate.getTradeCount(), CoreMatchers.is(2L));
+            assertThat(aggregate.getLastPrice(), CoreMatchers.is(BigDecimal.valueOf(1 + i + symbols)));
+            assertThat(aggregate.getWindowNotional(), CoreMatchers.is(BigDecimal.valueOf(2 + 2 * i + symbols)));
+        }
+    }
+
+    @Test
+    public void publish_earlierState_unchanged() {
+        MarketStateWriter underTest = new MarketStateWriter();
+        underTest.record(new TradeView().set(new Trade("TEA", null, 2, TradeIndicator.BUY, BigDecimal.TEN)), 0, 10);
+        MarketState before = underTest.publish();
+        underTest.record(new TradeView().set(new Trade("TEA", null, 3, TradeIndicator.BUY, BigDecimal.ONE)), 1, 10);
+        MarketState after = underTest.publish();
+
+        assertThat(before.getAggregate("TEA").get().getLastPrice(), CoreMatchers.is(BigDecimal.TEN));
+        assertThat(before.getAggregate("TEA").get().getWindowNotional(), CoreMatchers.is(BigDecimal.valueOf(20)));
+        assertThat(after.getAggregate("TEA").get().getLastPrice(), CoreMatchers.is(BigDecimal.ONE));
+        assertThat(after.getAggregate("TEA").get().getWindowNotional(), CoreMatchers.is(BigDecimal.valueOf(23)));
+    }
+}
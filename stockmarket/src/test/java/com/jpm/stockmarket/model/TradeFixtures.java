@@ -0,0 +1,50 @@
+package com.jpm.stockmarket.model;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * trades the tests record, timestamps are given as epoch milliseconds
+ */
+public final class TradeFixtures {
+
+    private TradeFixtures() {
+    }
+
+    public static Trade trade(String symbol, long timeMillis, long quantity, TradeIndicator indicator,
+                              BigDecimal price) {
+        return new Trade(symbol, time(timeMillis), quantity, indicator, price);
+    }
+
+    /**
+     * @return one share bought at the time
+     */
+    public static Trade trade(String symbol, long timeMillis, long price) {
+        return trade(symbol, timeMillis, 1, TradeIndicator.BUY, BigDecimal.valueOf(price));
+    }
+
+    /**
+     * @return one share bought now
+     */
+    public static Trade trade(String symbol, long price) {
+        return trade(symbol, System.currentTimeMillis(), price);
+    }
+
+    /**
+     * @return one share bought without timestamp, as the repository hands it out
+     */
+    public static TradeView view(String symbol, long id, long priceUnscaled, int priceScale) {
+        TradeView view = new TradeView();
+        view.setId(id);
+        view.setSymbol(symbol);
+        view.setQuantity(1);
+        view.setIndicator(TradeIndicator.BUY);
+        return view.setPrice(priceUnscaled, priceScale);
+    }
+
+    public static LocalDateTime time(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+}
@@ -0,0 +1,280 @@
+package com.jpm.stockmarket.replication;
+
+import static com.jpm.stockmarket.model.TradeFixtures.view;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.client.RestTemplate;
+
+import com.jpm.stockmarket.StockmarketApplication;
+import com.jpm.stockmarket.controller.ReplicatedReadController;
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.gateway.SymbolTable;
+import com.jpm.stockmarket.model.Trade;
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.model.TradeView;
+import com.jpm.stockmarket.repository.impl.TradeRepositoryImpl;
+import com.jpm.stockmarket.service.CalculationService;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = ReplicationTest.class)
+public class ReplicationTest {
+
+    private TradeRepositoryImpl primaryRepo;
+    private TradeRepositoryImpl replicaRepo;
+    private ReplicationPrimary primary;
+    private ReplicationReplica replica;
+
+    @Before
+    public void setup() throws IOException {
+        primaryRepo = new TradeRepositoryImpl();
+        primaryRepo.setup();
+        replicaRepo = new TradeRepositoryImpl();
+        replicaRepo.setup();
+        // port 0 picks any free port
+        primary = new ReplicationPrimary(primaryRepo, "localhost", 0, 1024, 20, 4096);
+        primary.start();
+        replica = new ReplicationReplica(replicaRepo, "localhost", primary.getLocalPort(), 50, 4096);
+        replica.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        replica.stop();
+        primary.stop();
+    }
+
+    @Test
+    public void replicate_tradesAppliedInLogOrder_success() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            Trade trade = new Trade(i % 2 == 0 ? "TEA" : "GIN", null, 10 + i, TradeIndicator.BUY,
+                    BigDecimal.valueOf(100 + i, 1));
+            primaryRepo.recordTrade(trade);
+        }
+        // unpriced trades take a log position as well
+        TradeView unpriced = new TradeView();
+        unpriced.setSymbol("POP");
+        primaryRepo.ingestTrade(unpriced);
+
+        assertThat(replica.awaitPosition(101, 5, TimeUnit.SECONDS), CoreMatchers.is(true));
+        List<Trade> shipped = replicaRepo.getTradesForAllStocks();
+        assertThat(shipped.size(), CoreMatchers.is(primaryRepo.getTradesForAllStocks().size()));
+        assertThat(replicaRepo.getMarketState().getLogPriceSum(),
+                CoreMatchers.is(primaryRepo.getMarketState().getLogPriceSum()));
+        // recorded as of the primary's time, so the windows match
+        assertThat(replicaRepo.getMarketState().getAggregate("TEA").get().getWindowExpiresAtMillis(),
+                CoreMatchers.is(primaryRepo.getMarketState().getAggregate("TEA").get().getWindowExpiresAtMillis()));
+        assertThat(replicaRepo.getMarketState().getAggregate("TEA").get().getWindowNotional(),
+                CoreMatchers.is(primaryRepo.getMarketState().getAggregate("TEA").get().getWindowNotional()));
+        assertThat(replicaRepo.getIndexEngine().getValue("COMMON"),
+                CoreMatchers.is(primaryRepo.getIndexEngine().getValue("COMMON")));
+
+        ReplicationStatus status = replica.getStatus();
+        assertThat(status.getRole(), CoreMatchers.is(ReplicationRole.REPLICA));
+        assertThat(status.getPosition(), CoreMatchers.is(101L));
+        assertThat(status.getLagTrades(), CoreMatchers.is(0L));
+    }
+
+    @Test
+    public void replicate_moreSymbolsThanAFeedMayBring_success() throws Exception {
+        int symbols = SymbolTable.MAX_FEED_SYMBOLS + 1;
+        TradeView trade = new TradeView();
+        trade.setQuantity(1);
+        trade.setPrice(100, 0);
+        for (int i = 0; i < symbols; i++) {
+            trade.setSymbol("S" + i);
+            primaryRepo.ingestTrade(trade);
+            // within what the primary's log holds
+            if (i % 512 == 511) {
+                assertThat(replica.awaitPosition(i + 1, 5, TimeUnit.SECONDS), CoreMatchers.is(true));
+            }
+        }
+
+        assertThat(replica.awaitPosition(symbols, 5, TimeUnit.SECONDS), CoreMatchers.is(true));
+        assertThat(replicaRepo.getTradesForAllStocks().get(symbols - 1).getStockSymbol(),
+                CoreMatchers.is("S" + (symbols - 1)));
+    }
+
+    @Test
+    public void promote_afterPrimaryStopped_takesWrites() throws Exception {
+        ReplicaTradeRepository replicaTrades = new ReplicaTradeRepository(replicaRepo, replica);
+        primaryRepo.recordTrade(new Trade("TEA", null, 10, TradeIndicator.BUY, BigDecimal.TEN));
+        assertThat(replica.awaitPosition(1, 5, TimeUnit.SECONDS), CoreMatchers.is(true));
+        try {
+            replicaTrades.recordTrade(new Trade("TEA", null, 10, TradeIndicator.BUY, BigDecimal.TEN));
+            throw new AssertionError("replica took a write");
+        } catch (GBCEServiceException expected) {
+            assertThat(replicaRepo.getLogPosition(), CoreMatchers.is(1L));
+        }
+
+        primary.stop();
+        assertThat(replica.promote(), CoreMatchers.is(1L));
+        assertThat(replicaTrades.recordTrade(new Trade("GIN", null, 5, TradeIndicator.SELL, BigDecimal.ONE)),
+                CoreMatchers.is("2"));
+        assertThat(replica.getStatus().getRole(), CoreMatchers.is(ReplicationRole.PRIMARY));
+        // positions of the old primary will not arrive any more
+        assertThat(replica.awaitPosition(3, 1, TimeUnit.SECONDS), CoreMatchers.is(false));
+    }
+
+    @Test
+    public void replicate_unshippableSymbol_rejectedByPrimary() throws Exception {
+        try {
+            primaryRepo.recordTrade(new Trade("LONGSYMBOL", null, 10, TradeIndicator.BUY, BigDecimal.TEN));
+            throw new AssertionError("primary recorded a trade it cannot ship");
+        } catch (GBCEServiceException expected) {
+            assertThat(primaryRepo.getLogPosition(), CoreMatchers.is(0L));
+        }
+        primaryRepo.recordTrade(new Trade("TEA", null, 10, TradeIndicator.BUY, BigDecimal.TEN));
+
+        assertThat(replica.awaitPosition(1, 5, TimeUnit.SECONDS), CoreMatchers.is(true));
+        assertThat(replicaRepo.getTradesForAllStocks().get(0).getStockSymbol(), CoreMatchers.is("TEA"));
+    }
+
+    @Test
+    public void status_primaryGone_disconnectedAndLagging() throws Exception {
+        primaryRepo.recordTrade(new Trade("TEA", null, 10, TradeIndicator.BUY, BigDecimal.TEN));
+        assertThat(replica.awaitPosition(1, 5, TimeUnit.SECONDS), CoreMatchers.is(true));
+        assertThat(awaitStatus(replica, status -> status.isConnected() && status.getLagMillis() == 0),
+                CoreMatchers.is(true));
+
+        primary.stop();
+        assertThat(awaitStatus(replica, status -> !status.isConnected() && status.getLagMillis() > 0),
+                CoreMatchers.is(true));
+        assertThat(replica.getStatus().isRebuildRequired(), CoreMatchers.is(false));
+    }
+
+    @Test
+    public void subscribe_positionNoLongerHeld_rebuildRequired() throws Exception {
+        TradeRepositoryImpl wrappedRepo = new TradeRepositoryImpl();
+        wrappedRepo.setup();
+        // recorded before the log was attached, so they cannot be shipped any more
+        wrappedRepo.recordTrade(new Trade("TEA", null, 10, TradeIndicator.BUY, BigDecimal.TEN));
+        wrappedRepo.recordTrade(new Trade("TEA", null, 10, TradeIndicator.BUY, BigDecimal.TEN));
+        ReplicationPrimary wrapped = new ReplicationPrimary(wrappedRepo, "localhost", 0, 4, 20, 4096);
+        wrapped.start();
+        TradeRepositoryImpl emptyRepo = new TradeRepositoryImpl();
+        emptyRepo.setup();
+        ReplicationReplica restarted = new ReplicationReplica(emptyRepo, "localhost", wrapped.getLocalPort(), 50,
+                4096);
+        restarted.start();
+        try {
+            assertThat(awaitStatus(restarted, ReplicationStatus::isRebuildRequired), CoreMatchers.is(true));
+            assertThat(restarted.getStatus().isConnected(), CoreMatchers.is(false));
+            assertThat(restarted.getStatus().getPosition(), CoreMatchers.is(0L));
+        } finally {
+            restarted.stop();
+            wrapped.stop();
+        }
+    }
+
+    @Test
+    public void replicationLog_unencodableSymbol_slotUntouched() {
+        ReplicationLog log = new ReplicationLog(4, 0);
+        TradeView unencodable = view("TEA", 1, 1001, 2);
+        unencodable.setSymbol("LONGSYMBOL");
+        try {
+            log.onTradeRecorded(unencodable);
+            throw new AssertionError("unencodable symbol was logged");
+        } catch (IllegalArgumentException expected) {
+            assertThat(log.getCommitted(), CoreMatchers.is(0L));
+        }
+        log.onTradeRecorded(view("TEA", 2, 1002, 2));
+        // position 1 never arrived, so nothing after it is shipped either
+        assertThat(log.getCommitted(), CoreMatchers.is(0L));
+    }
+
+    @Test
+    public void replicationLog_outOfOrderNotification_commitsContiguously() {
+        ReplicationLog log = new ReplicationLog(4, 0);
+        log.onTradeRecorded(view("TEA", 2, 1002, 2));
+        assertThat(log.getCommitted(), CoreMatchers.is(0L));
+        log.onTradeRecorded(view("TEA", 1, 1001, 2));
+        assertThat(log.getCommitted(), CoreMatchers.is(2L));
+
+        ByteBuffer out = ByteBuffer.allocate(ReplicationProtocol.TRADE_LENGTH * 4);
+        assertThat(log.copy(1, out), CoreMatchers.is(2));
+        for (long position = 3; position <= 6; position++) {
+            log.onTradeRecorded(view("TEA", position, 1000 + position, 2));
+        }
+        // the ring only holds the latest four positions
+        assertThat(log.copy(2, out), CoreMatchers.is(-1));
+        assertThat(log.getOldest(), CoreMatchers.is(3L));
+    }
+
+    @Test
+    public void readReplica_minPosition_readsOwnWrite() throws Exception {
+        int replicationPort = freePort();
+        int replicaHttpPort = freePort();
+        // arguments, so they override application.properties
+        ConfigurableApplicationContext primaryContext = new SpringApplicationBuilder(StockmarketApplication.class)
+                .run("--replication.role=primary", "--replication.port=" + replicationPort,
+                        "--server.port=" + freePort(), "--spring.jmx.enabled=false", "--compaction.enabled=false");
+        ConfigurableApplicationContext replicaContext = new SpringApplicationBuilder(StockmarketApplication.class)
+                .run("--replication.role=replica", "--replication.primary.port=" + replicationPort,
+                        "--server.port=" + replicaHttpPort, "--spring.jmx.enabled=false",
+                        "--compaction.enabled=false");
+        try {
+            CalculationService primaryService = primaryContext.getBean(CalculationService.class);
+            primaryService.recordTrade(new Trade("TEA", null, 10, TradeIndicator.BUY, new BigDecimal("12.50")));
+            String id = primaryService.recordTrade(new Trade("TEA", null, 30, TradeIndicator.SELL,
+                    new BigDecimal("14.50")));
+
+            ResponseEntity<BigDecimal> reply = new RestTemplate().getForEntity("http://localhost:" + replicaHttpPort
+                    + "/read/vwap?symbol=TEA&minPosition=" + id, BigDecimal.class);
+            assertThat(reply.getStatusCode(), CoreMatchers.is(HttpStatus.OK));
+            assertThat(reply.getBody(), CoreMatchers.is(primaryService.calculateVolWeightedStockPrice("TEA")));
+            assertThat(reply.getHeaders().getFirst(ReplicatedReadController.POSITION_HEADER), CoreMatchers.is(id));
+            assertThat(reply.getHeaders().getFirst(ReplicatedReadController.LAG_TRADES_HEADER),
+                    CoreMatchers.is("0"));
+            assertThat(reply.getHeaders().getFirst(ReplicatedReadController.CONNECTED_HEADER),
+                    CoreMatchers.is("true"));
+            try {
+                replicaContext.getBean(CalculationService.class).recordTrade(
+                        new Trade("TEA", null, 10, TradeIndicator.BUY, BigDecimal.TEN));
+                throw new AssertionError("replica took a write");
+            } catch (GBCEServiceException expected) {
+                // writes go to the primary
+            }
+        } finally {
+            replicaContext.close();
+            primaryContext.close();
+        }
+    }
+
+
+    private static boolean awaitStatus(ReplicationNode node, Predicate<ReplicationStatus> condition)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.test(node.getStatus())) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -41,4 +41,18 @@ public class StockRepositoryImplTest {
 		underTest.getStockBySymbol("test");
 		
 	}
+
+	@Test
+	public void setCacheMaximumSize_cachedStocksKept() throws GBCEServiceException {
+		underTest.getStockBySymbol("gin");
+		underTest.setCacheMaximumSize(50);
+
+		assertThat(underTest.getCacheMaximumSize(), CoreMatchers.is(50L));
+		assertThat(underTest.getStockBySymbol("gin").get(), CoreMatchers.is(Stock.GIN));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setCacheMaximumSize_negative_failure() {
+		underTest.setCacheMaximumSize(-1);
+	}
 }
@@ -1,167 +1,543 @@
-package com.jpm.stockmarket.repository.impl;
-
-import static org.junit.Assert.assertThat;
-
-import java.math.BigDecimal;
-import java.time.LocalDateTime;
-import java.util.List;
-import java.util.concurrent.ExecutionException;
-
-import org.hamcrest.CoreMatchers;
-import org.junit.Before;
-import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.springframework.test.context.ContextConfiguration;
-import org.springframework.test.context.junit4.SpringRunner;
-
-import com.google.common.cache.LoadingCache;
-import com.jpm.stockmarket.exception.GBCEServiceException;
-import com.jpm.stockmarket.model.Trade;
-import com.jpm.stockmarket.model.TradeIndicator;
-
-@RunWith(SpringRunner.class)
-@ContextConfiguration(classes = TradeRepositoryImplTest.class)
-public class TradeRepositoryImplTest {
-
-    private TradeRepositoryImpl underTest = null;
-
-    @Before
-    public void setup() {
-        underTest = new TradeRepositoryImpl();
-        underTest.setup();
-    }
-
-    @Test
-    public void addSingleTrade_success() throws ExecutionException {
-        Trade trade = new Trade();
-        trade.setIndicator(TradeIndicator.SELL);
-        trade.setShareQuantity(2);
-        trade.setStockSymbol("test");
-        trade.setTimeStamp(LocalDateTime.now());
-        String b = underTest.recordTrade(trade);
-        assertThat(b, CoreMatchers.notNullValue());
-
-        LoadingCache<String, List<Trade>> inMemoryTradeCache = underTest.getInMemoryTradeCache();
-        assertThat(inMemoryTradeCache.get("test"), CoreMatchers.notNullValue());
-        assertThat(inMemoryTradeCache.get("test").size(), CoreMatchers.is(1));
-        assertThat(inMemoryTradeCache.get("test").get(0).getShareQuantity(), CoreMatchers.is(2L));
-
-    }
-
-    @Test
-    public void addMultipleTrade_success() throws ExecutionException {
-        Trade trade = new Trade();
-        trade.setIndicator(TradeIndicator.SELL);
-        trade.setShareQuantity(2);
-        trade.setStockSymbol("test");
-        trade.setTimeStamp(LocalDateTime.now());
-
-        String b = underTest.recordTrade(trade);
-        assertThat(b, CoreMatchers.notNullValue());
-        b = underTest.recordTrade(trade);
-        assertThat(b, CoreMatchers.notNullValue());
-
-
-        LoadingCache<String, List<Trade>> inMemoryTradeCache = underTest.getInMemoryTradeCache();
-        assertThat(inMemoryTradeCache.get("test"), CoreMatchers.notNullValue());
-        assertThat(inMemoryTradeCache.get("test").size(), CoreMatchers.is(2));
-        assertThat(inMemoryTradeCache.get("test").get(0).getShareQuantity(), CoreMatchers.is(2L));
-
-    }
-
-    @Test
-    public void getLatestTrades_success() throws InterruptedException, GBCEServiceException {
-        Trade trade = new Trade();
-        trade.setIndicator(TradeIndicator.BUY);
-        trade.setShareQuantity(1);
-        trade.setStockSymbol("test-eviction");
-        trade.setTimeStamp(LocalDateTime.now());
-
-        String b = underTest.recordTrade(trade);
-        assertThat(b, CoreMatchers.notNullValue());
-
-        List<Trade> trades = underTest.getLatestTrades("test-eviction");
-        assertThat(trades, CoreMatchers.notNullValue());
-        assertThat(trades.size(), CoreMatchers.is(1));
-
-        Thread.sleep(TradeRepositoryImpl.inMemoryExpirationValue * 2);
-        List<Trade> responses = underTest.getLatestTrades("test-eviction");
-        assertThat(responses, CoreMatchers.notNullValue());
-        assertThat(responses.size(), CoreMatchers.is(0));
-
-    }
-
-    @Test(expected = GBCEServiceException.class)
-    public void getLatestTrades_failure() throws GBCEServiceException {
-        new TradeRepositoryImpl().getLatestTrades("test");
-    }
-
-    @Test
-    public void getTrades_withSymbol_success() {
-        Trade trade = new Trade();
-        trade.setIndicator(TradeIndicator.BUY);
-        trade.setShareQuantity(1);
-        trade.setStockSymbol("test-single");
-        trade.setTimeStamp(LocalDateTime.now());
-
-        String b = underTest.recordTrade(trade);
-        assertThat(b, CoreMatchers.notNullValue());
-
-        List<Trade> trades = underTest.getTrades("test-single");
-        assertThat(trades, CoreMatchers.notNullValue());
-        assertThat(trades.size(), CoreMatchers.is(1));
-    }
-
-    @Test
-    public void getTrades_withMultipleSymbol_success() {
-        Trade trade = new Trade();
-        trade.setIndicator(TradeIndicator.BUY);
-        trade.setShareQuantity(1);
-        trade.setStockSymbol("test-multiple");
-        trade.setTimeStamp(LocalDateTime.now());
-
-        assertThat(underTest.recordTrade(trade), CoreMatchers.notNullValue());
-        assertThat(underTest.getTrades("test-multiple"), CoreMatchers.notNullValue());
-        assertThat(underTest.getTrades("test-multiple").size(), CoreMatchers.is(1));
-
-        Trade trade1 = new Trade();
-        trade1.setIndicator(TradeIndicator.BUY);
-        trade1.setShareQuantity(1);
-        trade1.setStockSymbol("test-multiple-2");
-        trade1.setTimeStamp(LocalDateTime.now());
-
-        assertThat(underTest.recordTrade(trade1), CoreMatchers.notNullValue());
-        assertThat(underTest.getTrades("test-multiple-2"), CoreMatchers.notNullValue());
-        assertThat(underTest.getTrades("test-multiple-2").size(), CoreMatchers.is(1));
-    }
-
-    @Test
-    public void getTrades_withInvalidSymbol_success() {
-        Trade trade = new Trade();
-        trade.setIndicator(TradeIndicator.BUY);
-        trade.setShareQuantity(1);
-        trade.setStockSymbol("test-invalid");
-        trade.setTimeStamp(LocalDateTime.now());
-
-        assertThat(underTest.recordTrade(trade), CoreMatchers.notNullValue());
-
-        assertThat(underTest.getTrades("test-invalid-eviction"), CoreMatchers.notNullValue());
-        assertThat(underTest.getTrades("test-invalid-eviction").size(), CoreMatchers.is(0));
-    }
-
-    @Test
-    public void getAllTades_success() {
-
-        Trade trade1 = new Trade("trade-one", null, 1, TradeIndicator.BUY, BigDecimal.TEN);
-        Trade trade2 = new Trade("trade-two", null, 1, TradeIndicator.SELL, BigDecimal.TEN);
-
-        assertThat(underTest.recordTrade(trade1), CoreMatchers.notNullValue());
-        assertThat(underTest.recordTrade(trade2), CoreMatchers.notNullValue());
-
-        List<Trade> allStockTrades = underTest.getTradesForAllStocks();
-        assertThat(allStockTrades.size(), CoreMatchers.is(2));
-        assertThat(allStockTrades.get(0).getStockSymbol(), CoreMatchers.is(trade1.getStockSymbol()));
-        assertThat(allStockTrades.get(1).getStockSymbol(), CoreMatchers.is(trade2.getStockSymbol()));
-    }
-
+package com.jpm.stockmarket.repository.impl;
+
+import static com.jpm.stockmarket.model.TradeFixtures.trade;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.model.MarketState;
+import com.jpm.stockmarket.model.SymbolAggregate;
+import com.jpm.stockmarket.model.Trade;
+import com.jpm.stockmarket.model.TradeBucket;
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.model.TradeView;
+import com.jpm.stockmarket.repository.StockRepository;
+import com.jpm.stockmarket.repository.TradeCursor;
+import com.jpm.stockmarket.service.impl.CalculationServiceImpl;
+import com.jpm.stockmarket.window.EventTimeWindow;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = TradeRepositoryImplTest.class)
+public class TradeRepositoryImplTest {
+
+    private TradeRepositoryImpl underTest = null;
+
+    @Before
+    public void setup() {
+        underTest = new TradeRepositoryImpl();
+        underTest.setup();
+    }
+
+    @Test
+    public void addSingleTrade_success() throws GBCEServiceException {
+        Trade trade = new Trade();
+        trade.setIndicator(TradeIndicator.SELL);
+        trade.setShareQuantity(2);
+        trade.setStockSymbol("test");
+        trade.setTimeStamp(LocalDateTime.now());
+        String b = underTest.recordTrade(trade);
+        assertThat(b, CoreMatchers.notNullValue());
+
+        List<Trade> latestTrades = underTest.getLatestTrades("test");
+        assertThat(latestTrades, CoreMatchers.notNullValue());
+        assertThat(latestTrades.size(), CoreMatchers.is(1));
+        assertThat(latestTrades.get(0).getShareQuantity(), CoreMatchers.is(2L));
+
+    }
+
+    @Test
+    public void addMultipleTrade_success() throws GBCEServiceException {
+        Trade trade = new Trade();
+        trade.setIndicator(TradeIndicator.SELL);
+        trade.setShareQuantity(2);
+        trade.setStockSymbol("test");
+        trade.setTimeStamp(LocalDateTime.now());
+
+        String b = underTest.recordTrade(trade);
+        assertThat(b, CoreMatchers.notNullValue());
+        b = underTest.recordTrade(trade);
+        assertThat(b, CoreMatchers.notNullValue());
+
+
+        List<Trade> latestTrades = underTest.getLatestTrades("test");
+        assertThat(latestTrades, CoreMatchers.notNullValue());
+        assertThat(latestTrades.size(), CoreMatchers.is(2));
+        assertThat(latestTrades.get(0).getShareQuantity(), CoreMatchers.is(2L));
+
+    }
+
+    @Test
+    public void getLatestTrades_success() throws InterruptedException, GBCEServiceException {
+        Trade trade = new Trade();
+        trade.setIndicator(TradeIndicator.BUY);
+        trade.setShareQuantity(1);
+        trade.setStockSymbol("test-eviction");
+        trade.setTimeStamp(LocalDateTime.now());
+
+        String b = underTest.recordTrade(trade);
+        assertThat(b, CoreMatchers.notNullValue());
+
+        List<Trade> trades = underTest.getLatestTrades("test-eviction");
+        assertThat(trades, CoreMatchers.notNullValue());
+        assertThat(trades.size(), CoreMatchers.is(1));
+
+        Thread.sleep(TradeRepositoryImpl.inMemoryExpirationValue * 2);
+        List<Trade> responses = underTest.getLatestTrades("test-eviction");
+        assertThat(responses, CoreMatchers.notNullValue());
+        assertThat(responses.size(), CoreMatchers.is(0));
+
+    }
+
+    @Test(expected = GBCEServiceException.class)
+    public void getLatestTrades_failure() throws GBCEServiceException {
+        new TradeRepositoryImpl().getLatestTrades("test");
+    }
+
+    @Test(expected = GBCEServiceException.class)
+    public void recordTrade_withoutSymbol_failure() throws GBCEServiceException {
+        underTest.recordTrade(new Trade(null, null, 1, TradeIndicator.BUY, BigDecimal.ONE));
+    }
+
+    @Test
+    public void recordTrades_oneWithoutSymbol_nothingRecorded() {
+        List<Trade> batch = Arrays.asList(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.ONE),
+                new Trade(null, null, 1, TradeIndicator.BUY, BigDecimal.ONE));
+        try {
+            underTest.recordTrades(batch);
+        } catch (GBCEServiceException e) {
+            assertThat(underTest.getTradesForAllStocks().size(), CoreMatchers.is(0));
+            return;
+        }
+        throw new AssertionError("batch with a trade without symbol was recorded");
+    }
+
+    @Test
+    public void recordTrades_loaded_analyticsAtTradeTimestamp() throws GBCEServiceException {
+        long now = System.currentTimeMillis();
+        underTest.recordTrades(Arrays.asList(trade("TEA", now - 24 * 3600 * 1000L, 10), trade("POP", now, 10),
+                new Trade("GIN", null, 1, TradeIndicator.BUY, BigDecimal.TEN)));
+
+        assertThat(underTest.getTradesForAllStocks().size(), CoreMatchers.is(3));
+        // a day old, long out of the window it would have been in had it been taken when loaded
+        assertThat(underTest.getTradeAnalytics().getPriceSketch("TEA", now).isEmpty(), CoreMatchers.is(true));
+        assertThat(underTest.getTradeAnalytics().getPriceSketch("POP", now).isEmpty(), CoreMatchers.is(false));
+        // the trade without timestamp is taken at the time it was recorded
+        assertThat(underTest.getTradeAnalytics().getPriceSketch("GIN", now).isEmpty(), CoreMatchers.is(false));
+        assertThat(underTest.getEventTimeWindow().getAccepted(), CoreMatchers.is(3L));
+    }
+
+    @Test
+    public void getTrades_withSymbol_success() throws GBCEServiceException {
+        Trade trade = new Trade();
+        trade.setIndicator(TradeIndicator.BUY);
+        trade.setShareQuantity(1);
+        trade.setStockSymbol("test-single");
+        trade.setTimeStamp(LocalDateTime.now());
+
+        String b = underTest.recordTrade(trade);
+        assertThat(b, CoreMatchers.notNullValue());
+
+        List<Trade> trades = underTest.getTrades("test-single");
+        assertThat(trades, CoreMatchers.notNullValue());
+        assertThat(trades.size(), CoreMatchers.is(1));
+    }
+
+    @Test
+    public void getTrades_withMultipleSymbol_success() throws GBCEServiceException {
+        Trade trade = new Trade();
+        trade.setIndicator(TradeIndicator.BUY);
+        trade.setShareQuantity(1);
+        trade.setStockSymbol("test-multiple");
+        trade.setTimeStamp(LocalDateTime.now());
+
+        assertThat(underTest.recordTrade(trade), CoreMatchers.notNullValue());
+        assertThat(underTest.getTrades("test-multiple"), CoreMatchers.notNullValue());
+        assertThat(underTest.getTrades("test-multiple").size(), CoreMatchers.is(1));
+
+        Trade trade1 = new Trade();
+        trade1.setIndicator(TradeIndicator.BUY);
+        trade1.setShareQuantity(1);
+        trade1.setStockSymbol("test-multiple-2");
+        trade1.setTimeStamp(LocalDateTime.now());
+
+        assertThat(underTest.recordTrade(trade1), CoreMatchers.notNullValue());
+        assertThat(underTest.getTrades("test-multiple-2"), CoreMatchers.notNullValue());
+        assertThat(underTest.getTrades("test-multiple-2").size(), CoreMatchers.is(1));
+    }
+
+    @Test
+    public void getTrades_withInvalidSymbol_success() throws GBCEServiceException {
+        Trade trade = new Trade();
+        trade.setIndicator(TradeIndicator.BUY);
+        trade.setShareQuantity(1);
+        trade.setStockSymbol("test-invalid");
+        trade.setTimeStamp(LocalDateTime.now());
+
+        assertThat(underTest.recordTrade(trade), CoreMatchers.notNullValue());
+
+        assertThat(underTest.getTrades("test-invalid-eviction"), CoreMatchers.notNullValue());
+        assertThat(underTest.getTrades("test-invalid-eviction").size(), CoreMatchers.is(0));
+    }
+
+    @Test
+    public void getAllTades_success() throws GBCEServiceException {
+
+        Trade trade1 = new Trade("trade-one", null, 1, TradeIndicator.BUY, BigDecimal.TEN);
+        Trade trade2 = new Trade("trade-two", null, 1, TradeIndicator.SELL, BigDecimal.TEN);
+
+        assertThat(underTest.recordTrade(trade1), CoreMatchers.notNullValue());
+        assertThat(underTest.recordTrade(trade2), CoreMatchers.notNullValue());
+
+        List<Trade> allStockTrades = underTest.getTradesForAllStocks();
+        assertThat(allStockTrades.size(), CoreMatchers.is(2));
+        assertThat(allStockTrades.get(0).getStockSymbol(), CoreMatchers.is(trade1.getStockSymbol()));
+        assertThat(allStockTrades.get(1).getStockSymbol(), CoreMatchers.is(trade2.getStockSymbol()));
+    }
+
+    @Test
+    public void getAllTrades_snapshotUnchangedByLaterTrades_success() throws GBCEServiceException {
+        underTest.recordTrade(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.TEN));
+        List<Trade> snapshot = underTest.getTradesForAllStocks();
+
+        underTest.recordTrade(new Trade("POP", null, 1, TradeIndicator.BUY, BigDecimal.TEN));
+        assertThat(snapshot.size(), CoreMatchers.is(1));
+        assertThat(underTest.getTradesForAllStocks().size(), CoreMatchers.is(2));
+    }
+
+    @Test
+    public void openTrades_symbolTradesOldestFirst_laterTradesNotRead() throws GBCEServiceException {
+        underTest.recordTrade(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.TEN));
+        underTest.recordTrade(new Trade("POP", null, 2, TradeIndicator.BUY, BigDecimal.TEN));
+        underTest.recordTrade(new Trade("TEA", null, 3, TradeIndicator.BUY, BigDecimal.TEN));
+
+        TradeView view = new TradeView();
+        try (TradeCursor cursor = underTest.openTrades("TEA")) {
+            underTest.recordTrade(new Trade("TEA", null, 4, TradeIndicator.BUY, BigDecimal.TEN));
+            for (int pass = 0; pass < 2; pass++) {
+                assertThat(cursor.next(view), CoreMatchers.is(true));
+                assertThat(view.getQuantity(), CoreMatchers.is(1L));
+                assertThat(cursor.next(view), CoreMatchers.is(true));
+                assertThat(view.getQuantity(), CoreMatchers.is(3L));
+                assertThat(cursor.next(view), CoreMatchers.is(false));
+                cursor.rewind();
+            }
+        }
+        try (TradeCursor cursor = underTest.openTrades("GIN")) {
+            assertThat(cursor.next(view), CoreMatchers.is(false));
+        }
+    }
+
+    @Test
+    public void getMarketState_success() throws GBCEServiceException {
+        underTest.recordTrade(new Trade("TEA", null, 2, TradeIndicator.BUY, BigDecimal.valueOf(10)));
+        MarketState before = underTest.getMarketState();
+        underTest.recordTrade(new Trade("TEA", null, 2, TradeIndicator.SELL, BigDecimal.valueOf(20)));
+        MarketState after = underTest.getMarketState();
+
+        assertThat(before.getEpoch(), CoreMatchers.is(1L));
+        assertThat(before.getAggregate("TEA").get().getLastPrice(), CoreMatchers.is(BigDecimal.valueOf(10)));
+        SymbolAggregate aggregate = after.getAggregate("TEA").get();
+        assertThat(after.getEpoch(), CoreMatchers.is(2L));
+        assertThat(aggregate.getTradeCount(), CoreMatchers.is(2L));
+        assertThat(aggregate.getWindowQuantity(), CoreMatchers.is(4L));
+        assertThat(aggregate.getWindowNotional(), CoreMatchers.is(BigDecimal.valueOf(60)));
+        assertThat(aggregate.getLastPrice(), CoreMatchers.is(BigDecimal.valueOf(20)));
+    }
+
+    @Test
+    public void readWhileRecording_consistentSnapshots_success() throws InterruptedException {
+        String[] symbols = {"TEA", "POP", "ALE", "GIN", "JOE"};
+        AtomicBoolean failed = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 5000; i++) {
+                    underTest.recordTrade(new Trade(symbols[i % symbols.length], null, 1, TradeIndicator.BUY,
+                            BigDecimal.ONE));
+                }
+            } catch (GBCEServiceException e) {
+                failed.set(true);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            try {
+                MarketState state = underTest.getMarketState();
+                long perSymbol = state.getAggregates().stream().mapToLong(SymbolAggregate::getTradeCount).sum();
+                List<Trade> all = underTest.getTradesForAllStocks();
+                long prices = all.stream().filter(t -> t.getTradePrice() != null).count();
+                // the symbol totals always add up to the epoch and the trade list never shrinks under a reader
+                if (perSymbol != state.getEpoch() || prices != all.size()) {
+                    failed.set(true);
+                }
+            } catch (RuntimeException e) {
+                failed.set(true);
+            }
+        }
+        writer.join();
+        assertThat(failed.get(), CoreMatchers.is(false));
+        assertThat(underTest.getMarketState().getEpoch(), CoreMatchers.is(5000L));
+    }
+
+    @Test
+    public void compactTrades_agedTradesFolded_rawDropped() throws GBCEServiceException {
+        LocalDateTime now = LocalDateTime.now();
+        underTest.recordTrade(new Trade("TEA", now.minusHours(2), 10, TradeIndicator.BUY, BigDecimal.valueOf(12)));
+        underTest.recordTrade(new Trade("TEA", now.minusHours(2), 20, TradeIndicator.BUY, BigDecimal.valueOf(15)));
+        underTest.recordTrade(new Trade("TEA", now, 5, TradeIndicator.SELL, BigDecimal.valueOf(11)));
+        underTest.recordTrade(new Trade("POP", null, 5, TradeIndicator.SELL, BigDecimal.valueOf(11)));
+
+        int compacted = underTest.compactTrades(EventTimeWindow.toMillis(now.minusHours(1)));
+
+        assertThat(compacted, CoreMatchers.is(2));
+        // the recent trade and the one without timestamp stay raw
+        assertThat(underTest.getTradesForAllStocks().size(), CoreMatchers.is(2));
+        List<TradeBucket> buckets = underTest.getTradeBuckets("TEA", 0, Long.MAX_VALUE);
+        assertThat(buckets.size(), CoreMatchers.is(2));
+        assertThat(buckets.get(0).isSealed(), CoreMatchers.is(true));
+        assertThat(buckets.get(0).getTradeCount(), CoreMatchers.is(2L));
+        assertThat(buckets.get(0).getNotional(), CoreMatchers.is(BigDecimal.valueOf(420)));
+        assertThat(buckets.get(0).getHigh(), CoreMatchers.is(BigDecimal.valueOf(15)));
+        assertThat(buckets.get(0).getLow(), CoreMatchers.is(BigDecimal.valueOf(12)));
+        assertThat(buckets.get(1).isSealed(), CoreMatchers.is(false));
+        assertThat(underTest.getMarketState().getTradeCount(), CoreMatchers.is(4L));
+    }
+
+    @Test
+    public void compactTrades_bucketsSameAsRaw_success() throws GBCEServiceException {
+        TradeRepositoryImpl raw = new TradeRepositoryImpl();
+        raw.setup();
+        // every trade stays in the window the raw calculations read
+        raw.setWindowMillis(3600000);
+        String[] symbols = {"TEA", "POP", "ALE"};
+        LocalDateTime start = LocalDateTime.of(2019, 7, 1, 10, 0, 0);
+        BigDecimal notional = BigDecimal.ZERO;
+        long quantity = 0;
+        for (int i = 0; i < 3000; i++) {
+            // out of order within a few seconds, prices with different scales
+            Trade trade = new Trade(symbols[i % symbols.length], start.plusNanos((i * 7919L % 5000) * 1000000L),
+                    1 + i % 13, TradeIndicator.BUY, BigDecimal.valueOf(100 + i % 37, i % 3));
+            Trade copy = new Trade(trade.getStockSymbol(), trade.getTimeStamp(), trade.getShareQuantity(),
+                    trade.getIndicator(), trade.getTradePrice());
+            underTest.recordTrade(trade);
+            raw.recordTrade(copy);
+            notional = notional.add(trade.getTradePrice().multiply(BigDecimal.valueOf(trade.getShareQuantity())));
+            quantity += trade.getShareQuantity();
+            if (i == 1000) {
+                underTest.compactTrades(EventTimeWindow.toMillis(start.plusSeconds(3)));
+            }
+        }
+        // the trades recorded since are partly late for the buckets compacted already
+        underTest.compactTrades(EventTimeWindow.toMillis(start.plusSeconds(4)));
+        assertThat(underTest.getTradesForAllStocks().size() < 1000, CoreMatchers.is(true));
+
+        // totals of the buckets against the trades themselves
+        BigDecimal bucketNotional = BigDecimal.ZERO;
+        long bucketQuantity = 0;
+        long bucketTrades = 0;
+        for (TradeBucket bucket : underTest.getTradeBuckets(null, 0, Long.MAX_VALUE)) {
+            bucketNotional = bucketNotional.add(bucket.getNotional());
+            bucketQuantity += bucket.getQuantity();
+            bucketTrades += bucket.getTradeCount();
+        }
+        assertThat(bucketNotional.compareTo(notional), CoreMatchers.is(0));
+        assertThat(bucketQuantity, CoreMatchers.is(quantity));
+        assertThat(bucketTrades, CoreMatchers.is(3000L));
+
+        // the calculations over the buckets against the ones over the raw trades
+        CalculationServiceImpl fromBuckets = new CalculationServiceImpl(mock(StockRepository.class), underTest);
+        CalculationServiceImpl fromTrades = new CalculationServiceImpl(mock(StockRepository.class), raw);
+        LocalDateTime from = start.minusHours(1);
+        LocalDateTime to = start.plusHours(1);
+        for (String symbol : symbols) {
+            assertThat(fromBuckets.calculateHistoricalVolWeightedStockPrice(symbol, from, to),
+                    CoreMatchers.is(fromTrades.calculateVolWeightedStockPrice(symbol)));
+        }
+        assertThat(fromBuckets.calculateHistoricalGBCEAllShareIndex(from, to),
+                CoreMatchers.is(fromTrades.calculateGBCEAllShareIndex()));
+    }
+
+    @Test
+    public void getTradeBuckets_tradesRecordedAfterRead_readBucketUnchanged() throws GBCEServiceException {
+        LocalDateTime start = LocalDateTime.of(2019, 7, 1, 10, 0, 0);
+        underTest.recordTrade(new Trade("TEA", start, 2, TradeIndicator.BUY, BigDecimal.TEN));
+        List<TradeBucket> before = underTest.getTradeBuckets("TEA", 0, Long.MAX_VALUE);
+        underTest.recordTrade(new Trade("TEA", start.plusNanos(1000000L), 3, TradeIndicator.BUY, BigDecimal.ONE));
+
+        List<TradeBucket> after = underTest.getTradeBuckets("TEA", 0, Long.MAX_VALUE);
+        assertThat(before.size(), CoreMatchers.is(1));
+        assertThat(before.get(0).getQuantity(), CoreMatchers.is(2L));
+        assertThat(after.size(), CoreMatchers.is(1));
+        assertThat(after.get(0).getQuantity(), CoreMatchers.is(5L));
+        assertThat(after.get(0).getLow(), CoreMatchers.is(BigDecimal.ONE));
+    }
+
+    @Test
+    public void setCompactionBucketMillis_rawTradesFoldedAgain() throws GBCEServiceException {
+        LocalDateTime start = LocalDateTime.of(2019, 7, 1, 10, 0, 0);
+        for (int i = 0; i < 4; i++) {
+            underTest.recordTrade(new Trade("TEA", start.plusSeconds(i), 1, TradeIndicator.BUY, BigDecimal.TEN));
+        }
+        assertThat(underTest.getTradeBuckets("TEA", 0, Long.MAX_VALUE).size(), CoreMatchers.is(4));
+
+        underTest.setCompactionBucketMillis(2000);
+        List<TradeBucket> buckets = underTest.getTradeBuckets("TEA", 0, Long.MAX_VALUE);
+        assertThat(buckets.size(), CoreMatchers.is(2));
+        assertThat(buckets.get(0).getTradeCount(), CoreMatchers.is(2L));
+    }
+
+    @Test
+    public void compactTrades_nothingOldEnough_rawLogNotCopied() throws GBCEServiceException {
+        LocalDateTime now = LocalDateTime.now();
+        underTest.recordTrade(new Trade("TEA", now, 1, TradeIndicator.BUY, BigDecimal.TEN));
+        underTest.recordTrade(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.TEN));
+        TradeLog raw = ((TradeHistory) ReflectionTestUtils.getField(underTest, "history")).getRaw();
+
+        assertThat(underTest.compactTrades(EventTimeWindow.toMillis(now.minusHours(1))), CoreMatchers.is(0));
+        assertThat(((TradeHistory) ReflectionTestUtils.getField(underTest, "history")).getRaw(),
+                CoreMatchers.sameInstance(raw));
+        assertThat(underTest.getTradesForAllStocks().size(), CoreMatchers.is(2));
+    }
+
+    @Test
+    public void compactTrades_manyPasses_everyBucketKept() throws GBCEServiceException {
+        LocalDateTime start = LocalDateTime.of(2019, 7, 1, 10, 0, 0);
+        int seconds = 5 * BucketSeries.LEAF_BUCKETS;
+        for (int pass = 1; pass <= 5; pass++) {
+            for (int i = (pass - 1) * seconds / 5; i < pass * seconds / 5; i++) {
+                underTest.recordTrade(new Trade("TEA", start.plusSeconds(i), 1, TradeIndicator.BUY, BigDecimal.TEN));
+            }
+            underTest.compactTrades(EventTimeWindow.toMillis(start.plusSeconds(pass * seconds / 5)));
+        }
+        // late for a bucket compacted passes ago
+        underTest.recordTrade(new Trade("TEA", start.plusSeconds(10), 1, TradeIndicator.BUY, BigDecimal.TEN));
+        assertThat(underTest.compactTrades(EventTimeWindow.toMillis(start.plusSeconds(seconds))), CoreMatchers.is(1));
+
+        List<TradeBucket> buckets = underTest.getTradeBuckets("TEA", 0, Long.MAX_VALUE);
+        assertThat(buckets.size(), CoreMatchers.is(seconds));
+        for (int i = 0; i < seconds; i++) {
+            assertThat(buckets.get(i).getStartMillis(),
+                    CoreMatchers.is(EventTimeWindow.toMillis(start.plusSeconds(i))));
+            assertThat(buckets.get(i).getTradeCount(), CoreMatchers.is(i == 10 ? 2L : 1L));
+        }
+        long from = EventTimeWindow.toMillis(start.plusSeconds(1000));
+        List<TradeBucket> inRange = underTest.getTradeBuckets("TEA", from, from + 2500 * 1000L);
+        assertThat(inRange.size(), CoreMatchers.is(2500));
+        assertThat(inRange.get(0).getStartMillis(), CoreMatchers.is(from));
+    }
+
+    @Test
+    public void ingestTrade_reusedView_tradesKept() throws GBCEServiceException {
+        TradeView view = new TradeView();
+        for (int i = 1; i <= 3; i++) {
+            view.setSymbol("TEA");
+            view.setTimestampMillis(1561975200000L + i);
+            view.setQuantity(i);
+            view.setIndicator(TradeIndicator.BUY);
+            view.setPrice(1000 + i, 2);
+            assertThat(underTest.ingestTrade(view), CoreMatchers.is(view.getId()));
+        }
+
+        List<Trade> trades = underTest.getLatestTrades("TEA");
+        assertThat(trades.size(), CoreMatchers.is(3));
+        for (int i = 0; i < 3; i++) {
+            assertThat(trades.get(i).getShareQuantity(), CoreMatchers.is(i + 1L));
+            assertThat(trades.get(i).getTradePrice(), CoreMatchers.is(BigDecimal.valueOf(1001 + i, 2)));
+            assertThat(trades.get(i).getTimeStamp(),
+                    CoreMatchers.is(TradeView.toLocalDateTime((1561975200000L + i + 1) * 1000000L)));
+        }
+        assertThat(underTest.getMarketState().getAggregate("TEA").get().getWindowQuantity(), CoreMatchers.is(6L));
+    }
+
+    @Test
+    public void getTrades_windowReplaced_firstTradeEvicted() throws GBCEServiceException {
+        underTest.recordTrade(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.ONE));
+        underTest.recordTrade(new Trade("TEA", null, 2, TradeIndicator.BUY, BigDecimal.ONE));
+        underTest.recordTrade(new Trade("TEA", null, 3, TradeIndicator.BUY, BigDecimal.ONE));
+
+        // the window still holds every trade, the first one is evicted from the database view
+        assertThat(underTest.getLatestTrades("TEA").size(), CoreMatchers.is(3));
+        List<Trade> trades = underTest.getTrades("TEA");
+        assertThat(trades.size(), CoreMatchers.is(2));
+        assertThat(trades.get(0).getShareQuantity(), CoreMatchers.is(2L));
+    }
+
+    @Test
+    public void getLatestTrades_unknownSymbol_empty() throws GBCEServiceException {
+        underTest.recordTrade(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.ONE));
+
+        assertThat(underTest.getLatestTrades("POP").size(), CoreMatchers.is(0));
+        assertThat(underTest.getTradesForAllStocks().size(), CoreMatchers.is(1));
+    }
+
+    @Test
+    public void getLatestTrades_interleavedSymbols_inRecordedOrder() throws GBCEServiceException {
+        for (int i = 1; i <= 6; i++) {
+            underTest.recordTrade(new Trade(i % 2 == 0 ? "TEA" : "POP", null, i, TradeIndicator.BUY, BigDecimal.ONE));
+        }
+
+        List<Trade> trades = underTest.getLatestTrades("TEA");
+        assertThat(trades.size(), CoreMatchers.is(3));
+        assertThat(trades.get(0).getShareQuantity(), CoreMatchers.is(2L));
+        assertThat(trades.get(2).getShareQuantity(), CoreMatchers.is(6L));
+    }
+
+    @Test
+    public void setWindowMillis_grown_windowStaysLive() throws Exception {
+        underTest.setWindowMillis(50);
+        underTest.recordTrade(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.ONE));
+        underTest.setWindowMillis(60000);
+        Thread.sleep(100);
+
+        assertThat(underTest.getLatestTrades("TEA").size(), CoreMatchers.is(1));
+        assertThat(underTest.getWindowMillis(), CoreMatchers.is(60000L));
+    }
+
+    @Test
+    public void setWindowMillis_shrunk_windowExpiresEarly() throws Exception {
+        underTest.recordTrade(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.ONE));
+        underTest.setWindowMillis(1);
+        Thread.sleep(10);
+
+        assertThat(underTest.getLatestTrades("TEA").size(), CoreMatchers.is(0));
+        // the trade itself is still in the database
+        assertThat(underTest.getTradesForAllStocks().size(), CoreMatchers.is(1));
+    }
+
+    @Test
+    public void setWindowMillis_marketStateWindowsReshaped() throws GBCEServiceException {
+        underTest.recordTrade(new Trade("TEA", null, 2, TradeIndicator.BUY, BigDecimal.TEN));
+        MarketState before = underTest.getMarketState();
+        underTest.setWindowMillis(60000);
+        MarketState after = underTest.getMarketState();
+
+        SymbolAggregate aggregate = after.getAggregate("TEA").get();
+        assertThat(after.getEpoch() > before.getEpoch(), CoreMatchers.is(true));
+        assertThat(aggregate.getWindowExpiresAtMillis(), CoreMatchers.is(
+                before.getAggregate("TEA").get().getWindowExpiresAtMillis()
+                        - TradeRepositoryImpl.inMemoryExpirationValue + 60000));
+        assertThat(aggregate.getWindowQuantity(), CoreMatchers.is(2L));
+
+        // the next trade continues the reshaped window
+        underTest.recordTrade(new Trade("TEA", null, 3, TradeIndicator.BUY, BigDecimal.TEN));
+        assertThat(underTest.getMarketState().getAggregate("TEA").get().getWindowQuantity(), CoreMatchers.is(5L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setWindowMillis_notPositive_failure() {
+        underTest.setWindowMillis(0);
+    }
 }
\ No newline at end of file
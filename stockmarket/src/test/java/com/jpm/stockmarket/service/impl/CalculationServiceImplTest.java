@@ -2,13 +2,18 @@ package com.jpm.stockmarket.service.impl;
 
 import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import org.hamcrest.CoreMatchers;
@@ -18,12 +23,24 @@ import org.junit.runner.RunWith;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import com.jpm.stockmarket.analytics.TradeAnalytics;
+import com.jpm.stockmarket.analytics.VolumeEstimate;
 import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.index.IndexBasis;
+import com.jpm.stockmarket.index.IndexDefinition;
+import com.jpm.stockmarket.index.IndexEngine;
+import com.jpm.stockmarket.index.IndexMethod;
+import com.jpm.stockmarket.model.MarketSnapshot;
+import com.jpm.stockmarket.model.MarketState;
+import com.jpm.stockmarket.model.MarketStateWriter;
 import com.jpm.stockmarket.model.Stock;
 import com.jpm.stockmarket.model.Trade;
 import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.model.TradeView;
 import com.jpm.stockmarket.repository.StockRepository;
 import com.jpm.stockmarket.repository.TradeRepository;
+import com.jpm.stockmarket.repository.impl.TradeRepositoryImpl;
+import com.jpm.stockmarket.window.EventTimeWindow;
 
 @RunWith(SpringRunner.class)
 @ContextConfiguration(classes = CalculationServiceImplTest.class)
@@ -110,8 +127,8 @@ public class CalculationServiceImplTest {
     @Test
     public void calculateVolWeightedStockPrice_singletrade_success() throws Exception {
 
-        List<Trade> trades = Arrays.asList(new Trade(null, null, 1, TradeIndicator.BUY, BigDecimal.TEN));
-        when(mockedTradeRepository.getLatestTrades(any())).thenReturn(trades);
+        List<Trade> trades = Arrays.asList(new Trade("test-symbol", null, 1, TradeIndicator.BUY, BigDecimal.TEN));
+        when(mockedTradeRepository.getMarketState()).thenReturn(marketState(trades));
         BigDecimal weightPrice = underTest.calculateVolWeightedStockPrice("test-symbol");
         assertThat(weightPrice, CoreMatchers.is(BigDecimal.TEN));
     }
@@ -119,13 +136,33 @@ public class CalculationServiceImplTest {
     @Test
     public void calculateVolWeightedStockPrice_multipletrades_success() throws Exception {
 
-        List<Trade> trades = Arrays.asList(new Trade(null, null, 1, TradeIndicator.BUY, BigDecimal.TEN),
-                new Trade(null, null, 1, TradeIndicator.BUY, BigDecimal.TEN));
-        when(mockedTradeRepository.getLatestTrades(any())).thenReturn(trades);
+        List<Trade> trades = Arrays.asList(new Trade("test-symbol", null, 1, TradeIndicator.BUY, BigDecimal.TEN),
+                new Trade("test-symbol", null, 1, TradeIndicator.BUY, BigDecimal.TEN));
+        when(mockedTradeRepository.getMarketState()).thenReturn(marketState(trades));
         BigDecimal weightPrice = underTest.calculateVolWeightedStockPrice("test-symbol");
         assertThat(weightPrice, CoreMatchers.is(BigDecimal.TEN));
     }
 
+    @Test
+    public void calculateVolWeightedStockPrice_sameAsMarketSnapshot_success() throws Exception {
+        List<Trade> trades = Arrays.asList(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.valueOf(10)),
+                new Trade("TEA", null, 3, TradeIndicator.BUY, BigDecimal.valueOf(21)));
+        when(mockedTradeRepository.getMarketState()).thenReturn(marketState(trades));
+
+        BigDecimal weightPrice = underTest.calculateVolWeightedStockPrice("TEA");
+        assertThat(weightPrice, CoreMatchers.is(BigDecimal.valueOf(19)));
+        assertThat(underTest.getMarketSnapshot().getQuotes().get("TEA").getVolWeightedPrice(),
+                CoreMatchers.is(weightPrice));
+    }
+
+    @Test(expected = GBCEServiceException.class)
+    public void calculateVolWeightedStockPrice_expiredWindow_failure() throws GBCEServiceException {
+        MarketState state = marketState(Collections.singletonList(
+                new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.TEN)), 0, 1);
+        when(mockedTradeRepository.getMarketState()).thenReturn(state);
+        underTest.calculateVolWeightedStockPrice("TEA");
+    }
+
     @Test(expected = GBCEServiceException.class)
     public void calculateVolWeightedStockPrice_withNullInput_failure() throws GBCEServiceException {
         underTest.calculateVolWeightedStockPrice(null);
@@ -133,13 +170,13 @@ public class CalculationServiceImplTest {
 
     @Test(expected = GBCEServiceException.class)
     public void calculateVolWeightedStockPrice_withNullTrades_failure() throws GBCEServiceException {
-        when(mockedTradeRepository.getLatestTrades(any())).thenReturn(null);
+        when(mockedTradeRepository.getMarketState()).thenReturn(null);
         underTest.calculateVolWeightedStockPrice("test-symbol");
     }
 
     @Test(expected = GBCEServiceException.class)
     public void calculateVolWeightedStockPrice_withEmptyTrades_failure() throws GBCEServiceException {
-        when(mockedTradeRepository.getLatestTrades(any())).thenReturn(new ArrayList<>());
+        when(mockedTradeRepository.getMarketState()).thenReturn(MarketState.empty());
         underTest.calculateVolWeightedStockPrice("test-symbol");
     }
 
@@ -158,20 +195,20 @@ public class CalculationServiceImplTest {
 
     @Test(expected = GBCEServiceException.class)
     public void calculateGBCEAllShareIndex_nullTrades_failure() throws GBCEServiceException {
-        when(mockedTradeRepository.getTradesForAllStocks()).thenReturn(null);
+        when(mockedTradeRepository.getMarketState()).thenReturn(null);
         underTest.calculateGBCEAllShareIndex();
     }
 
     @Test(expected = GBCEServiceException.class)
     public void calculateGBCEAllShareIndex_emptyTrades_failure() throws GBCEServiceException {
-        when(mockedTradeRepository.getTradesForAllStocks()).thenReturn(new ArrayList<>());
+        when(mockedTradeRepository.getMarketState()).thenReturn(MarketState.empty());
         underTest.calculateGBCEAllShareIndex();
     }
 
     @Test
     public void calculateGBCEAllShareIndex_singleTrade_success() throws GBCEServiceException {
-        List<Trade> trades = Arrays.asList(new Trade(null, null, 1, TradeIndicator.BUY, BigDecimal.TEN));
-        when(mockedTradeRepository.getTradesForAllStocks()).thenReturn(trades);
+        List<Trade> trades = Arrays.asList(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.TEN));
+        when(mockedTradeRepository.getMarketState()).thenReturn(marketState(trades));
         BigDecimal index = underTest.calculateGBCEAllShareIndex();
 
         assertThat(index.doubleValue(), CoreMatchers.is(10.00));
@@ -179,11 +216,210 @@ public class CalculationServiceImplTest {
 
     @Test
     public void calculateGBCEAllShareIndex_multipleTrades_success() throws GBCEServiceException {
-        List<Trade> trades = Arrays.asList(new Trade(null, null, 1, TradeIndicator.BUY, BigDecimal.TEN),
-                new Trade(null, null, 1, TradeIndicator.SELL, BigDecimal.TEN));
-        when(mockedTradeRepository.getTradesForAllStocks()).thenReturn(trades);
+        List<Trade> trades = Arrays.asList(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.TEN),
+                new Trade("POP", null, 1, TradeIndicator.SELL, BigDecimal.TEN));
+        when(mockedTradeRepository.getMarketState()).thenReturn(marketState(trades));
         BigDecimal index = underTest.calculateGBCEAllShareIndex();
 
         assertThat(index.doubleValue(), CoreMatchers.is(10.00));
     }
+
+    @Test
+    public void calculateGBCEAllShareIndex_tradeWithoutSymbol_notRecorded() throws GBCEServiceException {
+        TradeRepositoryImpl tradeRepository = new TradeRepositoryImpl();
+        tradeRepository.setup();
+        underTest = new CalculationServiceImpl(mockedStockRepository, tradeRepository);
+        underTest.recordTrade(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.valueOf(2)));
+        try {
+            underTest.recordTrade(new Trade(null, null, 1, TradeIndicator.BUY, BigDecimal.valueOf(1000)));
+            throw new AssertionError("trade without symbol recorded");
+        } catch (GBCEServiceException expected) {
+            // rejected before it reaches the market state
+        }
+        underTest.recordTrade(new Trade("POP", null, 1, TradeIndicator.SELL, BigDecimal.valueOf(8)));
+
+        assertThat(underTest.calculateGBCEAllShareIndex().doubleValue(), CoreMatchers.is(4.00));
+    }
+
+    @Test
+    public void calculateGBCEAllShareIndex_geometricMean_success() throws GBCEServiceException {
+        List<Trade> trades = Arrays.asList(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.valueOf(2)),
+                new Trade("POP", null, 1, TradeIndicator.SELL, BigDecimal.valueOf(8)));
+        when(mockedTradeRepository.getMarketState()).thenReturn(marketState(trades));
+        BigDecimal index = underTest.calculateGBCEAllShareIndex();
+
+        assertThat(index.doubleValue(), CoreMatchers.is(4.00));
+    }
+
+    @Test
+    public void getMarketSnapshot_success() throws GBCEServiceException {
+        List<Trade> trades = Arrays.asList(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.valueOf(10)),
+                new Trade("TEA", null, 3, TradeIndicator.BUY, BigDecimal.valueOf(20)),
+                new Trade("POP", null, 1, TradeIndicator.SELL, BigDecimal.valueOf(40)));
+        when(mockedTradeRepository.getMarketState()).thenReturn(marketState(trades));
+
+        MarketSnapshot snapshot = underTest.getMarketSnapshot();
+        assertThat(snapshot.getEpoch(), CoreMatchers.is(3L));
+        assertThat(snapshot.getShareIndex().doubleValue(), CoreMatchers.is(20.00));
+        assertThat(snapshot.getQuotes().size(), CoreMatchers.is(2));
+        assertThat(snapshot.getQuotes().get("TEA").getLastPrice(), CoreMatchers.is(BigDecimal.valueOf(20)));
+        assertThat(snapshot.getQuotes().get("TEA").getVolWeightedPrice(), CoreMatchers.is(BigDecimal.valueOf(18)));
+        assertThat(snapshot.getQuotes().get("TEA").getTradeCount(), CoreMatchers.is(2L));
+        assertThat(snapshot.getQuotes().get("POP").getVolWeightedPrice(), CoreMatchers.is(BigDecimal.valueOf(40)));
+    }
+
+    @Test
+    public void getMarketSnapshot_expiredWindow_noVolWeightedPrice() throws GBCEServiceException {
+        MarketState state = marketState(Collections.singletonList(
+                new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.TEN)), 0, 1);
+        when(mockedTradeRepository.getMarketState()).thenReturn(state);
+
+        MarketSnapshot snapshot = underTest.getMarketSnapshot();
+        assertThat(snapshot.getQuotes().get("TEA").getLastPrice(), CoreMatchers.is(BigDecimal.TEN));
+        assertThat(snapshot.getQuotes().get("TEA").getVolWeightedPrice(), CoreMatchers.nullValue());
+    }
+
+    @Test
+    public void calculatePricePercentile_success() throws GBCEServiceException {
+        TradeAnalytics analytics = new TradeAnalytics(60000, 15, 0.01, 2048, 8, 1024, 4);
+        for (int price = 1; price <= 100; price++) {
+            analytics.record("TEA", price, 1, System.currentTimeMillis());
+        }
+        when(mockedTradeRepository.getTradeAnalytics()).thenReturn(analytics);
+
+        BigDecimal median = underTest.calculatePricePercentile("TEA", 50);
+        assertThat(Math.abs(median.doubleValue() - 50) <= 0.5, CoreMatchers.is(true));
+    }
+
+    @Test(expected = GBCEServiceException.class)
+    public void calculatePricePercentile_noTrades_failure() throws GBCEServiceException {
+        when(mockedTradeRepository.getTradeAnalytics())
+                .thenReturn(new TradeAnalytics(60000, 15, 0.01, 2048, 8, 1024, 4));
+        underTest.calculatePricePercentile("TEA", 50);
+    }
+
+    @Test(expected = GBCEServiceException.class)
+    public void calculatePricePercentile_invalidPercentile_failure() throws GBCEServiceException {
+        underTest.calculatePricePercentile("TEA", 101);
+    }
+
+    @Test
+    public void getTopTradedStocks_success() throws GBCEServiceException {
+        TradeAnalytics analytics = new TradeAnalytics(60000, 15, 0.01, 2048, 8, 1024, 4);
+        analytics.record("TEA", 10, 5, System.currentTimeMillis());
+        analytics.record("GIN", 10, 50, System.currentTimeMillis());
+        when(mockedTradeRepository.getTradeAnalytics()).thenReturn(analytics);
+
+        List<VolumeEstimate> top = underTest.getTopTradedStocks(1);
+        assertThat(top.size(), CoreMatchers.is(1));
+        assertThat(top.get(0).getSymbol(), CoreMatchers.is("GIN"));
+        assertThat(top.get(0).getVolume(), CoreMatchers.is(50L));
+    }
+
+    @Test
+    public void calculateEventTimeVolWeightedStockPrice_success() throws GBCEServiceException {
+        EventTimeWindow window = new EventTimeWindow(1000, 0, 60000, 16, 100, 60000);
+        LocalDateTime start = LocalDateTime.of(2019, 7, 1, 10, 0, 0);
+        // recorded out of order, the earlier trade arrives last
+        long now = System.currentTimeMillis();
+        window.accept(new Trade("TEA", start.plusSeconds(5), 3, TradeIndicator.BUY, BigDecimal.valueOf(20)), now);
+        window.accept(new Trade("TEA", start, 1, TradeIndicator.BUY, BigDecimal.valueOf(10)), now);
+        window.accept(new Trade("TEA", start.plusSeconds(30), 1, TradeIndicator.BUY, BigDecimal.valueOf(90)), now);
+        when(mockedTradeRepository.getEventTimeWindow()).thenReturn(window);
+
+        BigDecimal price = underTest.calculateEventTimeVolWeightedStockPrice("TEA", start, start.plusSeconds(10));
+        assertThat(price, CoreMatchers.is(BigDecimal.valueOf(18)));
+        assertThat(underTest.getEventTimeStatistics().getLate(), CoreMatchers.is(1L));
+    }
+
+    @Test(expected = GBCEServiceException.class)
+    public void calculateEventTimeVolWeightedStockPrice_noTrades_failure() throws GBCEServiceException {
+        when(mockedTradeRepository.getEventTimeWindow())
+                .thenReturn(new EventTimeWindow(1000, 0, 60000, 16, 100, 60000));
+        underTest.calculateEventTimeVolWeightedStockPrice("TEA", LocalDateTime.now().minusMinutes(1),
+                LocalDateTime.now());
+    }
+
+    private static MarketState marketState(List<Trade> trades) {
+        return marketState(trades, System.currentTimeMillis(), 60000);
+    }
+
+    private static MarketState marketState(List<Trade> trades, long nowMillis, long windowMillis) {
+        MarketStateWriter writer = new MarketStateWriter();
+        TradeView view = new TradeView();
+        for (Trade trade : trades) {
+            writer.record(view.set(trade), nowMillis, windowMillis);
+        }
+        return writer.publish();
+    }
+
+    @Test
+    public void calculateHistorical_compactedSameAsRaw_success() throws GBCEServiceException {
+        TradeRepositoryImpl compactedRepository = new TradeRepositoryImpl();
+        compactedRepository.setup();
+        TradeRepositoryImpl rawRepository = new TradeRepositoryImpl();
+        rawRepository.setup();
+        LocalDateTime start = LocalDateTime.of(2019, 7, 1, 10, 0, 0);
+        for (int i = 0; i < 500; i++) {
+            for (TradeRepositoryImpl repository : Arrays.asList(compactedRepository, rawRepository)) {
+                repository.recordTrade(new Trade(i % 2 == 0 ? "TEA" : "POP", start.plusSeconds(i % 60), 1 + i % 7,
+                        TradeIndicator.BUY, BigDecimal.valueOf(1000 + i, 2)));
+            }
+        }
+        compactedRepository.compactTrades(EventTimeWindow.toMillis(start.plusSeconds(45)));
+        CalculationServiceImpl compacted = new CalculationServiceImpl(mockedStockRepository, compactedRepository);
+        CalculationServiceImpl raw = new CalculationServiceImpl(mockedStockRepository, rawRepository);
+
+        for (LocalDateTime to : Arrays.asList(start.plusSeconds(30), start.plusSeconds(50), start.plusMinutes(1))) {
+            assertThat(compacted.calculateHistoricalVolWeightedStockPrice("TEA", start, to),
+                    CoreMatchers.is(raw.calculateHistoricalVolWeightedStockPrice("TEA", start, to)));
+            assertThat(compacted.calculateHistoricalGBCEAllShareIndex(start, to),
+                    CoreMatchers.is(raw.calculateHistoricalGBCEAllShareIndex(start, to)));
+        }
+    }
+
+    @Test(expected = GBCEServiceException.class)
+    public void calculateHistoricalVolWeightedStockPrice_noTrades_failure() throws GBCEServiceException {
+        when(mockedTradeRepository.getTradeBuckets(any(), anyLong(), anyLong())).thenReturn(new ArrayList<>());
+        LocalDateTime start = LocalDateTime.of(2019, 7, 1, 10, 0, 0);
+        underTest.calculateHistoricalVolWeightedStockPrice("TEA", start, start.plusHours(1));
+    }
+
+    @Test
+    public void calculateIndex_sectorIndices_success() throws GBCEServiceException {
+        TradeRepositoryImpl repository = new TradeRepositoryImpl();
+        repository.setup();
+        underTest = new CalculationServiceImpl(mockedStockRepository, repository);
+        repository.recordTrade(new Trade("TEA", null, 1, TradeIndicator.BUY, BigDecimal.valueOf(4)));
+        repository.recordTrade(new Trade("JOE", null, 1, TradeIndicator.BUY, BigDecimal.valueOf(9)));
+        repository.recordTrade(new Trade("GIN", null, 1, TradeIndicator.BUY, BigDecimal.valueOf(50)));
+
+        assertThat(underTest.calculateIndex("COMMON"), CoreMatchers.is(new BigDecimal("6.00")));
+        assertThat(underTest.calculateIndex("PREFERRED"), CoreMatchers.is(new BigDecimal("50.00")));
+
+        Map<String, Double> weights = new LinkedHashMap<>();
+        weights.put("TEA", 3.0);
+        weights.put("GIN", 1.0);
+        underTest.defineIndex(new IndexDefinition("CUSTOM", weights, IndexMethod.ARITHMETIC, IndexBasis.PRICE));
+        assertThat(underTest.calculateIndex("CUSTOM"), CoreMatchers.is(new BigDecimal("15.50")));
+    }
+
+    @Test(expected = GBCEServiceException.class)
+    public void defineIndex_geometricOverZeroPrice_failure() throws GBCEServiceException {
+        TradeRepositoryImpl repository = new TradeRepositoryImpl();
+        repository.setup();
+        underTest = new CalculationServiceImpl(mockedStockRepository, repository);
+        // a symbol of no sector index, its zero price is recorded
+        repository.recordTrade(new Trade("ZZZ", null, 1, TradeIndicator.BUY, BigDecimal.ZERO));
+
+        Map<String, Double> weights = new LinkedHashMap<>();
+        weights.put("ZZZ", 1.0);
+        underTest.defineIndex(new IndexDefinition("CUSTOM", weights, IndexMethod.GEOMETRIC, IndexBasis.PRICE));
+    }
+
+    @Test(expected = GBCEServiceException.class)
+    public void calculateIndex_notDefined_failure() throws GBCEServiceException {
+        when(mockedTradeRepository.getIndexEngine()).thenReturn(new IndexEngine());
+        underTest.calculateIndex("UNKNOWN");
+    }
 }
\ No newline at end of file
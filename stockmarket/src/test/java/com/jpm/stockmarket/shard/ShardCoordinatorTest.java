@@ -0,0 +1,264 @@
+package com.jpm.stockmarket.shard;
+
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.jpm.stockmarket.StockmarketApplication;
+import com.jpm.stockmarket.exception.GBCEServiceException;
+import com.jpm.stockmarket.gateway.BinaryTradeClient;
+import com.jpm.stockmarket.gateway.TcpTradeGateway;
+import com.jpm.stockmarket.model.Trade;
+import com.jpm.stockmarket.model.TradeIndicator;
+import com.jpm.stockmarket.repository.impl.TradeRepositoryImpl;
+import com.jpm.stockmarket.service.CalculationService;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = ShardCoordinatorTest.class)
+public class ShardCoordinatorTest {
+
+    private static final List<String> SYMBOLS = Arrays.asList("TEA", "POP", "ALE", "GIN", "JOE");
+
+    private final List<ConfigurableApplicationContext> instances = new ArrayList<>();
+
+    @After
+    public void stop() {
+        instances.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    public void ownerOf_symbolsSpreadOverHashRanges() {
+        ShardConfig config = new ShardConfig(Arrays.asList(new ShardAddress(0, "localhost", 1, 2),
+                new ShardAddress(1, "localhost", 3, 4), new ShardAddress(2, "localhost", 5, 6)), 1);
+        Set<Integer> owners = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            int owner = config.ownerOf("SYM" + i);
+            assertThat(owner >= 0 && owner < 3, CoreMatchers.is(true));
+            owners.add(owner);
+        }
+        assertThat(owners.size(), CoreMatchers.is(3));
+        assertThat(config.isLocal("TEA"), CoreMatchers.is(config.ownerOf("TEA") == 1));
+    }
+
+    @Test
+    public void load_configFile_success() throws IOException {
+        Path file = Files.createTempFile("shards", ".properties");
+        Files.write(file, "shard.0=localhost:7071:8081\nshard.1=otherhost:7072:8082\n".getBytes(StandardCharsets.UTF_8));
+
+        ShardConfig config = ShardConfig.load(file, 1);
+        assertThat(config.size(), CoreMatchers.is(2));
+        assertThat(config.getShards().get(1).getHost(), CoreMatchers.is("otherhost"));
+        assertThat(config.getShards().get(1).getTradePort(), CoreMatchers.is(7072));
+        assertThat(config.getShards().get(1).getHttpPort(), CoreMatchers.is(8082));
+    }
+
+    @Test
+    public void twoShards_tradesForwardedToOwner_indexGathered() throws Exception {
+        int[] tradePorts = {freePort(), freePort()};
+        int[] httpPorts = {freePort(), freePort()};
+        Path file = Files.createTempFile("shards", ".properties");
+        Files.write(file, String.format("shard.0=localhost:%d:%d%nshard.1=localhost:%d:%d%n", tradePorts[0],
+                httpPorts[0], tradePorts[1], httpPorts[1]).getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < 2; i++) {
+            // arguments, so they override application.properties
+            instances.add(new SpringApplicationBuilder(StockmarketApplication.class).run(
+                    "--shard.enabled=true", "--shard.config.file=" + file, "--shard.self=" + i,
+                    "--gateway.tcp.enabled=true", "--gateway.tcp.port=" + tradePorts[i],
+                    "--server.port=" + httpPorts[i], "--spring.jmx.enabled=false", "--compaction.enabled=false"));
+        }
+
+        // every trade enters through the first instance
+        CalculationService service = instances.get(0).getBean(CalculationService.class);
+        double logPriceSum = 0;
+        for (int i = 0; i < 50; i++) {
+            String symbol = SYMBOLS.get(i % SYMBOLS.size());
+            BigDecimal price = BigDecimal.valueOf(10 + i);
+            service.recordTrade(new Trade(symbol, null, 1, TradeIndicator.BUY, price));
+            logPriceSum += Math.log(price.doubleValue());
+        }
+        ShardCoordinator coordinator = instances.get(0).getBean(ShardCoordinator.class);
+        assertThat(coordinator.awaitForwarded(5, TimeUnit.SECONDS), CoreMatchers.is(true));
+        assertThat(coordinator.getRejected(), CoreMatchers.is(0L));
+
+        // each shard holds exactly the trades of its symbols
+        int recorded = 0;
+        for (int i = 0; i < 2; i++) {
+            ShardConfig config = instances.get(i).getBean(ShardCoordinator.class).getConfig();
+            for (Trade trade : instances.get(i).getBean(TradeRepositoryImpl.class).getTradesForAllStocks()) {
+                assertThat(config.ownerOf(trade.getStockSymbol()), CoreMatchers.is(i));
+                recorded++;
+            }
+        }
+        assertThat(recorded, CoreMatchers.is(50));
+
+        BigDecimal expected = new BigDecimal(Math.exp(logPriceSum / 50)).setScale(2, BigDecimal.ROUND_HALF_UP);
+        assertThat(service.calculateGBCEAllShareIndex(), CoreMatchers.is(expected));
+        assertThat(instances.get(1).getBean(CalculationService.class).calculateGBCEAllShareIndex(),
+                CoreMatchers.is(expected));
+        assertThat(service.getMarketSnapshot().getShareIndex(), CoreMatchers.is(expected));
+        try {
+            service.calculateIndex("COMMON");
+            throw new AssertionError("index of the constituents of one shard only");
+        } catch (GBCEServiceException expectedFailure) {
+            assertThat(expectedFailure.getMessage().contains("shards"), CoreMatchers.is(true));
+        }
+    }
+
+    @Test
+    public void recordTrade_forwarded_waitsForOwnerAndKeepsMissingTimestamp() throws Exception {
+        TradeRepositoryImpl owner = new TradeRepositoryImpl();
+        owner.setup();
+        TcpTradeGateway gateway = new TcpTradeGateway(owner, "localhost", 0, 4096);
+        gateway.start();
+        ShardCoordinator coordinator = forwardingTo(gateway);
+        try {
+            ShardedTradeRepository underTest = new ShardedTradeRepository(new TradeRepositoryImpl(), coordinator);
+            String symbol = symbolOwnedBy(coordinator, 1);
+            underTest.recordTrade(new Trade(symbol, null, 1, TradeIndicator.BUY, BigDecimal.TEN));
+
+            // acked before recordTrade returned, nothing to wait for
+            List<Trade> recorded = owner.getTradesForAllStocks();
+            assertThat(recorded.size(), CoreMatchers.is(1));
+            assertThat(recorded.get(0).getTimeStamp(), CoreMatchers.nullValue());
+        } finally {
+            coordinator.stop();
+            gateway.stop();
+        }
+    }
+
+    @Test
+    public void recordTrades_rejectedByOwner_failure() throws Exception {
+        TradeRepositoryImpl owner = new TradeRepositoryImpl();
+        owner.setup();
+        TcpTradeGateway gateway = new TcpTradeGateway(owner, "localhost", 0, 4096);
+        gateway.start();
+        ShardCoordinator coordinator = forwardingTo(gateway);
+        try {
+            ShardedTradeRepository underTest = new ShardedTradeRepository(new TradeRepositoryImpl(), coordinator);
+            String accepted = symbolOwnedBy(coordinator, 1);
+            String refused = "R" + accepted;
+            while (coordinator.ownerOf(refused) != 1) {
+                refused = "R" + refused;
+            }
+            String refusedSymbol = refused;
+            owner.setAcceptedSymbols(symbol -> !symbol.equals(refusedSymbol));
+            try {
+                underTest.recordTrade(new Trade(refusedSymbol, null, 1, TradeIndicator.BUY, BigDecimal.TEN));
+                throw new AssertionError("trade rejected by its owner reported as recorded");
+            } catch (GBCEServiceException expected) {
+                assertThat(owner.getTradesForAllStocks().size(), CoreMatchers.is(0));
+            }
+            try {
+                underTest.recordTrades(Arrays.asList(
+                        new Trade(accepted, null, 1, TradeIndicator.BUY, BigDecimal.TEN),
+                        new Trade(refusedSymbol, null, 1, TradeIndicator.BUY, BigDecimal.TEN),
+                        new Trade(accepted, null, 2, TradeIndicator.BUY, BigDecimal.TEN)));
+                throw new AssertionError("batch with a trade rejected by its owner reported as recorded");
+            } catch (GBCEServiceException expected) {
+                assertThat(owner.getTradesForAllStocks().size(), CoreMatchers.is(2));
+            }
+        } finally {
+            coordinator.stop();
+            gateway.stop();
+        }
+    }
+
+    @Test
+    public void gatewayTrades_forwarded_ackedOnceOwnerRecorded() throws Exception {
+        TradeRepositoryImpl owner = new TradeRepositoryImpl();
+        owner.setup();
+        TcpTradeGateway ownerGateway = new TcpTradeGateway(owner, "localhost", 0, 4096);
+        ownerGateway.start();
+        ShardCoordinator coordinator = forwardingTo(ownerGateway);
+        TradeRepositoryImpl local = new TradeRepositoryImpl();
+        local.setup();
+        TcpTradeGateway gateway = new TcpTradeGateway(new ShardedTradeRepository(local, coordinator), "localhost",
+                0, 4096);
+        gateway.start();
+        try (BinaryTradeClient client = new BinaryTradeClient("localhost", gateway.getLocalPort(), 4096)) {
+            String forwarded = symbolOwnedBy(coordinator, 1);
+            String refused = "R" + forwarded;
+            while (coordinator.ownerOf(refused) != 1) {
+                refused = "R" + refused;
+            }
+            String refusedSymbol = refused;
+            owner.setAcceptedSymbols(symbol -> !symbol.equals(refusedSymbol));
+
+            client.send(forwarded, 1000L, 1, TradeIndicator.BUY, BigDecimal.TEN);
+            client.send(refusedSymbol, 1000L, 1, TradeIndicator.BUY, BigDecimal.TEN);
+            long last = client.send(symbolOwnedBy(coordinator, 0), 1000L, 1, TradeIndicator.BUY, BigDecimal.TEN);
+            client.flush();
+
+            assertThat(client.awaitRecorded(1, last, 10, TimeUnit.SECONDS), CoreMatchers.is(1));
+            // acked only once the owner recorded it
+            assertThat(owner.getTradesForAllStocks().size(), CoreMatchers.is(1));
+            assertThat(local.getTradesForAllStocks().size(), CoreMatchers.is(1));
+            assertThat(gateway.getRecorded().get(), CoreMatchers.is(2L));
+            assertThat(gateway.getRejected().get(), CoreMatchers.is(1L));
+        } finally {
+            gateway.stop();
+            coordinator.stop();
+            ownerGateway.stop();
+        }
+    }
+
+    @Test(expected = GBCEServiceException.class)
+    public void gatherIndexPartial_shardDown_failure() throws Exception {
+        ShardConfig config = new ShardConfig(Arrays.asList(new ShardAddress(0, "localhost", freePort(), freePort()),
+                new ShardAddress(1, "localhost", freePort(), freePort())), 0);
+        TradeRepositoryImpl local = new TradeRepositoryImpl();
+        local.setup();
+        ShardCoordinator coordinator = new ShardCoordinator(local, config, 500, 4096);
+        try {
+            coordinator.gatherIndexPartial();
+        } finally {
+            coordinator.stop();
+        }
+    }
+
+    /**
+     * coordinator of shard 0 of two, shard 1 being the gateway
+     */
+    private static ShardCoordinator forwardingTo(TcpTradeGateway gateway) throws IOException {
+        ShardConfig config = new ShardConfig(Arrays.asList(new ShardAddress(0, "localhost", freePort(), freePort()),
+                new ShardAddress(1, "localhost", gateway.getLocalPort(), freePort())), 0);
+        TradeRepositoryImpl local = new TradeRepositoryImpl();
+        local.setup();
+        return new ShardCoordinator(local, config, 2000, 4096);
+    }
+
+    private static String symbolOwnedBy(ShardCoordinator coordinator, int shard) {
+        for (int i = 0; ; i++) {
+            String symbol = "SYM" + i;
+            if (coordinator.ownerOf(symbol) == shard) {
+                return symbol;
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
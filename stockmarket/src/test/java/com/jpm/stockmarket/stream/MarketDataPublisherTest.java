@@ -0,0 +1,255 @@
+package com.jpm.stockmarket.stream;
+
+import static com.jpm.stockmarket.model.TradeFixtures.trade;
+import static org.junit.Assert.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hamcrest.CoreMatchers;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jpm.stockmarket.repository.impl.StockRepositoryImpl;
+import com.jpm.stockmarket.repository.impl.TradeRepositoryImpl;
+import com.jpm.stockmarket.service.impl.CalculationServiceImpl;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = MarketDataPublisherTest.class)
+public class MarketDataPublisherTest {
+
+    private TradeRepositoryImpl tradeRepository;
+    private CalculationServiceImpl calculationService;
+    private MarketDataPublisher underTest;
+
+    @Before
+    public void setup() {
+        StockRepositoryImpl stockRepository = new StockRepositoryImpl();
+        stockRepository.initialize();
+        tradeRepository = new TradeRepositoryImpl();
+        tradeRepository.setup();
+        calculationService = new CalculationServiceImpl(stockRepository, tradeRepository);
+        underTest = publisher(10);
+    }
+
+    private MarketDataPublisher publisher(long publishIntervalMillis) {
+        return publisher(publishIntervalMillis, 4, 5000);
+    }
+
+    private MarketDataPublisher publisher(long publishIntervalMillis, int deliveryThreads, long sendTimeoutMillis) {
+        MarketDataPublisher publisher = new MarketDataPublisher(tradeRepository, calculationService,
+                new ObjectMapper(), publishIntervalMillis, deliveryThreads, sendTimeoutMillis);
+        publisher.start();
+        return publisher;
+    }
+
+    @After
+    public void tearDown() {
+        underTest.stop();
+    }
+
+    @Test
+    public void publish_toThousandsOfSubscribers_success() throws Exception {
+        // rounds only run when the test asks for them
+        underTest.stop();
+        underTest = publisher(TimeUnit.HOURS.toMillis(1));
+        int clients = 2000;
+        List<RecordingSink> sinks = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            RecordingSink sink = new RecordingSink("\"lastPrice\":12");
+            sinks.add(sink);
+            underTest.subscribe(new HashSet<>(Arrays.asList("TEA", MarketDataPublisher.INDEX_KEY)), sink);
+        }
+        assertThat(underTest.getSubscriptionCount(), CoreMatchers.is(clients));
+
+        tradeRepository.recordTrade(trade("TEA", 10));
+        tradeRepository.recordTrade(trade("TEA", 12));
+        underTest.publishChanges();
+
+        // every update is serialized once, whatever the number of subscribers
+        assertThat(underTest.getPublished().get(), CoreMatchers.is(2L));
+        BigDecimal shareIndex = calculationService.getMarketSnapshot().getShareIndex();
+        ObjectMapper reader = new ObjectMapper().enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+        for (RecordingSink sink : sinks) {
+            assertThat(sink.arrived.tryAcquire(2, 10, TimeUnit.SECONDS), CoreMatchers.is(true));
+            assertThat(sink.payloads.size(), CoreMatchers.is(2));
+            Map<String, JsonNode> events = new HashMap<>();
+            for (String payload : sink.payloads) {
+                JsonNode event = reader.readTree(payload);
+                events.put(event.get("symbol").asText(), event);
+            }
+            JsonNode tea = events.get("TEA");
+            assertThat(tea.get("lastPrice").decimalValue().compareTo(BigDecimal.valueOf(12)), CoreMatchers.is(0));
+            assertThat(tea.get("volWeightedPrice").decimalValue().compareTo(BigDecimal.valueOf(11)),
+                    CoreMatchers.is(0));
+            assertThat(tea.has("shareIndex"), CoreMatchers.is(false));
+            JsonNode index = events.get(MarketDataPublisher.INDEX_KEY);
+            assertThat(index.get("shareIndex").decimalValue().compareTo(shareIndex), CoreMatchers.is(0));
+            assertThat(index.has("lastPrice"), CoreMatchers.is(false));
+        }
+    }
+
+    @Test
+    public void unsubscribe_lastSubscriberOfKey_keyRemoved() {
+        ConflatingSubscription tea = underTest.subscribe(new HashSet<>(Arrays.asList("TEA", "POP")),
+                new RecordingSink(""));
+        ConflatingSubscription pop = underTest.subscribe(new HashSet<>(Arrays.asList("POP")), new RecordingSink(""));
+        assertThat(underTest.getSubscribedKeyCount(), CoreMatchers.is(2));
+
+        underTest.unsubscribe(tea);
+        assertThat(underTest.getSubscribedKeyCount(), CoreMatchers.is(1));
+        underTest.unsubscribe(pop);
+        assertThat(underTest.getSubscribedKeyCount(), CoreMatchers.is(0));
+        assertThat(underTest.getSubscriptionCount(), CoreMatchers.is(0));
+    }
+
+    @Test
+    public void publish_onlySubscribedSymbols_success() throws Exception {
+        RecordingSink sink = new RecordingSink("\"symbol\":\"POP\"");
+        underTest.subscribe(new HashSet<>(Arrays.asList("POP")), sink);
+
+        tradeRepository.recordTrade(trade("TEA", 10));
+        tradeRepository.recordTrade(trade("POP", 20));
+
+        assertThat(sink.matched.await(10, TimeUnit.SECONDS), CoreMatchers.is(true));
+        assertThat(sink.payloads.stream().anyMatch(p -> p.contains("TEA")), CoreMatchers.is(false));
+    }
+
+    @Test
+    public void publish_slowSubscriber_isConflated() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSink slowSink = new RecordingSink("\"lastPrice\":50") {
+            @Override
+            public void send(String payload) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.send(payload);
+            }
+        };
+        ConflatingSubscription subscription = underTest.subscribe(new HashSet<>(Arrays.asList("ALE")), slowSink);
+
+        for (int price = 1; price <= 50; price++) {
+            tradeRepository.recordTrade(trade("ALE", price));
+            Thread.sleep(2);
+        }
+        Thread.sleep(100);
+        // only the latest update waits behind the blocked delivery
+        assertThat(subscription.getPendingCount(), Matchers.lessThanOrEqualTo(1));
+
+        release.countDown();
+        assertThat(slowSink.matched.await(10, TimeUnit.SECONDS), CoreMatchers.is(true));
+        assertThat(slowSink.payloads.size(), Matchers.lessThan(50));
+    }
+
+    @Test
+    public void publish_stalledSubscriber_droppedWhileOthersDelivered() throws Exception {
+        underTest.stop();
+        // the only delivery thread is held by the stalled client
+        underTest = publisher(10, 1, 200);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSink stalledSink = new RecordingSink("") {
+            @Override
+            public void send(String payload) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.send(payload);
+            }
+        };
+        underTest.subscribe(new HashSet<>(Arrays.asList("ALE")), stalledSink);
+        tradeRepository.recordTrade(trade("ALE", 10));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (underTest.getSubscriptionCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(underTest.getSubscriptionCount(), CoreMatchers.is(0));
+        assertThat(underTest.getStalled().get(), CoreMatchers.is(1L));
+        assertThat(underTest.getDeliveryThreadCount(), CoreMatchers.is(2));
+        // the sink is only closed by the thread blocked in it
+        assertThat(stalledSink.closed.get(), CoreMatchers.is(0));
+
+        RecordingSink sink = new RecordingSink("\"symbol\":\"POP\"");
+        underTest.subscribe(new HashSet<>(Arrays.asList("POP")), sink);
+        tradeRepository.recordTrade(trade("POP", 20));
+        assertThat(sink.matched.await(10, TimeUnit.SECONDS), CoreMatchers.is(true));
+
+        release.countDown();
+        deadline = System.currentTimeMillis() + 10000;
+        while (stalledSink.closed.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(stalledSink.closed.get(), CoreMatchers.is(1));
+        assertThat(underTest.getDeliveryThreadCount(), CoreMatchers.is(1));
+    }
+
+    @Test
+    public void publish_failingSubscriber_isRemoved() throws Exception {
+        underTest.subscribe(new HashSet<>(Arrays.asList("JOE")), new MarketDataSink() {
+            @Override
+            public void send(String payload) throws java.io.IOException {
+                throw new java.io.IOException("client gone");
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        tradeRepository.recordTrade(trade("JOE", 5));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (underTest.getSubscriptionCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(underTest.getSubscriptionCount(), CoreMatchers.is(0));
+    }
+
+    private static class RecordingSink implements MarketDataSink {
+
+        private final String expected;
+        private final CountDownLatch matched = new CountDownLatch(1);
+        private final List<String> payloads = new java.util.concurrent.CopyOnWriteArrayList<>();
+        private final Semaphore arrived = new Semaphore(0);
+        private final AtomicInteger closed = new AtomicInteger();
+
+        private RecordingSink(String expected) {
+            this.expected = expected;
+        }
+
+        @Override
+        public void send(String payload) {
+            payloads.add(payload);
+            arrived.release();
+            if (payload.contains(expected)) {
+                matched.countDown();
+            }
+        }
+
+        @Override
+        public void close() {
+            closed.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.jpm.stockmarket.window;
+
+import static com.jpm.stockmarket.model.TradeFixtures.trade;
+import static org.junit.Assert.assertThat;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.jpm.stockmarket.model.TradeBucket;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = EventTimeWindowTest.class)
+public class EventTimeWindowTest {
+
+    // processing time past every event time of the tests
+    private static final long NOW = 100000;
+
+    // 1 second buckets, 500ms out of order, 2 seconds allowed lateness
+    private EventTimeWindow underTest;
+
+    @Before
+    public void setup() {
+        underTest = new EventTimeWindow(1000, 500, 2000, 16, 100, 1000);
+    }
+
+    @Test
+    public void accept_outOfOrder_assignedByEventTime() {
+        underTest.accept(trade("TEA", 1200, 10), NOW);
+        underTest.accept(trade("TEA", 800, 20), NOW);
+        underTest.accept(trade("TEA", 1900, 30), NOW);
+        underTest.accept(trade("TEA", 100, 40), NOW);
+        // pushes the watermark to 2500, releasing everything buffered before
+        underTest.accept(trade("TEA", 3000, 50), NOW);
+
+        List<TradeBucket> buckets = underTest.getBuckets("TEA", 0, 2000);
+        assertThat(buckets.size(), CoreMatchers.is(2));
+        assertThat(buckets.get(0).getTradeCount(), CoreMatchers.is(2L));
+        assertThat(buckets.get(0).getNotional(), CoreMatchers.is(BigDecimal.valueOf(60)));
+        assertThat(buckets.get(0).getHigh(), CoreMatchers.is(BigDecimal.valueOf(40)));
+        assertThat(buckets.get(0).getLow(), CoreMatchers.is(BigDecimal.valueOf(20)));
+        assertThat(buckets.get(1).getTradeCount(), CoreMatchers.is(2L));
+        assertThat(buckets.get(1).isSealed(), CoreMatchers.is(false));
+        // 100 arrived after the watermark had reached 1400, but its bucket was still open
+        assertThat(underTest.getStatistics().getLate(), CoreMatchers.is(1L));
+        assertThat(underTest.getStatistics().getDropped(), CoreMatchers.is(0L));
+        assertThat(underTest.getBuffered(), CoreMatchers.is(1));
+    }
+
+    @Test
+    public void accept_lateWithinAllowedLateness_counted() {
+        underTest.accept(trade("TEA", 1500, 10), NOW);
+        underTest.accept(trade("TEA", 3000, 10), NOW);
+        // watermark 2500, bucket [1000, 2000) stays open until 4000
+        underTest.accept(trade("TEA", 1100, 30), NOW);
+
+        WindowStatistics statistics = underTest.getStatistics();
+        assertThat(statistics.getLate(), CoreMatchers.is(1L));
+        assertThat(statistics.getDropped(), CoreMatchers.is(0L));
+        assertThat(underTest.getBuckets("TEA", 1000, 2000).get(0).getTradeCount(), CoreMatchers.is(2L));
+    }
+
+    @Test
+    public void accept_afterBucketSealed_dropped() {
+        underTest.accept(trade("TEA", 1500, 10), NOW);
+        // watermark 5500 seals every bucket ending up to 3500
+        underTest.accept(trade("TEA", 6000, 10), NOW);
+        underTest.accept(trade("TEA", 1200, 99), NOW);
+        underTest.accept(trade("TEA", 200, 99), NOW);
+
+        WindowStatistics statistics = underTest.getStatistics();
+        assertThat(statistics.getLate(), CoreMatchers.is(2L));
+        assertThat(statistics.getDropped(), CoreMatchers.is(2L));
+        List<TradeBucket> buckets = underTest.getBuckets("TEA", 0, 2000);
+        assertThat(buckets.size(), CoreMatchers.is(1));
+        assertThat(buckets.get(0).isSealed(), CoreMatchers.is(true));
+        assertThat(buckets.get(0).getTradeCount(), CoreMatchers.is(1L));
+    }
+
+    @Test
+    public void accept_fullReorderBuffer_releasesOldest() {
+        for (int i = 0; i < 20; i++) {
+            // same event time, the watermark never passes them
+            underTest.accept(trade("TEA", 1000, 10), NOW);
+        }
+        int buffered = underTest.getBuffered();
+        assertThat(buffered <= 16, CoreMatchers.is(true));
+        assertThat(underTest.getBuckets("TEA", 1000, 2000).get(0).getTradeCount() + buffered,
+                CoreMatchers.is(20L));
+        assertThat(underTest.getStatistics().getOverflowed(), CoreMatchers.is(20L - buffered));
+        // released early, but the watermark still follows the event time
+        assertThat(underTest.getWatermark(), CoreMatchers.is(500L));
+    }
+
+    @Test
+    public void onProcessingTime_idleFeed_sealsBuckets() {
+        underTest.accept(trade("TEA", 1500, 10), 1500);
+        assertThat(underTest.getBuckets("TEA", 0, 10000).isEmpty(), CoreMatchers.is(true));
+
+        underTest.onProcessingTime(10000);
+        List<TradeBucket> buckets = underTest.getBuckets("TEA", 0, 10000);
+        assertThat(buckets.size(), CoreMatchers.is(1));
+        assertThat(buckets.get(0).isSealed(), CoreMatchers.is(true));
+    }
+
+    @Test
+    public void onProcessingTime_idleReplay_watermarkFollowsReplayTime() {
+        // a replay of trades from long ago, recorded now
+        long now = 1561975200000L;
+        underTest.accept(trade("TEA", 1500, 10), now);
+        underTest.onProcessingTime(now + 1200);
+
+        // carried forward by the 1200ms idle time only, not to the clock
+        assertThat(underTest.getWatermark(), CoreMatchers.is(1500L + 1200 - 500));
+        underTest.accept(trade("TEA", 2500, 10), now + 1300);
+        assertThat(underTest.getStatistics().getDropped(), CoreMatchers.is(0L));
+    }
+
+    @Test
+    public void accept_beyondRetainedBuckets_evictionCounted() {
+        EventTimeWindow window = new EventTimeWindow(1000, 500, 2000, 16, 3, 1000);
+        for (int i = 0; i < 5; i++) {
+            window.accept(trade("TEA", i * 1000 + 100, 10), NOW);
+        }
+        window.onProcessingTime(NOW + 100000);
+
+        assertThat(window.getBuckets("TEA", 0, 10000).size(), CoreMatchers.is(3));
+        assertThat(window.getStatistics().getEvicted(), CoreMatchers.is(2L));
+    }
+
+    @Test
+    public void accept_aheadOfProcessingTime_watermarkNotMoved() {
+        underTest.accept(trade("TEA", 1500, 10), 2000);
+        // a bad timestamp a day ahead
+        underTest.accept(trade("TEA", 86400000 + 1500, 99), 2000);
+        assertThat(underTest.getWatermark(), CoreMatchers.is(1000L));
+
+        underTest.accept(trade("TEA", 1800, 20), 2100);
+        underTest.accept(trade("TEA", 4000, 30), 4000);
+        WindowStatistics statistics = underTest.getStatistics();
+        assertThat(statistics.getAhead(), CoreMatchers.is(1L));
+        assertThat(statistics.getLate(), CoreMatchers.is(0L));
+        assertThat(statistics.getDropped(), CoreMatchers.is(0L));
+        assertThat(underTest.getBuckets("TEA", 1000, 2000).get(0).getTradeCount(), CoreMatchers.is(2L));
+        assertThat(underTest.getBuckets("TEA", 86400000, 86401000 + 1000).get(0).getTradeCount(),
+                CoreMatchers.is(1L));
+    }
+
+    @Test
+    public void setBucketMillis_bucketsReshapedWithoutOverlap() {
+        underTest.accept(trade("TEA", 1200, 10), NOW);
+        underTest.accept(trade("TEA", 1700, 10), NOW);
+        underTest.setBucketMillis(5000);
+        // [1000, 2000) stays open with its length, the next bucket is cut short at its end
+        underTest.accept(trade("TEA", 1900, 10), NOW);
+        underTest.accept(trade("TEA", 2100, 10), NOW);
+        underTest.accept(trade("TEA", 4900, 10), NOW);
+        underTest.accept(trade("TEA", 5200, 10), NOW);
+        // watermark 11500 seals every bucket ending up to 9500
+        underTest.accept(trade("TEA", 12000, 10), NOW);
+
+        List<TradeBucket> buckets = underTest.getBuckets("TEA", 1500, 10000);
+        assertThat(buckets.size(), CoreMatchers.is(3));
+        assertThat(buckets.get(0).getStartMillis(), CoreMatchers.is(1000L));
+        assertThat(buckets.get(0).getEndMillis(), CoreMatchers.is(2000L));
+        assertThat(buckets.get(0).getTradeCount(), CoreMatchers.is(3L));
+        assertThat(buckets.get(1).getStartMillis(), CoreMatchers.is(2000L));
+        assertThat(buckets.get(1).getEndMillis(), CoreMatchers.is(5000L));
+        assertThat(buckets.get(1).getTradeCount(), CoreMatchers.is(2L));
+        assertThat(buckets.get(2).getStartMillis(), CoreMatchers.is(5000L));
+        assertThat(buckets.get(2).getEndMillis(), CoreMatchers.is(10000L));
+        assertThat(buckets.get(0).isSealed(), CoreMatchers.is(true));
+        assertThat(buckets.get(1).isSealed(), CoreMatchers.is(true));
+        assertThat(buckets.get(2).isSealed(), CoreMatchers.is(false));
+        assertThat(underTest.getStatistics().getDropped(), CoreMatchers.is(0L));
+    }
+}